@@ -237,4 +237,36 @@ var brackets = function()
     console.log(startStr);
     console.log(endStr);
 }
-//brackets();
\ No newline at end of file
+//brackets();
+// the ranges of each category past the BMP, for Category.Astral; deltas start from 0x10000 instead of 0
+var astral = function(name, cps)
+{
+    var cps1 = cps.filter(c => c > 65535);
+    var i = 65536;
+    var deltas = [];
+    while (cps1.length) {
+        var j = cps1.shift();
+        deltas.push(j - i);
+        i = j;
+        while (cps1[0] === j + 1)
+            j = cps1.shift();
+        deltas.push(j - i);
+        i = j;
+    }
+    if (!deltas.length) return;
+    var hist = {};
+    for (i of deltas)
+    {
+        hist[i] = (hist[i] || 0) + 1;
+    }
+    var dict = Object.keys(hist).map(Number);
+    dict.sort((a, b) => hist[a] !== hist[b] ? hist[b] - hist[a] : a - b);
+    var dictSrc = JSON.stringify(dict).replace(/\]/, '}').replace(/\[/, '{');
+    var strSrc = deltas.map(d => dict.indexOf(d) + 0x20).map(
+        b => b === 0x22 ? '\\"' : b === 0x5c ? '\\\\' : b < 0x7f ?
+            String.fromCharCode(b) : "\\u" + b.toString(16).padStart(4, "0")
+    ).join("");
+    console.log("if (c == " + name + ") return decode(new int[]" + dictSrc + ",\"" + strSrc + "\");");
+}
+//for (var k = 0; k < categories.length; k++)
+//    astral(abbr[k], require("@unicode/unicode-16.0.0/General_Category/" + categories[k] + "/code-points"));
@@ -0,0 +1,45 @@
+package regexodus;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds a word that only appears at the end of 1M chars of text, with the search term (FIND) the Optimizer puts at
+ * the root of a pattern, and with the root it had before. This is in the regexodus package so it can swap the roots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindRootBenchmark {
+    private char[] text;
+    private Matcher optimized, plain;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder((1 << 20) + 64);
+        while (sb.length() < 1 << 20) {
+            sb.append("lorem ipsum dolor sit amet consectetur adipiscing elit ");
+        }
+        text = sb.append("quux!").toString().toCharArray();
+        optimized = new Pattern("q[uv]+x!").setDfaMemoryLimit(0).matcher();
+        Pattern p = new Pattern("q[uv]+x!").setDfaMemoryLimit(0);
+        p.root = p.root0;
+        plain = p.matcher();
+    }
+
+    @Benchmark
+    public boolean withFind() {
+        optimized.setTarget(text, 0, text.length);
+        return optimized.find();
+    }
+
+    @Benchmark
+    public boolean withoutFind() {
+        plain.setTarget(text, 0, text.length);
+        return plain.find();
+    }
+}
@@ -0,0 +1,46 @@
+package regexodus;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the one ERROR line at the end of 4M chars of log lines, searching for the literal " ERROR: " the way the
+ * Optimizer sets it up, and with the root the pattern had before. This is in the regexodus package so it can swap the
+ * roots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiteralSearchBenchmark {
+    private char[] text;
+    private Matcher literal, plain;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder((4 << 20) + 64);
+        for (int i = 0; sb.length() < 4 << 20; i++) {
+            sb.append(i).append(" INFO: nothing to see here, carry on\n");
+        }
+        text = sb.append("99 ERROR: something broke\n").toString().toCharArray();
+        literal = new Pattern("\\d+ ERROR: .*").matcher();
+        Pattern p = new Pattern("\\d+ ERROR: .*").setDfaMemoryLimit(0);
+        p.root = p.root0;
+        plain = p.matcher();
+    }
+
+    @Benchmark
+    public boolean withLiteral() {
+        literal.setTarget(text, 0, text.length);
+        return literal.find();
+    }
+
+    @Benchmark
+    public boolean withoutLiteral() {
+        plain.setTarget(text, 0, text.length);
+        return plain.find();
+    }
+}
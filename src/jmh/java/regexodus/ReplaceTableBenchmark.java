@@ -0,0 +1,49 @@
+package regexodus;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replaces words in text using a table of 2000 words made by {@link Replacer#makeTable(String...)}, with the
+ * Aho-Corasick table it builds and without it, when it has to search with the alternation of every word. This is in
+ * the regexodus package so it can drop the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplaceTableBenchmark {
+    private String text;
+    private Replacer table, plain;
+
+    @Setup
+    public void setup() {
+        String[] pairs = new String[4000];
+        for (int i = 0; i < pairs.length; i += 2) {
+            pairs[i] = "word" + i;
+            pairs[i + 1] = "W" + i;
+        }
+        table = Replacer.makeTable(pairs);
+        plain = Replacer.makeTable(pairs);
+        plain.getPattern().parse();
+        plain.getPattern().table = null;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i += 3) {
+            sb.append("some word").append(i * 2).append(' ');
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public String withTable() {
+        return table.replace(text);
+    }
+
+    @Benchmark
+    public String withoutTable() {
+        return plain.replace(text);
+    }
+}
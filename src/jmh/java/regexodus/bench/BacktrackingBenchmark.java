@@ -0,0 +1,81 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.REFlags;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Patterns that make a backtracking matcher try many ways to match before it fails, on inputs just long enough to show
+ * it without running for minutes. RegExodus is run three ways: as it is by default (which can use a DFA when the
+ * pattern allows), with only the backtracking matcher, and with {@link REFlags#LINEAR}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BacktrackingBenchmark {
+    @Param({"nested", "alternation", "words", "optional"})
+    public String kind;
+
+    private String text;
+    private regexodus.Matcher ours, backtracking, linear;
+    private java.util.regex.Matcher jdk;
+
+    @Setup
+    public void setup() {
+        String regex;
+        StringBuilder sb = new StringBuilder();
+        if ("nested".equals(kind)) {
+            regex = "(a+)+b";
+            for (int i = 0; i < 22; i++) sb.append('a');
+        } else if ("alternation".equals(kind)) {
+            regex = "(a|aa)*c";
+            for (int i = 0; i < 28; i++) sb.append('a');
+        } else if ("words".equals(kind)) {
+            regex = "^(\\w+\\s?)*$";
+            for (int i = 0; i < 6; i++) sb.append("word ");
+            sb.append('!');
+        } else {
+            //a?^n a^n on a^n, the classic example from Russ Cox
+            int n = 22;
+            for (int i = 0; i < n; i++) sb.append("a?");
+            for (int i = 0; i < n; i++) sb.append('a');
+            regex = sb.toString();
+            sb.setLength(0);
+            for (int i = 0; i < n; i++) sb.append('a');
+        }
+        text = sb.toString();
+        ours = new regexodus.Pattern(regex).matcher();
+        backtracking = new regexodus.Pattern(regex).setDfaMemoryLimit(0).matcher();
+        linear = new regexodus.Pattern(regex, REFlags.UNICODE | REFlags.LINEAR).matcher();
+        jdk = java.util.regex.Pattern.compile(regex).matcher("");
+    }
+
+    private static boolean find(regexodus.Matcher m, String text) {
+        m.setTarget(text);
+        return m.find();
+    }
+
+    @Benchmark
+    public boolean regexodus() {
+        return find(ours, text);
+    }
+
+    @Benchmark
+    public boolean regexodusBacktracking() {
+        return find(backtracking, text);
+    }
+
+    @Benchmark
+    public boolean regexodusLinear() {
+        return find(linear, text);
+    }
+
+    @Benchmark
+    public boolean java() {
+        return jdk.reset(text).find();
+    }
+}
@@ -0,0 +1,50 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Pattern;
+import regexodus.PatternCache;
+import regexodus.REFlags;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks a path against 300 routing rules, as a web server might for each request, getting each rule's Pattern from a
+ * {@link PatternCache} or compiling it again every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    private String[] rules;
+    private PatternCache cache;
+
+    @Setup
+    public void setup() {
+        rules = new String[300];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = "^/api/v" + (i % 3) + "/(\\w+)/item" + i + "(?:/(\\d+))?$";
+        }
+        cache = new PatternCache(rules.length);
+    }
+
+    @Benchmark
+    public int cached() {
+        int count = 0;
+        for (String rule : rules) {
+            if (cache.get(rule, REFlags.DEFAULT).matches("/api/v1/users/item7/12")) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int compiled() {
+        int count = 0;
+        for (String rule : rules) {
+            if (new Pattern(rule).matches("/api/v1/users/item7/12")) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,69 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Category;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds the case of every char in 64K chars of sample text, and finds every match of a caseless pattern in it. The
+ * sample's letters are either left in Latin or moved into the Cyrillic or Greek blocks, with spaces, digits and
+ * punctuation still in ASCII between them. {@link #flat()} folds through the full char[65536] that caseless matching
+ * uses, and {@link #staged()} through the staged tables of {@link Category#caseDownCompact(char)}, which take under
+ * 12KB per direction instead of 128KB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaseBenchmark {
+    @Param({"latin", "cyrillic", "greek"})
+    public String script;
+
+    private char[] text;
+    private regexodus.Matcher matcher;
+
+    @Setup
+    public void setup() {
+        char base = "cyrillic".equals(script) ? '\u0430' : "greek".equals(script) ? '\u03b1' : 'a';
+        text = Texts.sample(Texts.length("long")).toCharArray();
+        for (int i = 0; i < text.length; i++) {
+            char c = text[i];
+            if (c >= 'a' && c <= 'z') text[i] = (char) (base + c - 'a');
+            else if (c >= 'A' && c <= 'Z') text[i] = Category.caseUp((char) (base + c - 'A'));
+        }
+        //"north" and "south", moved to the same script and upper-cased
+        StringBuilder regex = new StringBuilder();
+        for (String word : new String[]{"north", "south"}) {
+            if (regex.length() > 0) regex.append('|');
+            for (int i = 0; i < word.length(); i++) {
+                regex.append(Category.caseUp((char) (base + word.charAt(i) - 'a')));
+            }
+        }
+        matcher = new regexodus.Pattern(regex.toString(), "i").matcher();
+    }
+
+    @Benchmark
+    public int staged() {
+        int sum = 0;
+        for (char c : text) sum += Category.caseDownCompact(c);
+        return sum;
+    }
+
+    @Benchmark
+    public int flat() {
+        int sum = 0;
+        for (char c : text) sum += Category.caseFold(c);
+        return sum;
+    }
+
+    @Benchmark
+    public int find() {
+        matcher.setTarget(text, 0, text.length);
+        int count = 0;
+        while (matcher.find()) count++;
+        return count;
+    }
+}
@@ -0,0 +1,50 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Category;
+import regexodus.ds.CharBitSet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the chars of a sample text that belong to a few Categories, the way a tokenizer would check each char in turn,
+ * comparing {@link Category#contains(char)} with a decompressed {@link CharBitSet} of the same chars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CategoryBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({"Word", "Space", "L", "C"})
+    public String category;
+
+    private char[] text;
+    private Category cat;
+    private CharBitSet bits;
+
+    @Setup
+    public void setup() {
+        text = Texts.sample(Texts.length(size)).toCharArray();
+        cat = category.equals("Word") ? Category.Word : Category.categories.get(category);
+        bits = cat.decompress();
+    }
+
+    @Benchmark
+    public int category() {
+        int count = 0;
+        for (char c : text) if (cat.contains(c)) count++;
+        return count;
+    }
+
+    @Benchmark
+    public int decompressed() {
+        int count = 0;
+        for (char c : text) if (bits.contains(c)) count++;
+        return count;
+    }
+}
@@ -0,0 +1,75 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Matcher;
+import regexodus.Pattern;
+import regexodus.REFlags;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds every symbol, and every run of non-space chars, in 64K chars of sample text, with and without
+ * {@link REFlags#CODEPOINTS}. The "bmp" text is the plain sample; the "emoji" text has every word that starts with a
+ * vowel replaced by an emoji, which is a surrogate pair. On the plain text, both patterns should take the same time,
+ * since a Matcher only uses the twin that reads surrogate pairs when its target has a surrogate in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodePointBenchmark {
+    @Param({"bmp", "emoji"})
+    public String text;
+
+    private char[] chars;
+    private Matcher symbols, symbolPoints, runs, runPoints;
+
+    @Setup
+    public void setup() {
+        String sample = Texts.sample(Texts.length("long"));
+        if ("emoji".equals(text)) {
+            StringBuilder sb = new StringBuilder(sample.length());
+            for (String word : sample.split(" ", -1)) {
+                if (sb.length() > 0) sb.append(' ');
+                if (!word.isEmpty() && "aeiou".indexOf(word.charAt(0)) >= 0)
+                    sb.appendCodePoint(0x1F600 + word.length());
+                else sb.append(word);
+            }
+            sample = sb.toString();
+        }
+        chars = sample.toCharArray();
+        symbols = new Pattern("\\p{So}").matcher();
+        symbolPoints = new Pattern("\\p{So}", REFlags.CODEPOINTS).matcher();
+        runs = new Pattern("[^ ]+").matcher();
+        runPoints = new Pattern("[^ ]+", REFlags.CODEPOINTS).matcher();
+    }
+
+    private int count(Matcher m) {
+        m.setTarget(chars, 0, chars.length);
+        int count = 0;
+        while (m.find()) count++;
+        return count;
+    }
+
+    @Benchmark
+    public int symbols() {
+        return count(symbols);
+    }
+
+    @Benchmark
+    public int symbolsCodePoints() {
+        return count(symbolPoints);
+    }
+
+    @Benchmark
+    public int runs() {
+        return count(runs);
+    }
+
+    @Benchmark
+    public int runsCodePoints() {
+        return count(runPoints);
+    }
+}
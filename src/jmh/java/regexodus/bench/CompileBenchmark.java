@@ -0,0 +1,35 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long it takes to compile a Pattern, from a short literal up to a pattern with many groups and classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+    @Param({
+            "regular",
+            "[A-Z][a-z]+ \\d+",
+            "(\\w+)@(\\w+)\\.(com|org|net)",
+            "\\b(?:north|south|east|west)\\b",
+            "^(?:(\\d{4})-(\\d{2})-(\\d{2})|(\\w+)=(\\d+);)\\s*(?:\\p{Lu}\\p{Ll}*|[^\\s,]+)*?$"
+    })
+    public String regex;
+
+    @Benchmark
+    public regexodus.Pattern regexodus() {
+        return new regexodus.Pattern(regex);
+    }
+
+    @Benchmark
+    public java.util.regex.Pattern java() {
+        return java.util.regex.Pattern.compile(regex);
+    }
+}
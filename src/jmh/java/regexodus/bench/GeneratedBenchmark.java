@@ -0,0 +1,76 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.BytecodeCompiler;
+import regexodus.Pattern;
+import regexodus.bench.generated.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds every match of the patterns in src/jmh/regex/matchers.txt, once with the Pattern compiled at runtime as usual,
+ * once with the code {@link regexodus.CodeGenerator} wrote for it when the benchmarks were built, once with the
+ * bytecode {@link BytecodeCompiler} makes for it at runtime, and once searching with the flat Program
+ * that {@link Pattern#setUseProgram(boolean)} turns on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratedBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({"Regular", "Capitalized", "Email", "Directions", "KeyValue", "Date"})
+    public String name;
+
+    private String text;
+    private regexodus.Matcher interpreted, generated, bytecode, program;
+
+    @Setup
+    public void setup() {
+        Pattern pattern;
+        if ("Regular".equals(name)) pattern = Regular.PATTERN;
+        else if ("Capitalized".equals(name)) pattern = Capitalized.PATTERN;
+        else if ("Email".equals(name)) pattern = Email.PATTERN;
+        else if ("Directions".equals(name)) pattern = Directions.PATTERN;
+        else if ("KeyValue".equals(name)) pattern = KeyValue.PATTERN;
+        else pattern = Date.PATTERN;
+        text = Texts.sample(Texts.length(size));
+        interpreted = new Pattern(pattern.toString(), pattern.getFlags()).matcher();
+        generated = pattern.matcher();
+        Pattern compiled = new Pattern(pattern.toString(), pattern.getFlags());
+        BytecodeCompiler.compile(compiled);
+        bytecode = compiled.matcher();
+        program = new Pattern(pattern.toString(), pattern.getFlags()).setUseProgram(true).matcher();
+    }
+
+    @Benchmark
+    public int interpreted() {
+        return count(interpreted);
+    }
+
+    @Benchmark
+    public int generated() {
+        return count(generated);
+    }
+
+    @Benchmark
+    public int bytecode() {
+        return count(bytecode);
+    }
+
+    @Benchmark
+    public int program() {
+        return count(program);
+    }
+
+    private int count(regexodus.Matcher m) {
+        m.setTarget(text);
+        int count = 0;
+        while (m.find()) count++;
+        return count;
+    }
+}
@@ -0,0 +1,56 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds every match of a few patterns that always run on the backtracking matcher (they use lookaround or
+ * backreferences), once with no limits and once with a step limit and time limit set that are never reached, to show
+ * what counting steps and checking the clock costs when a search goes well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimitBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({
+            "(\\w+)=(\\d+);(?=\\s|$)",
+            "\\b(\\w)\\w*\\1\\b",
+            "(?<=\\s)[A-Z][a-z]+ \\d+",
+            "(\\w+)@(\\w+)\\.(com|org|net)(?!x)"
+    })
+    public String regex;
+
+    private String text;
+    private regexodus.Matcher unlimited, limited;
+
+    @Setup
+    public void setup() {
+        text = Texts.sample(Texts.length(size));
+        unlimited = new regexodus.Pattern(regex).matcher();
+        limited = new regexodus.Pattern(regex).setStepLimit(Integer.MAX_VALUE).setTimeLimit(60000).matcher();
+    }
+
+    @Benchmark
+    public int unlimited() {
+        return count(unlimited);
+    }
+
+    @Benchmark
+    public int limited() {
+        return count(limited);
+    }
+
+    private int count(regexodus.Matcher m) {
+        m.setTarget(text);
+        int count = 0;
+        while (m.find()) count++;
+        return count;
+    }
+}
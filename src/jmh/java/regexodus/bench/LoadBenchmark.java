@@ -0,0 +1,49 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Pattern;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets 500 routing rules ready to use, either by compiling each regex or by loading the bytes each Pattern was saved
+ * as with {@link Pattern#serializeToBytes()}, as an application that saves its Patterns at build time would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+    private String[] rules;
+    private byte[][] saved;
+
+    @Setup
+    public void setup() {
+        rules = new String[500];
+        saved = new byte[rules.length][];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = "^/api/v" + (i % 3) + "/(\\w+)/item" + i + "(?:/(\\d+))?(?:\\?([\\w=&]+))?$";
+            saved[i] = Pattern.compile(rules[i]).serializeToBytes();
+        }
+    }
+
+    @Benchmark
+    public int compile() {
+        int groups = 0;
+        for (String rule : rules) {
+            groups += new Pattern(rule).groupCount();
+        }
+        return groups;
+    }
+
+    @Benchmark
+    public int load() {
+        int groups = 0;
+        for (byte[] data : saved) {
+            groups += Pattern.deserializeFromBytes(data).groupCount();
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,65 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks whether each of a batch of lines matches a pattern as a whole, as validation code does. The lines are either
+ * short (up to a few dozen chars) or long (about 2000 chars); both batches hold 8000 chars in all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchesBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({
+            "\\d{4}-\\d{2}-\\d{2}",
+            "[\\w.]+@\\w+\\.(?:com|org)",
+            "[\\w ,;=@.-]+",
+            ".*\\bengine\\b.*"
+    })
+    public String regex;
+
+    private String[] lines;
+    private regexodus.Matcher ours;
+    private java.util.regex.Matcher jdk;
+
+    @Setup
+    public void setup() {
+        int lineLength = "short".equals(size) ? 20 : 2000, count = 8000 / lineLength;
+        String text = Texts.sample(lineLength * count + count);
+        lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = text.substring(i * lineLength, (i + 1) * lineLength).trim();
+        }
+        ours = new regexodus.Pattern(regex).matcher();
+        jdk = java.util.regex.Pattern.compile(regex).matcher("");
+    }
+
+    @Benchmark
+    public int regexodus() {
+        regexodus.Matcher m = ours;
+        int count = 0;
+        for (String line : lines) {
+            m.setTarget(line);
+            if (m.matches()) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int java() {
+        java.util.regex.Matcher m = jdk;
+        int count = 0;
+        for (String line : lines) {
+            if (m.reset(line).matches()) count++;
+        }
+        return count;
+    }
+}
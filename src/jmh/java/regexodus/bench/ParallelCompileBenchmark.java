@@ -0,0 +1,47 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many Patterns can be compiled per second with one thread per core all compiling at once, as a server does when
+ * it starts up. Compare the score with {@link CompileBenchmark}, which uses one thread, to see how well compiling
+ * scales; running this with "-t 1" gives the single-threaded score of the same mix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ParallelCompileBenchmark {
+    private static final String[] REGEXES = {
+            "(\\w+)@(\\w+)\\.(com|org|net)",
+            "\\p{InGreek}+\\s\\p{Lu}\\p{Ll}*",
+            "\\b(?:north|south|east|west)\\b",
+            "(?<=\\d)(\\d{3})+(?!\\d)",
+            "^(?:(\\d{4})-(\\d{2})-(\\d{2})|(\\w+)=(\\d+);)\\s*$"
+    };
+
+    @State(Scope.Thread)
+    public static class Counter {
+        private int index;
+
+        String next() {
+            if (++index == REGEXES.length) index = 0;
+            return REGEXES[index];
+        }
+    }
+
+    @Benchmark
+    public regexodus.Pattern regexodus(Counter counter) {
+        return new regexodus.Pattern(counter.next());
+    }
+
+    @Benchmark
+    public java.util.regex.Pattern java(Counter counter) {
+        return java.util.regex.Pattern.compile(counter.next());
+    }
+}
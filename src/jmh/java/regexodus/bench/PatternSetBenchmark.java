@@ -0,0 +1,51 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Pattern;
+import regexodus.PatternSet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds which of 60 caseless patterns occur in 64K chars of text, with one {@link PatternSet} search or by searching
+ * with each Pattern in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternSetBenchmark {
+    private String text;
+    private Pattern[] words;
+    private PatternSet set;
+
+    @Setup
+    public void setup() {
+        words = new Pattern[60];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Pattern.compile("(?i)\\d{2}w" + Integer.toString(i * 7919, 36) + "[aeiou]+");
+        }
+        set = new PatternSet(words);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 1 << 16; i++) {
+            sb.append(i).append("W").append(Integer.toString(i * 131, 36)).append("OU ");
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public int patternSet() {
+        return set.findAll(text).length;
+    }
+
+    @Benchmark
+    public int eachPattern() {
+        int count = 0;
+        for (Pattern p : words) {
+            if (p.matcher(text).find()) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,46 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Pattern;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls {@link Pattern#matches(String)} on a few short inputs, as validation code does, with a pooled Pattern that
+ * reuses its Matchers and with one that makes a new Matcher for every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+    private final String[] inputs = {"ann@host.com", "not an address", "x@y.com", "a@b.org"};
+    private Pattern pooled, unpooled;
+
+    @Setup
+    public void setup() {
+        pooled = Pattern.compile("([a-z]+)@([a-z]+)\\.com");
+        pooled.setPooled(true);
+        unpooled = Pattern.compile("([a-z]+)@([a-z]+)\\.com");
+    }
+
+    private int count(Pattern p) {
+        int count = 0;
+        for (String input : inputs) {
+            if (p.matches(input)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int pooled() {
+        return count(pooled);
+    }
+
+    @Benchmark
+    public int unpooled() {
+        return count(unpooled);
+    }
+}
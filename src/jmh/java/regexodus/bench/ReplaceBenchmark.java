@@ -0,0 +1,56 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replaces every match of a pattern, with a replacement that refers to groups or with plain text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplaceBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({"groups", "literal", "dates"})
+    public String kind;
+
+    private String text;
+    private regexodus.Replacer ours;
+    private java.util.regex.Matcher jdk;
+    private String jdkReplacement;
+
+    @Setup
+    public void setup() {
+        text = Texts.sample(Texts.length(size));
+        String regex, replacement;
+        if ("groups".equals(kind)) {
+            regex = "(\\w+)@(\\w+)\\.(com|org)";
+            replacement = "$1 at $2 dot $3";
+        } else if ("literal".equals(kind)) {
+            regex = "the";
+            replacement = "THE";
+        } else {
+            regex = "(\\d{4})-(\\d\\d)-(\\d\\d)";
+            replacement = "$3/$2/$1";
+        }
+        ours = new regexodus.Pattern(regex).replacer(replacement);
+        jdk = java.util.regex.Pattern.compile(regex).matcher("");
+        jdkReplacement = replacement;
+    }
+
+    @Benchmark
+    public String regexodus() {
+        return ours.replace(text);
+    }
+
+    @Benchmark
+    public String java() {
+        return jdk.reset(text).replaceAll(jdkReplacement);
+    }
+}
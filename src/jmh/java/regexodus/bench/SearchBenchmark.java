@@ -0,0 +1,57 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds every match of a few kinds of pattern in one line of text or in 64K chars of it, counting them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({
+            "regular",
+            "[A-Z][a-z]+ \\d+",
+            "(\\w+)@(\\w+)\\.(com|org|net)",
+            "\\b(?:north|south|east|west)\\b",
+            "(\\w+)=(\\d+);(?=\\s|$)",
+            "(\\w+)\\s*=\\s*(\\w+|\"[^\"]*\");?(?=\\s|$)"
+    })
+    public String regex;
+
+    private String text;
+    private regexodus.Matcher ours;
+    private java.util.regex.Matcher jdk;
+
+    @Setup
+    public void setup() {
+        text = Texts.sample(Texts.length(size));
+        ours = new regexodus.Pattern(regex).matcher();
+        jdk = java.util.regex.Pattern.compile(regex).matcher("");
+    }
+
+    @Benchmark
+    public int regexodus() {
+        regexodus.Matcher m = ours;
+        m.setTarget(text);
+        int count = 0;
+        while (m.find()) count++;
+        return count;
+    }
+
+    @Benchmark
+    public int java() {
+        java.util.regex.Matcher m = jdk.reset(text);
+        int count = 0;
+        while (m.find()) count++;
+        return count;
+    }
+}
@@ -0,0 +1,54 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits text around a separator pattern, with {@link regexodus.Pattern#split(CharSequence)}, with a
+ * {@link regexodus.RETokenizer}, and with java.util.regex's split.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitBenchmark {
+    @Param({"short", "long"})
+    public String size;
+
+    @Param({"\\s+", "\\s*[,;]\\s*", "\\n"})
+    public String regex;
+
+    private String text;
+    private regexodus.Pattern ours;
+    private java.util.regex.Pattern jdk;
+
+    @Setup
+    public void setup() {
+        text = Texts.sample(Texts.length(size));
+        ours = new regexodus.Pattern(regex);
+        jdk = java.util.regex.Pattern.compile(regex);
+    }
+
+    @Benchmark
+    public String[] regexodusSplit() {
+        return ours.split(text);
+    }
+
+    @Benchmark
+    public int regexodusTokenizer() {
+        regexodus.RETokenizer tok = ours.tokenizer(text);
+        int count = 0;
+        while (tok.hasNext()) {
+            count += tok.next().length();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public String[] java() {
+        return jdk.split(text);
+    }
+}
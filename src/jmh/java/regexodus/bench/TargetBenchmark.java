@@ -0,0 +1,56 @@
+package regexodus.bench;
+
+import org.openjdk.jmh.annotations.*;
+import regexodus.Matcher;
+import regexodus.Pattern;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches 1000 short inputs with one Matcher, setting each as its target either as a String or as a char array, where
+ * setting the target is a large part of the work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetBenchmark {
+    private String[] words;
+    private char[][] arrays;
+    private Matcher matcher;
+
+    @Setup
+    public void setup() {
+        words = new String[1000];
+        arrays = new char[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "word" + i + " bad";
+            arrays[i] = words[i].toCharArray();
+        }
+        matcher = new Pattern("b(\\w+)d").matcher();
+    }
+
+    @Benchmark
+    public int strings() {
+        Matcher m = matcher;
+        int count = 0;
+        for (String w : words) {
+            m.setTarget(w);
+            if (m.find()) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int charArrays() {
+        Matcher m = matcher;
+        int count = 0;
+        for (char[] w : arrays) {
+            m.setTarget(w, 0, w.length);
+            if (m.find()) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package regexodus.bench;
+
+/**
+ * Makes the inputs the benchmarks search, so every run (and every engine) sees the same text. The text is made of
+ * lines of lowercase words with a few capitalized ones, numbers, dates, e-mail addresses and key=value pairs mixed in,
+ * chosen by a fixed-seed generator.
+ */
+final class Texts {
+    private static final String[] WORDS = {
+            "the", "regular", "expression", "north", "south", "east", "west", "matches", "text", "of", "a", "pattern",
+            "engine", "search", "and", "with", "every", "line", "word", "number", "group", "or", "to", "is", "in"
+    };
+
+    private Texts() {
+    }
+
+    /**
+     * Makes a sample text of exactly the given length; lines are about 80 chars long.
+     * @param length how many chars the text should have
+     * @return the sample text
+     */
+    static String sample(int length) {
+        StringBuilder sb = new StringBuilder(length + 100);
+        long state = 0x9E3779B97F4A7C15L;
+        int lineStart = 0;
+        while (sb.length() < length) {
+            state = state * 0xD1342543DE82EF95L + 0xA0761D6478BD642FL;
+            int r = (int) (state >>> 33);
+            String word = WORDS[(r & 0x7FFF) % WORDS.length];
+            switch ((r >>> 16) & 15) {
+                case 0:
+                    sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                    break;
+                case 1:
+                    sb.append((r >>> 4) & 0xFFF);
+                    break;
+                case 2:
+                    sb.append(2000 + (r & 31)).append('-').append(10 + (r >>> 5) % 3).append('-')
+                            .append(10 + (r >>> 7) % 19);
+                    break;
+                case 3:
+                    sb.append(word).append('@').append(WORDS[(r >>> 8) % WORDS.length])
+                            .append((r & 1) == 0 ? ".com" : ".org");
+                    break;
+                case 4:
+                    sb.append(word).append('=').append((r >>> 3) & 0xFF).append(';');
+                    break;
+                default:
+                    sb.append(word);
+            }
+            if (sb.length() - lineStart > 80) {
+                sb.append('\n');
+                lineStart = sb.length();
+            } else sb.append((r & 0x70) == 0 ? ", " : " ");
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * @param size either "short", for one line of text, or "long", for 64K chars
+     * @return how many chars of sample text a benchmark with that size uses
+     */
+    static int length(String size) {
+        return "short".equals(size) ? 80 : 1 << 16;
+    }
+}
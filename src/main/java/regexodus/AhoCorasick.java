@@ -0,0 +1,170 @@
+package regexodus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An Aho-Corasick automaton over a list of literal Strings (keys), which finds the leftmost occurrence of any key in a
+ * single pass over the input. When more than one key starts at that leftmost position, the key that comes first in
+ * the list wins, which is the same thing an alternation like {@code (?>\Qfirst\E|\Qsecond\E|...)} would match.
+ * <br>
+ * The trie is stored flattened, with the edges out of each state sorted by char so they can be binary-searched; edges
+ * out of the root for chars below 256 are also kept in a direct lookup table. Each state also knows the longest key
+ * that ends there (following failure links), which is all the leftmost-first search needs.
+ */
+class AhoCorasick {
+    private static final int NONE = -1;
+
+    private final int keyCount;
+    //per state: where its edges start in edgeChars/edgeTargets, its failure link, its depth, and the longest key
+    //ending at this state (its length, and its index in the key list)
+    private final int[] edgeStart, fail, depth, outLength, outKey;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] rootLow = new int[256];
+    //the index of the empty key, if there is one, or NONE
+    private final int emptyKey;
+
+    AhoCorasick(Iterable<String> keys) {
+        //build the trie with a map from (state, char) to state, then flatten it
+        HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+        ArrayList<int[]> keyEnds = new ArrayList<int[]>();
+        int states = 1, count = 0, empty = NONE;
+        for (String key : keys) {
+            int s = 0;
+            for (int i = 0; i < key.length(); i++) {
+                long e = (long) s << 16 | key.charAt(i);
+                Integer t = edges.get(e);
+                if (t == null) {
+                    t = states++;
+                    edges.put(e, t);
+                }
+                s = t;
+            }
+            if (s == 0) {
+                if (empty == NONE) empty = count;
+            } else keyEnds.add(new int[]{s, count, key.length()});
+            count++;
+        }
+        keyCount = count;
+        emptyKey = empty;
+        long[] sorted = new long[edges.size()];
+        int n = 0;
+        for (Long e : edges.keySet()) {
+            sorted[n++] = e;
+        }
+        Arrays.sort(sorted);
+        edgeStart = new int[states + 1];
+        edgeChars = new char[sorted.length];
+        edgeTargets = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            long e = sorted[i];
+            edgeChars[i] = (char) e;
+            edgeTargets[i] = edges.get(e);
+            edgeStart[(int) (e >>> 16) + 1]++;
+        }
+        for (int i = 0; i < states; i++) {
+            edgeStart[i + 1] += edgeStart[i];
+        }
+        for (int i = edgeStart[0]; i < edgeStart[1]; i++) {
+            if (edgeChars[i] < 256) rootLow[edgeChars[i]] = edgeTargets[i];
+        }
+
+        outLength = new int[states];
+        outKey = new int[states];
+        Arrays.fill(outKey, NONE);
+        for (int[] ke : keyEnds) {
+            //a key that is repeated keeps its first position
+            if (outKey[ke[0]] == NONE) {
+                outKey[ke[0]] = ke[1];
+                outLength[ke[0]] = ke[2];
+            }
+        }
+        fail = new int[states];
+        depth = new int[states];
+        //breadth-first, so a state's failure link is finished before the state itself
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int s = queue[head++];
+            for (int i = edgeStart[s]; i < edgeStart[s + 1]; i++) {
+                int t = edgeTargets[i];
+                depth[t] = depth[s] + 1;
+                if (s != 0) {
+                    int f = fail[s];
+                    int g;
+                    while ((g = child(f, edgeChars[i])) == NONE && f != 0) {
+                        f = fail[f];
+                    }
+                    fail[t] = g == NONE ? 0 : g;
+                }
+                if (outKey[t] == NONE) {
+                    outKey[t] = outKey[fail[t]];
+                    outLength[t] = outLength[fail[t]];
+                }
+                queue[tail++] = t;
+            }
+        }
+    }
+
+    /**
+     * @return how many keys this was built with, including any repeated ones
+     */
+    int size() {
+        return keyCount;
+    }
+
+    private int child(int s, char c) {
+        if (s == 0 && c < 256) {
+            int t = rootLow[c];
+            return t == 0 ? NONE : t;
+        }
+        int lo = edgeStart[s], hi = edgeStart[s + 1] - 1;
+        while (lo <= hi) {
+            int mid = lo + hi >>> 1;
+            char m = edgeChars[mid];
+            if (m < c) lo = mid + 1;
+            else if (m > c) hi = mid - 1;
+            else return edgeTargets[mid];
+        }
+        return NONE;
+    }
+
+    /**
+     * Finds the leftmost occurrence of any key in data between from and end; ties go to the key that came first.
+     * @param data the chars to search
+     * @param from the first index to search
+     * @param end the index after the last one to search
+     * @param bounds if a key is found, its start and end in data are placed here at indices 0 and 1
+     * @return the index of the key found, or -1 if none was found
+     */
+    int find(char[] data, int from, int end, int[] bounds) {
+        int bestKey = emptyKey, bestStart = from, bestEnd = from;
+        int s = 0;
+        for (int i = from; i < end; i++) {
+            //no key that's still being read started early enough to beat the best one
+            if (bestKey != NONE && i - depth[s] > bestStart) break;
+            char c = data[i];
+            int t;
+            while ((t = child(s, c)) == NONE && s != 0) {
+                s = fail[s];
+            }
+            s = t == NONE ? 0 : t;
+            int k = outKey[s];
+            if (k != NONE) {
+                int start = i + 1 - outLength[s];
+                if (bestKey == NONE || start < bestStart || (start == bestStart && k < bestKey)) {
+                    bestKey = k;
+                    bestStart = start;
+                    bestEnd = i + 1;
+                }
+            }
+        }
+        if (bestKey == NONE) return NONE;
+        bounds[0] = bestStart;
+        bounds[1] = bestEnd;
+        return bestKey;
+    }
+}
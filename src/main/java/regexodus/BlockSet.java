@@ -55,6 +55,10 @@ class BlockSet implements UnicodeConstants {
 
     private Block[] blocks;  //2-byte bit set
 
+    //code points past the BMP, as the first and last code point of each range, sorted and never touching; these are
+    //raw like the bits are, so a negative BlockSet leaves them out, and they only matter to REFlags.CODEPOINTS
+    private int[] astral = NO_CODE_POINTS;
+    static final int[] NO_CODE_POINTS = new int[0];
 
 
     private int weight;
@@ -65,6 +69,7 @@ class BlockSet implements UnicodeConstants {
         blocks = null;
         isLarge = false;
         weight = 0;
+        astral = NO_CODE_POINTS;
     }
 
     static void unify(BlockSet bs, Term term) {
@@ -76,6 +81,7 @@ class BlockSet implements UnicodeConstants {
             term.bitset = bs.block0 == null ? emptyBlock0 : bs.block0;
         }
         term.inverse = !bs.positive;
+        term.astral = bs.astral;
         term.weight = bs.positive ? bs.weight : MAX_WEIGHT - bs.weight;
     }
 
@@ -108,7 +114,8 @@ class BlockSet implements UnicodeConstants {
     final void setWordChar(boolean unicode) {
         if (unicode) {
             if (!isLarge) enableLargeMode();
-            weight += Block.add(this.blocks, Category.Word.blocks, 0, BLOCK_COUNT - 1, false);
+            weight += Block.add(this.blocks, Category.Word.blocks(), 0, BLOCK_COUNT - 1, false);
+            astral = union(astral, Category.Word.astral());
             /*
             setCategory("Lu");
             setCategory("Ll");
@@ -165,8 +172,9 @@ class BlockSet implements UnicodeConstants {
 
     final void setCategory(String c) {
         if (!isLarge) enableLargeMode();
-        Block[] catBits = Category.categories.get(c).blocks;
-        weight += Block.add(this.blocks, catBits, 0, BLOCK_COUNT - 1, false);
+        Category category = Category.categories.get(c);
+        weight += Block.add(this.blocks, category.blocks(), 0, BLOCK_COUNT - 1, false);
+        astral = union(astral, category.astral());
 //System.out.println("["+this+"].setCategory("+c+"): weight="+weight);
     }
 
@@ -211,8 +219,15 @@ class BlockSet implements UnicodeConstants {
         add(bs, false);
     }
 
+    //sets code points past the BMP, from first to last inclusive
+    final void setCodePoints(int first, int last) {
+        astral = union(astral, new int[]{first, last});
+    }
+
     final void add(BlockSet bs, boolean inverse) {
-        weight += addImpl(this, bs, !bs.positive ^ inverse);
+        boolean inv = !bs.positive ^ inverse;
+        weight += addImpl(this, bs, inv);
+        astral = union(astral, inv ? complement(bs.astral) : bs.astral);
     }
 
     private static int addImpl(BlockSet bs1, BlockSet bs2, boolean inv) {
@@ -237,7 +252,9 @@ class BlockSet implements UnicodeConstants {
 
     private void subtract(BlockSet bs, boolean inverse) {
 //System.out.println("["+this+"].subtract(["+bs+"],"+inverse+"):");
-        weight += subtractImpl(this, bs, !bs.positive ^ inverse);
+        boolean inv = !bs.positive ^ inverse;
+        weight += subtractImpl(this, bs, inv);
+        astral = intersect(astral, inv ? bs.astral : complement(bs.astral));
     }
 
     private static int subtractImpl(BlockSet bs1, BlockSet bs2, boolean inv) {
@@ -284,6 +301,65 @@ class BlockSet implements UnicodeConstants {
         return s + bs1.cardinality();
     }
 
+    //the code points in either set of ranges
+    static int[] union(int[] a, int[] b) {
+        if (b.length == 0) return a;
+        if (a.length == 0) return b;
+        int[] r = new int[a.length + b.length];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length || j < b.length; ) {
+            int first, last;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                first = a[i++];
+                last = a[i++];
+            } else {
+                first = b[j++];
+                last = b[j++];
+            }
+            if (n > 0 && first <= r[n - 1] + 1) {
+                if (last > r[n - 1]) r[n - 1] = last;
+            } else {
+                r[n++] = first;
+                r[n++] = last;
+            }
+        }
+        return n == r.length ? r : Arrays.copyOf(r, n);
+    }
+
+    //the code points in both sets of ranges
+    static int[] intersect(int[] a, int[] b) {
+        int[] r = new int[a.length + b.length];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            int first = Math.max(a[i], b[j]), last = Math.min(a[i + 1], b[j + 1]);
+            if (first <= last) {
+                r[n++] = first;
+                r[n++] = last;
+            }
+            if (a[i + 1] < b[j + 1]) i += 2;
+            else j += 2;
+        }
+        return Arrays.copyOf(r, n);
+    }
+
+    //the code points past the BMP that aren't in a set of ranges
+    static int[] complement(int[] a) {
+        int[] r = new int[a.length + 2];
+        int n = 0, next = 0x10000;
+        for (int i = 0; i < a.length; i += 2) {
+            if (a[i] > next) {
+                r[n++] = next;
+                r[n++] = a[i] - 1;
+            }
+            next = a[i + 1] + 1;
+        }
+        if (next <= 0x10FFFF) {
+            r[n++] = next;
+            r[n++] = 0x10FFFF;
+        }
+        return Arrays.copyOf(r, n);
+    }
+
     private static int set(IntBitSet arr, int from, int to) {
         int s = arr.cardinality();
         arr.set(from, to);
@@ -314,6 +390,7 @@ class BlockSet implements UnicodeConstants {
         if (isLarge != blockSet.isLarge) return false;
         if (weight != blockSet.weight) return false;
         if (block0 != null ? !block0.equals(blockSet.block0) : blockSet.block0 != null) return false;
+        if (!Arrays.equals(astral, blockSet.astral)) return false;
         // Probably incorrect - comparing Object[] arrays with Arrays.equals
         return Arrays.equals(blocks, blockSet.blocks);
 
@@ -325,6 +402,7 @@ class BlockSet implements UnicodeConstants {
         result = 31 * result + (isLarge ? 1 : 0);
         result = 31 * result + (block0 != null ? block0.hashCode() : 0);
         result = 31 * result + Arrays.hashCode(blocks);
+        result = 31 * result + Arrays.hashCode(astral);
         result = 31 * result + weight;
         return result;
     }
@@ -0,0 +1,916 @@
+package regexodus;
+
+import regexodus.ds.IntBitSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles Patterns to JVM bytecode while a program runs, so the JIT can turn each one's search into machine code with
+ * its char tests and loops inlined. The bytecode does the same as the Java source {@link CodeGenerator} writes, but it
+ * is made straight from the Pattern's Terms and loaded right away, with no compiler or build step; it can't be used on
+ * GWT, Android, or anything else that doesn't load JVM classes.
+ * <br>
+ * Compiling takes much longer than one search, so it only pays off for Patterns that are searched many times. Calling
+ * {@link #install(int)} makes every Pattern count its searches, and compiles each one the first time it goes past the
+ * threshold; {@link Pattern#setCompileThreshold(int)} changes that threshold for one Pattern. A Pattern can also be
+ * compiled at once with {@link #compile(Pattern)}. Only Patterns that could also be compiled with
+ * {@link REFlags#LINEAR} can be compiled, and only if the bytecode is small enough for the JIT to take on; others keep
+ * searching with the backtracker, as does searching with {@link Matcher#ACCEPT_INCOMPLETE}.
+ */
+@GwtIncompatible
+public final class BytecodeCompiler {
+    /**
+     * How many times a Pattern is searched before it is compiled, if {@link #install()} is used without a threshold.
+     */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    /**
+     * The most bytes of bytecode a compiled search can have; HotSpot doesn't compile longer methods to machine code by
+     * default, and bytecode that only gets interpreted would be slower than the backtracker.
+     */
+    public static final int MAX_CODE_SIZE = 8000;
+
+    private static final CompiledSearch.Compiler INSTALLED = new CompiledSearch.Compiler() {
+        @Override
+        public CompiledSearch compileSearch(Pattern pattern) {
+            return new BytecodeCompiler(pattern).load();
+        }
+    };
+    private static final AtomicInteger classes = new AtomicInteger();
+
+    private static final String SUPER = "regexodus/CompiledSearch";
+    private static final String SEARCH_DESC = "([CIIIZZZ[I[I[[I)Z";
+
+    //the locals of the compiled search; the first ones are its parameters
+    private static final int THIS = 0, DATA = 1, OFFSET = 2, FROM = 3, END = 4, ANCHORED = 5, MATCH_END = 6,
+            RESUME = 7, GROUPS = 8, COUNTERS = 9, STACKS = 10, FRAMES = 11, SAVES = 12, START = 13, LAST = 14,
+            STATE = 15, I = 16, CNT = 17, TOP = 18, SAVED = 19, F = 20, C = 21, FRESH = 22, J = 23, LIMIT = 24,
+            AT = 25, LEAST = 26, BEFORE = 27, AFTER = 28, LOCALS = 29;
+
+    private final Pattern pattern;
+    private final ArrayList<Term> terms = new ArrayList<Term>();
+    private final IdentityHashMap<Term, Integer> ids = new IdentityHashMap<Term, Integer>();
+    //the bitsets and tables the Terms use, which are passed to the constructor and kept in fields
+    private final ArrayList<Object> constants = new ArrayList<Object>();
+    private final HashMap<IntBitSet, Integer> bits = new HashMap<IntBitSet, Integer>();
+    private final IdentityHashMap<IntBitSet[], Integer> tables = new IdentityHashMap<IntBitSet[], Integer>();
+
+    private final Pool pool = new Pool();
+    private final Code code = new Code();
+    private Label[] states;
+    private Label fail;
+
+    private BytecodeCompiler(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Makes every Pattern compile itself to bytecode once it has been searched {@link #DEFAULT_THRESHOLD} times.
+     */
+    public static void install() {
+        install(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Makes every Pattern compile itself to bytecode once it has been searched threshold times, unless it has its own
+     * threshold from {@link Pattern#setCompileThreshold(int)}. Patterns only count searches that use the backtracker,
+     * so ones compiled with {@link REFlags#LINEAR} are never compiled.
+     * @param threshold how many searches to allow before compiling; 0 compiles each Pattern on its first search
+     */
+    public static void install(int threshold) {
+        Pattern.searchThreshold = threshold;
+        Pattern.searchCompiler = INSTALLED;
+    }
+
+    /**
+     * Stops compiling Patterns; ones that were already compiled stay that way.
+     */
+    public static void uninstall() {
+        Pattern.searchCompiler = null;
+    }
+
+    /**
+     * Compiles pattern to bytecode now, so its Matchers use that from then on. A Pattern compiled with
+     * {@link REFlags#CODEPOINTS} has the form it uses on text with surrogate pairs compiled too.
+     * @param pattern a Pattern to compile
+     * @return true if pattern was compiled, or false if it uses something that can't be
+     */
+    public static boolean compile(Pattern pattern) {
+        pattern.parse();
+        if (pattern.astral != null && pattern.astral != pattern && !compile(pattern.astral)) return false;
+        try {
+            pattern.compiled = new BytecodeCompiler(pattern).load();
+            pattern.searches = -1;
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private CompiledSearch load() {
+        CodeGenerator.number(pattern, terms, ids);
+        String name = "regexodus/CompiledPattern" + classes.incrementAndGet();
+        byte[] bytes = write(name);
+        try {
+            Class<?> c = new Loader(CompiledSearch.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+            return (CompiledSearch) c.getConstructor(String.class, int.class, Object[].class)
+                    .newInstance(pattern.stringRepr, pattern.flags, constants.toArray());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can't load the compiled search for " + pattern, e);
+        } catch (LinkageError e) {
+            throw new IllegalStateException("can't load the compiled search for " + pattern, e);
+        }
+    }
+
+    //each compiled search gets its own loader, so it can be unloaded once its Pattern is gone
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    //the class file; version 49 doesn't need stack map frames, which are a lot of work for a loop like this one
+    private byte[] write(String name) {
+        pool.self = name;
+        search();
+        if (code.length > MAX_CODE_SIZE)
+            throw new IllegalArgumentException("too much bytecode to compile: " + pattern);
+        byte[] search = code.toArray();
+        int searchStack = 8;
+
+        code.length = 0;
+        code.aload(THIS);
+        code.aload(1);
+        code.iload(2);
+        code.iconst(CompiledSearch.VERSION);
+        code.ref(Code.INVOKESPECIAL, pool.method(SUPER, "<init>", "(Ljava/lang/String;II)V"));
+        for (int k = 0; k < constants.size(); k++) {
+            String desc = constants.get(k) instanceof int[] ? "[I" : "[[I";
+            code.aload(THIS);
+            code.aload(3);
+            code.iconst(k);
+            code.op(Code.AALOAD);
+            code.ref(Code.CHECKCAST, pool.type(desc));
+            code.ref(Code.PUTFIELD, pool.field(name, "k" + k, desc));
+        }
+        code.op(Code.RETURN);
+        byte[] init = code.toArray();
+
+        int thisClass = pool.type(name), superClass = pool.type(SUPER);
+        int initName = pool.utf("<init>"), initDesc = pool.utf("(Ljava/lang/String;I[Ljava/lang/Object;)V");
+        int searchName = pool.utf("search"), searchDesc = pool.utf(SEARCH_DESC), codeName = pool.utf("Code");
+        int[] fieldNames = new int[constants.size()], fieldDescs = new int[constants.size()];
+        for (int k = 0; k < constants.size(); k++) {
+            fieldNames[k] = pool.utf("k" + k);
+            fieldDescs[k] = pool.utf(constants.get(k) instanceof int[] ? "[I" : "[[I");
+        }
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE).u2(0).u2(49);
+        out.u2(pool.count).append(pool.bytes.toArray());
+        out.u2(0x0031).u2(thisClass).u2(superClass).u2(0); //public final super, no interfaces
+        out.u2(constants.size());
+        for (int k = 0; k < constants.size(); k++) {
+            out.u2(0x0012).u2(fieldNames[k]).u2(fieldDescs[k]).u2(0); //private final
+        }
+        out.u2(2);
+        out.u2(0x0001).u2(initName).u2(initDesc).u2(1); //public
+        method(out, codeName, 5, 4, init);
+        out.u2(0x0004).u2(searchName).u2(searchDesc).u2(1); //protected
+        method(out, codeName, searchStack, LOCALS, search);
+        out.u2(0);
+        return out.toArray();
+    }
+
+    private static void method(Bytes out, int codeName, int maxStack, int maxLocals, byte[] code) {
+        out.u2(codeName).u4(12 + code.length).u2(maxStack).u2(maxLocals).u4(code.length).append(code);
+        out.u2(0).u2(0); //no exception handlers or attributes
+    }
+
+    //writes the search method, which has the same structure as the one CodeGenerator writes, but jumps straight from
+    //each Term to the next instead of going back through the switch
+    private void search() {
+        Code c = code;
+        states = new Label[terms.size()];
+        for (int id = 0; id < states.length; id++) {
+            states[id] = new Label();
+        }
+        fail = new Label();
+        Label resuming = new Label(), ready = new Label(), loop = new Label(), done = new Label(),
+                dispatch = new Label(), next = new Label();
+
+        c.aload(STACKS).iconst(0).op(Code.AALOAD).astore(FRAMES);
+        c.aload(STACKS).iconst(1).op(Code.AALOAD).astore(SAVES);
+        c.iload(FROM).istore(START);
+        c.iload(END).istore(LAST);
+        Label unanchored = new Label();
+        c.iload(ANCHORED).jump(Code.IFEQ, unanchored);
+        c.iload(FROM).istore(LAST);
+        c.mark(unanchored);
+        c.iload(FROM).istore(I);
+        //every other local starts at 0, so each one always holds an int
+        for (int local : new int[]{STATE, CNT, TOP, SAVED, F, C, J, LIMIT, AT, LEAST, BEFORE, AFTER}) {
+            c.iconst(0).istore(local);
+        }
+        c.iload(RESUME).jump(Code.IFNE, resuming);
+        c.aload(GROUPS).iconst(-1).ref(Code.INVOKESTATIC, pool.method("java/util/Arrays", "fill", "([II)V"));
+        c.iconst(1).istore(FRESH);
+        c.jump(Code.GOTO, ready);
+        //go on as if the last match had failed
+        c.mark(resuming);
+        c.iconst(0).istore(FRESH);
+        c.aload(STACKS).iconst(2).op(Code.AALOAD).iconst(0).op(Code.IALOAD).istore(START);
+        c.aload(STACKS).iconst(2).op(Code.AALOAD).iconst(1).op(Code.IALOAD).istore(TOP);
+        c.aload(STACKS).iconst(2).op(Code.AALOAD).iconst(2).op(Code.IALOAD).istore(SAVED);
+        pop();
+        c.mark(ready);
+        Term root = pattern.root0;
+        if (root.type == Term.START) {
+            //"^" at the very start can only match at the start of the target
+            Label atOffset = new Label();
+            c.iload(START).iload(OFFSET).jump(Code.IF_ICMPEQ, atOffset);
+            c.iconst(0).op(Code.IRETURN);
+            c.mark(atOffset);
+            c.iload(START).istore(LAST);
+        }
+        c.mark(loop);
+        c.iload(START).iload(LAST).jump(Code.IF_ICMPGT, done);
+        Label notFresh = new Label();
+        c.iload(FRESH).jump(Code.IFEQ, notFresh);
+        if (root.type == Term.CHAR && !pattern.caseless) {
+            Label seek = new Label(), found = new Label();
+            c.iload(ANCHORED).jump(Code.IFNE, found);
+            c.mark(seek);
+            c.iload(START).iload(END).jump(Code.IF_ICMPGE, done);
+            c.aload(DATA).iload(START).op(Code.CALOAD).iconst(root.c).jump(Code.IF_ICMPEQ, found);
+            c.iinc(START, 1).jump(Code.GOTO, seek);
+            c.mark(found);
+        }
+        c.iconst(0).istore(STATE);
+        c.iload(START).istore(I);
+        c.iconst(0).istore(CNT);
+        c.mark(notFresh);
+        c.iconst(1).istore(FRESH);
+
+        c.mark(dispatch);
+        c.iload(STATE).tableswitch(fail, states);
+        for (int id = 0; id < terms.size(); id++) {
+            c.mark(states[id]);
+            term(terms.get(id), id);
+        }
+
+        c.mark(fail);
+        c.iload(TOP).jump(Code.IFEQ, next);
+        pop();
+        c.jump(Code.GOTO, dispatch);
+
+        c.mark(next);
+        Label clean = new Label();
+        c.iload(SAVED).jump(Code.IFLE, clean);
+        restore(null);
+        c.mark(clean);
+        c.iinc(START, 1).jump(Code.GOTO, loop);
+
+        c.mark(done);
+        c.aload(STACKS).iconst(0).aload(FRAMES).op(Code.AASTORE);
+        c.aload(STACKS).iconst(1).aload(SAVES).op(Code.AASTORE);
+        c.iconst(0).op(Code.IRETURN);
+        c.resolve();
+    }
+
+    //takes the top frame off the stack, as Matcher does when it backtracks
+    private void pop() {
+        Code c = code;
+        c.iinc(TOP, -1);
+        c.iload(TOP).iconst(2).op(Code.ISHL).istore(F);
+        c.aload(FRAMES).iload(F).op(Code.IALOAD).istore(STATE);
+        c.aload(FRAMES).iload(F).iconst(1).op(Code.IADD).op(Code.IALOAD).istore(I);
+        c.aload(FRAMES).iload(F).iconst(2).op(Code.IADD).op(Code.IALOAD).istore(CNT);
+        Label kept = new Label();
+        c.iload(SAVED).aload(FRAMES).iload(F).iconst(3).op(Code.IADD).op(Code.IALOAD).jump(Code.IF_ICMPLE, kept);
+        restore(kept);
+        c.mark(kept);
+    }
+
+    //saved = restore(groups, counters, saves, saved, mark), where mark is frames[f + 3], or 0 if kept is null
+    private void restore(Label kept) {
+        Code c = code;
+        c.aload(GROUPS).aload(COUNTERS).aload(SAVES).iload(SAVED);
+        if (kept == null) c.iconst(0);
+        else c.aload(FRAMES).iload(F).iconst(3).op(Code.IADD).op(Code.IALOAD);
+        c.ref(Code.INVOKESTATIC, pool.method(SUPER, "restore", "([I[I[III)I")).istore(SAVED);
+    }
+
+    //the code for one Term, which does the same as what CodeGenerator.term() writes for it
+    private void term(Term t, int id) {
+        Code c = code;
+        switch (t.type) {
+            case Term.CHAR:
+                c.iload(I).iload(END).jump(Code.IF_ICMPGE, fail);
+                c.aload(DATA).iload(I).op(Code.CALOAD);
+                fold();
+                c.iconst(t.c).jump(Code.IF_ICMPNE, fail);
+                c.iinc(I, 1);
+                break;
+            case Term.ANY_CHAR:
+                c.iload(I).iload(END).jump(Code.IF_ICMPGE, fail);
+                c.iinc(I, 1);
+                break;
+            case Term.ANY_CHAR_NE:
+                c.iload(I).iload(END).jump(Code.IF_ICMPGE, fail);
+                c.aload(DATA).iload(I).op(Code.CALOAD).istore(C);
+                c.iload(C).iconst('\r').jump(Code.IF_ICMPEQ, fail);
+                c.iload(C).iconst('\n').jump(Code.IF_ICMPEQ, fail);
+                c.iinc(I, 1);
+                break;
+            case Term.BITSET:
+                c.iload(I).iload(END).jump(Code.IF_ICMPGE, fail);
+                c.aload(DATA).iload(I).op(Code.CALOAD);
+                fold();
+                c.istore(C);
+                test(t, t.inverse, fail);
+                c.iinc(I, 1);
+                break;
+            case Term.BITSET2:
+                c.iload(I).iload(END).jump(Code.IF_ICMPGE, fail);
+                c.aload(DATA).iload(I).op(Code.CALOAD);
+                fold();
+                c.istore(C);
+                //an empty block fails even when inverted, as in Matcher
+                if (t.inverse) block(t, fail);
+                test(t, t.inverse, fail);
+                c.iinc(I, 1);
+                break;
+            case Term.GROUP_IN:
+                if (t.memreg > 0) c.aload(GROUPS).iconst(t.memreg * 3).iload(I).op(Code.IASTORE);
+                break;
+            case Term.GROUP_OUT:
+                if (t.memreg > 0) {
+                    int m = t.memreg * 3;
+                    roomToSave();
+                    c.aload(SAVES).iload(SAVED).iconst(t.memreg).op(Code.IASTORE);
+                    c.aload(SAVES).iload(SAVED).iconst(1).op(Code.IADD)
+                            .aload(GROUPS).iconst(m + 1).op(Code.IALOAD).op(Code.IASTORE);
+                    c.aload(SAVES).iload(SAVED).iconst(2).op(Code.IADD)
+                            .aload(GROUPS).iconst(m + 2).op(Code.IALOAD).op(Code.IASTORE);
+                    c.iinc(SAVED, 3);
+                    c.aload(GROUPS).iconst(m + 1).aload(GROUPS).iconst(m).op(Code.IALOAD).op(Code.IASTORE);
+                    c.aload(GROUPS).iconst(m + 2).iload(I).op(Code.IASTORE);
+                }
+                break;
+            case Term.BRANCH:
+            case Term.BRANCH_STORE_CNT:
+            case Term.BRANCH_STORE_CNT_AUX1:
+                push(t.failNext);
+                break;
+            case Term.SUCCESS: {
+                Label any = new Label();
+                c.iload(MATCH_END).jump(Code.IFEQ, any);
+                c.iload(I).iload(END).jump(Code.IF_ICMPNE, fail);
+                c.mark(any);
+                succeed();
+                return;
+            }
+            case Term.START:
+                c.iload(I).iload(OFFSET).jump(Code.IF_ICMPNE, fail);
+                break;
+            case Term.END:
+                c.iload(I).iload(END).jump(Code.IF_ICMPLT, fail);
+                break;
+            case Term.END_EOL:
+                c.aload(DATA).iload(END).iload(I);
+                c.ref(Code.INVOKESTATIC, pool.method(SUPER, "endOfInput", "([CII)Z")).jump(Code.IFEQ, fail);
+                break;
+            case Term.LINE_START:
+                c.aload(DATA).iload(OFFSET).iload(END).iload(I);
+                c.ref(Code.INVOKESTATIC, pool.method(SUPER, "lineStart", "([CIII)Z")).jump(Code.IFEQ, fail);
+                break;
+            case Term.LINE_END:
+                c.aload(DATA).iload(END).iload(I);
+                c.ref(Code.INVOKESTATIC, pool.method(SUPER, "lineEnd", "([CII)Z")).jump(Code.IFEQ, fail);
+                break;
+            case Term.BOUNDARY:
+            case Term.UBOUNDARY:
+            case Term.DIRECTION:
+            case Term.UDIRECTION: {
+                boolean plain = t.type == Term.BOUNDARY || t.type == Term.DIRECTION;
+                Label first = new Label(), second = new Label();
+                c.iconst(0).istore(BEFORE);
+                c.iload(I).iload(OFFSET).jump(Code.IF_ICMPLE, first);
+                set(t, plain);
+                c.aload(DATA).iload(I).iconst(1).op(Code.ISUB).op(Code.CALOAD);
+                fold();
+                in(plain);
+                c.istore(BEFORE);
+                c.mark(first);
+                c.iconst(0).istore(AFTER);
+                c.iload(I).iload(END).jump(Code.IF_ICMPGE, second);
+                set(t, plain);
+                c.aload(DATA).iload(I).op(Code.CALOAD);
+                fold();
+                in(plain);
+                c.istore(AFTER);
+                c.mark(second);
+                if (t.type == Term.BOUNDARY || t.type == Term.UBOUNDARY) {
+                    c.iload(BEFORE).iload(AFTER).jump(t.inverse ? Code.IF_ICMPNE : Code.IF_ICMPEQ, fail);
+                } else if (t.inverse) {
+                    c.iload(BEFORE).jump(Code.IFEQ, fail);
+                    c.iload(AFTER).jump(Code.IFNE, fail);
+                } else {
+                    c.iload(BEFORE).jump(Code.IFNE, fail);
+                    c.iload(AFTER).jump(Code.IFEQ, fail);
+                }
+                break;
+            }
+            case Term.REPEAT_0_INF:
+            case Term.REPEAT_MIN_INF:
+            case Term.REPEAT_MIN_MAX: {
+                Term target = t.target;
+                if (t.type == Term.REPEAT_MIN_MAX) {
+                    Label toEnd = new Label(), limited = new Label();
+                    c.iload(END).iload(I).op(Code.ISUB).iconst(t.maxCount).jump(Code.IF_ICMPLE, toEnd);
+                    c.iload(I).iconst(t.maxCount).op(Code.IADD).istore(LIMIT).jump(Code.GOTO, limited);
+                    c.mark(toEnd);
+                    c.iload(END).istore(LIMIT);
+                    c.mark(limited);
+                } else c.iload(END).istore(LIMIT);
+                if (target.type == Term.ANY_CHAR) c.iload(LIMIT).istore(J);
+                else {
+                    //like Matcher.repeat(), this doesn't fold case
+                    Label scan = new Label(), stop = new Label();
+                    c.iload(I).istore(J);
+                    c.mark(scan);
+                    c.iload(J).iload(LIMIT).jump(Code.IF_ICMPGE, stop);
+                    c.aload(DATA).iload(J).op(Code.CALOAD).istore(C);
+                    boolean negated = target.type != Term.ANY_CHAR_NE && target.type != Term.CHAR && target.inverse;
+                    test(target, negated, stop);
+                    c.iinc(J, 1).jump(Code.GOTO, scan);
+                    c.mark(stop);
+                }
+                c.iload(J).iload(I).op(Code.ISUB).istore(CNT);
+                if (t.type == Term.REPEAT_0_INF) {
+                    Label none = new Label();
+                    c.iload(CNT).jump(Code.IFLE, none);
+                    c.iload(I).iload(CNT).op(Code.IADD).istore(I);
+                    push(t.failNext);
+                    c.mark(none);
+                } else {
+                    c.iload(CNT).iconst(t.minCount).jump(Code.IF_ICMPLT, fail);
+                    c.iload(I).iload(CNT).op(Code.IADD).istore(I);
+                    push(t.failNext);
+                }
+                break;
+            }
+            case Term.BACKTRACK_0:
+            case Term.BACKTRACK_MIN:
+                readCount();
+                c.iload(CNT).iconst(t.type == Term.BACKTRACK_0 ? 0 : t.minCount).jump(Code.IF_ICMPLE, fail);
+                c.iinc(CNT, -1);
+                c.iinc(I, -1);
+                push(t);
+                break;
+            case Term.BACKTRACK_FIND_MIN: {
+                //gives back chars until the target of the repeat can be found, as Matcher.findBack() does
+                int min = t.minCount;
+                Label inside = new Label(), scan = new Label(), found = new Label(), last = new Label();
+                readCount();
+                c.iload(CNT).iconst(min).jump(Code.IF_ICMPLE, fail);
+                c.iload(I).iconst(t.distance).op(Code.IADD).iload(END).jump(Code.IF_ICMPLE, inside);
+                c.iload(I).iconst(t.distance).op(Code.IADD).iload(END).op(Code.ISUB).istore(AT);
+                c.iload(CNT).iload(AT).op(Code.ISUB).istore(CNT);
+                c.iload(CNT).iconst(min).jump(Code.IF_ICMPLE, fail);
+                c.iload(I).iload(AT).op(Code.ISUB).istore(I);
+                c.mark(inside);
+                c.iload(I).iconst(t.distance).op(Code.IADD).istore(AT);
+                c.iload(AT).istore(J);
+                c.iload(AT).iload(CNT).iconst(min).op(Code.ISUB).op(Code.ISUB).istore(LEAST);
+                c.mark(scan);
+                c.iinc(J, -1);
+                c.aload(DATA).iload(J).op(Code.CALOAD);
+                fold();
+                c.istore(C);
+                Term target = t.target;
+                if (target.type == Term.CHAR || !target.inverse) test(target, true, found);
+                else if (target.type == Term.BITSET) test(target, false, found);
+                else {
+                    block(target, found);
+                    test(target, true, found);
+                }
+                c.iload(J).iload(LEAST).jump(Code.IF_ICMPLE, fail);
+                c.jump(Code.GOTO, scan);
+                c.mark(found);
+                c.iload(CNT).iload(AT).iload(J).op(Code.ISUB).op(Code.ISUB).istore(CNT);
+                c.iload(I).iload(AT).iload(J).op(Code.ISUB).op(Code.ISUB).istore(I);
+                c.iload(CNT).iconst(min).jump(Code.IF_ICMPLE, last);
+                push(t);
+                c.mark(last);
+                if (t.eat) c.iinc(I, 1);
+                break;
+            }
+            case Term.CNT_SET_0:
+                c.iconst(0).istore(CNT);
+                break;
+            case Term.CNT_INC:
+                c.iinc(CNT, 1);
+                break;
+            case Term.CNT_GT_EQ:
+                c.iload(CNT).iconst(t.maxCount).jump(Code.IF_ICMPLT, fail);
+                break;
+            case Term.READ_CNT_LT:
+                readCount();
+                c.iload(CNT).iconst(t.maxCount).jump(Code.IF_ICMPGE, fail);
+                break;
+            case Term.CRSTORE_CRINC:
+                roomToSave();
+                c.aload(SAVES).iload(SAVED).iconst(~t.cntreg).op(Code.IASTORE);
+                c.aload(SAVES).iload(SAVED).iconst(1).op(Code.IADD)
+                        .aload(COUNTERS).iconst(t.cntreg).op(Code.IALOAD).op(Code.IASTORE);
+                c.aload(COUNTERS).iconst(t.cntreg)
+                        .aload(COUNTERS).iconst(t.cntreg).op(Code.IALOAD).iconst(1).op(Code.IADD).op(Code.IASTORE);
+                c.iinc(SAVED, 3);
+                break;
+            case Term.CR_SET_0:
+                c.aload(COUNTERS).iconst(t.cntreg).iconst(0).op(Code.IASTORE);
+                break;
+            case Term.CR_LT:
+                c.aload(COUNTERS).iconst(t.cntreg).op(Code.IALOAD).iconst(t.maxCount).jump(Code.IF_ICMPGE, fail);
+                break;
+            case Term.CR_GT_EQ:
+                c.aload(COUNTERS).iconst(t.cntreg).op(Code.IALOAD).iconst(t.maxCount).jump(Code.IF_ICMPLT, fail);
+                break;
+        }
+        //VOID and the groups that aren't captured only go on to the next Term
+        if (t.next == null) succeed();
+        else if (ids.get(t.next) != id + 1) c.jump(Code.GOTO, states[ids.get(t.next)]);
+    }
+
+    private void fold() {
+        if (pattern.caseless)
+            code.ref(Code.INVOKESTATIC, pool.method("regexodus/Category", "caseFold", "(C)C"));
+    }
+
+    //cnt = frames[(top << 2) + 2], the count in the frame that was just popped
+    private void readCount() {
+        code.aload(FRAMES).iload(TOP).iconst(2).op(Code.ISHL).iconst(2).op(Code.IADD).op(Code.IALOAD).istore(CNT);
+    }
+
+    private void roomToSave() {
+        Label room = new Label();
+        code.iload(SAVED).aload(SAVES).op(Code.ARRAYLENGTH).jump(Code.IF_ICMPLT, room);
+        code.aload(SAVES).ref(Code.INVOKESTATIC, pool.method(SUPER, "grow", "([I)[I")).astore(SAVES);
+        code.mark(room);
+    }
+
+    private void push(Term resume) {
+        Code c = code;
+        Label room = new Label();
+        c.iload(TOP).iconst(2).op(Code.ISHL).istore(F);
+        c.iinc(TOP, 1);
+        c.iload(F).iconst(4).op(Code.IADD).aload(FRAMES).op(Code.ARRAYLENGTH).jump(Code.IF_ICMPNE, room);
+        c.aload(FRAMES).ref(Code.INVOKESTATIC, pool.method(SUPER, "grow", "([I)[I")).astore(FRAMES);
+        c.mark(room);
+        c.aload(FRAMES).iload(F).iconst(ids.get(resume)).op(Code.IASTORE);
+        c.aload(FRAMES).iload(F).iconst(1).op(Code.IADD).iload(I).op(Code.IASTORE);
+        c.aload(FRAMES).iload(F).iconst(2).op(Code.IADD).iload(CNT).op(Code.IASTORE);
+        c.aload(FRAMES).iload(F).iconst(3).op(Code.IADD).iload(SAVED).op(Code.IASTORE);
+    }
+
+    private void succeed() {
+        Code c = code;
+        c.aload(GROUPS).iconst(0).iload(START).op(Code.IASTORE);
+        c.aload(GROUPS).iconst(1).iload(START).op(Code.IASTORE);
+        c.aload(GROUPS).iconst(2).iload(I).op(Code.IASTORE);
+        c.aload(STACKS).iconst(0).aload(FRAMES).op(Code.AASTORE);
+        c.aload(STACKS).iconst(1).aload(SAVES).op(Code.AASTORE);
+        c.aload(STACKS).iconst(2).op(Code.AALOAD).iconst(0).iload(START).op(Code.IASTORE);
+        c.aload(STACKS).iconst(2).op(Code.AALOAD).iconst(1).iload(TOP).op(Code.IASTORE);
+        c.aload(STACKS).iconst(2).op(Code.AALOAD).iconst(2).iload(SAVED).op(Code.IASTORE);
+        c.iconst(1).op(Code.IRETURN);
+    }
+
+    //jumps to target if c is in the Term's set (ignoring whether it is inverted) and when is true, or if it isn't and
+    //when is false
+    private void test(Term t, boolean when, Label target) {
+        Code c = code;
+        switch (t.type) {
+            case Term.CHAR:
+                c.iload(C).iconst(t.c).jump(when ? Code.IF_ICMPEQ : Code.IF_ICMPNE, target);
+                return;
+            case Term.ANY_CHAR:
+                if (when) c.jump(Code.GOTO, target);
+                return;
+            case Term.ANY_CHAR_NE:
+                if (when) {
+                    Label not = new Label();
+                    c.iload(C).iconst('\r').jump(Code.IF_ICMPEQ, not);
+                    c.iload(C).iconst('\n').jump(Code.IF_ICMPEQ, not);
+                    c.jump(Code.GOTO, target);
+                    c.mark(not);
+                } else {
+                    c.iload(C).iconst('\r').jump(Code.IF_ICMPEQ, target);
+                    c.iload(C).iconst('\n').jump(Code.IF_ICMPEQ, target);
+                }
+                return;
+            case Term.BITSET: {
+                //a few ranges are checked directly, and anything more with a lookup
+                int[] ranges = new int[6];
+                int count = 0;
+                for (int a = 0; a < 256 && count <= 6; a++) {
+                    if (!t.bitset.get(a)) continue;
+                    int b = a;
+                    while (b < 255 && t.bitset.get(b + 1)) b++;
+                    if (count < 6) {
+                        ranges[count] = a;
+                        ranges[count + 1] = b;
+                    }
+                    count += 2;
+                    a = b;
+                }
+                if (count <= 6) {
+                    Label in = when ? target : new Label();
+                    for (int r = 0; r < count; r += 2) {
+                        if (ranges[r] == ranges[r + 1]) c.iload(C).iconst(ranges[r]).jump(Code.IF_ICMPEQ, in);
+                        else {
+                            Label below = new Label();
+                            c.iload(C).iconst(ranges[r]).jump(Code.IF_ICMPLT, below);
+                            c.iload(C).iconst(ranges[r + 1]).jump(Code.IF_ICMPLE, in);
+                            c.mark(below);
+                        }
+                    }
+                    if (!when) {
+                        c.jump(Code.GOTO, target);
+                        c.mark(in);
+                    }
+                    return;
+                }
+                set(t, true);
+                break;
+            }
+            default:
+                set(t, false);
+        }
+        c.iload(C);
+        in(t.type == Term.BITSET);
+        c.jump(when ? Code.IFNE : Code.IFEQ, target);
+    }
+
+    //jumps to target if the block c is in is empty in the Term's table
+    private void block(Term t, Label target) {
+        set(t, false);
+        code.iload(C).iconst(8).op(Code.IUSHR).op(Code.AALOAD).jump(Code.IFNULL, target);
+    }
+
+    //loads the field that holds the Term's bitset, or its table of bitsets if plain is false
+    private void set(Term t, boolean plain) {
+        Integer k;
+        String desc;
+        if (plain) {
+            k = bits.get(t.bitset);
+            if (k == null) {
+                bits.put(t.bitset, k = constants.size());
+                constants.add(t.bitset.toIntArray());
+            }
+            desc = "[I";
+        } else {
+            k = tables.get(t.bitset2);
+            if (k == null) {
+                tables.put(t.bitset2, k = constants.size());
+                constants.add(null);
+                int[][] table = new int[256][];
+                for (int b = 0; b < 256; b++) {
+                    IntBitSet block = t.bitset2[b];
+                    if (block == null) continue;
+                    Integer shared = bits.get(block);
+                    if (shared == null) {
+                        bits.put(block, shared = constants.size());
+                        constants.add(block.toIntArray());
+                    }
+                    table[b] = (int[]) constants.get(shared);
+                }
+                constants.set(k, table);
+            }
+            desc = "[[I";
+        }
+        code.aload(THIS).ref(Code.GETFIELD, pool.field(null, "k" + k, desc));
+    }
+
+    //calls in(set, c) or in(table, c) with what is on the stack
+    private void in(boolean plain) {
+        code.ref(Code.INVOKESTATIC, pool.method(SUPER, "in", plain ? "([IC)Z" : "([[IC)Z"));
+    }
+
+    private static class Bytes {
+        byte[] data = new byte[256];
+        int length;
+
+        Bytes u1(int b) {
+            if (length == data.length) data = Arrays.copyOf(data, length << 1);
+            data[length++] = (byte) b;
+            return this;
+        }
+
+        Bytes u2(int s) {
+            return u1(s >>> 8).u1(s);
+        }
+
+        Bytes u4(int i) {
+            return u2(i >>> 16).u2(i);
+        }
+
+        Bytes append(byte[] bytes) {
+            for (byte b : bytes) {
+                u1(b);
+            }
+            return this;
+        }
+
+        void set2(int at, int s) {
+            data[at] = (byte) (s >>> 8);
+            data[at + 1] = (byte) s;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    //the constant pool of the class; the class's own name is filled in for fields whose owner is null
+    private final class Pool {
+        final Bytes bytes = new Bytes();
+        final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+        int count = 1;
+        String self;
+
+        int utf(String s) {
+            Integer index = entries.get("U" + s);
+            if (index == null) {
+                entries.put("U" + s, index = count++);
+                bytes.u1(1).u2(s.length());
+                for (int i = 0; i < s.length(); i++) {
+                    bytes.u1(s.charAt(i)); //only ASCII names and descriptors are written
+                }
+            }
+            return index;
+        }
+
+        int type(String name) {
+            int utf = utf(name);
+            Integer index = entries.get("C" + name);
+            if (index == null) {
+                entries.put("C" + name, index = count++);
+                bytes.u1(7).u2(utf);
+            }
+            return index;
+        }
+
+        int integer(int value) {
+            Integer index = entries.get("I" + value);
+            if (index == null) {
+                entries.put("I" + value, index = count++);
+                bytes.u1(3).u4(value);
+            }
+            return index;
+        }
+
+        int field(String owner, String name, String desc) {
+            return member(9, owner == null ? self : owner, name, desc);
+        }
+
+        int method(String owner, String name, String desc) {
+            return member(10, owner, name, desc);
+        }
+
+        private int member(int tag, String owner, String name, String desc) {
+            String key = tag + owner + '.' + name + desc;
+            Integer index = entries.get(key);
+            if (index == null) {
+                int type = type(owner), n = utf(name), d = utf(desc);
+                Integer nameAndType = entries.get("N" + name + desc);
+                if (nameAndType == null) {
+                    entries.put("N" + name + desc, nameAndType = count++);
+                    bytes.u1(12).u2(n).u2(d);
+                }
+                entries.put(key, index = count++);
+                bytes.u1(tag).u2(type).u2(nameAndType);
+            }
+            return index;
+        }
+    }
+
+    private static final class Label {
+        int position = -1;
+        //pairs of the position of the instruction that jumps here and where its offset goes
+        int[] uses = new int[4];
+        int used;
+    }
+
+    //a method's bytecode, with the few instructions the compiled search uses
+    private final class Code extends Bytes {
+        static final int ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC_W = 19, ILOAD = 21, ALOAD = 25, IALOAD = 46,
+                AALOAD = 50, CALOAD = 52, ISTORE = 54, ASTORE = 58, IASTORE = 79, AASTORE = 83, IADD = 96,
+                ISUB = 100, ISHL = 120, IUSHR = 124, IINC = 132, IFEQ = 153, IFNE = 154, IFLE = 158,
+                IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162, IF_ICMPGT = 163,
+                IF_ICMPLE = 164, GOTO = 167, TABLESWITCH = 170, IRETURN = 172, RETURN = 177, GETFIELD = 180,
+                PUTFIELD = 181, INVOKESPECIAL = 183, INVOKESTATIC = 184, ARRAYLENGTH = 190, CHECKCAST = 192,
+                IFNULL = 198;
+
+        private final ArrayList<Label> labels = new ArrayList<Label>();
+
+        Code op(int opcode) {
+            u1(opcode);
+            return this;
+        }
+
+        //an instruction that refers to the constant pool
+        Code ref(int opcode, int index) {
+            u1(opcode).u2(index);
+            return this;
+        }
+
+        Code iconst(int value) {
+            if (value >= -1 && value <= 5) u1(ICONST_0 + value);
+            else if (value == (byte) value) u1(BIPUSH).u1(value);
+            else if (value == (short) value) u1(SIPUSH).u2(value);
+            else u1(LDC_W).u2(pool.integer(value));
+            return this;
+        }
+
+        Code iload(int local) {
+            u1(ILOAD).u1(local);
+            return this;
+        }
+
+        Code istore(int local) {
+            u1(ISTORE).u1(local);
+            return this;
+        }
+
+        Code aload(int local) {
+            u1(ALOAD).u1(local);
+            return this;
+        }
+
+        Code astore(int local) {
+            u1(ASTORE).u1(local);
+            return this;
+        }
+
+        Code iinc(int local, int amount) {
+            u1(IINC).u1(local).u1(amount);
+            return this;
+        }
+
+        Code jump(int opcode, Label target) {
+            use(target, length, length + 1);
+            u1(opcode).u2(0);
+            return this;
+        }
+
+        //jumps to cases[state], or to other if state is out of range
+        Code tableswitch(Label other, Label[] cases) {
+            int at = length;
+            u1(TABLESWITCH);
+            while ((length & 3) != 0) u1(0);
+            use(other, at, length);
+            u4(0).u4(0).u4(cases.length - 1);
+            for (Label label : cases) {
+                use(label, at, length);
+                u4(0);
+            }
+            return this;
+        }
+
+        void mark(Label label) {
+            label.position = length;
+        }
+
+        private void use(Label label, int instruction, int offset) {
+            if (label.used + 2 > label.uses.length) label.uses = Arrays.copyOf(label.uses, label.uses.length << 1);
+            label.uses[label.used++] = instruction;
+            label.uses[label.used++] = offset;
+            if (label.used == 2) labels.add(label);
+        }
+
+        //fills in the offsets of every jump, once all the labels have been marked
+        void resolve() {
+            for (Label label : labels) {
+                for (int u = 0; u < label.used; u += 2) {
+                    int instruction = label.uses[u], at = label.uses[u + 1], offset = label.position - instruction;
+                    if (data[instruction] == (byte) TABLESWITCH) {
+                        set2(at, offset >>> 16);
+                        set2(at + 2, offset);
+                    } else set2(at, offset);
+                }
+            }
+            labels.clear();
+        }
+    }
+}
@@ -1,52 +1,135 @@
-package regexodus;
-
-/**
- * This package-private class only exists to store two massive char arrays in source code.
- * One is the transform of every Java char after calling {@link Character#toUpperCase(char)}.
- * The other is the transform of every Java char after calling {@link Character#toLowerCase(char)}.
- * <br>
- * To avoid storing over 200KB of source code in this one file, we only store the characters that
- * change when they are converted to a different case, which is between 2000 and 3000 chars instead
- * of 65536 chars. We also store the values in a way that can be compressed more tightly using UTF-8
- * Strings. The rest of the chars can simply be assigned to their own index in the char arrays,
- * calculating this in a loop at runtime.
- * <br>
- * The values here should be accurate for the behavior of {@link Character#toUpperCase(char)} and
- * {@link Character#toLowerCase(char)} as of Java 25. Other versions use other Unicode standards,
- * and may not handle the same characters identically. Every platform should act like Java 25 if
- * it uses this code, but only as long as you use chars that are actually available/defined in the
- * Unicode standard available to your current platform.
- */
-final class Casing {
-    private Casing() {
-    }
-    static final char[] allToUpper = new char[65536];
-    static final char[] allToLower = new char[65536];
-
-    static {
-        final String ku = "abcdefghijklmnopqrstuvwxyzµàáâãäåæçèéêëìíîïðñòóôõöøùúûüýþÿāăąćĉċčďđēĕėęěĝğġģĥħĩīĭįıĳĵķĺļľŀłńņňŋōŏőœŕŗřśŝşšţťŧũūŭůűųŵŷźżžſƀƃƅƈƌƒƕƙƚƛƞơƣƥƨƭưƴƶƹƽƿǅǆǈǉǋǌǎǐǒǔǖǘǚǜǝǟǡǣǥǧǩǫǭǯǲǳǵǹǻǽǿȁȃȅȇȉȋȍȏȑȓȕȗșțȝȟȣȥȧȩȫȭȯȱȳȼȿɀɂɇɉɋɍɏɐɑɒɓɔɖɗəɛɜɠɡɣɤɥɦɨɩɪɫɬɯɱɲɵɽʀʂʃʇʈʉʊʋʌʒʝʞͅͱͳͷͻͼͽάέήίαβγδεζηθικλμνξοπρςστυφχψωϊϋόύώϐϑϕϖϗϙϛϝϟϡϣϥϧϩϫϭϯϰϱϲϳϵϸϻабвгдежзийклмнопрстуфхцчшщъыьэюяѐёђѓєѕіїјљњћќѝўџѡѣѥѧѩѫѭѯѱѳѵѷѹѻѽѿҁҋҍҏґғҕҗҙқҝҟҡңҥҧҩҫҭүұҳҵҷҹһҽҿӂӄӆӈӊӌӎӏӑӓӕӗәӛӝӟӡӣӥӧөӫӭӯӱӳӵӷӹӻӽӿԁԃԅԇԉԋԍԏԑԓԕԗԙԛԝԟԡԣԥԧԩԫԭԯաբգդեզէըթժիլխծկհձղճմյնշոչպջռսվտրցւփքօֆაბგდევზთიკლმნოპჟრსტუფქღყშჩცძწჭხჯჰჱჲჳჴჵჶჷჸჹჺჽჾჿᏸᏹᏺᏻᏼᏽᲀᲁᲂᲃᲄᲅᲆᲇᲈᲊᵹᵽᶎḁḃḅḇḉḋḍḏḑḓḕḗḙḛḝḟḡḣḥḧḩḫḭḯḱḳḵḷḹḻḽḿṁṃṅṇṉṋṍṏṑṓṕṗṙṛṝṟṡṣṥṧṩṫṭṯṱṳṵṷṹṻṽṿẁẃẅẇẉẋẍẏẑẓẕẛạảấầẩẫậắằẳẵặẹẻẽếềểễệỉịọỏốồổỗộớờởỡợụủứừửữựỳỵỷỹỻỽỿἀἁἂἃἄἅἆἇἐἑἒἓἔἕἠἡἢἣἤἥἦἧἰἱἲἳἴἵἶἷὀὁὂὃὄὅὑὓὕὗὠὡὢὣὤὥὦὧὰάὲέὴήὶίὸόὺύὼώᾀᾁᾂᾃᾄᾅᾆᾇᾐᾑᾒᾓᾔᾕᾖᾗᾠᾡᾢᾣᾤᾥᾦᾧᾰᾱᾳιῃῐῑῠῡῥῳⅎⅰⅱⅲⅳⅴⅵⅶⅷⅸⅹⅺⅻⅼⅽⅾⅿↄⓐⓑⓒⓓⓔⓕⓖⓗⓘⓙⓚⓛⓜⓝⓞⓟⓠⓡⓢⓣⓤⓥⓦⓧⓨⓩⰰⰱⰲⰳⰴⰵⰶⰷⰸⰹⰺⰻⰼⰽⰾⰿⱀⱁⱂⱃⱄⱅⱆⱇⱈⱉⱊⱋⱌⱍⱎⱏⱐⱑⱒⱓⱔⱕⱖⱗⱘⱙⱚⱛⱜⱝⱞⱟⱡⱥⱦⱨⱪⱬⱳⱶⲁⲃⲅⲇⲉⲋⲍⲏⲑⲓⲕⲗⲙⲛⲝⲟⲡⲣⲥⲧⲩⲫⲭⲯⲱⲳⲵⲷⲹⲻⲽⲿⳁⳃⳅⳇⳉⳋⳍⳏⳑⳓⳕⳗⳙⳛⳝⳟⳡⳣⳬⳮⳳⴀⴁⴂⴃⴄⴅⴆⴇⴈⴉⴊⴋⴌⴍⴎⴏⴐⴑⴒⴓⴔⴕⴖⴗⴘⴙⴚⴛⴜⴝⴞⴟⴠⴡⴢⴣⴤⴥⴧⴭꙁꙃꙅꙇꙉꙋꙍꙏꙑꙓꙕꙗꙙꙛꙝꙟꙡꙣꙥꙧꙩꙫꙭꚁꚃꚅꚇꚉꚋꚍꚏꚑꚓꚕꚗꚙꚛꜣꜥꜧꜩꜫꜭꜯꜳꜵꜷꜹꜻꜽꜿꝁꝃꝅꝇꝉꝋꝍꝏꝑꝓꝕꝗꝙꝛꝝꝟꝡꝣꝥꝧꝩꝫꝭꝯꝺꝼꝿꞁꞃꞅꞇꞌꞑꞓꞔꞗꞙꞛꞝꞟꞡꞣꞥꞧꞩꞵꞷꞹꞻꞽꞿꟁꟃꟈꟊꟍꟑꟗꟙꟛꟶꭓꭰꭱꭲꭳꭴꭵꭶꭷꭸꭹꭺꭻꭼꭽꭾꭿꮀꮁꮂꮃꮄꮅꮆꮇꮈꮉꮊꮋꮌꮍꮎꮏꮐꮑꮒꮓꮔꮕꮖꮗꮘꮙꮚꮛꮜꮝꮞꮟꮠꮡꮢꮣꮤꮥꮦꮧꮨꮩꮪꮫꮬꮭꮮꮯꮰꮱꮲꮳꮴꮵꮶꮷꮸꮹꮺꮻꮼꮽꮾꮿａｂｃｄｅｆｇｈｉｊｋｌｍｎｏｐｑｒｓｔｕｖｗｘｙｚ",
-			vu = "                          ﴙ                              ﾇèĬ］ﾟ｝妿ｾ￈O헁헁헡헤헢ÒÎÍÍÊË媱Í媵Ï媙嫘媼ÑÓ媼혉媿Ó혃ÕÖ혙Ú媽Ú嫖ÚEÙÙGÛ嫫嫮ﾬｾｾｾ&%%%                          @??>9/6VP￹t`                                PPPPPPPPPPPPPPPP00000000000000000000000000000000000000ᡮᡭᡤᡢᡢᡣᡜᠥ瘾痼痈;￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸ﾶﾶﾪﾪﾪﾪﾜﾜﾀﾀﾐﾐﾂﾂ￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￷ᰥ￷￸￸￸￸￹￷000000000000000000000000000000000000000000000000⨫⨨ᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠ￐Π韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐                          ";
-
-		final String kd = "ABCDEFGHIJKLMNOPQRSTUVWXYZÀÁÂÃÄÅÆÇÈÉÊËÌÍÎÏÐÑÒÓÔÕÖØÙÚÛÜÝÞĀĂĄĆĈĊČĎĐĒĔĖĘĚĜĞĠĢĤĦĨĪĬĮİĲĴĶĹĻĽĿŁŃŅŇŊŌŎŐŒŔŖŘŚŜŞŠŢŤŦŨŪŬŮŰŲŴŶŸŹŻŽƁƂƄƆƇƉƊƋƎƏƐƑƓƔƖƗƘƜƝƟƠƢƤƦƧƩƬƮƯƱƲƳƵƷƸƼǄǅǇǈǊǋǍǏǑǓǕǗǙǛǞǠǢǤǦǨǪǬǮǱǲǴǶǷǸǺǼǾȀȂȄȆȈȊȌȎȐȒȔȖȘȚȜȞȠȢȤȦȨȪȬȮȰȲȺȻȽȾɁɃɄɅɆɈɊɌɎͰͲͶͿΆΈΉΊΌΎΏΑΒΓΔΕΖΗΘΙΚΛΜΝΞΟΠΡΣΤΥΦΧΨΩΪΫϏϘϚϜϞϠϢϤϦϨϪϬϮϴϷϹϺϽϾϿЀЁЂЃЄЅІЇЈЉЊЋЌЍЎЏАБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯѠѢѤѦѨѪѬѮѰѲѴѶѸѺѼѾҀҊҌҎҐҒҔҖҘҚҜҞҠҢҤҦҨҪҬҮҰҲҴҶҸҺҼҾӀӁӃӅӇӉӋӍӐӒӔӖӘӚӜӞӠӢӤӦӨӪӬӮӰӲӴӶӸӺӼӾԀԂԄԆԈԊԌԎԐԒԔԖԘԚԜԞԠԢԤԦԨԪԬԮԱԲԳԴԵԶԷԸԹԺԻԼԽԾԿՀՁՂՃՄՅՆՇՈՉՊՋՌՍՎՏՐՑՒՓՔՕՖႠႡႢႣႤႥႦႧႨႩႪႫႬႭႮႯႰႱႲႳႴႵႶႷႸႹႺႻႼႽႾႿჀჁჂჃჄჅჇჍᎠᎡᎢᎣᎤᎥᎦᎧᎨᎩᎪᎫᎬᎭᎮᎯᎰᎱᎲᎳᎴᎵᎶᎷᎸᎹᎺᎻᎼᎽᎾᎿᏀᏁᏂᏃᏄᏅᏆᏇᏈᏉᏊᏋᏌᏍᏎᏏᏐᏑᏒᏓᏔᏕᏖᏗᏘᏙᏚᏛᏜᏝᏞᏟᏠᏡᏢᏣᏤᏥᏦᏧᏨᏩᏪᏫᏬᏭᏮᏯᏰᏱᏲᏳᏴᏵᲉᲐᲑᲒᲓᲔᲕᲖᲗᲘᲙᲚᲛᲜᲝᲞᲟᲠᲡᲢᲣᲤᲥᲦᲧᲨᲩᲪᲫᲬᲭᲮᲯᲰᲱᲲᲳᲴᲵᲶᲷᲸᲹᲺᲽᲾᲿḀḂḄḆḈḊḌḎḐḒḔḖḘḚḜḞḠḢḤḦḨḪḬḮḰḲḴḶḸḺḼḾṀṂṄṆṈṊṌṎṐṒṔṖṘṚṜṞṠṢṤṦṨṪṬṮṰṲṴṶṸṺṼṾẀẂẄẆẈẊẌẎẐẒẔẞẠẢẤẦẨẪẬẮẰẲẴẶẸẺẼẾỀỂỄỆỈỊỌỎỐỒỔỖỘỚỜỞỠỢỤỦỨỪỬỮỰỲỴỶỸỺỼỾἈἉἊἋἌἍἎἏἘἙἚἛἜἝἨἩἪἫἬἭἮἯἸἹἺἻἼἽἾἿὈὉὊὋὌὍὙὛὝὟὨὩὪὫὬὭὮὯᾈᾉᾊᾋᾌᾍᾎᾏᾘᾙᾚᾛᾜᾝᾞᾟᾨᾩᾪᾫᾬᾭᾮᾯᾸᾹᾺΆᾼῈΈῊΉῌῘῙῚΊῨῩῪΎῬῸΌῺΏῼΩℲⅠⅡⅢⅣⅤⅥⅦⅧⅨⅩⅪⅫⅬⅭⅮⅯↃⒶⒷⒸⒹⒺⒻⒼⒽⒾⒿⓀⓁⓂⓃⓄⓅⓆⓇⓈⓉⓊⓋⓌⓍⓎⓏⰀⰁⰂⰃⰄⰅⰆⰇⰈⰉⰊⰋⰌⰍⰎⰏⰐⰑⰒⰓⰔⰕⰖⰗⰘⰙⰚⰛⰜⰝⰞⰟⰠⰡⰢⰣⰤⰥⰦⰧⰨⰩⰪⰫⰬⰭⰮⰯⱠⱢⱣⱤⱧⱩⱫⱭⱮⱯⱰⱲⱵⱾⱿⲀⲂⲄⲆⲈⲊⲌⲎⲐⲒⲔⲖⲘⲚⲜⲞⲠⲢⲤⲦⲨⲪⲬⲮⲰⲲⲴⲶⲸⲺⲼⲾⳀⳂⳄⳆⳈⳊⳌⳎⳐⳒⳔⳖⳘⳚⳜⳞⳠⳢⳫⳭⳲꙀꙂꙄꙆꙈꙊꙌꙎꙐꙒꙔꙖꙘꙚꙜꙞꙠꙢꙤꙦꙨꙪꙬꚀꚂꚄꚆꚈꚊꚌꚎꚐꚒꚔꚖꚘꚚꜢꜤꜦꜨꜪꜬꜮꜲꜴꜶꜸꜺꜼꜾꝀꝂꝄꝆꝈꝊꝌꝎꝐꝒꝔꝖꝘꝚꝜꝞꝠꝢꝤꝦꝨꝪꝬꝮꝹꝻꝽꝾꞀꞂꞄꞆꞋꞍꞐꞒꞖꞘꞚꞜꞞꞠꞢꞤꞦꞨꞪꞫꞬꞭꞮꞰꞱꞲꞳꞴꞶꞸꞺꞼꞾꟀꟂꟄꟅꟆꟇꟉꟋꟌꟐꟖꟘꟚꟜꟵＡＢＣＤＥＦＧＨＩＪＫＬＭＮＯＰＱＲＳＴＵＶＷＸＹＺ",
-			vd = "                                                        ＹﾇÒÎÍÍOÊËÍÏÓÑÓÕÖÚÚÚÙÙÛﾟ￈ｾ⨫｝⨨］EGt&%%%@??                          ￄ￹ｾｾｾPPPPPPPPPPPPPPPP                                00000000000000000000000000000000000000ᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠ韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸ﾶﾶ￷ﾪﾪﾪﾪ￷￸￸ﾜﾜ￸￸ﾐﾐ￹ﾀﾀﾂﾂ￷000000000000000000000000000000000000000000000000혉혙헤혃헡헢헁헁痼嫘媼媱媵媿媼嫮嫖嫫Π￐媽痈媙妿                          ";
-
-        int ii = 1;
-        for (char i = 1; ii < 65536; i++, ii++) {
-            allToLower[ii] = allToUpper[ii] = i;
-        }
-        final int lu = ku.length();
-        for (int i = 0; i < lu; i++) {
-            char key = ku.charAt(i);
-            allToUpper[key] = (char) (key - vu.charAt(i));
-        }
-        final int ld = kd.length();
-        for (int i = 0; i < ld; i++) {
-            char key = kd.charAt(i);
-            allToLower[key] = (char) (key + vd.charAt(i));
-        }
-        // special cases because these keys or their values are problems
-        allToLower[0x212A] = 'k';
-        allToLower[0x212B] = 'å';
-
-    }
-}
+package regexodus;
+
+import java.util.HashMap;
+
+/**
+ * This package-private class only exists to store two massive char mappings in source code.
+ * One is the transform of every Java char after calling {@link Character#toUpperCase(char)}.
+ * The other is the transform of every Java char after calling {@link Character#toLowerCase(char)}.
+ * <br>
+ * To avoid storing over 200KB of source code in this one file, we only store the characters that
+ * change when they are converted to a different case, which is between 2000 and 3000 chars instead
+ * of 65536 chars. We also store the values in a way that can be compressed more tightly using UTF-8
+ * Strings. The rest of the chars map to themselves. At runtime the data is expanded into full arrays
+ * for matching, or into small staged tables for code that would rather save memory; see
+ * {@link #toLowerCompact(char)}.
+ * <br>
+ * The values here should be accurate for the behavior of {@link Character#toUpperCase(char)} and
+ * {@link Character#toLowerCase(char)} as of Java 25. Other versions use other Unicode standards,
+ * and may not handle the same characters identically. Every platform should act like Java 25 if
+ * it uses this code, but only as long as you use chars that are actually available/defined in the
+ * Unicode standard available to your current platform.
+ */
+final class Casing {
+    private Casing() {
+    }
+    private static final String ku = "abcdefghijklmnopqrstuvwxyzµàáâãäåæçèéêëìíîïðñòóôõöøùúûüýþÿāăąćĉċčďđēĕėęěĝğġģĥħĩīĭįıĳĵķĺļľŀłńņňŋōŏőœŕŗřśŝşšţťŧũūŭůűųŵŷźżžſƀƃƅƈƌƒƕƙƚƛƞơƣƥƨƭưƴƶƹƽƿǅǆǈǉǋǌǎǐǒǔǖǘǚǜǝǟǡǣǥǧǩǫǭǯǲǳǵǹǻǽǿȁȃȅȇȉȋȍȏȑȓȕȗșțȝȟȣȥȧȩȫȭȯȱȳȼȿɀɂɇɉɋɍɏɐɑɒɓɔɖɗəɛɜɠɡɣɤɥɦɨɩɪɫɬɯɱɲɵɽʀʂʃʇʈʉʊʋʌʒʝʞͅͱͳͷͻͼͽάέήίαβγδεζηθικλμνξοπρςστυφχψωϊϋόύώϐϑϕϖϗϙϛϝϟϡϣϥϧϩϫϭϯϰϱϲϳϵϸϻабвгдежзийклмнопрстуфхцчшщъыьэюяѐёђѓєѕіїјљњћќѝўџѡѣѥѧѩѫѭѯѱѳѵѷѹѻѽѿҁҋҍҏґғҕҗҙқҝҟҡңҥҧҩҫҭүұҳҵҷҹһҽҿӂӄӆӈӊӌӎӏӑӓӕӗәӛӝӟӡӣӥӧөӫӭӯӱӳӵӷӹӻӽӿԁԃԅԇԉԋԍԏԑԓԕԗԙԛԝԟԡԣԥԧԩԫԭԯաբգդեզէըթժիլխծկհձղճմյնշոչպջռսվտրցւփքօֆაბგდევზთიკლმნოპჟრსტუფქღყშჩცძწჭხჯჰჱჲჳჴჵჶჷჸჹჺჽჾჿᏸᏹᏺᏻᏼᏽᲀᲁᲂᲃᲄᲅᲆᲇᲈᲊᵹᵽᶎḁḃḅḇḉḋḍḏḑḓḕḗḙḛḝḟḡḣḥḧḩḫḭḯḱḳḵḷḹḻḽḿṁṃṅṇṉṋṍṏṑṓṕṗṙṛṝṟṡṣṥṧṩṫṭṯṱṳṵṷṹṻṽṿẁẃẅẇẉẋẍẏẑẓẕẛạảấầẩẫậắằẳẵặẹẻẽếềểễệỉịọỏốồổỗộớờởỡợụủứừửữựỳỵỷỹỻỽỿἀἁἂἃἄἅἆἇἐἑἒἓἔἕἠἡἢἣἤἥἦἧἰἱἲἳἴἵἶἷὀὁὂὃὄὅὑὓὕὗὠὡὢὣὤὥὦὧὰάὲέὴήὶίὸόὺύὼώᾀᾁᾂᾃᾄᾅᾆᾇᾐᾑᾒᾓᾔᾕᾖᾗᾠᾡᾢᾣᾤᾥᾦᾧᾰᾱᾳιῃῐῑῠῡῥῳⅎⅰⅱⅲⅳⅴⅵⅶⅷⅸⅹⅺⅻⅼⅽⅾⅿↄⓐⓑⓒⓓⓔⓕⓖⓗⓘⓙⓚⓛⓜⓝⓞⓟⓠⓡⓢⓣⓤⓥⓦⓧⓨⓩⰰⰱⰲⰳⰴⰵⰶⰷⰸⰹⰺⰻⰼⰽⰾⰿⱀⱁⱂⱃⱄⱅⱆⱇⱈⱉⱊⱋⱌⱍⱎⱏⱐⱑⱒⱓⱔⱕⱖⱗⱘⱙⱚⱛⱜⱝⱞⱟⱡⱥⱦⱨⱪⱬⱳⱶⲁⲃⲅⲇⲉⲋⲍⲏⲑⲓⲕⲗⲙⲛⲝⲟⲡⲣⲥⲧⲩⲫⲭⲯⲱⲳⲵⲷⲹⲻⲽⲿⳁⳃⳅⳇⳉⳋⳍⳏⳑⳓⳕⳗⳙⳛⳝⳟⳡⳣⳬⳮⳳⴀⴁⴂⴃⴄⴅⴆⴇⴈⴉⴊⴋⴌⴍⴎⴏⴐⴑⴒⴓⴔⴕⴖⴗⴘⴙⴚⴛⴜⴝⴞⴟⴠⴡⴢⴣⴤⴥⴧⴭꙁꙃꙅꙇꙉꙋꙍꙏꙑꙓꙕꙗꙙꙛꙝꙟꙡꙣꙥꙧꙩꙫꙭꚁꚃꚅꚇꚉꚋꚍꚏꚑꚓꚕꚗꚙꚛꜣꜥꜧꜩꜫꜭꜯꜳꜵꜷꜹꜻꜽꜿꝁꝃꝅꝇꝉꝋꝍꝏꝑꝓꝕꝗꝙꝛꝝꝟꝡꝣꝥꝧꝩꝫꝭꝯꝺꝼꝿꞁꞃꞅꞇꞌꞑꞓꞔꞗꞙꞛꞝꞟꞡꞣꞥꞧꞩꞵꞷꞹꞻꞽꞿꟁꟃꟈꟊꟍꟑꟗꟙꟛꟶꭓꭰꭱꭲꭳꭴꭵꭶꭷꭸꭹꭺꭻꭼꭽꭾꭿꮀꮁꮂꮃꮄꮅꮆꮇꮈꮉꮊꮋꮌꮍꮎꮏꮐꮑꮒꮓꮔꮕꮖꮗꮘꮙꮚꮛꮜꮝꮞꮟꮠꮡꮢꮣꮤꮥꮦꮧꮨꮩꮪꮫꮬꮭꮮꮯꮰꮱꮲꮳꮴꮵꮶꮷꮸꮹꮺꮻꮼꮽꮾꮿａｂｃｄｅｆｇｈｉｊｋｌｍｎｏｐｑｒｓｔｕｖｗｘｙｚ",
+            vu = "                          ﴙ                              ﾇèĬ］ﾟ｝妿ｾ￈O헁헁헡헤헢ÒÎÍÍÊË媱Í媵Ï媙嫘媼ÑÓ媼혉媿Ó혃ÕÖ혙Ú媽Ú嫖ÚEÙÙGÛ嫫嫮ﾬｾｾｾ&%%%                          @??>9/6VP￹t`                                PPPPPPPPPPPPPPPP00000000000000000000000000000000000000ᡮᡭᡤᡢᡢᡣᡜᠥ瘾痼痈;￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸ﾶﾶﾪﾪﾪﾪﾜﾜﾀﾀﾐﾐﾂﾂ￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￷ᰥ￷￸￸￸￸￹￷000000000000000000000000000000000000000000000000⨫⨨ᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠ￐Π韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐                          ";
+
+    private static final String kd = "ABCDEFGHIJKLMNOPQRSTUVWXYZÀÁÂÃÄÅÆÇÈÉÊËÌÍÎÏÐÑÒÓÔÕÖØÙÚÛÜÝÞĀĂĄĆĈĊČĎĐĒĔĖĘĚĜĞĠĢĤĦĨĪĬĮİĲĴĶĹĻĽĿŁŃŅŇŊŌŎŐŒŔŖŘŚŜŞŠŢŤŦŨŪŬŮŰŲŴŶŸŹŻŽƁƂƄƆƇƉƊƋƎƏƐƑƓƔƖƗƘƜƝƟƠƢƤƦƧƩƬƮƯƱƲƳƵƷƸƼǄǅǇǈǊǋǍǏǑǓǕǗǙǛǞǠǢǤǦǨǪǬǮǱǲǴǶǷǸǺǼǾȀȂȄȆȈȊȌȎȐȒȔȖȘȚȜȞȠȢȤȦȨȪȬȮȰȲȺȻȽȾɁɃɄɅɆɈɊɌɎͰͲͶͿΆΈΉΊΌΎΏΑΒΓΔΕΖΗΘΙΚΛΜΝΞΟΠΡΣΤΥΦΧΨΩΪΫϏϘϚϜϞϠϢϤϦϨϪϬϮϴϷϹϺϽϾϿЀЁЂЃЄЅІЇЈЉЊЋЌЍЎЏАБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯѠѢѤѦѨѪѬѮѰѲѴѶѸѺѼѾҀҊҌҎҐҒҔҖҘҚҜҞҠҢҤҦҨҪҬҮҰҲҴҶҸҺҼҾӀӁӃӅӇӉӋӍӐӒӔӖӘӚӜӞӠӢӤӦӨӪӬӮӰӲӴӶӸӺӼӾԀԂԄԆԈԊԌԎԐԒԔԖԘԚԜԞԠԢԤԦԨԪԬԮԱԲԳԴԵԶԷԸԹԺԻԼԽԾԿՀՁՂՃՄՅՆՇՈՉՊՋՌՍՎՏՐՑՒՓՔՕՖႠႡႢႣႤႥႦႧႨႩႪႫႬႭႮႯႰႱႲႳႴႵႶႷႸႹႺႻႼႽႾႿჀჁჂჃჄჅჇჍᎠᎡᎢᎣᎤᎥᎦᎧᎨᎩᎪᎫᎬᎭᎮᎯᎰᎱᎲᎳᎴᎵᎶᎷᎸᎹᎺᎻᎼᎽᎾᎿᏀᏁᏂᏃᏄᏅᏆᏇᏈᏉᏊᏋᏌᏍᏎᏏᏐᏑᏒᏓᏔᏕᏖᏗᏘᏙᏚᏛᏜᏝᏞᏟᏠᏡᏢᏣᏤᏥᏦᏧᏨᏩᏪᏫᏬᏭᏮᏯᏰᏱᏲᏳᏴᏵᲉᲐᲑᲒᲓᲔᲕᲖᲗᲘᲙᲚᲛᲜᲝᲞᲟᲠᲡᲢᲣᲤᲥᲦᲧᲨᲩᲪᲫᲬᲭᲮᲯᲰᲱᲲᲳᲴᲵᲶᲷᲸᲹᲺᲽᲾᲿḀḂḄḆḈḊḌḎḐḒḔḖḘḚḜḞḠḢḤḦḨḪḬḮḰḲḴḶḸḺḼḾṀṂṄṆṈṊṌṎṐṒṔṖṘṚṜṞṠṢṤṦṨṪṬṮṰṲṴṶṸṺṼṾẀẂẄẆẈẊẌẎẐẒẔẞẠẢẤẦẨẪẬẮẰẲẴẶẸẺẼẾỀỂỄỆỈỊỌỎỐỒỔỖỘỚỜỞỠỢỤỦỨỪỬỮỰỲỴỶỸỺỼỾἈἉἊἋἌἍἎἏἘἙἚἛἜἝἨἩἪἫἬἭἮἯἸἹἺἻἼἽἾἿὈὉὊὋὌὍὙὛὝὟὨὩὪὫὬὭὮὯᾈᾉᾊᾋᾌᾍᾎᾏᾘᾙᾚᾛᾜᾝᾞᾟᾨᾩᾪᾫᾬᾭᾮᾯᾸᾹᾺΆᾼῈΈῊΉῌῘῙῚΊῨῩῪΎῬῸΌῺΏῼΩℲⅠⅡⅢⅣⅤⅥⅦⅧⅨⅩⅪⅫⅬⅭⅮⅯↃⒶⒷⒸⒹⒺⒻⒼⒽⒾⒿⓀⓁⓂⓃⓄⓅⓆⓇⓈⓉⓊⓋⓌⓍⓎⓏⰀⰁⰂⰃⰄⰅⰆⰇⰈⰉⰊⰋⰌⰍⰎⰏⰐⰑⰒⰓⰔⰕⰖⰗⰘⰙⰚⰛⰜⰝⰞⰟⰠⰡⰢⰣⰤⰥⰦⰧⰨⰩⰪⰫⰬⰭⰮⰯⱠⱢⱣⱤⱧⱩⱫⱭⱮⱯⱰⱲⱵⱾⱿⲀⲂⲄⲆⲈⲊⲌⲎⲐⲒⲔⲖⲘⲚⲜⲞⲠⲢⲤⲦⲨⲪⲬⲮⲰⲲⲴⲶⲸⲺⲼⲾⳀⳂⳄⳆⳈⳊⳌⳎⳐⳒⳔⳖⳘⳚⳜⳞⳠⳢⳫⳭⳲꙀꙂꙄꙆꙈꙊꙌꙎꙐꙒꙔꙖꙘꙚꙜꙞꙠꙢꙤꙦꙨꙪꙬꚀꚂꚄꚆꚈꚊꚌꚎꚐꚒꚔꚖꚘꚚꜢꜤꜦꜨꜪꜬꜮꜲꜴꜶꜸꜺꜼꜾꝀꝂꝄꝆꝈꝊꝌꝎꝐꝒꝔꝖꝘꝚꝜꝞꝠꝢꝤꝦꝨꝪꝬꝮꝹꝻꝽꝾꞀꞂꞄꞆꞋꞍꞐꞒꞖꞘꞚꞜꞞꞠꞢꞤꞦꞨꞪꞫꞬꞭꞮꞰꞱꞲꞳꞴꞶꞸꞺꞼꞾꟀꟂꟄꟅꟆꟇꟉꟋꟌꟐꟖꟘꟚꟜꟵＡＢＣＤＥＦＧＨＩＪＫＬＭＮＯＰＱＲＳＴＵＶＷＸＹＺ",
+            vd = "                                                        ＹﾇÒÎÍÍOÊËÍÏÓÑÓÕÖÚÚÚÙÙÛﾟ￈ｾ⨫｝⨨］EGt&%%%@??                          ￄ￹ｾｾｾPPPPPPPPPPPPPPPP                                00000000000000000000000000000000000000ᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠᱠ韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐韐￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸￸ﾶﾶ￷ﾪﾪﾪﾪ￷￸￸ﾜﾜ￸￸ﾐﾐ￹ﾀﾀﾂﾂ￷000000000000000000000000000000000000000000000000혉혙헤혃헡헢헁헁痼嫘媼媱媵媿媼嫮嫖嫫Π￐媽痈媙妿                          ";
+
+    // special cases for lower case because these keys or their values are problems
+    private static final char[] LOWER_SPECIAL = {0x212A, 'k', 0x212B, 'å'};
+
+    /**
+     * Holds the result of {@link Character#toUpperCase(char)} for every char; this is only built the first time it is
+     * used, so code that never changes chars to upper case never pays for it.
+     */
+    static final class Upper {
+        static final char[] table = build(ku, vu, -1, new char[0]);
+    }
+
+    /**
+     * Holds the result of {@link Character#toLowerCase(char)} for every char, which is also used for case folding; this
+     * is only built the first time it is used.
+     */
+    static final class Lower {
+        static final char[] table = build(kd, vd, 1, LOWER_SPECIAL);
+    }
+
+    /**
+     * The same mapping as {@link Upper}, as staged tables (see {@link #toLowerCompact(char)}); only built the first
+     * time it is used, and building it doesn't build {@link Upper}.
+     */
+    static final class UpperPages {
+        static final char[][] PAGES = pages(ku, vu, -1, new char[0]);
+    }
+
+    /**
+     * The same mapping as {@link Lower}, as staged tables (see {@link #toLowerCompact(char)}); only built the first
+     * time it is used, and building it doesn't build {@link Lower}.
+     */
+    static final class LowerPages {
+        static final char[][] PAGES = pages(kd, vd, 1, LOWER_SPECIAL);
+    }
+
+    /**
+     * Gets the lower-case form of c, by finding the page for its high byte and adding the delta stored there for its
+     * low byte. Pages that hold the same deltas are the same array, so all chars without a case share one page of
+     * zeros, and the whole table takes under 12KB instead of the 128KB of {@link Lower#table}. Looking a char up this
+     * way costs a second load, which makes a tight loop over text about twice as slow as the flat table, so matching
+     * uses the flat table and this is only for code that converts few chars and would rather not hold 128KB for it.
+     * @param c any char
+     * @return the same as {@link Character#toLowerCase(char)} on Java 25
+     */
+    static char toLowerCompact(char c) {
+        return (char) (c + LowerPages.PAGES[c >>> 8][c & 255]);
+    }
+
+    /**
+     * Gets the upper-case form of c, the same way as {@link #toLowerCompact(char)}.
+     * @param c any char
+     * @return the same as {@link Character#toUpperCase(char)} on Java 25
+     */
+    static char toUpperCompact(char c) {
+        return (char) (c + UpperPages.PAGES[c >>> 8][c & 255]);
+    }
+
+    /**
+     * Builds the full table for one direction of case conversion.
+     * @param keys every char that changes
+     * @param offsets for each key, how far it moves, to be multiplied by sign
+     * @param sign 1 or -1
+     * @param special pairs of a key and its result that override keys and offsets
+     * @return the result of converting each char, indexed by that char
+     */
+    private static char[] build(String keys, String offsets, int sign, char[] special) {
+        char[] table = deltas(keys, offsets, sign, special);
+        for (int i = 1; i < 65536; i++) {
+            table[i] += (char) i;
+        }
+        return table;
+    }
+
+    /**
+     * Builds the pages of deltas for one direction of case conversion; see {@link #build(String, String, int, char[])}
+     * for the parameters.
+     * @return 256 pages of 256 deltas each, indexed by the high byte of a char and then by its low byte
+     */
+    private static char[][] pages(String keys, String offsets, int sign, char[] special) {
+        char[] deltas = deltas(keys, offsets, sign, special);
+        char[][] pages = new char[256][];
+        HashMap<String, char[]> distinct = new HashMap<String, char[]>();
+        for (int p = 0; p < 256; p++) {
+            String key = String.valueOf(deltas, p << 8, 256);
+            char[] page = distinct.get(key);
+            if (page == null) distinct.put(key, page = key.toCharArray());
+            pages[p] = page;
+        }
+        return pages;
+    }
+
+    //how far each char moves when its case is converted
+    private static char[] deltas(String keys, String offsets, int sign, char[] special) {
+        char[] deltas = new char[65536];
+        final int len = keys.length();
+        for (int i = 0; i < len; i++) {
+            deltas[keys.charAt(i)] = (char) (sign * offsets.charAt(i));
+        }
+        for (int i = 0; i < special.length; i += 2) {
+            deltas[special[i]] = (char) (special[i + 1] - special[i]);
+        }
+        return deltas;
+    }
+}
@@ -21,27 +21,62 @@ public class Category implements CharPredicate {
      */
     public final int length;
     private final int n;
-    private final char[] cal;
-    final Block[] blocks;
+    private final int[] directory;
+    private final String data;
+    //decoded from directory and data the first time they are needed, so unused categories stay compressed
+    private volatile char[] cal;
+    private volatile Block[] blocks;
+    //the code points past the BMP in this Category, as the first and last of each range, decoded when first needed
+    private volatile int[] astral;
+    /**
+     * Two-level lookup built from {@link #blocks()} on first use; indexed by the high byte of a char, then by the
+     * 32-bit word holding its low byte. Pages with no chars or all chars set are shared between every Category.
+     */
+    private volatile int[][] table;
+    private static final int[] EMPTY_PAGE = new int[8], FULL_PAGE = {-1, -1, -1, -1, -1, -1, -1, -1};
     private Category()
     {
         n = -1;
         length = 0;
+        directory = null;
+        data = null;
         cal = new char[0];
-        blocks = new Block[256];
-        for (int i = 0; i < 256; i++) blocks[i] = new Block();
-        }
+    }
     private Category(int[] directory, String data)
     {
+        this.directory = directory;
+        this.data = data;
         n = data.length() - 1;
-        int j = 0, len = 0;
-        cal = new char[n + 1];
+        int j = 0, len = 0, prev = 0;
         for (int i = 0; i <= n; ++i) {
-            cal[i] = (char) (j += directory[data.charAt(i) - 32]);
-            if((i & 1) == 1) len += 1 + j - cal[i-1];
+            j += directory[data.charAt(i) - 32];
+            if((i & 1) == 1) len += 1 + j - prev;
+            prev = j;
         }
         length = len;
-        blocks = makeBlocks();
+    }
+
+    private char[] cal() {
+        char[] c = cal;
+        if (c == null) {
+            c = new char[n + 1];
+            for (int i = 0, j = 0; i <= n; ++i) {
+                c[i] = (char) (j += directory[data.charAt(i) - 32]);
+            }
+            cal = c;
+        }
+        return c;
+    }
+
+    /**
+     * Gets the 256 Blocks of 256 chars each that BlockSet uses to add this Category to a character class, building them
+     * the first time this is called.
+     * @return the Blocks for this Category, which must not be modified
+     */
+    Block[] blocks() {
+        Block[] b = blocks;
+        if (b == null) blocks = b = makeBlocks();
+        return b;
     }
 
     /**
@@ -51,14 +86,16 @@ public class Category implements CharPredicate {
     public char[] contents()
     {
         int k = 0;
+        char[] cal = cal();
         char[] con = new char[length];
         for (int i = 0; i < n; i += 2)
-            for (char e = cal[i]; e <= cal[i+1]; ++e)
-                con[k++] = e;
+            for (int e = cal[i]; e <= cal[i+1]; ++e)
+                con[k++] = (char) e;
         return con;
     }
 
     private Block[] makeBlocks() {
+        char[] cal = cal();
         Block[] bls = new Block[256];
         IntBitSet[] bss = new IntBitSet[256];
         int e, e2, eb, e2b;
@@ -90,44 +127,88 @@ public class Category implements CharPredicate {
         return bls;
     }
 
+    private int[][] table() {
+        int[][] t = table;
+        if (t == null) {
+            //racing threads build equal tables, so whichever one is published last is fine
+            IntBitSet[] bits = Block.toBitset2(blocks());
+            t = new int[256][];
+            for (int i = 0; i < 256; i++) {
+                if (bits[i] == null) {
+                    t[i] = EMPTY_PAGE;
+                    continue;
+                }
+                int[] page = bits[i].toIntArray();
+                int and = -1, or = 0;
+                for (int w : page) {
+                    and &= w;
+                    or |= w;
+                }
+                t[i] = or == 0 ? EMPTY_PAGE : and == -1 ? FULL_PAGE : page;
+            }
+            table = t;
+        }
+        return t;
+    }
+
     /**
      * Returns {@code true} if the input is contained in this Category, otherwise returns {@code false}.
      * <br>
-     * This method runs in linear time proportional to the compressed size of the Category.
-     * If it isn't fast enough, you can use {@link #decompress()} and run {@link CharBitSet#contains(char)} instead.
+     * This method runs in constant time; the first call on a Category builds a small lookup table for it.
      *
      * @param checking the input argument
      * @return {@code true} if the input is contained in this Category, otherwise {@code false}
      */
     public boolean contains(char checking) {
-        for (int i = 0; i < n; i += 2) {
-            if (checking >= cal[i] && checking <= cal[i + 1])
-                return true;
-        }
-        return false;
+        return (table()[checking >>> 8][checking >>> 5 & 7] & 1 << checking) != 0;
     }
 
     /**
      * Returns {@code true} if the input is contained in this Category, otherwise returns {@code false}.
      * <br>
-     * This method runs in linear time proportional to the compressed size of the Category.
-     * If it isn't fast enough, you can use {@link #decompress()} and run {@link CharBitSet#test(char)} instead.
+     * This method runs in constant time; the first call on a Category builds a small lookup table for it.
      *
      * @param value the input argument
      * @return {@code true} if the input is contained in this Category, otherwise {@code false}
      */
     public boolean test(char value) {
-        for (int i = 0; i < n; i += 2) {
-            if (value >= cal[i] && value <= cal[i + 1])
-                return true;
-        }
-        return false;
+        return (table()[value >>> 8][value >>> 5 & 7] & 1 << value) != 0;
+    }
+
+    /**
+     * Returns {@code true} if the given code point is contained in this Category, otherwise returns {@code false}. Unlike
+     * {@link #contains(char)}, this also knows about code points past the Basic Multilingual Plane, such as emoji in
+     * the So category or the letters of historic scripts in Lo; those come from Unicode 13.0.
+     * <br>
+     * The first call for a code point past the BMP decodes the ranges for this Category; later calls take logarithmic
+     * time in how many ranges there are.
+     *
+     * @param codePoint the code point to check, between 0 and 0x10FFFF
+     * @return {@code true} if the code point is contained in this Category, otherwise {@code false}
+     */
+    public boolean containsCodePoint(int codePoint) {
+        if (codePoint < 0x10000) return codePoint >= 0 && contains((char) codePoint);
+        int[] a = astral();
+        int i = Arrays.binarySearch(a, codePoint);
+        //a hit is the first or last code point of a range; a miss is in a range if it lands after a range's first
+        return i >= 0 || (~i & 1) == 1;
+    }
+
+    /**
+     * Gets the code points past the Basic Multilingual Plane in this Category, as the first and last code point of
+     * each range in ascending order, decoding them the first time this is called.
+     * @return the ranges of code points past the BMP, which must not be modified; empty if there are none
+     */
+    int[] astral() {
+        int[] a = astral;
+        if (a == null) astral = a = Astral.of(this);
+        return a;
     }
 
     @Override
     public String toString() {
         return "Category{" +
-                String.valueOf(cal) +
+                String.valueOf(cal()) +
                 '}';
     }
 
@@ -140,8 +221,7 @@ public class Category implements CharPredicate {
 
         if (length != category.length) return false;
         if (n != category.n) return false;
-        if(category.cal == null || !Arrays.equals(cal, category.cal)) return false;
-        return Arrays.equals(blocks, category.blocks);
+        return Arrays.equals(cal(), category.cal());
 
     }
 
@@ -149,8 +229,7 @@ public class Category implements CharPredicate {
     public int hashCode() {
         int result = length;
         result = 31 * result + n;
-        result = 31 * result + Arrays.hashCode(cal);
-        result = 31 * result + Arrays.hashCode(blocks);
+        result = 31 * result + Arrays.hashCode(cal());
         return result;
     }
 
@@ -788,7 +867,7 @@ public class Category implements CharPredicate {
      */
     public static char caseFold(char c)
     {
-        return Casing.allToLower[c];
+        return Casing.Lower.table[c];
     }
 
     /**
@@ -804,7 +883,7 @@ public class Category implements CharPredicate {
      */
     public static char caseDown(char c)
     {
-        return Casing.allToLower[c];
+        return Casing.Lower.table[c];
     }
 
     /**
@@ -818,7 +897,31 @@ public class Category implements CharPredicate {
      */
     public static char caseUp(char c)
     {
-        return Casing.allToUpper[c];
+        return Casing.Upper.table[c];
+    }
+
+    /**
+     * Returns the same as {@link #caseDown(char)}, but looks it up in staged tables that take under 12KB, instead of the
+     * 128KB table that caseDown() and {@link #caseFold(char)} build the first time they are called (and that caseless
+     * matching uses). This is about half as fast in a tight loop, so it only makes sense for code that changes the case
+     * of a few chars and doesn't match caseless Patterns, such as on a platform where memory is tight.
+     * @param c any char; this should only return a case-changed different char for upper-case letters
+     * @return the single-char lower-case version of c, of it has one, otherwise c
+     */
+    public static char caseDownCompact(char c)
+    {
+        return Casing.toLowerCompact(c);
+    }
+
+    /**
+     * Returns the same as {@link #caseUp(char)}, but looks it up in staged tables that take under 12KB, the same way
+     * as {@link #caseDownCompact(char)}.
+     * @param c any char; this should only return a case-changed different char for lower-case letters
+     * @return the single-char upper-case version of c, if it has one, otherwise c
+     */
+    public static char caseUpCompact(char c)
+    {
+        return Casing.toUpperCompact(c);
     }
 
     /**
@@ -889,8 +992,8 @@ public class Category implements CharPredicate {
     }
 
     /**
-     * When a Category's compression slows down its repeated usage, you can get an uncompressed data structure using
-     * this method.
+     * Gets an uncompressed, mutable copy of this Category's chars. Membership checks on a Category are already
+     * constant-time, so this is only needed when you want to change or iterate over the set.
      * <br>
      * This allocates a new CharBitSet, which should be stored instead of generated more than once per Category.
      *
@@ -1018,4 +1121,53 @@ public class Category implements CharPredicate {
         categories.put("IdentifierStart", IdentifierStart);
         categories.put("IdentifierPart", IdentifierPart);
     }
+
+    /**
+     * The code points past the Basic Multilingual Plane in each Category that has any, compressed the same way as the
+     * Categories themselves but counted up from 0x10000. These are in a nested class so they are only loaded once a
+     * pattern compiled with {@link REFlags#CODEPOINTS} needs them; the astral() function in etc/generator.js makes them.
+     */
+    private static final class Astral {
+        private static final int[] NONE = new int[0];
+
+        static int[] of(Category c) {
+            if (c == C) return decode(new int[]{0,2,3,1,11,8,4,5,6,7,9,10,13,14,16,12,31,15,18,26,28,30,40,41,45,19,29,33,46,47,20,21,23,37,38,51,55,58,63,73,77,17,22,24,27,32,43,52,53,54,57,69,71,72,75,79,84,101,153,293,34,36,39,44,48,50,56,59,60,61,62,64,65,66,70,74,76,83,85,86,88,89,90,92,93,95,97,99,100,108,111,112,117,122,124,129,134,136,138,143,148,151,159,165,175,182,191,193,197,198,212,223,241,247,262,269,288,309,312,341,367,397,543,570,584,687,703,784,924,985,1029,1072,1239,1279,1359,1505,2307,2747,3102,4048,4150,4940,4959,5763,6137,7474,8632,8950,42719,196111,716212},"/ L > \" .#1;~&&\"<!q -!!<=\u007f5!a-:\"A%0&_&0 B\"17\u0086#$'A\"A\"7)P+!\u0083\u0096%@**\u0085)#! 8 \"!!#K G)+=> \"&\\!4&!FR\"?#C \"&* & 5#&\"$(+(h06\",%D!5#4&L('$%WkQO/O(=)$[M N &#\"H7)Nn:9K%W\"0-F ',3($'Q 9)6%v ?+9 8g% ! ' . /'d&$'' *#\"#@ % \" ( $#\"#&#!'!&%#%!(\u0082t (:G)$\u0087D#^;j+$'-2E($P4#.\"I\u008aewX$*#!#* \" 0 \"#,%$S*#=#/3G)X4E\u0092+ < 1*5!;#@ 1U% \" 8!! \" +)$') \" B \" )($\u00953\u0089!-C/\u00a0Y{ (+\u008c\u00a9\u00a3\u00ab\u009c\u00b2\u009b(M $\"\"u0#)*T*$ % J&>\u009dsxl\"E(2F(+\",\u00b0)\u00a47+\u00b3\u0094`&.')\u0099\u00a8y&-!+($#'\u00ae\u0091*6#V)zJTZ?$p%3\u0080o U \"#!#\"#' , ! % i '#* % : ' ( !!% \u0097#[#\u009e-( .\u00a6% 2#% \" (\u008e<!1#$\"\"\u0098c&!\u00a5\u008d#I6H\"$\"\"\u009fSVf\u008b' 4 \" !#! $ ' ! !'!\"! ! ! & \" !#! ! ! ! ! \" !#' % ' ' ! $ 2&& ( 2C\"\u00938\"Y$.#. . B*\u0088D5/8\"+(\",)Z\u00a1)-!-!|$r(,9,\"R)$'7)0#\"H} m \u0081$1#(!&&%%3(%%&/%6\u0084 b]$\u00a2\u00b4;\u00ac+\u008f#\u00af,\u00b1\u00aa\u009a\u00a7\u00ad\u00b6\u0090\u00b5");
+            if (c == Cn) return decode(new int[]{0,2,3,1,11,8,4,6,5,7,10,9,14,13,16,12,31,15,18,26,28,29,30,40,41,45,19,33,46,47,20,21,23,37,38,51,55,58,73,77,17,22,24,27,32,43,52,53,54,57,63,69,71,72,79,84,97,101,153,193,293,65535,34,36,39,44,48,50,56,59,60,61,62,64,65,66,68,70,74,75,76,83,85,86,88,89,90,92,93,95,99,100,108,112,117,122,124,127,129,134,136,138,143,148,151,159,165,175,182,191,197,198,212,223,241,247,262,269,288,309,312,341,367,397,543,570,584,687,703,784,924,985,1029,1072,1239,1279,1359,1505,2307,2747,3102,4038,4150,4940,4955,5763,6137,7474,8632,8950,42719,65039,715957},"/ K > \" .#1;\u0080&&\"<!u ,!!<=\u00826!c,5\"A%0&a&0 B\"18\u0089#$(A\"A\"8)O*!\u0086\u0098%@++\u0088)#! 9 \"!!#J F)*=> \"&^!4&!RQ\"?#C \"&+ & 6#&\"$'*'j07\"-%D!6#4&K'($%VnPN/N'=)$\\L M &#\"G8)Mr5:J%V\"0,l*!#3'$(P :)7%X ?*: 9i% ! ( . /(f&$(( +#\"#@ % \" ' $#\"#&#!(!&%#%!'\u0085x '5F)$\u008aD#`;m*$(,2E'$O4#.\"H\u008dgzW$+#!#+ \" 0 \"#-%$S+#=#/3F)W4E\u0094* < 1+6!;#@ 1U% \" 9!! \" *)$() \" B \" )'$\u00973\u008c!,C/\u00a2Y} '*\u008e\u00ab\u00a5 *\u00ad\u009e\u00b4\u009d'L $\"\"y0#)+T+$ % I&>\u009fw{p\"E'2R'*\"-\u00b2)\u00a68*\u00b5\u0096b&.()\u009b\u00aa|&,!*'$#+\u00b0\u0093+7#[ITZ?$t%3\u0083s U \"#!#\"#( - ! % k (#+ % 5 ( ' !!% \u0099#\\#\u00a0,' .\u00a8% 2#% \" '\u0090<!1#$\"\"\u009ae&!\u00a7\u008f#H7G\"$\"\"\u00a1Soh[( 4 \" !#! $ ( ! !(!\"! ! ! & \" !#! ! ! ! ! \" !#( % ( ( ! $ 2&& ' 2C\"\u00959\"Y$.#. . B+\u008bD6/9\"*'\"-)Z\u00a3),!,!~$v'-:-\"Q)$(8)0#\"G\u007f q \u0084$1#'!&&%%3'%%&/%7\u0087 d_$\u00a4\u00b6;\u00ae*\u0091#\u00b1-\u00b3\u00ac\u009c\u00a9\u00af\u00b8!5X\u0081\u0092\u00b7]#]#");
+            if (c == Cf) return decode(new int[]{0,3,7,8,16,31,95,4285,5328,9059,34920,798343},"' $ )#*!(\"+ %&");
+            if (c == Co) return decode(new int[]{65533,3,917504},"\" ! ");
+            if (c == L) return decode(new int[]{2,0,3,1,7,6,11,4,9,8,21,24,35,14,18,28,30,5,22,17,19,29,43,12,13,16,47,50,15,20,26,27,31,36,37,39,10,25,32,42,44,46,48,52,56,60,63,65,67,72,157,23,33,34,38,41,45,49,51,53,55,64,66,70,71,74,76,79,80,84,85,95,106,107,111,113,114,117,122,129,153,159,185,190,195,196,221,230,231,264,286,310,328,339,349,370,390,395,541,568,582,689,921,1070,1205,1237,1301,1507,2309,2357,2749,3104,4050,4148,4421,4938,5761,5991,6135,7472,8634,8952,42717},"!& E . # -\"8,n\u0080/'JJ@-4 $$B&5\",1$YR4,1,1C(ZR{D*&$p1\"! 6 #'!\"2&2D0^. #&*&E`\\$#O!9\"   /6/'/A$ ?/[&*&.-3jQL;-;-,~W$#c/&!(*i=/28KbHT+?,0!\"!(U'!8:<\"2! !A3 +f% ! \" - ()IC$\"#\"* % # ''!4!8'qK4\"* @:*# !rIG\"B:*!MG-!Q>w6mNF$\"!\"$ # S9! !g$\"V3! !5!&C)!2!7X=!,Ly) A.!;5k% # B2!>1 # @<!|.s!d\u0086xt\u008e\u0087\u0090\u0084\u0098\u0083)0l54:3\"F=%.\u0085Noa%!P7O# !5\u0096(\u00896)\u0099z; .\"(\u0081\u008ch%7'))(\u0095e _ #\"!\"#\"\" & ! % ] \"\"$ % ? \" ' !'% }\"+ + 0 + 0 + 0 + 0 + $\u008dH&%3!\u007f6\u008auMP)!\u0088\" > # !\"! ( \" ! !$!1! ! !   # !\"! ! ! ! ! # !\"\" % \" \" ! ( 9%  ' 9\u0092\u009a,\u00917v\"\u0094<\u0097\u008f\u0082\u008b\u0093");
+            if (c == Lu) return decode(new int[]{25,27,2,3,24,34,0,1,31,4,6,7,28,33,35,39,50,137,1024,1965,3054,4406,21889,26017},"2/1.304(6(7 ! ! !&\"'#&#'##\"+! !'\"##+\"*,'\"#\")\"&)*, ! ! ! ! ! ($%$%$%$%$%&5-");
+            if (c == Ll) return decode(new int[]{27,2,25,5,24,0,6,31,3,10,17,29,33,35,39,50,137,1064,1989,3022,4439,21889,26011},"1.0-2/3'5'6\" &!* \" (!%!&!) \" \" \" \" \" \" \" \"  +$!# $!# $!# $!# $!#!%4,");
+            if (c == Lm) return decode(new int[]{0,1,2,3,6,12,65,1104,2062,27456,29012},")#'%&!\" *$( ");
+            if (c == Lo) return decode(new int[]{2,0,3,1,7,11,4,9,6,21,8,18,28,22,35,14,43,5,13,16,19,29,47,12,15,17,20,26,30,31,36,37,39,52,10,24,25,27,34,42,44,46,48,50,72,23,33,38,41,45,51,53,55,56,60,65,66,71,74,76,77,79,80,85,95,99,106,107,111,113,114,122,129,153,157,159,176,184,185,190,195,196,212,221,230,231,264,286,310,328,349,370,390,395,541,568,582,881,921,1070,1237,1301,1340,1507,2309,2749,3104,4050,4148,4421,4938,5761,6135,7472,8634,8952,9319,42717},"!% D + # /\"2.g|,&JJ=/4 $$?%5\".1$h\\a@'RjxB)%$i1\"! 0 #&!\"-%-B<X+ #%)%DYT$#W!3\"   ,0,&,>$ E,S%)%+/9dLm.zP$#],%!')c:,-2A[HNCE.<!\"!'F&!268\"-! !>9 C_( ! \" / '*I@$\"#\") ( # &&!4!2&kA4\") =6)# !nIG\"?6)!VG/!L;t0r$\"!\"$ # M3! !`$\"O9! !5!%@*!-!7Q:!.Uv* >+!K5e( # ?-!;1 # =8!y+o!^\u0082up\u0089\u0083\u008b\u0080\u0092\u007f*<f546A:(+\u0081Z(!l\u0090'\u00840*\u0093wK +\"'}\u0088b(7&**'\u0094HF!{0\u0085q\u0086\" ; # !\"! ' \" ! !$!1! ! !   # !\"! ! ! ! ! # !\"\" ( \" \" ! ' 3(  & 3\u008d\u0095.\u008c7s\"\u008f8\u0091\u008a~\u0087\u008e");
+            if (c == Lc) return decode(new int[]{2,3,24,30,0,6,1,4,7,35,50,63,5,11,14,27,64,67,70,79,84,97,339,1024,1925,2990,4405,21857,25985},"735),)8*.*9+;+<4 2 &!$!&!! - $ % 0 !!( % / ! ' $'% 6!\" \" # \" # \" # \" # \" (:1");
+            if (c == M) return decode(new int[]{2,3,0,1,6,4,5,9,10,7,13,14,11,54,8,12,15,16,17,41,49,82,83,19,21,22,23,24,28,29,31,37,45,46,47,56,57,60,67,70,93,102,107,110,123,142,149,150,154,161,166,176,193,227,236,239,246,257,262,348,388,406,438,509,574,1049,1361,1505,1671,1980,5319,19450,19628,792502},"_\"U\"O%d  #$!3 &\"R#`!\\#P(S -+D!A(G ?*2#@\"* 4*'! #H,)\"Q,9!C# $!#! (\",#!$%%T2;\"57V$!.<#61J/I+Y+X& #!! \" #M$!$%\"='3$ !'\"((B0]) )68 *L&%\" # $ \"F% # %[!g%E$a\" -.!5\"/#h#f%%&')!$>!N e-&4'\"0\":% +b$ 1!$ # %Z$^!c$K$iW");
+            if (c == Mn) return decode(new int[]{2,0,1,3,4,6,5,7,9,8,10,14,41,239,11,12,13,15,16,18,21,22,23,24,28,31,33,37,38,47,49,50,53,54,55,57,58,60,63,64,70,73,82,83,85,86,96,102,107,110,123,145,149,150,154,161,166,177,196,227,257,260,262,348,388,407,438,509,574,1049,1361,1505,1671,1980,5321,19452,19641,792502},"c![!U$h  \"%#, &!X\"d#`\"V*Y!B+C ?##\"H ;$ 'F!0\"@).##!N #! \"'!W!$'5\"D\"$!<%$$Z'#  !7!L& !&\" \"-#'\" \"8\"M'#! \"P! !#& !O ## $]) \"\\\" !&!S##\"&!:(,&##(!*&# =/ \"a% & !K4#% \" \"R&$! \" % !I\"$! !_\"k$E%e!G#J!l\"j 3'#%9#T iA&>(!1!6$ +f% 2#% \" $^%b#g%Q%m-");
+            if (c == Mc) return decode(new int[]{0,2,1,3,5,7,4,9,10,107,8,11,14,15,25,30,32,46,49,54,59,60,63,85,94,105,106,110,114,116,128,143,171,210,214,238,248,262,351,408,4096,20571,24948},"H ! > 1!$\"= .\"5 2!(\", 8!&\"! @!0\"4\"!##\"#!( +\"A!'\"& )!% !## C!%## <!'\"! ; !\"% :\"$ E!( D$!\"$ # ! ?!'#$ 7 /\"6 G - ) * # B&$\"! F\"I39\"J\"%$");
+            if (c == N) return decode(new int[]{9,2,3,6,8,1,4,7,0,5,18,19,26,30,44,49,76,103,129,135,11,12,13,14,15,20,22,23,24,25,28,29,31,37,40,42,43,45,53,56,58,61,65,71,77,94,105,109,110,113,119,145,159,161,203,228,231,252,263,295,331,342,343,375,421,423,535,759,792,799,943,963,1068,1110,1486,2369,2788,17906,25674},"Z.6G*%],A\"-( (3&V f',#B$0&;)U%\"8\"EJ$F%@!0&N'='C#\\)/ [-T D\"Q#3?2 I S $+Y ^ R _ 1 14`*M c>W K b9hPm X !#e:n+O<i/k a j$2 dH!!!\"L.!7g5l ");
+            if (c == Nd) return decode(new int[]{9,103,423,49,61,71,119,129,145,231,247,279,343,375,759,813,1184,1623,2183,2369,4759,19639,27765},"0 2 / ' $ ( + , & - ! ! \" ! . * % 5 ) 6#3 \" 1 4 ");
+            if (c == Nl) return decode(new int[]{0,4,9,52,110,135,320,461,8235},"&#' \" %!($");
+            if (c == No) return decode(new int[]{3,2,1,6,8,7,19,4,5,18,26,44,76,9,12,14,15,20,22,23,24,25,30,31,37,40,42,43,45,53,58,65,66,77,105,109,113,135,159,161,263,331,342,353,380,431,799,852,872,930,963,1333,1350,5455,19335,25674},"H+@ )\"J*8 S%*#9$,'3(G\" 0 <?$=\"7!,'B%5%:#I(K6F-; D#E&L&T\"M$P)O1V#N2W&C4U$Q>!!! A+!/R.");
+            if (c == P) return decode(new int[]{0,2,1,4,3,6,5,49,415,7,8,9,11,12,14,22,29,32,39,43,66,67,80,84,89,90,93,105,106,108,110,113,127,134,156,168,200,208,238,251,253,256,263,265,273,328,418,646,669,744,785,851,1137,3795,7656,17914,19645},"I!P ' ( Q D 1 L*2 ?%5%9$R C#F%>\"!$@$'\"6$& . !!8&= N#,\"! ; G/<!0-E!H K!B :)7!!#(#3\"O\"J T#W\"A 4#+ S$M X V#U\"");
+            if (c == Pd) return decode(new int[]{0,3757},"! ");
+            if (c == Po) return decode(new int[]{0,2,1,4,3,6,5,49,415,7,8,9,11,12,14,22,29,32,39,43,66,67,80,84,89,90,93,105,106,108,110,113,127,134,156,200,208,238,251,253,256,263,265,273,328,418,646,669,744,851,953,1137,3795,7656,17914,19645},"H!O ' ( P C 1 K*2 ?%5%9$R#E%>\"!$@$'\"6$& . !!8&= M#,\"! ; F/<!0-D!G J!B :)7!!#(#3\"N\"I S#V\"A 4#+ Q$L W U#T\"");
+            if (c == S) return decode(new int[]{0,2,3,4,1,6,8,5,13,14,26,9,32,11,12,24,7,10,28,29,43,58,15,16,21,23,36,38,39,42,44,48,51,54,55,56,57,59,61,65,79,81,86,88,99,115,120,126,134,146,155,160,187,245,271,311,432,450,511,592,875,983,1659,1737,2198,2477,3191,4964,19275,20823},"W&57\"!!.# ?>^$[ b `2d\"% e cU-;\"E%!9$&3'5/G# TJ\\ * , * , * , * , * FZC\"@0!(!$_ X a # O Y$V4'L()\")!)!:/SD2)4'&&$6'R]+.#.#M(K&-8-'B++0<+3\"$HN!I!P((\"##!%%1/&%1!)%=Q!A");
+            if (c == Sm) return decode(new int[]{0,26,32,1,5933,54977},"% ! \" ! \" ! \" ! \" ! $#");
+            if (c == Sc) return decode(new int[]{0,3,2481,8157,49951},"#!$ \" ");
+            if (c == Sk) return decode(new int[]{4,62459},"! ");
+            if (c == So) return decode(new int[]{2,0,3,6,4,5,8,1,13,14,9,7,11,12,24,10,16,29,43,58,15,21,23,28,36,38,39,42,44,48,51,54,55,56,57,59,65,79,81,86,88,99,115,120,130,134,146,155,160,187,245,250,311,511,592,722,727,1194,1659,1737,2198,2909,3191,4964,19275,20823},"T&30\"  -$!=<Z'V!^!\\+%0`\"#!a!_R,9\"C# 6'&1%3.D$!QGYUA\">+ ( '[!]!L!W2%I()\") ) 8.PB7)2%&&'4%OS#X*-$-$J(H&,5,%@**+:*1\"'EK F M((\"$$ ##/.&#/ )#;N ?");
+            if (c == Word) return decode(new int[]{2,3,0,9,1,6,5,4,7,8,24,12,35,13,16,30,29,14,18,10,11,21,44,56,15,22,28,43,49,19,25,26,27,31,36,39,50,58,74,17,20,42,45,53,54,55,64,70,71,103,106,157,195,23,32,33,37,41,48,51,52,57,59,62,65,66,68,69,72,73,75,77,79,81,82,84,86,92,102,109,110,114,122,131,136,140,149,153,156,167,186,196,197,214,221,239,264,286,295,310,311,339,370,395,513,541,568,581,582,689,792,921,1031,1070,1237,1287,1361,1507,2309,2749,2788,3104,4050,4148,4938,5319,5761,6135,7472,8634,8952,42717,716214},"\"4 > 2 $ 1!-,r-6-72$q\"s:'Z.@&,30%I%0!,&( ';S!#(,&,&C#[S\u0083354(w&!\" ; $'\"!9!/!X#)<2 $%V&>PM&=!< $%(   :! &#*/ AW( 0&'GK45!?%>*%id7D1D)J##\u0082/ Y $'$hC#Bm@593O+0.^9*)#(\\ #&!#,!\"3b&! + \"&=+G B(\"a% \" ! 1 #)E%#(! (!$!5 % $ ' #!$! !\"(\"%%!%''uF%#&!Ac \"##yK!)*&,N'\"+#C7)#M?!1&4|Enj-(!\"!( $ 0 $!)-#P(!J!( $:_#\"#e'\",7\u0080) 6 ).:%0!5 -F% $ ;'\" $ )##(& $ B $ &)#\u00849z\".H6\u008fQp2T\u0097\u0091\u009a\u008c\u00a1\u008a)/ #Q0!'+L3!-# % H%2\u008dlRF&7).`$ $+$8\u009f#\u0092;)\u00a2\u0081D 2!#\u0087\u0096R%+'))#'$\u009d''&#(!%A!v x=o*tk O $!\"!$!! 4 \" % N !!( % @ ! ' \"'% \u0085!* * / * / * / * / * (!<\u0088L&<#\"8\"U' 1\u0094% .!% $ '}6'-!#&\"\u0086]\u0093{!8If&#\u008eE   !g6 1T! ? $ \"!\" # ! \" \"(\"&\" \" \"   $ \"!\" \" \" \" \" $ \"!! % ! ! \" # .%  ' .\u008b+\u0098#\u0090\u00a3,\u009b+~!\u009e8\u00a0\u0099\u0089\u0095\u009c\u00a4\u007f");
+            if (c == J) return decode(new int[]{2,3,0,9,1,6,5,4,7,8,24,12,35,13,16,30,29,14,18,10,11,21,56,15,22,28,43,44,49,19,25,26,27,31,36,39,50,58,74,17,20,32,42,45,53,54,55,64,70,71,103,106,157,195,23,33,37,41,48,51,52,57,59,62,65,66,68,69,72,73,75,77,79,81,82,84,86,92,102,109,110,114,122,131,136,140,149,153,156,167,186,196,197,214,221,239,264,286,295,310,311,339,370,395,513,541,568,581,582,689,792,921,1031,1070,1237,1281,1361,1507,2309,2749,2788,3104,4050,4148,4938,5319,5761,6135,7472,8634,8952,42717,716214},"\"4 > 2 $ 1!-,r-;-62$q\"s9'Z.@&,30%J%0!,&( ':T!#(,&,&C#[T\u0083354(w&!\" : $'\"!8!/!X#)<2 $%I&>QN&=!< $%(   9! &#*/ AW( 0&'GL45!?%>*%id6D1D)K##\u0082/ Y $'$hC#Bm@583P+0.^8*)#(\\ #&!#,!\"3b&! + \"&=+G B(\"a% \" ! 1 #)E%#(! (!$!5 % $ ' #!$! !\"(\"%%!%''uF%#&!Ac \"##yL!)*&,O'\"+#C6)#N?!1&4|Enj-(!\"!( $ 0 $!)-#Q(!K!( $9_#\"#e'\",6\u0080) ; ).9%0!5 -F% $ :'\" $ )##(& $ B $ &)#\u00848z\".H#!I\u008fRp2U\u0097\u0091\u009a\u008c\u00a1\u008a)/ #R0!'+M3!-# % H%2\u008dlSF&6).`$ $+$7\u009f#\u0092:)\u00a2\u0081D 2!#\u0087\u0096S%+'))#'$\u009d''&#(!%A!v x=o*tk P $!\"!$!! 4 \" % O !!( % @ ! ' \"'% \u0085!* * / * / * / * / * (!<\u0088M&<#\"7\"V' 1\u0094% .!% $ '};'-!#&\"\u0086]%\"\u0093{!7Jf&#\u008eE (g; 1U! ? $ \"!\" # ! \" \"(\"&\" \" \"   $ \"!\" \" \" \" \" $ \"!! % ! ! \" # .%  ' .\u008b+\u0098#\u0090\u00a3,\u009b+~!\u009e7\u00a0\u0099\u0089\u0095\u009c\u00a4\u007f");
+            if (c == Js) return decode(new int[]{2,0,3,1,6,4,7,11,9,8,18,21,24,35,14,28,30,5,22,29,43,17,12,13,16,19,20,47,50,15,26,27,31,32,36,37,39,52,10,25,42,44,45,46,48,56,60,63,65,67,70,72,157,23,33,34,38,41,51,53,55,64,66,71,74,76,79,84,85,95,103,106,107,110,111,113,114,117,122,129,153,159,185,190,195,196,221,230,264,268,286,310,328,336,339,349,370,395,541,568,582,689,869,921,1070,1237,1281,1507,2309,2357,2749,3104,4050,4148,4421,4938,5761,5991,6135,7472,8634,8952,42717},"!' G * # .\"7-nREy/%LL@.3$C'3\"-1& %4T9-1-1D(ZT{F+'&p1\"! 4 #%!\"2'2F0^* #'+'G_\\&#P!8\"   /4/%/B& ?/['+'*.5jSM<.<.-\u007fY&#b/'!(+h:/27EaIV,?-0!\"!(W%!7;=\"2! !B5 ,d$ ! \" . ()KD&\"#\"+ $ # %%!9!7%qE9\"+ @;+# !rKH\"C;+!NH.!S>w4mOA&\"!\"& # U8! !e&\"X5! !3!'D)!2!6J:!-Mx) B*!<3k$ # C2!>1 # @=!|*s!J\"A\u0087fi*t\u008e\u0088\u0090\u0084\u0098\u0083)0l39;5\"A:$*\u0085Oo`$!Q6P# !3\u0096(\u00894)\u0099z< *\"(\u0081\u008cg$6%))(\u0095c R #\"!\"#\"\" ' ! $ ] \"\"& $ ? \" % !%$ ~\", , 0 , 0 , 0 , 0 , &\u008dI'$5!\u00804:!\u008auNQ)!\u0086!}\" > # !\"! ( \" ! !&!1! ! !   # !\"! ! ! ! ! # !\"\" $ \" \" ! ( 8$  % 8\u0092\u009a-\u00916v\"\u0094=\u0097\u008f\u0082\u008b\u0093");
+            return NONE;
+        }
+
+        private static int[] decode(int[] directory, String data) {
+            int[] ranges = new int[data.length()];
+            for (int i = 0, j = 0x10000; i < ranges.length; i++) {
+                ranges[i] = j += directory[data.charAt(i) - 32];
+            }
+            return ranges;
+        }
+    }
 }
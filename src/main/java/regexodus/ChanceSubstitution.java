@@ -77,7 +77,8 @@ public class ChanceSubstitution implements Substitution, Serializable {
 
     static {
         try {
-            refPtn = new Pattern(groupRef);
+            //every new substitution parses its expression with this, so the Matchers for it are reused
+            refPtn = new Pattern(groupRef).setPooled(true);
             MODE_ID = refPtn.groupId("mode");
             NAME_ID = refPtn.groupId("name");
             ESC_ID = refPtn.groupId("esc");
@@ -119,9 +120,10 @@ public class ChanceSubstitution implements Substitution, Serializable {
     public ChanceSubstitution(String s, double chance, long seed) {
         state += seed;
         this.chance = chance;
-        Matcher refMatcher = new Matcher(refPtn);
+        Matcher refMatcher = refPtn.obtainMatcher();
         refMatcher.setTarget(s);
         queueEntry = makeQueue(refMatcher);
+        refPtn.freeMatcher(refMatcher);
     }
 
     public String value(MatchResult mr) {
@@ -41,26 +41,12 @@ class CharacterClass extends Term implements UnicodeConstants {
     private static final BlockSet HSPACE = new BlockSet();
     private static final BlockSet VSPACE = new BlockSet();
 
-    private static final BlockSet UDIGIT = new BlockSet();
-    private static final BlockSet UWORDCHAR = new BlockSet();
-    private static final BlockSet USPACE = new BlockSet();
-    private static final BlockSet UHSPACE = new BlockSet();
-    private static final BlockSet UVSPACE = new BlockSet();
-
     private static final BlockSet NONDIGIT = new BlockSet();
     private static final BlockSet NONWORDCHAR = new BlockSet();
     private static final BlockSet NONSPACE = new BlockSet();
     private static final BlockSet NONHSPACE = new BlockSet();
     private static final BlockSet NONVSPACE = new BlockSet();
 
-    private static final BlockSet UNONDIGIT = new BlockSet();
-    private static final BlockSet UNONWORDCHAR = new BlockSet();
-    private static final BlockSet UNONSPACE = new BlockSet();
-    private static final BlockSet UNONHSPACE = new BlockSet();
-    private static final BlockSet UNONVSPACE = new BlockSet();
-
-    private static boolean namesInitialized = false;
-
     private static final HashMap<String, BlockSet> namedClasses = new HashMap<String, BlockSet>();
     private static final ArrayList<String> unicodeBlocks = new ArrayList<String>();
     private static final ArrayList<String> posixClasses = new ArrayList<String>();
@@ -76,19 +62,12 @@ class CharacterClass extends Term implements UnicodeConstants {
     private static final String[] blockDataNames = {"BASICLATIN","LATIN1SUPPLEMENT","LATINEXTENDEDA","LATINEXTENDEDB","IPAEXTENSIONS","SPACINGMODIFIERLETTERS","COMBININGDIACRITICALMARKS","GREEK","CYRILLIC","CYRILLICSUPPLEMENT","ARMENIAN","HEBREW","ARABIC","SYRIAC","ARABICSUPPLEMENT","THAANA","NKO","SAMARITAN","MANDAIC","SYRIACSUPPLEMENT","ARABICEXTENDEDA","DEVANAGARI","BENGALI","GURMUKHI","GUJARATI","ORIYA","TAMIL","TELUGU","KANNADA","MALAYALAM","SINHALA","THAI","LAO","TIBETAN","MYANMAR","GEORGIAN","HANGULJAMO","ETHIOPIC","ETHIOPICSUPPLEMENT","CHEROKEE","UNIFIEDCANADIANABORIGINALSYLLABICS","OGHAM","RUNIC","TAGALOG","HANUNOO","BUHID","TAGBANWA","KHMER","MONGOLIAN","UNIFIEDCANADIANABORIGINALSYLLABICSEXTENDED","LIMBU","TAILE","NEWTAILUE","KHMERSYMBOLS","BUGINESE","TAITHAM","COMBININGDIACRITICALMARKSEXTENDED","BALINESE","SUNDANESE","BATAK","LEPCHA","OLCHIKI","CYRILLICEXTENDEDC","SUNDANESESUPPLEMENT","VEDICEXTENSIONS","PHONETICEXTENSIONS","PHONETICEXTENSIONSSUPPLEMENT","COMBININGDIACRITICALMARKSSUPPLEMENT","LATINEXTENDEDADDITIONAL","GREEKEXTENDED","GENERALPUNCTUATION","SUPERSCRIPTSANDSUBSCRIPTS","CURRENCYSYMBOLS","COMBININGDIACRITICALMARKSFORSYMBOLS","LETTERLIKESYMBOLS","NUMBERFORMS","ARROWS","MATHEMATICALOPERATORS","MISCELLANEOUSTECHNICAL","CONTROLPICTURES","OPTICALCHARACTERRECOGNITION","ENCLOSEDALPHANUMERICS","BOXDRAWING","BLOCKELEMENTS","GEOMETRICSHAPES","MISCELLANEOUSSYMBOLS","DINGBATS","MISCELLANEOUSMATHEMATICALSYMBOLSA","SUPPLEMENTALARROWSA","BRAILLEPATTERNS","SUPPLEMENTALARROWSB","MISCELLANEOUSMATHEMATICALSYMBOLSB","SUPPLEMENTALMATHEMATICALOPERATORS","MISCELLANEOUSSYMBOLSANDARROWS","GLAGOLITIC","LATINEXTENDEDC","COPTIC","GEORGIANSUPPLEMENT","TIFINAGH","ETHIOPICEXTENDED","CYRILLICEXTENDEDA","SUPPLEMENTALPUNCTUATION","CJKRADICALSSUPPLEMENT","KANGXIRADICALS","IDEOGRAPHICDESCRIPTIONCHARACTERS","CJKSYMBOLSANDPUNCTUATION","HIRAGANA","KATAKANA","BOPOMOFO","HANGULCOMPATIBILITYJAMO","KANBUN","BOPOMOFOEXTENDED","CJKSTROKES","KATAKANAPHONETICEXTENSIONS","ENCLOSEDCJKLETTERSANDMONTHS","CJKCOMPATIBILITY","CJKUNIFIEDIDEOGRAPHSEXTENSIONA","YIJINGHEXAGRAMSYMBOLS","CJKUNIFIEDIDEOGRAPHS","YISYLLABLES","YIRADICALS","LISU","VAI","CYRILLICEXTENDEDB","BAMUM","MODIFIERTONELETTERS","LATINEXTENDEDD","SYLOTINAGRI","COMMONINDICNUMBERFORMS","PHAGSPA","SAURASHTRA","DEVANAGARIEXTENDED","KAYAHLI","REJANG","HANGULJAMOEXTENDEDA","JAVANESE","MYANMAREXTENDEDB","CHAM","MYANMAREXTENDEDA","TAIVIET","MEETEIMAYEKEXTENSIONS","ETHIOPICEXTENDEDA","LATINEXTENDEDE","CHEROKEESUPPLEMENT","MEETEIMAYEK","HANGULSYLLABLES","HANGULJAMOEXTENDEDB","HIGHSURROGATES","HIGHPRIVATEUSESURROGATES","LOWSURROGATES","PRIVATEUSEAREA","CJKCOMPATIBILITYIDEOGRAPHS","ALPHABETICPRESENTATIONFORMS","ARABICPRESENTATIONFORMSA","VARIATIONSELECTORS","VERTICALFORMS","COMBININGHALFMARKS","CJKCOMPATIBILITYFORMS","SMALLFORMVARIANTS","ARABICPRESENTATIONFORMSB","HALFWIDTHANDFULLWIDTHFORMS","SPECIALS"};
 
     static {
-        //*
         DIGIT.setDigit(false);
         WORDCHAR.setWordChar(false);
         SPACE.setSpace(false);
         HSPACE.setHorizontalSpace(false);
         VSPACE.setVerticalSpace(false);
 
-        UDIGIT.setDigit(true);
-        UWORDCHAR.setWordChar(true);
-        USPACE.setSpace(true);
-        UHSPACE.setHorizontalSpace(true);
-        UVSPACE.setVerticalSpace(true);
-
         NONDIGIT.setDigit(false);
         NONDIGIT.setPositive(false);
         NONWORDCHAR.setWordChar(false);
@@ -100,20 +79,46 @@ class CharacterClass extends Term implements UnicodeConstants {
         NONVSPACE.setVerticalSpace(false);
         NONVSPACE.setPositive(false);
 
-        UNONDIGIT.setDigit(true);
-        UNONDIGIT.setPositive(false);
-        UNONWORDCHAR.setWordChar(true);
-        UNONWORDCHAR.setPositive(false);
-        UNONSPACE.setSpace(true);
-        UNONSPACE.setPositive(false);
-        UNONHSPACE.setHorizontalSpace(true);
-        UNONHSPACE.setPositive(false);
-        UNONVSPACE.setVerticalSpace(true);
-        UNONVSPACE.setPositive(false);
-
         initPosixClasses();
     }
 
+    /**
+     * Holds the Unicode-aware versions of the predefined classes, which need Category data; this is only loaded the
+     * first time a pattern uses one of them, so patterns that stick to ASCII classes never decode any categories.
+     */
+    private static final class UnicodeClasses {
+        static final BlockSet UDIGIT = new BlockSet();
+        static final BlockSet UWORDCHAR = new BlockSet();
+        static final BlockSet USPACE = new BlockSet();
+        static final BlockSet UHSPACE = new BlockSet();
+        static final BlockSet UVSPACE = new BlockSet();
+
+        static final BlockSet UNONDIGIT = new BlockSet();
+        static final BlockSet UNONWORDCHAR = new BlockSet();
+        static final BlockSet UNONSPACE = new BlockSet();
+        static final BlockSet UNONHSPACE = new BlockSet();
+        static final BlockSet UNONVSPACE = new BlockSet();
+
+        static {
+            UDIGIT.setDigit(true);
+            UWORDCHAR.setWordChar(true);
+            USPACE.setSpace(true);
+            UHSPACE.setHorizontalSpace(true);
+            UVSPACE.setVerticalSpace(true);
+
+            UNONDIGIT.setDigit(true);
+            UNONDIGIT.setPositive(false);
+            UNONWORDCHAR.setWordChar(true);
+            UNONWORDCHAR.setPositive(false);
+            UNONSPACE.setSpace(true);
+            UNONSPACE.setPositive(false);
+            UNONHSPACE.setHorizontalSpace(true);
+            UNONHSPACE.setPositive(false);
+            UNONVSPACE.setVerticalSpace(true);
+            UNONVSPACE.setPositive(false);
+        }
+    }
+
     private static void registerClass(String name, BlockSet cls, ArrayList<String> realm) {
         namedClasses.put(name, cls);
         name = name.replace("_", "").replace("-", "").toUpperCase();
@@ -166,153 +171,61 @@ class CharacterClass extends Term implements UnicodeConstants {
         registerClass("Space", space, posixClasses);
     }
 
-    private static void initNames() {
-        initNamedCategory("C");
-        initNamedCategory("Cn");
-        initNamedCategory("Cc");
-        initNamedCategory("Cf");
-        initNamedCategory("Co");
-        initNamedCategory("Cs");
-
-        initNamedCategory("L");
-        initNamedCategory("Lu");
-        initNamedCategory("Ll");
-        initNamedCategory("Lt");
-        initNamedCategory("Lm");
-        initNamedCategory("Lo");
-
-        initNamedCategory("M");
-        initNamedCategory("Mn");
-        initNamedCategory("Me");
-        initNamedCategory("Mc");
-
-        initNamedCategory("N");
-        initNamedCategory("Nd");
-        initNamedCategory("Nl");
-        initNamedCategory("No");
-
-        initNamedCategory("Z");
-        initNamedCategory("Zs");
-        initNamedCategory("Zl");
-        initNamedCategory("Zp");
-        initNamedCategory("Zh");
-        initNamedCategory("Zv");
-
-        initNamedCategory("P");
-        initNamedCategory("Pd");
-        initNamedCategory("Ps");
-        initNamedCategory("Pi");
-        initNamedCategory("Pe");
-        initNamedCategory("Pf");
-        initNamedCategory("Pc");
-        initNamedCategory("Po");
-
-        initNamedCategory("S");
-        initNamedCategory("Sm");
-        initNamedCategory("Sc");
-        initNamedCategory("Sk");
-        initNamedCategory("So");
-
-        initNamedCategory("J");
-        initNamedCategory("Js");
-        initNamedCategory("Jp");
-
-        initNamedCategory("G");
-        initNamedCategory("Gh");
-        initNamedCategory("Gv");
-
-        initNamedCategory("Other");
-        initNamedCategory("PrivateUse");
-        initNamedCategory("Unassigned");
-        initNamedCategory("Control");
-        initNamedCategory("Format");
-        initNamedCategory("Surrogate");
-        initNamedCategory("Letter");
-        initNamedCategory("UppercaseLetter");
-        initNamedCategory("LowercaseLetter");
-        initNamedCategory("TitlecaseLetter");
-        initNamedCategory("ModifierLetter");
-        initNamedCategory("OtherLetter");
-        initNamedCategory("CasedLetter");
-        initNamedCategory("Mark");
-        initNamedCategory("NonspacingMark");
-        initNamedCategory("EnclosingMark");
-        initNamedCategory("SpacingMark");
-        initNamedCategory("Number");
-        initNamedCategory("DecimalNumber");
-        initNamedCategory("LetterNumber");
-        initNamedCategory("OtherNumber");
-        initNamedCategory("Separator");
-        initNamedCategory("SpaceSeparator");
-        initNamedCategory("LineSeparator");
-        initNamedCategory("ParagraphSeparator");
-        initNamedCategory("Punctuation");
-        initNamedCategory("DashPunctuation");
-        initNamedCategory("OpenPunctuation");
-        initNamedCategory("InitialPunctuation");
-        initNamedCategory("ClosePunctuation");
-        initNamedCategory("FinalPunctuation");
-        initNamedCategory("ConnectorPunctuation");
-        initNamedCategory("OtherPunctuation");
-        initNamedCategory("Symbol");
-        initNamedCategory("MathSymbol");
-        initNamedCategory("CurrencySymbol");
-        initNamedCategory("ModifierSymbol");
-        initNamedCategory("OtherSymbol");
-        initNamedCategory("Identifier");
-        initNamedCategory("Space");
-        initNamedCategory("Horizontal");
-        initNamedCategory("Vertical");
-        initNamedCategory("IdentifierStart");
-        initNamedCategory("IdentifierPart");
-
-        BlockSet bs = new BlockSet();
-        bs.setCategory("Cn");
-        registerClass("UNASSIGNED", bs, unicodeCategories);
-        bs = new BlockSet();
-        bs.setCategory("Cn");
-        bs.setPositive(false);
-        registerClass("ASSIGNED", bs, unicodeCategories);
-
-        for (int i = 0; i < blockDataStarts.length; i++) {
-            try {
-                initNamedBlock(blockDataNames[i], blockDataStarts[i], blockDataEnds[i]);
-            } catch (Exception e) {
-                e.printStackTrace();
+    //the categories that can be named in \p{...}; each is only turned into a BlockSet once a pattern uses it
+    private static final String[] categoryNames = {
+            "C", "Cn", "Cc", "Cf", "Co", "Cs", "L", "Lu", "Ll", "Lt", "Lm", "Lo", "M", "Mn", "Me", "Mc", "N", "Nd",
+            "Nl", "No", "Z", "Zs", "Zl", "Zp", "Zh", "Zv", "P", "Pd", "Ps", "Pi", "Pe", "Pf", "Pc", "Po", "S", "Sm",
+            "Sc", "Sk", "So", "J", "Js", "Jp", "G", "Gh", "Gv", "Other", "PrivateUse", "Unassigned", "Control",
+            "Format", "Surrogate", "Letter", "UppercaseLetter", "LowercaseLetter", "TitlecaseLetter", "ModifierLetter",
+            "OtherLetter", "CasedLetter", "Mark", "NonspacingMark", "EnclosingMark", "SpacingMark", "Number",
+            "DecimalNumber", "LetterNumber", "OtherNumber", "Separator", "SpaceSeparator", "LineSeparator",
+            "ParagraphSeparator", "Punctuation", "DashPunctuation", "OpenPunctuation", "InitialPunctuation",
+            "ClosePunctuation", "FinalPunctuation", "ConnectorPunctuation", "OtherPunctuation", "Symbol", "MathSymbol",
+            "CurrencySymbol", "ModifierSymbol", "OtherSymbol", "Identifier", "Space", "Horizontal", "Vertical",
+            "IdentifierStart", "IdentifierPart"
+    };
+
+    /**
+     * Builds the named class for a normalized (upper-case, no '_' or '-') name, or returns null if there is no such
+     * Unicode category or block.
+     */
+    private static BlockSet makeNamedClass(String name) {
+        BlockSet bs = null;
+        if (name.equals("UNASSIGNED") || name.equals("ASSIGNED")) {
+            bs = new BlockSet();
+            bs.setCategory("Cn");
+            if (name.equals("ASSIGNED")) bs.setPositive(false);
+            registerClass(name, bs, unicodeCategories);
+            return bs;
+        }
+        for (String category : categoryNames) {
+            if (category.toUpperCase().equals(name)) {
+                bs = new BlockSet();
+                bs.setCategory(category);
+                registerClass(name, bs, unicodeCategories);
+                return bs;
             }
         }
-
-        initNamedBlock("ALL", 0, 0xffff);
-
-        namesInitialized = true;
-        //*/
-    }
-
-    private static void initNamedBlock(String name, int first, int last) {
-        if (first < Character.MIN_VALUE || first > Character.MAX_VALUE)
-            throw new IllegalArgumentException("wrong start code (" + first + ") in block " + name);
-        if (last < Character.MIN_VALUE || last > Character.MAX_VALUE)
-            throw new IllegalArgumentException("wrong end code (" + last + ") in block " + name);
-        if (last < first) throw new IllegalArgumentException("end code < start code in block " + name);
-        name = name.replace("_", "").replace("-", "").toUpperCase();
-        BlockSet bs = namedClasses.get(name);
-        if (bs == null) {
+        for (int i = 0; i < blockDataNames.length; i++) {
+            if (blockDataNames[i].equals(name)) {
+                if (bs == null) bs = new BlockSet();
+                bs.setRange((char) blockDataStarts[i], (char) blockDataEnds[i]);
+            }
+        }
+        if (name.equals("ALL")) {
             bs = new BlockSet();
-            registerClass(name, bs, unicodeBlocks);
+            bs.setRange((char) 0, (char) 0xffff);
         }
-        bs.setRange((char) first, (char) last);
+        if (bs != null) registerClass(name, bs, unicodeBlocks);
+        return bs;
     }
 
-    private static void initNamedCategory(String name) {
-        BlockSet bs = new BlockSet();
-        bs.setCategory(name);
-        registerClass(name.toUpperCase(), bs, unicodeCategories);
+    private static synchronized BlockSet getNamedClass(String name) {
+        name = name.replace("_", "").replace("-", "").toUpperCase();
+        BlockSet bs = namedClasses.get(name);
+        return bs == null ? makeNamedClass(name) : bs;
     }
 
-    private static BlockSet getNamedClass(String name) {
-        if (!namesInitialized) initNames();
-        return namedClasses.get(name.replace("_", "").replace("-", "").toUpperCase());
-    }
 /*
     static void makeICase(Term term, char c) {
         BlockSet bs = new BlockSet();
@@ -326,30 +239,30 @@ class CharacterClass extends Term implements UnicodeConstants {
     }*/
 
     static void makeDigit(Term term, boolean inverse, boolean unicode) {
-        BlockSet digit = unicode ? inverse ? UNONDIGIT : UDIGIT :
+        BlockSet digit = unicode ? inverse ? UnicodeClasses.UNONDIGIT : UnicodeClasses.UDIGIT :
                 inverse ? NONDIGIT : DIGIT;
         BlockSet.unify(digit, term);
     }
 
     static void makeSpace(Term term, boolean inverse, boolean unicode) {
-        BlockSet space = unicode ? inverse ? UNONSPACE : USPACE :
+        BlockSet space = unicode ? inverse ? UnicodeClasses.UNONSPACE : UnicodeClasses.USPACE :
                 inverse ? NONSPACE : SPACE;
         BlockSet.unify(space, term);
     }
 
     static void makeHSpace(Term term, boolean inverse, boolean unicode) {
-        BlockSet space = unicode ? inverse ? UNONHSPACE : UHSPACE :
+        BlockSet space = unicode ? inverse ? UnicodeClasses.UNONHSPACE : UnicodeClasses.UHSPACE :
                 inverse ? NONHSPACE : HSPACE;
         BlockSet.unify(space, term);
     }
     static void makeVSpace(Term term, boolean inverse, boolean unicode) {
-        BlockSet space = unicode ? inverse ? UNONVSPACE : UVSPACE :
+        BlockSet space = unicode ? inverse ? UnicodeClasses.UNONVSPACE : UnicodeClasses.UVSPACE :
                 inverse ? NONVSPACE : VSPACE;
         BlockSet.unify(space, term);
     }
 
     static void makeWordChar(Term term, boolean inverse, boolean unicode) {
-        BlockSet wordChar = unicode ? inverse ? UNONWORDCHAR : UWORDCHAR :
+        BlockSet wordChar = unicode ? inverse ? UnicodeClasses.UNONWORDCHAR : UnicodeClasses.UWORDCHAR :
                 inverse ? NONWORDCHAR : WORDCHAR;
         BlockSet.unify(wordChar, term);
     }
@@ -370,7 +283,7 @@ class CharacterClass extends Term implements UnicodeConstants {
     }
 
     static void parseGroup(char[] data, int i, int out, Term term, boolean icase, boolean skipspaces,
-                                 boolean unicode, boolean xml) throws PatternSyntaxException {
+                                 boolean unicode, boolean xml, boolean codepoints) throws PatternSyntaxException {
         BlockSet sum = new BlockSet();
         BlockSet bs = new BlockSet();
         int mode = ADD;
@@ -388,7 +301,7 @@ class CharacterClass extends Term implements UnicodeConstants {
                     continue;
                 case '[':
                     bs.reset();
-                    i = parseClass(data, i, out, bs, icase, skipspaces, unicode, xml);
+                    i = parseClass(data, i, out, bs, icase, skipspaces, unicode, xml, codepoints);
                     switch (mode) {
                         case ADD:
                             sum.add(bs);
@@ -409,9 +322,9 @@ class CharacterClass extends Term implements UnicodeConstants {
     }
 
     static int parseClass(char[] data, int i, int out, Term term, boolean icase, boolean skipspaces,
-                                boolean unicode, boolean xml) throws PatternSyntaxException {
+                                boolean unicode, boolean xml, boolean codepoints) throws PatternSyntaxException {
         BlockSet bs = new BlockSet();
-        i = parseClass(data, i, out, bs, icase, skipspaces, unicode, xml);
+        i = parseClass(data, i, out, bs, icase, skipspaces, unicode, xml, codepoints);
         BlockSet.unify(bs, term);
         return i;
     }
@@ -427,14 +340,21 @@ class CharacterClass extends Term implements UnicodeConstants {
         return i;
     }
 
+    //a class of just one code point past the BMP, which matches nothing unless REFlags.CODEPOINTS widens it
+    static void makeCodePoint(Term term, int codePoint) {
+        BlockSet bs = new BlockSet();
+        bs.setCodePoints(codePoint, codePoint);
+        BlockSet.unify(bs, term);
+    }
+
     /*
     * @param mode add/subtract
     */
     private static int parseClass(char[] data, int i, int out, BlockSet bs,
                                   boolean icase, boolean skipspaces,
-                                  boolean unicode, boolean xml) throws PatternSyntaxException {
+                                  boolean unicode, boolean xml, boolean codepoints) throws PatternSyntaxException {
         char c;
-        int prev = -1, oct = 0;
+        int prev = -1, oct = 0, wide = -1;
         boolean isFirst = true, setFirst = false, inRange = false;
         BlockSet bs1 = null;
         StringBuilder sb = null;
@@ -447,17 +367,7 @@ class CharacterClass extends Term implements UnicodeConstants {
                     if (inRange) {
                         bs.setChar('-');
                     }
-                    if (prev >= 0) {
-                        char c1 = (char) prev;
-                        if (icase) {
-                            /*
-                            bs.setChar(Character.toLowerCase(c1));
-                            bs.setChar(Character.toUpperCase(c1));
-                            bs.setChar(Character.toTitleCase(c1));
-                            */
-                            bs.setChar(Category.caseFold(c1));
-                        } else bs.setChar(c1);
-                    }
+                    if (prev >= 0) setChar(bs, prev, icase);
                     return i;
 
                 case '-':
@@ -470,10 +380,10 @@ class CharacterClass extends Term implements UnicodeConstants {
 
                 case '[':
                     if (inRange && xml) { //[..-[..]]
-                        if (prev >= 0) bs.setChar((char) prev);
+                        if (prev >= 0) setChar(bs, prev, false);
                         if (bs1 == null) bs1 = new BlockSet();
                         else bs1.reset();
-                        i = parseClass(data, i, out, bs1, icase, skipspaces, unicode, xml);
+                        i = parseClass(data, i, out, bs1, icase, skipspaces, unicode, xml, codepoints);
                         bs.subtract(bs1);
                         inRange = false;
                         prev = -1;
@@ -539,12 +449,13 @@ class CharacterClass extends Term implements UnicodeConstants {
                                 while (i < out && (d = data[i++]) != '}') {
                                     hex = (hex << 4) + toHexDigit(d);
                                 }
-                                if (hex > 0xffff || i == out)
+                                if (hex > (codepoints ? 0x10ffff : 0xffff) || i == out)
                                     throw new PatternSyntaxException("\\x{<out of range or incomplete>}");
                             } else {
                                 if(i >= out - 2) throw new PatternSyntaxException("incomplete escape sequence \\xHH");
                                 hex = (toHexDigit(d) << 4) + toHexDigit(data[i++]);
                             }
+                            if (hex > 0xffff) wide = hex;
                             c = (char) hex;
                             break handle_special;
                         }
@@ -616,15 +527,15 @@ class CharacterClass extends Term implements UnicodeConstants {
                         //classes;
                         //
                         case 'D':   // non-digit
-                            negativeClass = unicode ? UNONDIGIT : NONDIGIT;
+                            negativeClass = unicode ? UnicodeClasses.UNONDIGIT : NONDIGIT;
                             break;
 
                         case 'S':   // space
-                            negativeClass = unicode ? UNONSPACE : NONSPACE;
+                            negativeClass = unicode ? UnicodeClasses.UNONSPACE : NONSPACE;
                             break;
 
                         case 'W':   // space
-                            negativeClass = unicode ? UNONWORDCHAR : NONWORDCHAR;
+                            negativeClass = unicode ? UnicodeClasses.UNONWORDCHAR : NONWORDCHAR;
                             break;
 
                         case 'd':   // digit
@@ -690,44 +601,51 @@ class CharacterClass extends Term implements UnicodeConstants {
                     */
                 default:
             }
-            //c is a normal char
+            //c is a normal char, or starts a code point past the BMP
+            int v = c;
+            if (wide >= 0) {
+                v = wide;
+                wide = -1;
+            } else if (codepoints && Character.isHighSurrogate(c) && i < out && Character.isLowSurrogate(data[i]))
+                v = Character.toCodePoint(c, data[i++]);
             if (prev < 0) {
-                prev = c;
+                prev = v;
                 inRange = false;
                 continue;
             }
             if (!inRange) {
-                char c1 = (char) prev;
-                if (icase) {
-                    /*
-                    bs.setChar(Character.toLowerCase(c1));
-                    bs.setChar(Character.toUpperCase(c1));
-                    bs.setChar(Character.toTitleCase(c1));
-                    */
-                    bs.setChar(Category.caseFold(c1));
-                } else bs.setChar(c1);
-                prev = c;
+                setChar(bs, prev, icase);
+                prev = v;
             } else {
-                if (prev > c)
-                    throw new PatternSyntaxException("illegal range: " + prev + ">" + c);
-                char c0 = (char) prev;
+                if (prev > v)
+                    throw new PatternSyntaxException("illegal range: " + prev + ">" + v);
+                int c0 = prev;
                 inRange = false;
                 prev = -1;
-                if (icase) {
-                    /*
-                    bs.setRange(Character.toLowerCase(c0), Character.toLowerCase(c));
-                    bs.setRange(Character.toUpperCase(c0), Character.toUpperCase(c));
-                    bs.setRange(Character.toTitleCase(c0), Character.toTitleCase(c));
-                    */
-                    bs.setRange(Category.caseFold(c0), Category.caseFold(c));
-
-                } else bs.setRange(c0, c);
+                setRange(bs, c0, v, icase);
             }
         }
         throw new PatternSyntaxException("unbalanced brackets in a class def");
     }
 
 
+    //code points past the BMP are never case-folded
+    private static void setChar(BlockSet bs, int c, boolean icase) {
+        if (c > 0xffff) bs.setCodePoints(c, c);
+        else if (icase) bs.setChar(Category.caseFold((char) c));
+        else bs.setChar((char) c);
+    }
+
+    private static void setRange(BlockSet bs, int c0, int c, boolean icase) {
+        if (c > 0xffff) {
+            bs.setCodePoints(Math.max(c0, 0x10000), c);
+            if (c0 > 0xffff) return;
+            c = 0xffff;
+        }
+        if (icase) bs.setRange(Category.caseFold((char) c0), Category.caseFold((char) c));
+        else bs.setRange((char) c0, (char) c);
+    }
+
     private static int parseName(char[] data, int i, int out, StringBuilder sb,
                                  boolean skipspaces) throws PatternSyntaxException {
         char c;
@@ -778,10 +696,8 @@ class CharacterClass extends Term implements UnicodeConstants {
         throw new PatternSyntaxException("wrong class name: " + new String(data, i, out - i));
     }
 
-    private static StringBuilder b0 = new StringBuilder(100), b2 = new StringBuilder(100);
-
     static String stringValue0(IntBitSet arr) {
-        b0.setLength(0);
+        StringBuilder b0 = new StringBuilder(100);
         int c = 0;
 
         for (; ; ) {
@@ -820,7 +736,7 @@ class CharacterClass extends Term implements UnicodeConstants {
    */
 
     static String stringValue2(IntBitSet[] arr) {
-        b2.setLength(0);
+        StringBuilder b2 = new StringBuilder(100);
         int c = 0;
         loop:
         for (; ; ) {
@@ -878,7 +794,6 @@ class CharacterClass extends Term implements UnicodeConstants {
 
     /*
     public static void main(String[] args) {
-        if (!namesInitialized) initNames();
         if (args.length == 0) {
             System.out.println("Class usage: \\p{Class},\\P{Class}");
             printRealm(posixClasses, "Posix classes");
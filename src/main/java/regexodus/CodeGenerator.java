@@ -0,0 +1,662 @@
+package regexodus;
+
+import regexodus.ds.IntBitSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Turns Patterns into Java source ahead of time: each becomes a subclass of {@link CompiledSearch} whose search is
+ * straight-line code for that Pattern's Terms, so none of the work of deciding what each Term does is left for when
+ * the search runs. This is meant to be run when building a project, with the generated sources compiled alongside the
+ * rest; the generated code only uses RegExodus and plain Java, so it works on GWT too.
+ * <br>
+ * From the command line (or a Gradle JavaExec task), {@link #main(String[])} takes a file of declarations and a
+ * directory to write sources to. Each line of the file that isn't empty or a comment starting with '#' declares one
+ * class, such as:<pre>
+ * com.example.regex.Email = (\w+)@(\w+)\.(com|org|net)
+ * com.example.regex.Greeting/i = hello\s+world
+ * </pre>
+ * The part before " = " is the fully-qualified name of the class to write, optionally followed by a slash and flags as
+ * given to {@link Pattern#Pattern(String, String)}; everything after " = " is the regular expression. The generated
+ * classes each have a {@code PATTERN} field, which is a normal Pattern that searches with the generated code.
+ * <br>
+ * Only Patterns that could also be compiled with {@link REFlags#LINEAR} can be turned into source, so backreferences,
+ * lookaround, conditionals, independent groups and "\G" can't be used. Searching with {@link Matcher#ACCEPT_INCOMPLETE}
+ * still uses the backtracker, as does any Pattern compiled with {@link REFlags#LINEAR}.
+ * <br>
+ * Code generated by one version of RegExodus may not be right for another; if {@link CompiledSearch#VERSION} has
+ * changed since it was generated, the generated code isn't used and the Pattern searches as usual.
+ */
+@GwtIncompatible
+public final class CodeGenerator {
+    /**
+     * The most Terms a Pattern can have and still be turned into source, which keeps the generated method well under
+     * the size limit of a JVM method.
+     */
+    public static final int MAX_TERMS = 1000;
+
+    private final Pattern pattern;
+    private final ArrayList<Term> terms = new ArrayList<Term>();
+    private final IdentityHashMap<Term, Integer> ids = new IdentityHashMap<Term, Integer>();
+    //constants for the bitsets the Terms use, by content, and their declarations
+    private final HashMap<IntBitSet, String> bits = new HashMap<IntBitSet, String>();
+    private final HashMap<List<String>, String> tables = new HashMap<List<String>, String>();
+    private final StringBuilder fields = new StringBuilder();
+    private final StringBuilder sb = new StringBuilder();
+
+    private CodeGenerator(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Writes the Java source of a {@link CompiledSearch} for pattern.
+     * @param pattern the Pattern to write as source; it must not use anything that {@link REFlags#LINEAR} can't
+     * @param className the fully-qualified name of the class to write; it may be in the default package
+     * @return the source of one Java file
+     * @throws IllegalArgumentException if pattern can't be turned into source
+     */
+    public static String generate(Pattern pattern, String className) {
+        pattern.parse();
+        return new CodeGenerator(pattern).write(className);
+    }
+
+    /**
+     * Reads a file of declarations, as described in the class documentation, and writes a Java file for each class it
+     * declares, in the usual directory for its package under the output directory.
+     * @param args the declarations file, then the output directory
+     * @throws IOException if the declarations can't be read or a source file can't be written
+     * @throws IllegalArgumentException if a declaration isn't valid or a Pattern can't be turned into source
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2)
+            throw new IllegalArgumentException("usage: CodeGenerator <declarations file> <output directory>");
+        Charset utf8 = Charset.forName("UTF-8");
+        List<String> lines = Files.readAllLines(new File(args[0]).toPath(), utf8);
+        File outDir = new File(args[1]);
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n);
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            int eq = line.indexOf(" = ");
+            if (eq < 0)
+                throw new IllegalArgumentException(args[0] + ":" + (n + 1) + ": expected ClassName = regex");
+            String name = line.substring(0, eq).trim(), flags = "";
+            int slash = name.indexOf('/');
+            if (slash >= 0) {
+                flags = name.substring(slash + 1);
+                name = name.substring(0, slash);
+            }
+            String source;
+            try {
+                source = generate(new Pattern(line.substring(eq + 3), flags), name);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(args[0] + ":" + (n + 1) + ": " + e.getMessage(), e);
+            }
+            File file = new File(outDir, name.replace('.', File.separatorChar) + ".java");
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("can't make directory " + dir);
+            Files.write(file.toPath(), source.getBytes(utf8));
+        }
+    }
+
+    private String write(String className) {
+        number(pattern, terms, ids);
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot + 1);
+
+        sb.append("    @Override\n");
+        sb.append("    protected boolean search(char[] data, int offset, int from, int end, boolean anchored, boolean matchEnd,\n");
+        sb.append("                             boolean resume, int[] groups, int[] counters, int[][] stacks) {\n");
+        sb.append("        int[] frames = stacks[0], saves = stacks[1];\n");
+        sb.append("        int start = from, last = anchored ? from : end, state = 0, i = from, cnt = 0, top = 0, saved = 0, f;\n");
+        sb.append("        char c;\n");
+        sb.append("        boolean fresh = !resume;\n");
+        sb.append("        if (resume) {\n");
+        sb.append("            //go on as if the last match had failed\n");
+        sb.append("            start = stacks[2][0];\n");
+        sb.append("            top = stacks[2][1];\n");
+        sb.append("            saved = stacks[2][2];\n");
+        sb.append("            f = --top << 2;\n");
+        sb.append("            state = frames[f];\n");
+        sb.append("            i = frames[f + 1];\n");
+        sb.append("            cnt = frames[f + 2];\n");
+        sb.append("            if (saved > frames[f + 3]) saved = restore(groups, counters, saves, saved, frames[f + 3]);\n");
+        sb.append("        } else Arrays.fill(groups, -1);\n");
+        Term root = pattern.root0;
+        if (root.type == Term.START) {
+            //"^" at the very start can only match at the start of the target
+            sb.append("        if (start != offset) return false;\n");
+            sb.append("        last = start;\n");
+        }
+        sb.append("        for (; start <= last; start++) {\n");
+        sb.append("            if (fresh) {\n");
+        if (root.type == Term.CHAR && !pattern.caseless) {
+            sb.append("                if (!anchored) {\n");
+            sb.append("                    while (start < end && data[start] != ").append(literal(root.c)).append(") start++;\n");
+            sb.append("                    if (start >= end) break;\n");
+            sb.append("                }\n");
+        }
+        sb.append("                state = 0;\n");
+        sb.append("                i = start;\n");
+        sb.append("                cnt = 0;\n");
+        sb.append("            }\n");
+        sb.append("            fresh = true;\n");
+        sb.append("            for (; ; ) {\n");
+        sb.append("                fail:\n");
+        sb.append("                {\n");
+        sb.append("                    switch (state) {\n");
+        for (int id = 0; id < terms.size(); id++) {
+            Term t = terms.get(id);
+            sb.append("                        case ").append(id).append(": //").append(name(t.type)).append('\n');
+            term(t, id);
+        }
+        sb.append("                    }\n");
+        sb.append("                }\n");
+        sb.append("                if (top == 0) break;\n");
+        sb.append("                f = --top << 2;\n");
+        sb.append("                state = frames[f];\n");
+        sb.append("                i = frames[f + 1];\n");
+        sb.append("                if (saved > frames[f + 3]) saved = restore(groups, counters, saves, saved, frames[f + 3]);\n");
+        sb.append("            }\n");
+        sb.append("            if (saved > 0) saved = restore(groups, counters, saves, saved, 0);\n");
+        sb.append("        }\n");
+        sb.append("        stacks[0] = frames;\n");
+        sb.append("        stacks[1] = saves;\n");
+        sb.append("        return false;\n");
+        sb.append("    }\n");
+
+        StringBuilder file = new StringBuilder(sb.length() + fields.length() + 1024);
+        if (dot > 0) file.append("package ").append(className, 0, dot).append(";\n\n");
+        file.append("import regexodus.Category;\n");
+        file.append("import regexodus.CompiledSearch;\n");
+        file.append("import regexodus.Pattern;\n\n");
+        file.append("import java.util.Arrays;\n\n");
+        file.append("/**\n");
+        file.append(" * Generated by regexodus.CodeGenerator from the regular expression:<pre>\n");
+        file.append(" * ").append(html(pattern.stringRepr)).append("\n");
+        file.append(" * </pre>\n");
+        file.append(" * Use {@link #PATTERN} to search with it.\n");
+        file.append(" */\n");
+        file.append("@SuppressWarnings(\"all\")\n");
+        file.append("public final class ").append(simpleName).append(" extends CompiledSearch {\n");
+        file.append(fields);
+        file.append("    /**\n");
+        file.append("     * The Pattern this class was generated from, which searches with the generated code.\n");
+        file.append("     */\n");
+        file.append("    public static final Pattern PATTERN = new ").append(simpleName).append("().pattern();\n\n");
+        file.append("    private ").append(simpleName).append("() {\n");
+        file.append("        super(\"").append(escape(pattern.stringRepr)).append("\", ").append(pattern.flags)
+                .append(", ").append(CompiledSearch.VERSION).append(");\n");
+        file.append("    }\n\n");
+        file.append(sb);
+        file.append("}\n");
+        return file.toString();
+    }
+
+    //numbers the Terms so that a Term is followed by its next one wherever possible, which lets the code for it fall
+    //through to the code for the next; this also checks that every Term can be written as source. BytecodeCompiler
+    //numbers the Terms it writes the same way.
+    static void number(Pattern pattern, ArrayList<Term> terms, IdentityHashMap<Term, Integer> ids) {
+        ArrayList<Term> pending = new ArrayList<Term>();
+        pending.add(pattern.root0);
+        while (!pending.isEmpty()) {
+            Term t = pending.remove(pending.size() - 1);
+            while (t != null && !ids.containsKey(t)) {
+                check(pattern, t);
+                ids.put(t, terms.size());
+                terms.add(t);
+                if (terms.size() > MAX_TERMS)
+                    throw new IllegalArgumentException("too many terms to write as source: " + pattern);
+                switch (t.type) {
+                    case Term.BRANCH:
+                    case Term.BRANCH_STORE_CNT:
+                    case Term.BRANCH_STORE_CNT_AUX1:
+                    case Term.REPEAT_0_INF:
+                    case Term.REPEAT_MIN_INF:
+                    case Term.REPEAT_MIN_MAX:
+                        pending.add(t.failNext);
+                }
+                t = t.next;
+            }
+        }
+    }
+
+    private static void check(Pattern pattern, Term t) {
+        switch (t.type) {
+            case Term.REPEAT_0_INF:
+            case Term.REPEAT_MIN_INF:
+            case Term.REPEAT_MIN_MAX:
+                if (t.target == null || !consumes(t.target.type))
+                    throw new IllegalArgumentException("can't repeat " + t.target + " in source");
+                return;
+            case Term.BACKTRACK_FIND_MIN:
+                if (t.target == null || (t.target.type != Term.CHAR && t.target.type != Term.BITSET
+                        && t.target.type != Term.BITSET2))
+                    throw new IllegalArgumentException("can't seek " + t.target + " in source");
+                return;
+            case Term.REG:
+            case Term.REG_I:
+            case Term.REPEAT_REG_MIN_INF:
+            case Term.REPEAT_REG_MIN_MAX:
+            case Term.MEMREG_CONDITION:
+            case Term.FINDREG:
+            case Term.BACKTRACK_FINDREG_MIN:
+            case Term.BACKTRACK_REG_MIN:
+                throw new IllegalArgumentException("backreferences can't be written as source: " + pattern);
+            case Term.LAST_MATCH_END:
+                throw new IllegalArgumentException("\\G can't be written as source: " + pattern);
+        }
+        if (name(t.type) == null)
+            throw new IllegalArgumentException(
+                    "lookaround, conditionals and independent groups can't be written as source: " + pattern);
+    }
+
+    private static boolean consumes(int type) {
+        return type == Term.CHAR || type == Term.BITSET || type == Term.BITSET2 || type == Term.ANY_CHAR
+                || type == Term.ANY_CHAR_NE;
+    }
+
+    private static String name(int type) {
+        switch (type) {
+            case Term.CHAR: return "CHAR";
+            case Term.BITSET: return "BITSET";
+            case Term.BITSET2: return "BITSET2";
+            case Term.ANY_CHAR: return "ANY_CHAR";
+            case Term.ANY_CHAR_NE: return "ANY_CHAR_NE";
+            case Term.VOID: return "VOID";
+            case Term.GROUP_IN: return "GROUP_IN";
+            case Term.GROUP_OUT: return "GROUP_OUT";
+            case Term.BRANCH: return "BRANCH";
+            case Term.BRANCH_STORE_CNT: return "BRANCH_STORE_CNT";
+            case Term.BRANCH_STORE_CNT_AUX1: return "BRANCH_STORE_CNT_AUX1";
+            case Term.SUCCESS: return "SUCCESS";
+            case Term.START: return "START";
+            case Term.END: return "END";
+            case Term.END_EOL: return "END_EOL";
+            case Term.LINE_START: return "LINE_START";
+            case Term.LINE_END: return "LINE_END";
+            case Term.BOUNDARY: return "BOUNDARY";
+            case Term.UBOUNDARY: return "UBOUNDARY";
+            case Term.DIRECTION: return "DIRECTION";
+            case Term.UDIRECTION: return "UDIRECTION";
+            case Term.REPEAT_0_INF: return "REPEAT_0_INF";
+            case Term.REPEAT_MIN_INF: return "REPEAT_MIN_INF";
+            case Term.REPEAT_MIN_MAX: return "REPEAT_MIN_MAX";
+            case Term.BACKTRACK_0: return "BACKTRACK_0";
+            case Term.BACKTRACK_MIN: return "BACKTRACK_MIN";
+            case Term.BACKTRACK_FIND_MIN: return "BACKTRACK_FIND_MIN";
+            case Term.CNT_SET_0: return "CNT_SET_0";
+            case Term.CNT_INC: return "CNT_INC";
+            case Term.CNT_GT_EQ: return "CNT_GT_EQ";
+            case Term.READ_CNT_LT: return "READ_CNT_LT";
+            case Term.CRSTORE_CRINC: return "CRSTORE_CRINC";
+            case Term.CR_SET_0: return "CR_SET_0";
+            case Term.CR_LT: return "CR_LT";
+            case Term.CR_GT_EQ: return "CR_GT_EQ";
+        }
+        return null;
+    }
+
+    //writes the code for one Term, which does the same as the case for it in Matcher.search()
+    private void term(Term t, int id) {
+        final String in = "                            ";
+        switch (t.type) {
+            case Term.CHAR:
+                line(in, "if (i >= end || " + fold("data[i]") + " != " + literal(t.c) + ") break fail;");
+                line(in, "i++;");
+                break;
+            case Term.ANY_CHAR:
+                line(in, "if (i >= end) break fail;");
+                line(in, "i++;");
+                break;
+            case Term.ANY_CHAR_NE:
+                line(in, "if (i >= end || (c = data[i]) == '\\r' || c == '\\n') break fail;");
+                line(in, "i++;");
+                break;
+            case Term.BITSET:
+                line(in, "if (i >= end) break fail;");
+                line(in, "c = " + fold("data[i]") + ";");
+                line(in, "if (" + (t.inverse ? test(t) : not(test(t))) + ") break fail;");
+                line(in, "i++;");
+                break;
+            case Term.BITSET2:
+                line(in, "if (i >= end) break fail;");
+                line(in, "c = " + fold("data[i]") + ";");
+                //an empty block fails even when inverted, as in Matcher
+                if (t.inverse) line(in, "if (" + table(t) + "[c >>> 8] == null || " + test(t) + ") break fail;");
+                else line(in, "if (" + not(test(t)) + ") break fail;");
+                line(in, "i++;");
+                break;
+            case Term.GROUP_IN:
+                if (t.memreg > 0) line(in, "groups[" + t.memreg * 3 + "] = i;");
+                break;
+            case Term.GROUP_OUT:
+                if (t.memreg > 0) {
+                    int m = t.memreg * 3;
+                    line(in, "if (saved == saves.length) saves = grow(saves);");
+                    line(in, "saves[saved] = " + t.memreg + ";");
+                    line(in, "saves[saved + 1] = groups[" + (m + 1) + "];");
+                    line(in, "saves[saved + 2] = groups[" + (m + 2) + "];");
+                    line(in, "saved += 3;");
+                    line(in, "groups[" + (m + 1) + "] = groups[" + m + "];");
+                    line(in, "groups[" + (m + 2) + "] = i;");
+                }
+                break;
+            case Term.BRANCH:
+            case Term.BRANCH_STORE_CNT:
+            case Term.BRANCH_STORE_CNT_AUX1:
+                push(in, t.failNext);
+                break;
+            case Term.SUCCESS:
+                line(in, "if (matchEnd && i != end) break fail;");
+                succeed(in);
+                return;
+            case Term.START:
+                line(in, "if (i != offset) break fail;");
+                break;
+            case Term.END:
+                line(in, "if (i < end) break fail;");
+                break;
+            case Term.END_EOL:
+                line(in, "if (!endOfInput(data, end, i)) break fail;");
+                break;
+            case Term.LINE_START:
+                line(in, "if (!lineStart(data, offset, end, i)) break fail;");
+                break;
+            case Term.LINE_END:
+                line(in, "if (!lineEnd(data, end, i)) break fail;");
+                break;
+            case Term.BOUNDARY:
+            case Term.UBOUNDARY:
+            case Term.DIRECTION:
+            case Term.UDIRECTION: {
+                String set = t.type == Term.BOUNDARY || t.type == Term.DIRECTION ? bits(t.bitset) : table(t);
+                line(in, "{");
+                line(in, "    boolean before = i > offset && in(" + set + ", " + fold("data[i - 1]") + ");");
+                line(in, "    boolean after = i < end && in(" + set + ", " + fold("data[i]") + ");");
+                if (t.type == Term.BOUNDARY || t.type == Term.UBOUNDARY)
+                    line(in, "    if (" + (t.inverse ? "before ^ after" : "!(before ^ after)") + ") break fail;");
+                else
+                    line(in, "    if (" + (t.inverse ? "!before || after" : "before || !after") + ") break fail;");
+                line(in, "}");
+                break;
+            }
+            case Term.REPEAT_0_INF:
+            case Term.REPEAT_MIN_INF:
+            case Term.REPEAT_MIN_MAX: {
+                Term target = t.target;
+                line(in, "{");
+                String limit = t.type == Term.REPEAT_MIN_MAX
+                        ? "end - i > " + t.maxCount + " ? i + " + t.maxCount + " : end" : "end";
+                if (target.type == Term.ANY_CHAR) line(in, "    int j = " + limit + ";");
+                else {
+                    line(in, "    int j = i, limit = " + limit + ";");
+                    //like Matcher.repeat(), this doesn't fold case
+                    line(in, "    while (j < limit) {");
+                    line(in, "        c = data[j];");
+                    line(in, "        if (" + repeated(target) + ") j++;");
+                    line(in, "        else break;");
+                    line(in, "    }");
+                }
+                line(in, "    cnt = j - i;");
+                line(in, "}");
+                if (t.type == Term.REPEAT_0_INF) {
+                    line(in, "if (cnt > 0) {");
+                    line(in, "    i += cnt;");
+                    push(in + "    ", t.failNext);
+                    line(in, "}");
+                } else {
+                    line(in, "if (cnt < " + t.minCount + ") break fail;");
+                    line(in, "i += cnt;");
+                    push(in, t.failNext);
+                }
+                break;
+            }
+            case Term.BACKTRACK_0:
+            case Term.BACKTRACK_MIN: {
+                int min = t.type == Term.BACKTRACK_0 ? 0 : t.minCount;
+                line(in, "cnt = frames[(top << 2) + 2];");
+                line(in, "if (cnt <= " + min + ") break fail;");
+                line(in, "cnt--;");
+                line(in, "i--;");
+                push(in, t);
+                break;
+            }
+            case Term.BACKTRACK_FIND_MIN: {
+                //gives back chars until the target of the repeat can be found, as Matcher.findBack() does
+                int min = t.minCount;
+                line(in, "cnt = frames[(top << 2) + 2];");
+                line(in, "if (cnt <= " + min + ") break fail;");
+                line(in, "if (i + " + t.distance + " > end) {");
+                line(in, "    int exceed = i + " + t.distance + " - end;");
+                line(in, "    cnt -= exceed;");
+                line(in, "    if (cnt <= " + min + ") break fail;");
+                line(in, "    i -= exceed;");
+                line(in, "}");
+                line(in, "{");
+                line(in, "    int at = i + " + t.distance + ", j = at, least = at - (cnt - " + min + ");");
+                line(in, "    for (; ; ) {");
+                line(in, "        c = " + fold("data[--j]") + ";");
+                line(in, "        if (" + sought(t.target) + ") break;");
+                line(in, "        if (j <= least) break fail;");
+                line(in, "    }");
+                line(in, "    cnt -= at - j;");
+                line(in, "    i -= at - j;");
+                line(in, "}");
+                line(in, "if (cnt > " + min + ") {");
+                push(in + "    ", t);
+                line(in, "}");
+                if (t.eat) line(in, "i++;");
+                break;
+            }
+            case Term.CNT_SET_0:
+                line(in, "cnt = 0;");
+                break;
+            case Term.CNT_INC:
+                line(in, "cnt++;");
+                break;
+            case Term.CNT_GT_EQ:
+                line(in, "if (cnt < " + t.maxCount + ") break fail;");
+                break;
+            case Term.READ_CNT_LT:
+                line(in, "cnt = frames[(top << 2) + 2];");
+                line(in, "if (cnt >= " + t.maxCount + ") break fail;");
+                break;
+            case Term.CRSTORE_CRINC:
+                line(in, "if (saved == saves.length) saves = grow(saves);");
+                line(in, "saves[saved] = " + ~t.cntreg + ";");
+                line(in, "saves[saved + 1] = counters[" + t.cntreg + "]++;");
+                line(in, "saved += 3;");
+                break;
+            case Term.CR_SET_0:
+                line(in, "counters[" + t.cntreg + "] = 0;");
+                break;
+            case Term.CR_LT:
+                line(in, "if (counters[" + t.cntreg + "] >= " + t.maxCount + ") break fail;");
+                break;
+            case Term.CR_GT_EQ:
+                line(in, "if (counters[" + t.cntreg + "] < " + t.maxCount + ") break fail;");
+                break;
+        }
+        //VOID and the groups that aren't captured only go on to the next Term
+        next(in, t.next, id);
+    }
+
+    private void line(String indent, String code) {
+        sb.append(indent).append(code).append('\n');
+    }
+
+    private void next(String in, Term next, int id) {
+        if (next == null) succeed(in);
+        else if (ids.get(next) != id + 1) {
+            line(in, "state = " + ids.get(next) + ";");
+            line(in, "continue;");
+        }
+    }
+
+    private void succeed(String in) {
+        line(in, "groups[0] = groups[1] = start;");
+        line(in, "groups[2] = i;");
+        line(in, "stacks[0] = frames;");
+        line(in, "stacks[1] = saves;");
+        line(in, "stacks[2][0] = start;");
+        line(in, "stacks[2][1] = top;");
+        line(in, "stacks[2][2] = saved;");
+        line(in, "return true;");
+    }
+
+    private void push(String in, Term resume) {
+        line(in, "if ((f = top++ << 2) + 4 == frames.length) frames = grow(frames);");
+        line(in, "frames[f] = " + ids.get(resume) + ";");
+        line(in, "frames[f + 1] = i;");
+        line(in, "frames[f + 2] = cnt;");
+        line(in, "frames[f + 3] = saved;");
+    }
+
+    private String fold(String c) {
+        return pattern.caseless ? "Category.caseFold(" + c + ")" : c;
+    }
+
+    //an expression that is true when the char c is in the Term's set, ignoring whether it is inverted
+    private String test(Term t) {
+        switch (t.type) {
+            case Term.CHAR:
+                return "c == " + literal(t.c);
+            case Term.ANY_CHAR:
+                return "true";
+            case Term.ANY_CHAR_NE:
+                return "c != '\\r' && c != '\\n'";
+            case Term.BITSET: {
+                //a few ranges are checked directly, and anything more with a lookup
+                StringBuilder ranges = new StringBuilder();
+                int count = 0;
+                for (int a = 0; a < 256; a++) {
+                    if (!t.bitset.get(a)) continue;
+                    int b = a;
+                    while (b < 255 && t.bitset.get(b + 1)) b++;
+                    if (++count > 3) return "in(" + bits(t.bitset) + ", c)";
+                    if (ranges.length() > 0) ranges.append(" || ");
+                    if (a == b) ranges.append("c == ").append(literal((char) a));
+                    else ranges.append("c >= ").append(literal((char) a)).append(" && c <= ").append(literal((char) b));
+                    a = b;
+                }
+                return count == 0 ? "false" : ranges.toString();
+            }
+            default:
+                return "in(" + table(t) + ", c)";
+        }
+    }
+
+    //true when c continues a repeat of t, which matches Matcher.repeat()
+    private String repeated(Term t) {
+        if (t.type == Term.ANY_CHAR_NE || t.type == Term.CHAR || !t.inverse) return test(t);
+        return not(test(t));
+    }
+
+    //true when c is what a BACKTRACK_FIND_MIN is looking for, which matches Matcher.findBack()
+    private String sought(Term t) {
+        if (t.type == Term.CHAR || !t.inverse) return test(t);
+        if (t.type == Term.BITSET) return not(test(t));
+        return table(t) + "[c >>> 8] == null || " + test(t);
+    }
+
+    private static String not(String test) {
+        if (test.indexOf('&') < 0 && test.indexOf('|') < 0) {
+            if (test.startsWith("in(")) return "!" + test;
+            if (test.startsWith("c == ")) return "c != " + test.substring(5);
+        }
+        return "!(" + test + ")";
+    }
+
+    private String bits(IntBitSet set) {
+        String name = bits.get(set);
+        if (name == null) {
+            name = "BITS_" + bits.size();
+            bits.put(set, name);
+            fields.append("    private static final int[] ").append(name).append(" = {");
+            int[] ints = set.toIntArray();
+            for (int i = 0; i < ints.length; i++) {
+                if (i > 0) fields.append(", ");
+                fields.append("0x").append(Integer.toHexString(ints[i]));
+            }
+            fields.append("};\n");
+        }
+        return name;
+    }
+
+    private String table(Term t) {
+        IntBitSet[] blocks = t.bitset2;
+        ArrayList<String> names = new ArrayList<String>(256);
+        for (IntBitSet block : blocks) {
+            names.add(block == null ? null : bits(block));
+        }
+        String name = tables.get(names);
+        if (name == null) {
+            name = "TABLE_" + tables.size();
+            tables.put(names, name);
+            ArrayList<String> distinct = new ArrayList<String>();
+            StringBuilder layout = new StringBuilder(256 * 4 + 160);
+            for (int b = 0; b < names.size(); b++) {
+                String n = names.get(b);
+                int index = 0;
+                if (n != null) {
+                    index = distinct.indexOf(n);
+                    if (index < 0) {
+                        index = distinct.size();
+                        distinct.add(n);
+                    }
+                    index++;
+                }
+                //32 blocks to a line
+                if (b > 0 && (b & 31) == 0) layout.append("\" +\n            \"");
+                layout.append(index < 256 ? String.format("\\%03o", index) : String.format("\\u%04x", index));
+            }
+            fields.append("    private static final int[][] ").append(name).append(" = table(new int[][]{");
+            for (int i = 0; i < distinct.size(); i++) {
+                if (i > 0) fields.append(i % 10 == 0 ? ",\n            " : ", ");
+                fields.append(distinct.get(i));
+            }
+            fields.append("},\n            \"").append(layout).append("\");\n");
+        }
+        return name;
+    }
+
+    //a char as Java source; anything but printable ASCII is written as a number, which compares the same way
+    private static String literal(char c) {
+        if (c == '\'' || c == '\\') return "'\\" + c + "'";
+        if (c >= ' ' && c <= '~') return "'" + c + "'";
+        return Integer.toString(c);
+    }
+
+    //a String as the inside of a Java string literal
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < ' ' || c == 127) sb.append(String.format("\\%03o", (int) c));
+            else if (c > '~') sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    //a String as the text of a doc comment; backslashes would be read as Unicode escapes, and "*/" would end it
+    private static String html(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '/' || c == '@' || c == '&' || c == '<' || c == '>' || c < ' ')
+                sb.append("&#").append((int) c).append(';');
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package regexodus;
+
+import java.util.Arrays;
+
+/**
+ * The search of one Pattern, written out ahead of time as plain Java code by {@link CodeGenerator}. Each Term of the
+ * Pattern becomes a few lines of code in a generated subclass, instead of a trip through the switch on Term types
+ * that {@link Matcher} takes for every Term it reaches; because that code is ordinary Java, it also works on GWT and
+ * other targets that can't generate bytecode at runtime.
+ * <br>
+ * A generated class isn't used directly. Its {@link #pattern()} is a normal Pattern (compiled once, the first time it
+ * is needed), and every Matcher of that Pattern runs the generated code in place of the backtracker, so matches,
+ * groups, replacing and splitting all work and give the same results as before. The Pattern is still compiled from
+ * its source when it is first needed, so startup isn't any faster; only searching is.
+ * <br>
+ * The static methods here are used by the generated code, and aren't meant to be called otherwise.
+ */
+public abstract class CompiledSearch {
+    /**
+     * Changes whenever generated code would need to be different; code generated for another version isn't used.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Turns Patterns into CompiledSearch objects while a program runs, as {@link BytecodeCompiler} does. Once one is
+     * installed, each Pattern is given to it after it has been searched with the backtracker enough times.
+     */
+    public interface Compiler {
+        /**
+         * @param pattern a Pattern that has been searched often
+         * @return a CompiledSearch that searches the same way as pattern
+         * @throws IllegalArgumentException if pattern can't be compiled, in which case it keeps searching as before
+         */
+        CompiledSearch compileSearch(Pattern pattern);
+    }
+
+    private final String regex;
+    private final int flags, version;
+    private Pattern pattern;
+
+    /**
+     * Only called by generated subclasses.
+     * @param regex the regular expression the subclass was generated from
+     * @param flags the flags it was compiled with, as in {@link REFlags}
+     * @param version the {@link #VERSION} of the generator that wrote the subclass
+     */
+    protected CompiledSearch(String regex, int flags, int version) {
+        this.regex = regex;
+        this.flags = flags;
+        this.version = version;
+    }
+
+    /**
+     * Gets the Pattern that runs this generated code, compiling it the first time this is called. If the code was
+     * generated for a different {@link #VERSION}, the Pattern searches the usual way instead.
+     * @return a Pattern whose Matchers use this to search
+     */
+    public synchronized Pattern pattern() {
+        if (pattern == null) {
+            Pattern p = new Pattern(regex, flags);
+            if (version == VERSION) p.compiled = this;
+            pattern = p;
+        }
+        return pattern;
+    }
+
+    /**
+     * @return the regular expression this was generated from
+     */
+    public String regex() {
+        return regex;
+    }
+
+    /**
+     * @return the flags this was generated with, as in {@link REFlags}
+     */
+    public int flags() {
+        return flags;
+    }
+
+    /**
+     * Searches data for the leftmost match, the same one the backtracker would find.
+     * @param data the chars to search
+     * @param offset where the target starts
+     * @param from where the search (or with anchored, the match) starts
+     * @param end where the target ends
+     * @param anchored if true, only a match starting at from is accepted
+     * @param matchEnd if true, only a match ending at end is accepted
+     * @param resume if true, this goes on from the last match found, trying what the backtracker would try after it
+     * @param groups receives, if there is a match, its start and end at 1 and 2, and then the temporary start, start and
+     *               end of each group in sequence; unset values are -1
+     * @param counters room for the Pattern's repeat counters
+     * @param stacks the backtracking frames at 0 and the saved groups at 1, which are replaced if they need to grow;
+     *               at 2, the start of a match that was found and how much of each stack was still in use
+     * @return true if a match was found
+     */
+    protected abstract boolean search(char[] data, int offset, int from, int end, boolean anchored, boolean matchEnd,
+                                      boolean resume, int[] groups, int[] counters, int[][] stacks);
+
+    /**
+     * @param array a backtracking or save stack
+     * @return a copy of array with twice the room
+     */
+    protected static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length << 1);
+    }
+
+    /**
+     * Puts back the groups and counters saved between mark and top on the save stack, newest first; the entries are
+     * the same as the ones Matcher keeps.
+     * @return mark, which is the new top of the save stack
+     */
+    protected static int restore(int[] groups, int[] counters, int[] saves, int top, int mark) {
+        for (int s = top - 3; s >= mark; s -= 3) {
+            int reg = saves[s];
+            if (reg >= 0) {
+                groups[reg * 3 + 1] = saves[s + 1];
+                groups[reg * 3 + 2] = saves[s + 2];
+            } else counters[~reg] = saves[s + 1];
+        }
+        return mark;
+    }
+
+    /**
+     * @param set a 256-bit set, as 8 ints
+     * @param c a char
+     * @return true if c is in set
+     */
+    protected static boolean in(int[] set, char c) {
+        return c < 256 && (set[c >>> 5] & 1 << c) != 0;
+    }
+
+    /**
+     * @param table 256 blocks of 256 bits each, with null for an empty block
+     * @param c a char
+     * @return true if c is in table
+     */
+    protected static boolean in(int[][] table, char c) {
+        int[] block = table[c >>> 8];
+        return block != null && (block[(c & 255) >>> 5] & 1 << c) != 0;
+    }
+
+    /**
+     * Builds a table of blocks from the distinct blocks it uses and where each goes.
+     * @param blocks the distinct blocks of 256 bits, as 8 ints each
+     * @param layout 256 chars, each either 0 for an empty block, or 1 more than the index in blocks of the one to use
+     * @return a table for {@link #in(int[][], char)}
+     */
+    protected static int[][] table(int[][] blocks, String layout) {
+        int[][] table = new int[256][];
+        for (int i = 0; i < 256; i++) {
+            char b = layout.charAt(i);
+            if (b != 0) table[i] = blocks[b - 1];
+        }
+        return table;
+    }
+
+    /**
+     * @return true if "$" matches at i, the same way as it does in Matcher
+     */
+    protected static boolean endOfInput(char[] data, int end, int i) {
+        return i >= end || (i + 1 == end && data[i] == '\n')
+                || (i + 2 == end && data[i] == '\r' && data[i + 1] == '\n');
+    }
+
+    /**
+     * @return true if a multi-line "^" matches at i, the same way as it does in Matcher
+     */
+    protected static boolean lineStart(char[] data, int offset, int end, int i) {
+        return i == offset || (i < end && PikeVM.lineBreak(data[i - 1]));
+    }
+
+    /**
+     * @return true if a multi-line "$" matches at i, the same way as it does in Matcher
+     */
+    protected static boolean lineEnd(char[] data, int end, int i) {
+        return i >= end || PikeVM.lineBreak(data[i]);
+    }
+}
@@ -0,0 +1,636 @@
+package regexodus;
+
+import regexodus.ds.IntBitSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+/**
+ * A lazily-built deterministic automaton over the Term graph of a Pattern, used by Matcher to answer "is there a match
+ * at all?" in linear time before (or instead of) running the backtracking search.
+ * <br>
+ * Only patterns without backreferences, lookarounds, conditionals, independent groups, word boundaries, multi-line
+ * anchors or lazy counted repeats can be handled; {@link #create(Pattern)} returns null for anything else, and the
+ * Matcher simply keeps using the backtracker. Each DFA state is a set of NFA threads (a Term plus a repeat count and
+ * the group-repeat counters), and states are only built when some input actually reaches them. Transitions for chars
+ * below 256 go in a flat table per state; other chars use a small direct-mapped cache per state.
+ * <br>
+ * The states are cached in the Pattern, up to a memory budget (see {@link Pattern#setDfaMemoryLimit(int)}). When the
+ * budget is exceeded, the cache is thrown away and rebuilt from scratch; if that keeps happening, the DFA gives up and
+ * the Matcher falls back to the backtracker for good. States are immutable once built and only their transition
+ * tables are filled in later, so several Matchers on different threads can share one Dfa.
+ * <br>
+ * A Dfa can also be built over several Patterns at once (see {@link PatternSet}); each thread then belongs to one of
+ * them, and each state knows which of the Patterns have matched.
+ */
+class Dfa {
+    /**
+     * Roughly how many bytes of states a Pattern may cache before the cache is dropped; 2 MiB by default.
+     */
+    static final int DEFAULT_MEMORY_LIMIT = 2 << 20;
+
+    /**
+     * Returned by {@link #find(char[], int, int, int)} when there is no match, and by
+     * {@link #matches(char[], int, int, int)} when the region doesn't match.
+     */
+    static final int NO_MATCH = -1;
+    /**
+     * Returned when the DFA couldn't decide, because it ran out of its memory budget too many times.
+     */
+    static final int UNKNOWN = -2;
+
+    private static final int MAX_RESETS = 8;
+    private static final int HIGH_SLOTS = 64;
+    //approximate size of an empty State, with its transition tables, in bytes
+    private static final int STATE_BYTES = 64 + (256 + HIGH_SLOTS) * 4;
+
+    //closure contexts
+    private static final int AT_START = 1, AT_EOL = 2, AT_END = 4;
+    //state flags; FRESH means no thread survived the step into this state, other than those started anew from root
+    private static final int FLOATING = 8, FRESH = 16;
+
+    private final Term[] roots;
+    private final Term[] terms;
+    private final IdentityHashMap<Term, Integer> ids;
+    //which of the roots each Term (by its index in terms) belongs to
+    private final int[] owners;
+    private final int[] counterCaps;
+    private final int width;
+    private final boolean[] caseless;
+    private final int memoryLimit;
+    /**
+     * False if the backtracker can miss some matches this finds, so a successful {@link #matches} has to be confirmed.
+     */
+    final boolean exact;
+
+    private HashMap<Key, State> cache = new HashMap<Key, State>(64);
+    private final State[] starts = new State[32];
+    private int memory, resets;
+    private volatile boolean exhausted;
+
+    private static final int[] NONE = new int[0];
+    private static final State DEAD = new State(new int[0], NONE, 0, false);
+
+    private Dfa(Pattern[] res, ArrayList<Term> terms, IdentityHashMap<Term, Integer> ids, int[] owners,
+                int[] counterCaps, int memoryLimit, boolean exact) {
+        this.roots = new Term[res.length];
+        this.caseless = new boolean[res.length];
+        for (int i = 0; i < res.length; i++) {
+            roots[i] = res[i].root0;
+            caseless[i] = res[i].caseless;
+        }
+        this.terms = terms.toArray(new Term[0]);
+        this.ids = ids;
+        this.owners = owners;
+        this.counterCaps = counterCaps;
+        this.width = 2 + counterCaps.length;
+        this.memoryLimit = memoryLimit;
+        this.exact = exact;
+    }
+
+    /**
+     * Checks whether re can be run as a DFA, and if it can, makes an (empty) Dfa for it.
+     * @param re a compiled Pattern
+     * @return a new Dfa, or null if re uses anything a DFA can't handle
+     */
+    static Dfa create(Pattern re) {
+        if (re.getDfaMemoryLimit() <= 0) return null;
+        return create(new Pattern[]{re}, re.getDfaMemoryLimit());
+    }
+
+    /**
+     * Checks whether all of res can be run as one DFA, and if they can, makes an (empty) Dfa for them. The Patterns
+     * must be distinct objects.
+     * @param res compiled Patterns
+     * @param memoryLimit roughly how many bytes of states the new Dfa may cache
+     * @return a new Dfa, or null if any of res uses anything a DFA can't handle
+     */
+    static Dfa create(Pattern[] res, int memoryLimit) {
+        ArrayList<Term> terms = new ArrayList<Term>();
+        IdentityHashMap<Term, Integer> ids = new IdentityHashMap<Term, Integer>();
+        int counters = 0;
+        for (Pattern re : res) {
+            if (re.root0 == null) return null;
+            counters = Math.max(counters, re.counters);
+        }
+        int[] caps = new int[counters];
+        int[] owners = new int[16];
+        ArrayList<Term> pending = new ArrayList<Term>();
+        boolean exact = true;
+        for (int who = 0; who < res.length; who++) {
+            pending.add(res[who].root0);
+            while (!pending.isEmpty()) {
+                Term t = pending.remove(pending.size() - 1);
+                if (t == null || ids.containsKey(t)) continue;
+                if (terms.size() == owners.length) owners = Arrays.copyOf(owners, owners.length << 1);
+                owners[terms.size()] = who;
+                ids.put(t, terms.size());
+                terms.add(t);
+                switch (t.type) {
+                    case Term.SUCCESS:
+                        break;
+                    case Term.BRANCH:
+                        pending.add(t.failNext);
+                        pending.add(t.next);
+                        break;
+                    case Term.REPEAT_0_INF:
+                    case Term.REPEAT_MIN_INF:
+                    case Term.REPEAT_MIN_MAX:
+                        if (!consumes(t.target)) return null;
+                        //backing off to a following char treats inverted BITSET2 differently
+                        if (t.failNext != null && t.failNext.type == Term.BACKTRACK_FIND_MIN)
+                            exact &= t.failNext.target.type != Term.BITSET2;
+                        pending.add(t.next);
+                        break;
+                    case Term.CR_LT:
+                    case Term.CR_GT_EQ:
+                        if (t.cntreg >= caps.length) return null;
+                        caps[t.cntreg] = Math.max(caps[t.cntreg], t.maxCount);
+                        pending.add(t.next);
+                        break;
+                    case Term.CR_SET_0:
+                    case Term.CRSTORE_CRINC:
+                        if (t.cntreg >= caps.length) return null;
+                        pending.add(t.next);
+                        break;
+                    case Term.CHAR:
+                    case Term.BITSET:
+                    case Term.BITSET2:
+                    case Term.ANY_CHAR:
+                    case Term.ANY_CHAR_NE:
+                    case Term.VOID:
+                    case Term.GROUP_IN:
+                    case Term.GROUP_OUT:
+                    case Term.START:
+                    case Term.END:
+                    case Term.END_EOL:
+                        pending.add(t.next);
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        }
+        return new Dfa(res, terms, ids, owners, caps, memoryLimit, exact);
+    }
+
+    private static boolean consumes(Term t) {
+        if (t == null) return false;
+        switch (t.type) {
+            case Term.CHAR:
+            case Term.BITSET:
+            case Term.BITSET2:
+            case Term.ANY_CHAR:
+            case Term.ANY_CHAR_NE:
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks for the leftmost possible start of a match in data, between from and end.
+     * @param data the chars to search
+     * @param offset where the target starts, which is where "^" can match
+     * @param from where the search starts
+     * @param end where the target ends
+     * @return a position no greater than the start of the leftmost match (and no less than from), or
+     * {@link #NO_MATCH} if there is no match, or {@link #UNKNOWN}
+     */
+    int find(char[] data, int offset, int from, int end) {
+        return find(data, offset, from, end, false);
+    }
+
+    /**
+     * Looks for the leftmost possible start of a match in data, between from and end, or if partial is true, of a
+     * match that could still be completed by more input after end.
+     * @param data the chars to search
+     * @param offset where the target starts, which is where "^" can match
+     * @param from where the search starts
+     * @param end where the target (or the part of it that is known so far) ends
+     * @param partial if true, a match may be cut off by end, so this never returns {@link #NO_MATCH}
+     * @return a position no greater than the start of the leftmost match (and no less than from), or
+     * {@link #NO_MATCH} if there is no match, or {@link #UNKNOWN}
+     */
+    int find(char[] data, int offset, int from, int end, boolean partial) {
+        State s = start(FLOATING | (from == offset ? AT_START : 0));
+        if (s == null) return UNKNOWN;
+        int lowest = from;
+        for (int i = from; ; i++) {
+            if (s.assertive && i >= end - 2) {
+                s = expand(s, data, i, end);
+                if (s == null) return UNKNOWN;
+            }
+            if (s.match) return lowest;
+            if (i >= end) return partial ? lowest : NO_MATCH;
+            s = step(s, data[i]);
+            if (s == null) return UNKNOWN;
+            //every thread that started before i+1 has died
+            if ((s.flags & FRESH) != 0) lowest = i + 1;
+        }
+    }
+
+    /**
+     * Checks whether all of data from start to end matches.
+     * @param data the chars to match
+     * @param offset where the target starts, which is where "^" can match
+     * @param start where the match must start
+     * @param end where the match must end
+     * @return 1 if the region matches, {@link #NO_MATCH} if it doesn't, or {@link #UNKNOWN}
+     */
+    int matches(char[] data, int offset, int start, int end) {
+        State s = start(start == offset ? AT_START : 0);
+        if (s == null) return UNKNOWN;
+        for (int i = start; i < end; i++) {
+            if (s.assertive && i >= end - 2) {
+                s = expand(s, data, i, end);
+                if (s == null) return UNKNOWN;
+            }
+            s = step(s, data[i]);
+            if (s == null) return UNKNOWN;
+            if (s == DEAD) return NO_MATCH;
+        }
+        if (s.assertive) s = expand(s, data, end, end);
+        if (s == null) return UNKNOWN;
+        return s.match ? 1 : NO_MATCH;
+    }
+
+    /**
+     * Finds which of the Patterns this was made from match somewhere in data, between from and end, in one pass.
+     * @param data the chars to search
+     * @param offset where the target starts, which is where "^" can match
+     * @param from where the search starts
+     * @param end where the target ends
+     * @param found the entry for each Pattern that matches is set to true; the search stops early if all are true
+     * @return true if found could be filled in, or false if this DFA ran out of memory too many times
+     */
+    boolean findAll(char[] data, int offset, int from, int end, boolean[] found) {
+        int remaining = 0;
+        for (boolean b : found) {
+            if (!b) remaining++;
+        }
+        State s = start(FLOATING | (from == offset ? AT_START : 0));
+        if (s == null) return false;
+        for (int i = from; remaining > 0; i++) {
+            if (s.assertive && i >= end - 2) {
+                s = expand(s, data, i, end);
+                if (s == null) return false;
+            }
+            for (int who : s.matched) {
+                if (!found[who]) {
+                    found[who] = true;
+                    remaining--;
+                }
+            }
+            if (i >= end) break;
+            s = step(s, data[i]);
+            if (s == null) return false;
+        }
+        return true;
+    }
+
+    private State start(int flags) {
+        State s = starts[flags];
+        if (s != null) return s;
+        synchronized (this) {
+            if (exhausted) return null;
+            Closure cl = new Closure();
+            for (int who = 0; who < roots.length; who++) {
+                cl.add(roots[who], 0, new int[counterCaps.length], flags, who);
+            }
+            s = intern(cl, flags);
+            if (s != null) starts[flags] = s;
+            return s;
+        }
+    }
+
+    private State step(State s, char c) {
+        State n;
+        if (c < 256) {
+            if ((n = s.low[c]) != null) return n;
+        } else {
+            Edge e = s.high[c & (HIGH_SLOTS - 1)];
+            if (e != null && e.c == c) return e.to;
+        }
+        synchronized (this) {
+            if (exhausted) return null;
+            Closure cl = new Closure();
+            int[] k = s.kernel;
+            for (int p = 0; p < k.length; p += width) {
+                Term t = terms[k[p]];
+                int who = owners[k[p]];
+                switch (t.type) {
+                    case Term.REPEAT_0_INF:
+                    case Term.REPEAT_MIN_INF:
+                    case Term.REPEAT_MIN_MAX:
+                        if (accepts(t.target, c, caseless[who], true))
+                            cl.add(t, k[p + 1] + 1, Arrays.copyOfRange(k, p + 2, p + width), 0, who);
+                        break;
+                    case Term.END:
+                    case Term.END_EOL:
+                        break;
+                    default:
+                        if (accepts(t, c, caseless[who], false))
+                            cl.add(t.next, 0, Arrays.copyOfRange(k, p + 2, p + width), 0, who);
+                }
+            }
+            int flags = s.flags & FLOATING;
+            if (flags != 0) {
+                if (cl.threads.isEmpty() && !cl.match) flags |= FRESH;
+                for (int who = 0; who < roots.length; who++) {
+                    cl.add(roots[who], 0, new int[counterCaps.length], 0, who);
+                }
+            }
+            n = intern(cl, flags);
+            if (n == null) return null;
+            if (c < 256) s.low[c] = n;
+            else s.high[c & (HIGH_SLOTS - 1)] = new Edge(c, n);
+            return n;
+        }
+    }
+
+    //lets "$" and "\z" pass, when i is at the end or just before a final line break
+    private State expand(State s, char[] data, int i, int end) {
+        boolean atEnd = i >= end;
+        if (!atEnd && !((i + 1 == end && data[i] == '\n') || (i + 2 == end && data[i] == '\r' && data[i + 1] == '\n')))
+            return s;
+        State n = atEnd ? s.atEnd : s.atEol;
+        if (n != null) return n;
+        synchronized (this) {
+            if (exhausted) return null;
+            Closure cl = new Closure();
+            int[] k = s.kernel;
+            int ctx = (atEnd ? AT_END | AT_EOL : AT_EOL) | (s.flags & AT_START);
+            for (int p = 0; p < k.length; p += width) {
+                Term t = terms[k[p]];
+                int[] ctr = Arrays.copyOfRange(k, p + 2, p + width);
+                cl.add(t, k[p + 1], ctr, ctx, owners[k[p]]);
+            }
+            for (int who : s.matched) {
+                cl.matched(who);
+            }
+            n = intern(cl, s.flags);
+            if (n == null) return null;
+            if (atEnd) s.atEnd = n;
+            else s.atEol = n;
+            return n;
+        }
+    }
+
+    private State intern(Closure cl, int flags) {
+        int[] kernel = cl.kernel();
+        if (kernel.length == 0 && !cl.match && (flags & FLOATING) == 0) return DEAD;
+        int[] matched = cl.matched();
+        Key key = new Key(kernel, flags, matched);
+        State s = cache.get(key);
+        if (s != null) return s;
+        int cost = STATE_BYTES + kernel.length * 4;
+        if (memory + cost > memoryLimit) {
+            //start over with an empty cache; states already handed out stay valid
+            cache = new HashMap<Key, State>(64);
+            Arrays.fill(starts, null);
+            memory = 0;
+            if (++resets > MAX_RESETS) {
+                exhausted = true;
+                return null;
+            }
+        }
+        boolean assertive = false;
+        for (int p = 0; p < kernel.length && !assertive; p += width) {
+            int type = terms[kernel[p]].type;
+            assertive = type == Term.END || type == Term.END_EOL;
+        }
+        s = new State(kernel, matched, flags, assertive);
+        cache.put(key, s);
+        memory += cost;
+        return s;
+    }
+
+    /**
+     * Mirrors how Matcher.search() and Matcher.repeat() test a single char, quirks included; repeated terms are
+     * compared without case folding there, so they are here too.
+     */
+    static boolean accepts(Term t, char c, boolean caseless, boolean repeated) {
+        switch (t.type) {
+            case Term.CHAR:
+                return (caseless && !repeated ? Category.caseFold(c) : c) == t.c;
+            case Term.ANY_CHAR:
+                return true;
+            case Term.ANY_CHAR_NE:
+                return c != '\r' && c != '\n';
+            case Term.BITSET: {
+                if (caseless && !repeated) c = Category.caseFold(c);
+                return (c <= 255 && t.bitset.get(c)) ^ t.inverse;
+            }
+            case Term.BITSET2: {
+                if (caseless && !repeated) c = Category.caseFold(c);
+                IntBitSet arr = t.bitset2[c >> 8];
+                if (repeated) return (arr != null && arr.get(c & 255)) ^ t.inverse;
+                return arr != null && (arr.get(c & 255) ^ t.inverse);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the threads reachable without consuming a char; only threads that wait on a char (or on "$") are kept.
+     */
+    private final class Closure {
+        private final HashSet<Key> visited = new HashSet<Key>();
+        private final ArrayList<int[]> threads = new ArrayList<int[]>();
+        private final boolean[] owned = new boolean[roots.length];
+        boolean match;
+
+        void matched(int who) {
+            owned[who] = true;
+            match = true;
+        }
+
+        int[] matched() {
+            if (!match) return NONE;
+            int n = 0;
+            for (boolean b : owned) {
+                if (b) n++;
+            }
+            int[] m = new int[n];
+            for (int i = 0, j = 0; j < n; i++) {
+                if (owned[i]) m[j++] = i;
+            }
+            return m;
+        }
+
+        void add(Term t, int count, int[] ctr, int ctx, int who) {
+            if (t == null) {
+                matched(who);
+                return;
+            }
+            switch (t.type) {
+                case Term.REPEAT_0_INF:
+                    count = 0;
+                    break;
+                case Term.REPEAT_MIN_INF:
+                    count = Math.min(count, t.minCount);
+                    break;
+                case Term.REPEAT_MIN_MAX:
+                    break;
+                default:
+                    count = 0;
+            }
+            int[] thread = new int[width];
+            thread[0] = ids.get(t);
+            thread[1] = count;
+            System.arraycopy(ctr, 0, thread, 2, ctr.length);
+            if (!visited.add(new Key(thread, ctx, NONE))) return;
+            switch (t.type) {
+                case Term.SUCCESS:
+                    matched(who);
+                    return;
+                case Term.CHAR:
+                case Term.BITSET:
+                case Term.BITSET2:
+                case Term.ANY_CHAR:
+                case Term.ANY_CHAR_NE:
+                    threads.add(thread);
+                    return;
+                case Term.VOID:
+                case Term.GROUP_IN:
+                case Term.GROUP_OUT:
+                    add(t.next, 0, ctr, ctx, who);
+                    return;
+                case Term.BRANCH:
+                    add(t.next, 0, ctr, ctx, who);
+                    add(t.failNext, 0, ctr, ctx, who);
+                    return;
+                case Term.START:
+                    if ((ctx & AT_START) != 0) add(t.next, 0, ctr, ctx, who);
+                    return;
+                case Term.END:
+                    if ((ctx & AT_END) != 0) add(t.next, 0, ctr, ctx, who);
+                    else threads.add(thread);
+                    return;
+                case Term.END_EOL:
+                    if ((ctx & AT_EOL) != 0) add(t.next, 0, ctr, ctx, who);
+                    else threads.add(thread);
+                    return;
+                case Term.REPEAT_0_INF:
+                case Term.REPEAT_MIN_INF:
+                    threads.add(thread);
+                    if (count >= t.minCount) add(t.next, 0, ctr, ctx, who);
+                    return;
+                case Term.REPEAT_MIN_MAX:
+                    if (count < t.maxCount) threads.add(thread);
+                    if (count >= t.minCount) add(t.next, 0, ctr, ctx, who);
+                    return;
+                case Term.CR_SET_0: {
+                    int[] c2 = ctr.clone();
+                    c2[t.cntreg] = 0;
+                    add(t.next, 0, c2, ctx, who);
+                    return;
+                }
+                case Term.CRSTORE_CRINC: {
+                    int[] c2 = ctr.clone();
+                    c2[t.cntreg] = Math.min(c2[t.cntreg] + 1, counterCaps[t.cntreg]);
+                    add(t.next, 0, c2, ctx, who);
+                    return;
+                }
+                case Term.CR_LT:
+                    if (ctr[t.cntreg] < t.maxCount) add(t.next, 0, ctr, ctx, who);
+                    return;
+                case Term.CR_GT_EQ:
+                    if (ctr[t.cntreg] >= t.maxCount) add(t.next, 0, ctr, ctx, who);
+            }
+        }
+
+        int[] kernel() {
+            int n = threads.size();
+            int[][] ts = threads.toArray(new int[n][]);
+            Arrays.sort(ts, LEXICAL);
+            int[] k = new int[n * width];
+            int len = 0;
+            for (int i = 0; i < n; i++) {
+                if (len > 0 && same(k, len - width, ts[i])) continue;
+                System.arraycopy(ts[i], 0, k, len, width);
+                len += width;
+            }
+            return len == k.length ? k : Arrays.copyOf(k, len);
+        }
+
+        private boolean same(int[] k, int at, int[] t) {
+            for (int j = 0; j < t.length; j++) {
+                if (k[at + j] != t[j]) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final java.util.Comparator<int[]> LEXICAL = new java.util.Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private static final class Key {
+        private final int[] data;
+        private final int flags;
+        private final int hash;
+
+        private final int[] matched;
+
+        Key(int[] data, int flags, int[] matched) {
+            this.data = data;
+            this.flags = flags;
+            this.matched = matched;
+            this.hash = 31 * (31 * Arrays.hashCode(data) + Arrays.hashCode(matched)) + flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return hash == k.hash && flags == k.flags && Arrays.equals(data, k.data) && Arrays.equals(matched, k.matched);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Edge {
+        final char c;
+        final State to;
+
+        Edge(char c, State to) {
+            this.c = c;
+            this.to = to;
+        }
+    }
+
+    private static final class State {
+        final int[] kernel;
+        //the indices of the Patterns that have matched by this state, in ascending order
+        final int[] matched;
+        final boolean match;
+        //true if some thread is waiting on "$" or "\z"
+        final boolean assertive;
+        final int flags;
+        final State[] low = new State[256];
+        final Edge[] high = new Edge[HIGH_SLOTS];
+        State atEnd, atEol;
+
+        State(int[] kernel, int[] matched, int flags, boolean assertive) {
+            this.kernel = kernel;
+            this.matched = matched;
+            this.match = matched.length > 0;
+            this.flags = flags;
+            this.assertive = assertive;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package regexodus;
+
+/**
+ * Searches for a literal run of chars that every match contains, with Boyer-Moore-Horspool skipping. The match start
+ * is between minCount and maxCount chars before the literal (maxCount is -1 if that's unbounded), and every char
+ * between the match start and the literal has to be accepted by one of the terms before it, which lets a search skip
+ * over chars that can't be part of the match. The search then goes on to next, which is the real first term, so
+ * nothing gets eaten here.
+ * <br>
+ * If mode_insensitive is set, the literal holds case-folded chars, and the text matches where its chars fold to them;
+ * the skip table has entries for every char that folds to a char of the literal, not just the literal's own chars.
+ */
+class FindLiteral extends Term {
+    private static final long serialVersionUID = 2528136757932720807L;
+
+    final char[] literal;
+    //how far the window can move when its last char has a given low byte
+    private final int[] shifts = new int[256];
+    //the terms that consume chars before the literal, and which chars below 256 any of them accept
+    final Term[] atoms;
+    private final boolean[] lowAccepted = new boolean[256];
+
+    FindLiteral(char[] literal, boolean caseless, int minDistance, int maxDistance, Term[] atoms, Term theFirst) {
+        this(literal, atoms);
+        mode_insensitive = caseless;
+        minCount = minDistance;
+        maxCount = maxDistance;
+        next = theFirst;
+        prepare();
+    }
+
+    /**
+     * Used when loading a compiled Pattern; the atoms can be filled in later, and {@link #prepare()} must be called once
+     * they and the other fields are set.
+     */
+    FindLiteral(char[] literal, Term[] atoms) {
+        type = Term.FIND_LITERAL;
+        this.literal = literal;
+        this.atoms = atoms;
+    }
+
+    void prepare() {
+        int last = literal.length - 1;
+        java.util.Arrays.fill(shifts, literal.length);
+        for (int i = 0; i < last; i++) {
+            char c = literal[i];
+            shifts[c & 0xFF] = last - i;
+            if (mode_insensitive) {
+                shifts[Category.caseUp(c) & 0xFF] = last - i;
+                char[] odd = Folds.ODD;
+                for (int j = 0; j < odd.length; j += 2) {
+                    if (odd[j + 1] == c) shifts[odd[j] & 0xFF] = last - i;
+                }
+            }
+        }
+        for (char c = 0; c < 256; c++) {
+            lowAccepted[c] = accepts(c);
+        }
+    }
+
+    /**
+     * Finds the first occurrence of the literal that starts at or after from and ends by end.
+     * @return the index of the literal in data, or -1 if it isn't there
+     */
+    int indexIn(char[] data, int from, int end) {
+        if (mode_insensitive) return indexInCaseless(data, from, end);
+        char[] lit = literal;
+        int last = lit.length - 1;
+        char lastChar = lit[last];
+        for (int i = from + last; i < end; i += shifts[data[i] & 0xFF]) {
+            if (data[i] != lastChar) continue;
+            int j = last - 1, k = i - 1;
+            while (j >= 0 && data[k] == lit[j]) {
+                j--;
+                k--;
+            }
+            if (j < 0) return k + 1;
+        }
+        return -1;
+    }
+
+    private int indexInCaseless(char[] data, int from, int end) {
+        char[] lit = literal;
+        int last = lit.length - 1;
+        char lastChar = lit[last];
+        for (int i = from + last; i < end; i += shifts[data[i] & 0xFF]) {
+            if (Category.caseFold(data[i]) != lastChar) continue;
+            int j = last - 1, k = i - 1;
+            while (j >= 0 && Category.caseFold(data[k]) == lit[j]) {
+                j--;
+                k--;
+            }
+            if (j < 0) return k + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the earliest position, no less than from, that a match with the literal at the given index could start at.
+     */
+    int startBound(char[] data, int at, int from) {
+        int bound = maxCount >= 0 ? Math.max(from, at - maxCount) : from;
+        int i = at;
+        char c;
+        while (i > bound && ((c = data[i - 1]) < 256 ? lowAccepted[c] : accepts(c))) {
+            i--;
+        }
+        return i;
+    }
+
+    private boolean accepts(char c) {
+        for (Term atom : atoms) {
+            Term t = atom.target != null ? atom.target : atom;
+            if (Dfa.accepts(t, c, mode_insensitive, false) || Dfa.accepts(t, c, mode_insensitive, true)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Holds the chars that fold to a different char than the lower-case form of their upper-case form, like the Kelvin
+     * sign, which folds to 'k' without being the upper case of anything. Each pair is the char and what it folds to.
+     * These are the only chars that can match a folded literal char c without being c or caseUp(c).
+     */
+    private static final class Folds {
+        static final char[] ODD;
+
+        static {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 65536; i++) {
+                char c = (char) i, folded = Category.caseFold(c);
+                if (folded != c && Category.caseUp(folded) != c) sb.append(c).append(folded);
+            }
+            ODD = sb.toString().toCharArray();
+        }
+    }
+}
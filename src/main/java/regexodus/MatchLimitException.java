@@ -0,0 +1,26 @@
+package regexodus;
+
+/**
+ * Is thrown when a search runs past the step limit or time limit set on its Matcher, usually because the Pattern makes
+ * the backtracking matcher try an exponential number of ways to match. The Matcher is flushed before this is thrown,
+ * so it can be given a new target (or tried again with higher limits) afterwards.
+ * @see Matcher#setStepLimit(int)
+ * @see Matcher#setTimeLimit(int)
+ */
+public class MatchLimitException extends RuntimeException {
+    private static final long serialVersionUID = 6528136757932720807L;
+
+    private final boolean timeout;
+
+    public MatchLimitException(String s, boolean timeout) {
+        super(s);
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return true if the search ran out of time, false if it ran out of steps
+     */
+    public boolean isTimeout() {
+        return timeout;
+    }
+}
@@ -100,6 +100,15 @@ public class Matcher implements MatchResult, Serializable {
      */
     public static final int ACCEPT_INCOMPLETE = 8;
 
+    //how many ints each frame of the backtracking stack takes in frames
+    private static final int FRAME = 4;
+
+    //how many steps a limited search takes between checks of the clock
+    private static final int CHECK_INTERVAL = 1024;
+
+    //how many steps any search takes before it starts to remember where it has failed, on top of one per state
+    private static final int MEMO_STEPS = 4096;
+
     //see search(ANCHOR_START|...)
     private static Term startAnchor = new Term(Term.START);
 
@@ -107,6 +116,9 @@ public class Matcher implements MatchResult, Serializable {
     private static Term lastMatchAnchor = new Term(Term.LAST_MATCH_END);
 
     private Pattern re;
+    //the Pattern this was given, and its twin for targets with surrogate pairs when that was compiled with
+    //REFlags.CODEPOINTS (null otherwise); re is whichever of the two fits the current target
+    private Pattern pattern, astral;
     private int[] counters;
     private MemReg[] memregs;
     private LAEntry[] lookaheads;
@@ -118,12 +130,38 @@ public class Matcher implements MatchResult, Serializable {
     private int offset, end, wOffset, wEnd;
     private boolean shared;
 
-    private SearchEntry top;           //stack entry
-    private SearchEntry first;         //object pool entry
-    private SearchEntry defaultEntry;  //called when moving the window
+    //the backtracking stack: how many frames are on it, the term each frame resumes at, and per frame the index, count,
+    //register length and how many saves were on the save stack when the frame was pushed (FRAME ints in all)
+    private int top;
+    private Term[] frameTerms;
+    private int[] frames;
+    //the save stack: old values of groups (as the group, in, out) and of counters (as ~counter, value and one unused
+    //int), restored when the frame that was on top of the backtracking stack as they were saved is popped, or all at
+    //once when moving on
+    private int[] saves;
+    private int saveTop;
 
     private boolean called;
 
+    private final int[] tableBounds = new int[2];
+
+    //groups and stacks for the Pattern's CompiledSearch or Program, if it has one; made when first needed
+    private int[] compiledGroups;
+    private int[][] compiledStacks;
+    //what the last search used instead of the backtracker, if anything, so what is left on the stack is its own
+    private CompiledSearch searcher;
+
+    //see setStepLimit() and setTimeLimit(); 0 or less means no limit
+    private int stepLimit, timeLimit;
+    //for the search running now, if limited: steps not yet handed out to it, and when it has to give up
+    private int stepsLeft;
+    private long deadline;
+    //steps left before the search running now starts to use memo, or -1 if it can't or already does
+    private int memoSteps;
+    //one bit per BRANCH and position, set when a search reaches that BRANCH there; kept to be cleared and reused
+    private long[] memo;
+    private boolean memoized;
+
     private int minQueueLength;
 
     private CharSequence cache;
@@ -137,12 +175,14 @@ public class Matcher implements MatchResult, Serializable {
 
     public Matcher copy()
     {
-        Matcher m = new Matcher(re, cache);
+        Matcher m = new Matcher(pattern, cache);
         m.wEnd = this.wEnd;
         m.wOffset = this.wOffset;
         m.called = this.called;
         m.offset = this.offset;
         m.end = this.end;
+        m.stepLimit = this.stepLimit;
+        m.timeLimit = this.timeLimit;
         return m;
     }
 
@@ -165,7 +205,8 @@ public class Matcher implements MatchResult, Serializable {
      */
     public void setPattern(Pattern regex)
     {
-        this.re = regex;
+        this.re = this.pattern = regex;
+        this.astral = regex.astral;
 
         int memregCount, counterCount, lookaheadCount;
         if ((memregCount = regex.memregs) > 0) {
@@ -176,7 +217,8 @@ public class Matcher implements MatchResult, Serializable {
             this.memregs = memregs;
         }
 
-        if ((counterCount = regex.counters) > 0) counters = new int[counterCount];
+        counterCount = astral == null ? regex.counters : Math.max(regex.counters, astral.counters);
+        if (counterCount > 0) counters = new int[counterCount];
 
         if ((lookaheadCount = regex.lookaheads) > 0) {
             LAEntry[] lookaheads = new LAEntry[lookaheadCount];
@@ -190,10 +232,13 @@ public class Matcher implements MatchResult, Serializable {
         this.counterCount = counterCount;
         this.lookaheadCount = lookaheadCount;
 
-        first = new SearchEntry();
-        defaultEntry = new SearchEntry();
-        minQueueLength = regex.stringRepr.length() / 2;  // just evaluation!!!
-
+        minQueueLength = Math.max(regex.stringRepr.length() / 2, 8);  // just evaluation!!!
+        frameTerms = new Term[minQueueLength];
+        frames = new int[minQueueLength * FRAME];
+        saves = new int[24];
+        compiledGroups = null;
+        stepLimit = regex.stepLimit;
+        timeLimit = regex.timeLimit;
     }
     /**
      * This method allows to efficiently pass data between matchers.
@@ -226,6 +271,50 @@ public class Matcher implements MatchResult, Serializable {
         init();
     }
 
+    /**
+     * Limits how much work each search by this Matcher may do before it gives up by throwing a
+     * {@link MatchLimitException}; a step is one return to an earlier choice (backtracking), or one move of the place a
+     * match is tried to the next char. This guards against patterns that take exponential time on some inputs, such as
+     * {@code (a+)+b} on a long run of 'a' chars. The limit applies separately to each call to find(), matches(), and so
+     * on. A limit of 0 or less removes it; the default is whatever the Pattern had when this was made from it (see
+     * {@link Pattern#setStepLimit(int)}). While a step limit or time limit is set, this always uses the backtracking
+     * matcher rather than any compiled code the Pattern has, since only the backtracker counts its steps; Patterns
+     * compiled with {@link REFlags#LINEAR} never backtrack, and aren't limited.
+     * @param limit the most steps a search may take, or 0 for no limit
+     * @see #setTimeLimit(int)
+     */
+    public void setStepLimit(int limit) {
+        stepLimit = limit;
+    }
+
+    /**
+     * @return the most steps a search may take, or 0 or less if there is no limit
+     * @see #setStepLimit(int)
+     */
+    public int getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * Limits how long, in milliseconds, each search by this Matcher may run before it gives up by throwing a
+     * {@link MatchLimitException}. The clock is only checked every thousand or so steps (see
+     * {@link #setStepLimit(int)}), so this is not exact, but it costs almost nothing while a search goes well. A limit
+     * of 0 or less removes it; the default is whatever the Pattern had when this was made from it (see
+     * {@link Pattern#setTimeLimit(int)}).
+     * @param millis the longest a search may run, in milliseconds, or 0 for no limit
+     */
+    public void setTimeLimit(int millis) {
+        timeLimit = millis;
+    }
+
+    /**
+     * @return the longest a search may run, in milliseconds, or 0 or less if there is no limit
+     * @see #setTimeLimit(int)
+     */
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
 
     /**
      * Supplies a text to search in/match with.
@@ -257,13 +346,21 @@ public class Matcher implements MatchResult, Serializable {
     public void setTarget(CharSequence text, int start, int len) {
         char[] mychars = data;
         if (mychars == null || shared || mychars.length < len) {
-            data = mychars = new char[(int) (1.7f * len)];
+            //only leave room to grow when this Matcher is being reused on longer and longer targets
+            data = mychars = new char[mychars == null || shared ? len : (int) (1.7f * len)];
             shared = false;
         }
-        for (int i = start, p = 0; p < len; i++, p++) {
-            mychars[p] = text.charAt(i);
+        if (text instanceof String) {
+            ((String) text).getChars(start, start + len, mychars, 0);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(start, start + len, mychars, 0);
+        } else if (text instanceof StringBuffer) {
+            ((StringBuffer) text).getChars(start, start + len, mychars, 0);
+        } else {
+            for (int i = start, p = 0; p < len; i++, p++) {
+                mychars[p] = text.charAt(i);
+            }
         }
-        //text.getChars(start, len, mychars, 0); //(srcBegin,srcEnd,dst[],dstBegin)
         offset = 0;
         end = len;
 
@@ -320,6 +417,33 @@ public class Matcher implements MatchResult, Serializable {
     }
 
 
+    /**
+     * Supplies a text to search in/match with, as the remaining chars of a CharBuffer (from its position to its
+     * limit). If the buffer is backed by an accessible array, that array is used directly instead of being copied, so
+     * the same care is needed as with {@link #setTarget(char[], int, int)}; otherwise the chars are copied in bulk.
+     * The buffer's position is not changed.
+     * Resets current search position to zero.
+     *
+     * @param buffer a data source
+     * @see Matcher#setTarget(java.lang.CharSequence)
+     * @see Matcher#setTarget(char[], int, int)
+     */
+    @GwtIncompatible
+    public void setTarget(java.nio.CharBuffer buffer) {
+        if (buffer.hasArray()) {
+            setTarget(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), true);
+            return;
+        }
+        int len = buffer.remaining();
+        char[] mychars = data;
+        if (mychars == null || shared || mychars.length < len) {
+            data = mychars = new char[len];
+            shared = false;
+        }
+        buffer.duplicate().get(mychars, 0, len);
+        setTarget(mychars, 0, len, false);
+    }
+
     /**
      * Supplies a text to search in/match with through a stream.
      * Resets current search position to zero.
@@ -390,11 +514,10 @@ public class Matcher implements MatchResult, Serializable {
         char[] data = this.data;
         if ((end - start) >= (tLen / 3)) {
             //it makes sense to make a cache
-            cache = new String(data);
-            src = new String(data, tOffset, tLen);
+            cache = src = new String(data, tOffset, tLen);
             cacheOffset = tOffset;
             cacheLength = tLen;
-            return src.toString(); //.toString().substring(start - tOffset, end - tOffset);
+            return src.toString().substring(start - tOffset, end - tOffset);
         }
         return new String(data, start, end - start);
     }
@@ -625,7 +748,7 @@ public class Matcher implements MatchResult, Serializable {
      */
     public boolean proceed(int options) {
         if (called) {
-            if (top == null) {
+            if (top == 0) {
                 wOffset++;
             }
         }
@@ -639,7 +762,7 @@ public class Matcher implements MatchResult, Serializable {
         int we = wEnd;
         if (wOffset == we) { //requires special handling
             //if no variants at 'wOutside',advance pointer and clear
-            if (top == null) {
+            if (top == 0) {
                 wOffset++;
                 flush();
             }
@@ -655,6 +778,7 @@ public class Matcher implements MatchResult, Serializable {
     }
 
     private void init() {
+        if (astral != null) re = hasSurrogates(data, offset, end) ? astral : pattern;
         //wOffset=-1;
         wOffset = offset;
         wEnd = -1;
@@ -662,13 +786,26 @@ public class Matcher implements MatchResult, Serializable {
         flush();
     }
 
+    private static boolean hasSurrogates(char[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((data[i] & 0xF800) == 0xD800) return true;
+        }
+        return false;
+    }
+
     /**
      * Resets the internal state.
      */
     public void flush() {
-        top = null;
-        defaultEntry.reset(0);
-        first.reset(minQueueLength);
+        top = 0;
+        saveTop = 0;
+        if (frameTerms.length > minQueueLength << 6) {
+            //don't hold on to a stack that only one long match needed
+            frameTerms = new Term[minQueueLength];
+            frames = new int[minQueueLength * FRAME];
+        }
+        if (compiledStacks != null && compiledStacks[0].length > 64 << 6) compiledStacks[0] = new int[64];
+        memo = null;
 
         for (int i = memregs.length - 1; i >= 0; i--) {
             MemReg mr = memregs[i];
@@ -677,20 +814,26 @@ public class Matcher implements MatchResult, Serializable {
         called = false;
     }
 
+    //called as this goes back into a MatcherPool; drops the target so it can be collected, but keeps a copy of it that
+    //isn't longer than maxKept chars, so the next target can usually be copied there
+    void release(int maxKept) {
+        if (shared || data != null && data.length > maxKept) {
+            data = null;
+            shared = false;
+        }
+        cache = null;
+        offset = end = wOffset = 0;
+        wEnd = -1;
+        flush();
+    }
+
     //reverse flush
     //may work significantly faster,
     //need testing
     private void rflush() {
-        SearchEntry entry = top;
-        top = null;
-        MemReg[] memregs = this.memregs;
-        int[] counters = this.counters;
-        while (entry != null) {
-            SearchEntry next = entry.sub;
-            SearchEntry.popState(entry, memregs, counters);
-            entry = next;
-        }
-        SearchEntry.popState(defaultEntry, memregs, counters);
+        top = 0;
+        restore(saveTop, 0);
+        saveTop = 0;
     }
 
     /**
@@ -701,7 +844,7 @@ public class Matcher implements MatchResult, Serializable {
     }
 
     public Pattern pattern() {
-        return re;
+        return pattern;
     }
 
     public String target() {
@@ -1175,12 +1318,17 @@ public class Matcher implements MatchResult, Serializable {
         //int memregCount=memregs.length;
         //int cntCount=counters.length;
 
-        SearchEntry defaultEntry = this.defaultEntry;
-        SearchEntry first = this.first;
-        SearchEntry top = this.top;
-        SearchEntry actual;
-        int cnt, regLen;
+        int top = this.top;
+        Term[] frameTerms = this.frameTerms;
+        int[] frames = this.frames, saves = this.saves;
+        int saved = this.saveTop;
+        int cnt, regLen, f;
         int i;
+        int literalAt = -1, literalStart = -1;
+        //steps left before nextBudget() has to be asked for more; a step is a pop of the stack or a move to a new start
+        int budget = startBudget();
+        //null until this search has backtracked enough to make remembering its failures worthwhile
+        long[] memo = null;
 
         final boolean matchEnd = (anchors & ANCHOR_END) > 0;
         final boolean allowIncomplete = (anchors & ACCEPT_INCOMPLETE) > 0;
@@ -1188,27 +1336,86 @@ public class Matcher implements MatchResult, Serializable {
         Pattern re = this.re;
         Term root = re.root;
         Term term;
-        if (top == null) {
+        if (top == 0) {
+            AhoCorasick table = re.table;
+            if (table != null && anchors == 0) {
+                //a replacement table only has literal keys, so they can all be searched for at once
+                if (wOffset <= end && table.find(data, wOffset, end, tableBounds) >= 0) {
+                    this.wOffset = memregs[0].in = tableBounds[0];
+                    this.wEnd = memregs[0].out = tableBounds[1];
+                    this.top = 0;
+                    return true;
+                }
+                this.wOffset = end + 1;
+                this.top = 0;
+                return false;
+            }
+            if (table != null) {
+                re.parse();
+                root = re.root;
+            }
+            Dfa dfa = re.dfa;
+            if (dfa != null && wOffset <= end) {
+                if (anchors == 0 && root.type != Term.FIND_LITERAL) {
+                    //rule out the input, or at least the start positions that can't match
+                    int from = dfa.find(data, offset, wOffset, end);
+                    if (from == Dfa.NO_MATCH) {
+                        this.wOffset = end + 1;
+                        this.top = 0;
+                        return false;
+                    }
+                    if (from > wOffset) wOffset = from;
+                } else if (anchors == ACCEPT_INCOMPLETE) {
+                    //a match may also be cut off by the end, so only skip what can't even start one
+                    int from = dfa.find(data, offset, wOffset, end, true);
+                    if (from > wOffset) wOffset = from;
+                } else if (anchors == (ANCHOR_START | ANCHOR_END)) {
+                    int m = dfa.matches(data, offset, wOffset, end);
+                    if (m == Dfa.NO_MATCH) {
+                        this.wOffset = wOffset;
+                        this.top = 0;
+                        return false;
+                    }
+                    if (m > 0 && dfa.exact && memregs.length == 1) {
+                        //no groups to fill in, so the DFA's answer is all there is
+                        this.wOffset = memregs[0].in = wOffset;
+                        this.wEnd = memregs[0].out = end;
+                        this.top = 0;
+                        return true;
+                    }
+                }
+            }
+            if (re.pike != null) return searchPike(anchors, wOffset, false);
+            if (re.compiled == null && Pattern.searchCompiler != null && !allowIncomplete) re.countSearch();
+            //the compiled searchers don't count their steps, so a limited search has to use the backtracker
+            searcher = allowIncomplete || stepLimit > 0 || timeLimit > 0 ? null
+                    : re.compiled != null ? re.compiled : re.useProgram ? re.program() : null;
+            if (searcher != null) return searchCompiled(anchors, wOffset, false);
             if ((anchors & ANCHOR_START) > 0) {
                 term = re.root0;  //raw root
                 root = startAnchor;
             } else if ((anchors & ANCHOR_LASTMATCH) > 0) {
                 term = re.root0;  //raw root
                 root = lastMatchAnchor;
+            } else if (allowIncomplete) {
+                //the optimized root can skip past a match that is cut off by the end
+                term = root = re.root0;
             } else {
                 term = root;  //optimized root
             }
             i = wOffset;
-            actual = first;
-            SearchEntry.popState(defaultEntry, memregs, counters);
+            cnt = regLen = 0;
+            restore(saved, saved = 0);
         } else {
-            top = (actual = top).sub;
-            term = actual.term;
-            i = actual.index;
-            SearchEntry.popState(actual, memregs, counters);
+            if (re.pike != null) return searchPike(anchors, wOffset, true);
+            if (searcher != null) return searchCompiled(anchors, wOffset, true);
+            term = frameTerms[--top];
+            f = top * FRAME;
+            i = frames[f];
+            cnt = frames[f + 1];
+            regLen = frames[f + 2];
+            restore(saved, saved = frames[f + 3]);
         }
-        cnt = actual.cnt;
-        regLen = actual.regLen;
 
         main:
         while (wOffset <= end) {
@@ -1219,7 +1426,7 @@ public class Matcher implements MatchResult, Serializable {
                 if(term != null) {
                     switch (term.type) {
                         case Term.FIND: {
-                            int jump = find(data, i + term.distance, end, term.target); //don't eat the last match
+                            int jump = find(data, i + term.distance, end, term.target, re.caseless); //don't eat the last match
                             if (jump < 0) break main; //return false
                             i += jump;
                             wOffset = i; //force window to move
@@ -1230,7 +1437,29 @@ public class Matcher implements MatchResult, Serializable {
                             term = term.next;
                             continue matchHere;
                         }
+                        case Term.FIND_LITERAL: {
+                            //the last occurrence found is still the first one past any later i
+                            if (literalAt < i + term.minCount) {
+                                FindLiteral fl = (FindLiteral) term;
+                                int from = i;
+                                for (; ; ) {
+                                    literalAt = fl.indexIn(data, from + term.minCount, end);
+                                    if (literalAt < 0) break main; //return false
+                                    literalStart = fl.startBound(data, literalAt, from);
+                                    if (literalStart + term.minCount <= literalAt) break;
+                                    //too few usable chars before this one; look for the next
+                                    from = literalStart;
+                                }
+                            }
+                            if (literalStart > i) {
+                                i = literalStart;
+                                wOffset = i; //force window to move
+                            }
+                            term = term.next;
+                            continue matchHere;
+                        }
                         case Term.FINDREG: {
+                            if (term.target.memreg >= memregs.length) break;
                             MemReg mr = memregs[term.target.memreg];
                             int sampleOff = mr.in;
                             int sampleLen = mr.out - sampleOff;
@@ -1353,7 +1582,7 @@ public class Matcher implements MatchResult, Serializable {
                             //couldn't match too;
                             //otherwise we could have the following problem:
                             //"c|^a" against "abc" finds only "a"
-                            if (top != null) break;
+                            if (top > 0) break;
                             if (term != startAnchor) break;
                             else break main;
 
@@ -1564,52 +1793,59 @@ public class Matcher implements MatchResult, Serializable {
                             i += cnt;
 
                             //branch out the backtracker (that is term.failNext, see Term.make*())
-                            actual.cnt = cnt;
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
                             term = term.next;
                             continue;
                         }
                         case Term.REPEAT_MIN_INF: {
                             cnt = repeat(data, i, end, term.target);
-                            if (cnt < term.minCount) break;
+                            if (cnt < term.minCount) {
+                                //ran out of chars before the minimum, so it might still be completed
+                                if (i + cnt == end) i = end;
+                                break;
+                            }
                             i += cnt;
 
                             //branch out the backtracker (that is term.failNext, see Term.make*())
-                            actual.cnt = cnt;
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
                             term = term.next;
                             continue;
                         }
                         case Term.REPEAT_MIN_MAX: {
                             int out2 = i + term.maxCount;
                             cnt = repeat(data, i, end < out2 ? end : out2, term.target);
-                            if (cnt < term.minCount) break;
+                            if (cnt < term.minCount) {
+                                if (i + cnt == end) i = end;
+                                break;
+                            }
                             i += cnt;
 
                             //branch out the backtracker (that is term.failNext, see Term.make*())
-                            actual.cnt = cnt;
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
                             term = term.next;
                             continue;
                         }
@@ -1635,16 +1871,15 @@ public class Matcher implements MatchResult, Serializable {
 
                             if (cnt < term.minCount) break;
 
-                            actual.cnt = cnt;
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual.regLen = bitset;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = bitset;
+                            frames[f + 3] = saved;
                             term = term.next;
                             continue;
                         }
@@ -1671,57 +1906,56 @@ public class Matcher implements MatchResult, Serializable {
 
                             if (cnt < term.minCount) break;
 
-                            actual.cnt = cnt;
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual.regLen = bitset;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = bitset;
+                            frames[f + 3] = saved;
                             term = term.next;
                             continue;
                         }
                         case Term.BACKTRACK_0:
-                            cnt = actual.cnt;
+                            cnt = frames[top * FRAME + 1];
                             if (cnt > 0) {
                                 cnt--;
                                 i--;
-                                actual.cnt = cnt;
-                                actual.index = i;
-                                actual.term = term;
-                                actual = (top = actual).on;
-                                if (actual == null) {
-                                    actual = new SearchEntry();
-                                    top.on = actual;
-                                    actual.sub = top;
+                                if ((f = top * FRAME) + FRAME == frames.length) {
+                                    frames = grow();
+                                    frameTerms = this.frameTerms;
                                 }
+                                frameTerms[top++] = term;
+                                frames[f] = i;
+                                frames[f + 1] = cnt;
+                                frames[f + 2] = regLen;
+                                frames[f + 3] = saved;
                                 term = term.next;
                                 continue;
                             } else break;
 
                         case Term.BACKTRACK_MIN:
-                            cnt = actual.cnt;
+                            cnt = frames[top * FRAME + 1];
                             if (cnt > term.minCount) {
                                 cnt--;
                                 i--;
-                                actual.cnt = cnt;
-                                actual.index = i;
-                                actual.term = term;
-                                actual = (top = actual).on;
-                                if (actual == null) {
-                                    actual = new SearchEntry();
-                                    top.on = actual;
-                                    actual.sub = top;
+                                if ((f = top * FRAME) + FRAME == frames.length) {
+                                    frames = grow();
+                                    frameTerms = this.frameTerms;
                                 }
+                                frameTerms[top++] = term;
+                                frames[f] = i;
+                                frames[f + 1] = cnt;
+                                frames[f + 2] = regLen;
+                                frames[f + 3] = saved;
                                 term = term.next;
                                 continue;
                             } else break;
 
                         case Term.BACKTRACK_FIND_MIN: {
-                            cnt = actual.cnt;
+                            cnt = frames[top * FRAME + 1];
                             int minCnt;
                             if (cnt > (minCnt = term.minCount)) {
                                 int start = i + term.distance;
@@ -1731,7 +1965,7 @@ public class Matcher implements MatchResult, Serializable {
                                     if (cnt <= minCnt) break;
                                     i -= exceed;
                                 }
-                                int back = findBack(data, i + term.distance, cnt - minCnt, term.target);
+                                int back = findBack(data, i + term.distance, cnt - minCnt, term.target, re.caseless);
                                 if (back < 0) break;
 
                                 //cnt-=back;
@@ -1744,25 +1978,24 @@ public class Matcher implements MatchResult, Serializable {
                                 }
                                 i -= back;
 
-                                actual.cnt = cnt;
-                                actual.index = i;
+                                if ((f = top * FRAME) + FRAME == frames.length) {
+                                    frames = grow();
+                                    frameTerms = this.frameTerms;
+                                }
+                                frameTerms[top++] = term;
+                                frames[f] = i;
+                                frames[f + 1] = cnt;
+                                frames[f + 2] = regLen;
+                                frames[f + 3] = saved;
 
                                 if (term.eat) i++;
-
-                                actual.term = term;
-                                actual = (top = actual).on;
-                                if (actual == null) {
-                                    actual = new SearchEntry();
-                                    top.on = actual;
-                                    actual.sub = top;
-                                }
                                 term = term.next;
                                 continue;
                             } else break;
                         }
 
                         case Term.BACKTRACK_FINDREG_MIN: {
-                            cnt = actual.cnt;
+                            cnt = frames[top * FRAME + 1];
                             int minCnt;
                             if (cnt > (minCnt = term.minCount)) {
                                 int start = i + term.distance;
@@ -1782,15 +2015,15 @@ public class Matcher implements MatchResult, Serializable {
                                     //treat as usual BACKTRACK_MIN
                                     cnt--;
                                     i--;
-                                    actual.cnt = cnt;
-                                    actual.index = i;
-                                    actual.term = term;
-                                    actual = (top = actual).on;
-                                    if (actual == null) {
-                                        actual = new SearchEntry();
-                                        top.on = actual;
-                                        actual.sub = top;
+                                    if ((f = top * FRAME) + FRAME == frames.length) {
+                                        frames = grow();
+                                        frameTerms = this.frameTerms;
                                     }
+                                    frameTerms[top++] = term;
+                                    frames[f] = i;
+                                    frames[f + 1] = cnt;
+                                    frames[f + 2] = regLen;
+                                    frames[f + 3] = saved;
                                     term = term.next;
                                     continue;
                                 } else if (sampleLen == 0) {
@@ -1801,39 +2034,37 @@ public class Matcher implements MatchResult, Serializable {
                                 }
                                 cnt -= back;
                                 i -= back;
-                                actual.cnt = cnt;
-                                actual.index = i;
+                                if ((f = top * FRAME) + FRAME == frames.length) {
+                                    frames = grow();
+                                    frameTerms = this.frameTerms;
+                                }
+                                frameTerms[top++] = term;
+                                frames[f] = i;
+                                frames[f + 1] = cnt;
+                                frames[f + 2] = regLen;
+                                frames[f + 3] = saved;
 
                                 if (term.eat) i += sampleLen;
-
-                                actual.term = term;
-                                actual = (top = actual).on;
-                                if (actual == null) {
-                                    actual = new SearchEntry();
-                                    top.on = actual;
-                                    actual.sub = top;
-                                }
                                 term = term.next;
                                 continue;
                             } else break;
                         }
 
                         case Term.BACKTRACK_REG_MIN:
-                            cnt = actual.cnt;
+                            cnt = frames[top * FRAME + 1];
                             if (cnt > term.minCount) {
-                                regLen = actual.regLen;
+                                regLen = frames[top * FRAME + 2];
                                 cnt--;
                                 i -= regLen;
-                                actual.cnt = cnt;
-                                actual.index = i;
-                                actual.term = term;
-                                //actual.regLen=regLen;
-                                actual = (top = actual).on;
-                                if (actual == null) {
-                                    actual = new SearchEntry();
-                                    top.on = actual;
-                                    actual.sub = top;
+                                if ((f = top * FRAME) + FRAME == frames.length) {
+                                    frames = grow();
+                                    frameTerms = this.frameTerms;
                                 }
+                                frameTerms[top++] = term;
+                                frames[f] = i;
+                                frames[f + 1] = cnt;
+                                frames[f + 2] = regLen;
+                                frames[f + 3] = saved;
                                 term = term.next;
                                 continue;
                             } else break;
@@ -1853,7 +2084,10 @@ public class Matcher implements MatchResult, Serializable {
                             //see above
                             if (memreg > 0) {
                                 MemReg mr = memregs[memreg];
-                                SearchEntry.saveMemregState((top != null) ? top : defaultEntry, memreg, mr);
+                                if (saved == saves.length) saves = growSaves();
+                                saves[saved++] = memreg;
+                                saves[saved++] = mr.in;
+                                saves[saved++] = mr.out;
                                 mr.in = mr.tmp; //commit
                                 mr.out = i;
                             }
@@ -1866,7 +2100,6 @@ public class Matcher implements MatchResult, Serializable {
                             LAEntry le = lookaheads[term.lookaheadId];
                             le.index = i;
                             i = tmp;
-                            le.actual = actual;
                             le.top = top;
                             term = term.next;
                             continue;
@@ -1875,7 +2108,6 @@ public class Matcher implements MatchResult, Serializable {
                         case Term.PLOOKAHEAD_IN: {
                             LAEntry le = lookaheads[term.lookaheadId];
                             le.index = i;
-                            le.actual = actual;
                             le.top = top;
                             term = term.next;
                             continue;
@@ -1886,14 +2118,12 @@ public class Matcher implements MatchResult, Serializable {
                         case Term.PLOOKBEHIND_OUT: {
                             LAEntry le = lookaheads[term.lookaheadId];
                             i = le.index;
-                            actual = le.actual;
                             top = le.top;
                             term = term.next;
                             continue;
                         }
                         case Term.INDEPENDENT_OUT: {
                             LAEntry le = lookaheads[term.lookaheadId];
-                            actual = le.actual;
                             top = le.top;
                             term = term.next;
                             continue;
@@ -1905,34 +2135,34 @@ public class Matcher implements MatchResult, Serializable {
                                 continue;
                             }
                             LAEntry le = lookaheads[term.lookaheadId];
-                            le.actual = actual;
                             le.top = top;
 
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            i = tmp;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
+                            i = tmp;
                             term = term.next;
                             continue;
                         }
                         case Term.NLOOKAHEAD_IN: {
                             LAEntry le = lookaheads[term.lookaheadId];
-                            le.actual = actual;
                             le.top = top;
 
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
 
                             term = term.next;
                             continue;
@@ -1940,7 +2170,6 @@ public class Matcher implements MatchResult, Serializable {
                         case Term.NLOOKBEHIND_OUT:
                         case Term.NLOOKAHEAD_OUT: {
                             LAEntry le = lookaheads[term.lookaheadId];
-                            actual = le.actual;
                             top = le.top;
                             break;
                         }
@@ -1952,17 +2181,17 @@ public class Matcher implements MatchResult, Serializable {
                             }
                             LAEntry le = lookaheads[term.lookaheadId];
                             le.index = i;
-                            le.actual = actual;
                             le.top = top;
 
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
 
                             i = tmp;
 
@@ -1972,17 +2201,17 @@ public class Matcher implements MatchResult, Serializable {
                         case Term.LOOKAHEAD_CONDITION_IN: {
                             LAEntry le = lookaheads[term.lookaheadId];
                             le.index = i;
-                            le.actual = actual;
                             le.top = top;
 
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
 
                             term = term.next;
                             continue;
@@ -1999,18 +2228,20 @@ public class Matcher implements MatchResult, Serializable {
                             continue;
                         }
                         case Term.BRANCH_STORE_CNT_AUX1:
-                            actual.regLen = regLen;
                         case Term.BRANCH_STORE_CNT:
-                            actual.cnt = cnt;
                         case Term.BRANCH:
-                            actual.term = term.failNext;
-                            actual.index = i;
-                            actual = (top = actual).on;
-                            if (actual == null) {
-                                actual = new SearchEntry();
-                                top.on = actual;
-                                actual.sub = top;
+                            //failed here before, or is already trying here without having moved on since
+                            if (memo != null && term.memo >= 0
+                                    && !visit(memo, re.memoBranches(), term.memo, i - offset)) break;
+                            if ((f = top * FRAME) + FRAME == frames.length) {
+                                frames = grow();
+                                frameTerms = this.frameTerms;
                             }
+                            frameTerms[top++] = term.failNext;
+                            frames[f] = i;
+                            frames[f + 1] = cnt;
+                            frames[f + 2] = regLen;
+                            frames[f + 3] = saved;
                             term = term.next;
                             continue;
 
@@ -2019,6 +2250,7 @@ public class Matcher implements MatchResult, Serializable {
                                 this.wOffset = memregs[0].in = wOffset;
                                 this.wEnd = memregs[0].out = i;
                                 this.top = top;
+                                this.saveTop = saved;
                                 return true;
                             } else break;
 
@@ -2039,7 +2271,7 @@ public class Matcher implements MatchResult, Serializable {
                             } else break;
 
                         case Term.READ_CNT_LT:
-                            cnt = actual.cnt;
+                            cnt = frames[top * FRAME + 1];
                             if (cnt < term.maxCount) {
                                 term = term.next;
                                 continue;
@@ -2047,7 +2279,10 @@ public class Matcher implements MatchResult, Serializable {
 
                         case Term.CRSTORE_CRINC: {
                             int cntvalue = counters[cntreg = term.cntreg];
-                            SearchEntry.saveCntState((top != null) ? top : defaultEntry, cntreg, cntvalue);
+                            if (saved == saves.length) saves = growSaves();
+                            saves[saved++] = ~cntreg;
+                            saves[saved] = cntvalue;
+                            saved += 2;
                             counters[cntreg] = ++cntvalue;
                             term = term.next;
                             continue;
@@ -2079,6 +2314,7 @@ public class Matcher implements MatchResult, Serializable {
                     this.wOffset = memregs[0].in = wOffset;
                     this.wEnd = memregs[0].out = i;
                     this.top = top;
+                    this.saveTop = saved;
                     return true;
                 }
 
@@ -2093,24 +2329,31 @@ public class Matcher implements MatchResult, Serializable {
                     this.wOffset = memregs[0].in = wOffset;
                     this.wEnd = memregs[0].out = i;
                     this.top = top;
+                    this.saveTop = saved;
 
                     return true;
                 }
-                if (top == null) {
+                if (top == 0) {
                     break;
                 }
 
                 //pop the stack
-                top = (actual = top).sub;
-                term = actual.term;
-                i = actual.index;
-                if (actual.isState) {
-                    SearchEntry.popState(actual, memregs, counters);
+                if (--budget < 0) {
+                    budget = nextBudget();
+                    if (memoized) memo = this.memo;
                 }
+                term = frameTerms[--top];
+                f = top * FRAME;
+                i = frames[f];
+                if (saved > frames[f + 3]) restore(saved, saved = frames[f + 3]);
             }
 
-            if (defaultEntry.isState) SearchEntry.popState(defaultEntry, memregs, counters);
+            if (saved > 0) restore(saved, saved = 0);
 
+            if (--budget < 0) {
+                budget = nextBudget();
+                if (memoized) memo = this.memo;
+            }
             term = root;
             //wOffset++;
             //i=wOffset;
@@ -2118,10 +2361,178 @@ public class Matcher implements MatchResult, Serializable {
         }
         this.wOffset = wOffset;
         this.top = top;
+        this.saveTop = saved;
 
         return false;
     }
 
+    //starts counting the steps of a search, returning how many it can take before nextBudget() has to be called
+    private int startBudget() {
+        stepsLeft = stepLimit > 0 ? stepLimit : Integer.MAX_VALUE;
+        deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+        memoized = false;
+        memoSteps = memoThreshold(re.memoBranches(), end - offset);
+        return takeSteps();
+    }
+
+    private int takeSteps() {
+        int steps = stepLimit > 0 || timeLimit > 0 ? CHECK_INTERVAL : Integer.MAX_VALUE;
+        if (memoSteps >= 0) {
+            if (steps > memoSteps) steps = memoSteps;
+            memoSteps -= steps;
+        }
+        if (steps > stepsLeft) steps = stepsLeft;
+        stepsLeft -= steps;
+        return steps;
+    }
+
+    //called when search() has used up the steps it was given; throws if the limits have been reached, starts using
+    //memo if enough steps have been taken, and hands out more steps
+    private int nextBudget() {
+        if (stepsLeft == 0 && stepLimit > 0) {
+            flush();
+            throw new MatchLimitException("search took more than " + stepLimit + " steps for pattern "
+                    + re.stringRepr, false);
+        }
+        if (timeLimit > 0 && System.currentTimeMillis() > deadline) {
+            flush();
+            throw new MatchLimitException("search took more than " + timeLimit + " ms for pattern "
+                    + re.stringRepr, true);
+        }
+        if (memoSteps == 0) {
+            memoSteps = -1;
+            memo = clearMemo(memo, re.memoBranches(), end - offset);
+            memoized = true;
+        }
+        if (stepLimit <= 0) stepsLeft = Integer.MAX_VALUE;
+        //the step that ran out of budget is the first of the new ones
+        return takeSteps() - 1;
+    }
+
+    //how many steps a search of length chars can take before it should start to remember where it failed, or -1 if it
+    //can't; that is once it has backtracked more often than there are places to fail, so it must be repeating itself
+    static int memoThreshold(int branches, int length) {
+        if (branches <= 0) return -1;
+        long states = (long) branches * (length + 1);
+        return states > Integer.MAX_VALUE - MEMO_STEPS ? -1 : MEMO_STEPS + (int) states;
+    }
+
+    //gets memo with room for a bit per branch and position, all cleared, making a new array if memo is too small
+    static long[] clearMemo(long[] memo, int branches, int length) {
+        int words = (int) (((long) branches * (length + 1) + 63) >>> 6);
+        if (memo == null || memo.length < words) return new long[words];
+        Arrays.fill(memo, 0, words, 0L);
+        return memo;
+    }
+
+    //marks that a branch has been reached at a position (counted from the start of the target); false if it already was
+    static boolean visit(long[] memo, int branches, int branch, int position) {
+        int bit = position * branches + branch;
+        long mask = 1L << bit, word = memo[bit >>> 6];
+        if ((word & mask) != 0) return false;
+        memo[bit >>> 6] = word | mask;
+        return true;
+    }
+
+    //searches with the searcher instead of the backtracker, starting at from, which the DFA may have moved past wOffset;
+    //resume goes on from where the last match was found, trying what the backtracker would have tried next
+    private boolean searchCompiled(int anchors, int from, boolean resume) {
+        boolean anchored = (anchors & (ANCHOR_START | ANCHOR_LASTMATCH)) > 0;
+        int[] caps = compiledGroups;
+        if (caps == null) {
+            caps = compiledGroups = new int[memregs.length * 3];
+            compiledStacks = new int[][]{new int[64], new int[48], new int[3]};
+        }
+        if (!anchored && !resume && re.root.type == Term.FIND_LITERAL) {
+            //the DFA isn't run for these, so skip to the first place the literal could let a match start
+            FindLiteral fl = (FindLiteral) re.root;
+            for (; ; ) {
+                int at = fl.indexIn(data, from + fl.minCount, end);
+                if (at < 0) {
+                    top = 0;
+                    wOffset = end + 1;
+                    return false;
+                }
+                int start = fl.startBound(data, at, from);
+                if (start + fl.minCount <= at) {
+                    if (start > from) from = start;
+                    break;
+                }
+                from = start;
+            }
+        }
+        if (!searcher.search(data, offset, from, end, anchored, (anchors & ANCHOR_END) > 0, resume,
+                caps, counters, compiledStacks)) {
+            top = 0;
+            wOffset = anchored ? from : end + 1;
+            return false;
+        }
+        //the generated code keeps its own stack, but skip() and proceed() need to know if anything is left on it
+        top = compiledStacks[2][1];
+        for (int g = 1; g < memregs.length; g++) {
+            MemReg mr = memregs[g];
+            mr.tmp = caps[g * 3];
+            mr.in = caps[g * 3 + 1];
+            mr.out = caps[g * 3 + 2];
+        }
+        wOffset = memregs[0].in = caps[1];
+        wEnd = memregs[0].out = caps[2];
+        return true;
+    }
+
+    //searches with the PikeVM instead of the backtracker; resume goes on from an empty match, where the backtracker
+    //would still try the rest of its stack, so only another empty match there is refused
+    private boolean searchPike(int anchors, int from, boolean resume) {
+        boolean anchored = (anchors & (ANCHOR_START | ANCHOR_LASTMATCH)) > 0;
+        top = 0;
+        if (from > end) {
+            wOffset = end + 1;
+            return false;
+        }
+        int[] caps = re.pike.search(data, offset, from, end, wEnd, resume, anchored,
+                (anchors & ANCHOR_END) > 0, (anchors & ACCEPT_INCOMPLETE) > 0);
+        if (caps == null) {
+            wOffset = anchored ? from : end + 1;
+            return false;
+        }
+        for (int g = 1; g < memregs.length; g++) {
+            MemReg mr = memregs[g];
+            mr.tmp = caps[g * 3];
+            mr.in = caps[g * 3 + 1];
+            mr.out = caps[g * 3 + 2];
+        }
+        wOffset = memregs[0].in = caps[1];
+        wEnd = memregs[0].out = caps[2];
+        //like the compiled searchers, tell skip() and proceed() that there is more to try where an empty match was
+        if (wOffset == wEnd) top = 1;
+        return true;
+    }
+
+    //doubles the room on the backtracking stack, returning the new frames; there is always room for one more frame than
+    //is on it, so the frame just popped can still be read
+    private int[] grow() {
+        frameTerms = Arrays.copyOf(frameTerms, frameTerms.length << 1);
+        return frames = Arrays.copyOf(frames, frames.length << 1);
+    }
+
+    //doubles the room on the save stack, returning the new saves
+    private int[] growSaves() {
+        return saves = Arrays.copyOf(saves, saves.length << 1);
+    }
+
+    //puts back the groups and counters saved between mark and top on the save stack, newest first
+    private void restore(int top, int mark) {
+        int[] saves = this.saves;
+        for (int s = top - 3; s >= mark; s -= 3) {
+            int reg = saves[s];
+            if (reg >= 0) {
+                MemReg mr = memregs[reg];
+                mr.in = saves[s + 1];
+                mr.out = saves[s + 2];
+            } else counters[~reg] = saves[s + 1];
+        }
+    }
+
     private static boolean compareRegions(char[] arr, int off1, int off2, int len, int out, Term opts) {
         if(opts.mode_reverse)
         {
@@ -2261,13 +2672,17 @@ public class Matcher implements MatchResult, Serializable {
     }
 
     //repeat while doesn't match
-    private static int find(char[] data, int off, int out, Term term) {
+    private static int find(char[] data, int off, int out, Term term, boolean caseless) {
         if (off >= out) return -1;
         switch (term.type) {
             case Term.CHAR: {
                 char c = term.c;
                 int i = off;
-                while (i < out) {
+                if (caseless) while (i < out) {
+                    if (Category.caseFold(data[i]) == c) break;
+                    i++;
+                }
+                else while (i < out) {
                     if (data[i] == c) break;
                     i++;
                 }
@@ -2278,11 +2693,11 @@ public class Matcher implements MatchResult, Serializable {
                 int i = off;
                 char c;
                 if (!term.inverse) while (i < out) {
-                    if ((c = data[i]) <= 255 && arr.get(c)) break;
+                    if ((c = fold(data[i], caseless)) <= 255 && arr.get(c)) break;
                     else i++;
                 }
                 else while (i < out) {
-                    if ((c = data[i]) <= 255 && arr.get(c)) i++;
+                    if ((c = fold(data[i], caseless)) <= 255 && arr.get(c)) i++;
                     else break;
                 }
                 return i - off;
@@ -2292,12 +2707,12 @@ public class Matcher implements MatchResult, Serializable {
                 IntBitSet[] bitset2 = term.bitset2;
                 char c;
                 if (!term.inverse) while (i < out) {
-                    IntBitSet arr = bitset2[(c = data[i]) >> 8];
+                    IntBitSet arr = bitset2[(c = fold(data[i], caseless)) >> 8];
                     if (arr != null && arr.get(c & 0xff)) break;
                     else i++;
                 }
                 else while (i < out) {
-                    IntBitSet arr = bitset2[(c = data[i]) >> 8];
+                    IntBitSet arr = bitset2[(c = fold(data[i], caseless)) >> 8];
                     if (arr != null && arr.get(c & 0xff)) i++;
                     else break;
                 }
@@ -2320,14 +2735,14 @@ public class Matcher implements MatchResult, Serializable {
         return off - i;
     }
 
-    private static int findBack(char[] data, int off, int maxCount, Term term) {
+    private static int findBack(char[] data, int off, int maxCount, Term term, boolean caseless) {
         switch (term.type) {
             case Term.CHAR: {
                 char c = term.c;
                 int i = off;
                 int iMin = off - maxCount;
                 for (; ; ) {
-                    if (data[--i] == c) break;
+                    if (fold(data[--i], caseless) == c) break;
                     if (i <= iMin) return -1;
                 }
                 return off - i;
@@ -2338,11 +2753,11 @@ public class Matcher implements MatchResult, Serializable {
                 char c;
                 int iMin = off - maxCount;
                 if (!term.inverse) for (; ; ) {
-                    if ((c = data[--i]) <= 255 && arr.get(c)) break;
+                    if ((c = fold(data[--i], caseless)) <= 255 && arr.get(c)) break;
                     if (i <= iMin) return -1;
                 }
                 else for (; ; ) {
-                    if ((c = data[--i]) > 255 || !arr.get(c)) break;
+                    if ((c = fold(data[--i], caseless)) > 255 || !arr.get(c)) break;
                     if (i <= iMin) return -1;
                 }
                 return off - i;
@@ -2353,12 +2768,12 @@ public class Matcher implements MatchResult, Serializable {
                 char c;
                 int iMin = off - maxCount;
                 if (!term.inverse) for (; ; ) {
-                    IntBitSet arr = bitset2[(c = data[--i]) >> 8];
+                    IntBitSet arr = bitset2[(c = fold(data[--i], caseless)) >> 8];
                     if (arr != null && arr.get(c & 0xff)) break;
                     if (i <= iMin) return -1;
                 }
                 else for (; ; ) {
-                    IntBitSet arr = bitset2[(c = data[--i]) >> 8];
+                    IntBitSet arr = bitset2[(c = fold(data[--i], caseless)) >> 8];
                     if (arr == null || arr.get(c & 0xff)) break;
                     if (i <= iMin) return -1;
                 }
@@ -2368,6 +2783,11 @@ public class Matcher implements MatchResult, Serializable {
         throw new IllegalArgumentException("can't find this kind of term:" + term.type);
     }
 
+    //the seeking methods have to see chars the same way as search() does, which folds case when caseless
+    private static char fold(char c, boolean caseless) {
+        return caseless ? Category.caseFold(c) : c;
+    }
+
     private static int findBackReg(char[] data, int off, int regOff, int regLen, int maxCount, Term term, int out) {
         //assume that the cases when regLen==0 or maxCount==0 are handled by caller
         int i = off;
@@ -2451,17 +2871,15 @@ public class Matcher implements MatchResult, Serializable {
         if (minQueueLength != matcher.minQueueLength) return false;
         if (cacheOffset != matcher.cacheOffset) return false;
         if (cacheLength != matcher.cacheLength) return false;
-        if (re != null ? !re.equals(matcher.re) : matcher.re != null) return false;
+        if (pattern != null ? !pattern.equals(matcher.pattern) : matcher.pattern != null) return false;
         if (!Arrays.equals(counters, matcher.counters)) return false;
         // Probably incorrect - comparing Object[] arrays with Arrays.equals
         if (!Arrays.equals(memregs, matcher.memregs)) return false;
         // Probably incorrect - comparing Object[] arrays with Arrays.equals
         if (!Arrays.equals(lookaheads, matcher.lookaheads)) return false;
         if (!Arrays.equals(data, matcher.data)) return false;
-        if (top != null ? !top.equals(matcher.top) : matcher.top != null) return false;
-        if (first != null ? !first.equals(matcher.first) : matcher.first != null) return false;
-        if (defaultEntry != null ? !defaultEntry.equals(matcher.defaultEntry) : matcher.defaultEntry != null)
-            return false;
+        if (top != matcher.top) return false;
+        if (saveTop != matcher.saveTop) return false;
         if (cache != null ? !cache.equals(matcher.cache) : matcher.cache != null) return false;
         return prefixBounds != null ? prefixBounds.equals(matcher.prefixBounds) : matcher.prefixBounds == null && (suffixBounds != null ? suffixBounds.equals(matcher.suffixBounds) : matcher.suffixBounds == null && (targetBounds != null ? targetBounds.equals(matcher.targetBounds) : matcher.targetBounds == null));
 
@@ -2469,7 +2887,7 @@ public class Matcher implements MatchResult, Serializable {
 
     @Override
     public int hashCode() {
-        int result = re != null ? re.hashCode() : 0;
+        int result = pattern != null ? pattern.hashCode() : 0;
         result = 31 * result + Arrays.hashCode(counters);
         result = 31 * result + Arrays.hashCode(memregs);
         result = 31 * result + Arrays.hashCode(lookaheads);
@@ -2482,9 +2900,8 @@ public class Matcher implements MatchResult, Serializable {
         result = 31 * result + wOffset;
         result = 31 * result + wEnd;
         result = 31 * result + (shared ? 1 : 0);
-        result = 31 * result + (top != null ? top.hashCode() : 0);
-        result = 31 * result + (first != null ? first.hashCode() : 0);
-        result = 31 * result + (defaultEntry != null ? defaultEntry.hashCode() : 0);
+        result = 31 * result + top;
+        result = 31 * result + saveTop;
         result = 31 * result + (called ? 1 : 0);
         result = 31 * result + minQueueLength;
         result = 31 * result + (cache != null ? cache.hashCode() : 0);
@@ -2583,147 +3000,6 @@ public class Matcher implements MatchResult, Serializable {
 
 }
 
-class SearchEntry implements Serializable {
-    private static final long serialVersionUID = -3628346657932720807L;
-
-    Term term;
-    int index;
-    int cnt;
-    int regLen;
-
-    boolean isState;
-
-    SearchEntry sub, on;
-
-    private static class MState {
-        int index, in, out;
-        MState next, prev;
-    }
-
-    private static class CState {
-        int index, value;
-        CState next, prev;
-    }
-
-    private MState mHead, mCurrent;
-    private CState cHead, cCurrent;
-
-    static void saveMemregState(SearchEntry entry, int memreg, MemReg mr) {
-        entry.isState = true;
-        MState current = entry.mCurrent;
-        if (current == null) {
-            MState head = entry.mHead;
-            if (head == null) entry.mHead = entry.mCurrent = current = new MState();
-            else current = head;
-        } else {
-            MState next = current.next;
-            if (next == null) {
-                current.next = next = new MState();
-                next.prev = current;
-            }
-            current = next;
-        }
-        current.index = memreg;
-        current.in = mr.in;
-        current.out = mr.out;
-        entry.mCurrent = current;
-    }
-
-    static void saveCntState(SearchEntry entry, int cntreg, int value) {
-        entry.isState = true;
-        CState current = entry.cCurrent;
-        if (current == null) {
-            CState head = entry.cHead;
-            if (head == null) entry.cHead = entry.cCurrent = current = new CState();
-            else current = head;
-        } else {
-            CState next = current.next;
-            if (next == null) {
-                current.next = next = new CState();
-                next.prev = current;
-            }
-            current = next;
-        }
-        current.index = cntreg;
-        current.value = value;
-        entry.cCurrent = current;
-    }
-
-    static void popState(SearchEntry entry, MemReg[] memregs, int[] counters) {
-        MState ms = entry.mCurrent;
-        while (ms != null) {
-            MemReg mr = memregs[ms.index];
-            mr.in = ms.in;
-            mr.out = ms.out;
-            ms = ms.prev;
-        }
-        CState cs = entry.cCurrent;
-        while (cs != null) {
-            counters[cs.index] = cs.value;
-            cs = cs.prev;
-        }
-        entry.mCurrent = null;
-        entry.cCurrent = null;
-        entry.isState = false;
-    }
-
-    final void reset(int restQueue) {
-        term = null;
-        index = cnt = regLen = 0;
-
-        mCurrent = null;
-        cCurrent = null;
-        isState = false;
-
-        SearchEntry on = this.on;
-        if (on != null) {
-            if (restQueue > 0) on.reset(restQueue - 1);
-            else {
-                this.on = null;
-                on.sub = null;
-            }
-        }
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        SearchEntry that = (SearchEntry) o;
-
-        if (index != that.index) return false;
-        if (cnt != that.cnt) return false;
-        if (regLen != that.regLen) return false;
-        if (isState != that.isState) return false;
-        if (term != null ? !term.equals(that.term) : that.term != null) return false;
-        if (sub != null ? !sub.equals(that.sub) : that.sub != null) return false;
-        if (on != null ? !on.equals(that.on) : that.on != null) return false;
-        if (mHead != null ? !mHead.equals(that.mHead) : that.mHead != null) return false;
-        return mCurrent != null ? mCurrent.equals(that.mCurrent) : that.mCurrent == null && (cHead != null ? cHead.equals(that.cHead) : that.cHead == null && (cCurrent != null ? cCurrent.equals(that.cCurrent) : that.cCurrent == null));
-
-    }
-
-    @Override
-    public int hashCode() {
-        int result = term != null ? term.hashCode() : 0;
-        result = 31 * result + index;
-        result = 31 * result + cnt;
-        result = 31 * result + regLen;
-        result = 31 * result + (isState ? 1 : 0);
-        result = 31 * result + (mHead != null ? mHead.hashCode() : 0);
-        result = 31 * result + (mCurrent != null ? mCurrent.hashCode() : 0);
-        result = 31 * result + (cHead != null ? cHead.hashCode() : 0);
-        result = 31 * result + (cCurrent != null ? cCurrent.hashCode() : 0);
-        return result;
-    }
-
-    @Override
-    public String toString() {
-        return "SearchEntry{???}";
-    }
-}
-
 class MemReg implements Serializable {
     private static final long serialVersionUID = -3628346657932720807L;
 
@@ -2775,7 +3051,7 @@ class MemReg implements Serializable {
 class LAEntry implements Serializable {
     private static final long serialVersionUID = -3628346657932720807L;
     int index;
-    SearchEntry top, actual;
+    int top;
 
     @Override
     public boolean equals(Object o) {
@@ -2784,15 +3060,14 @@ class LAEntry implements Serializable {
 
         LAEntry laEntry = (LAEntry) o;
 
-        return index == laEntry.index && (top != null ? top.equals(laEntry.top) : laEntry.top == null && (actual != null ? actual.equals(laEntry.actual) : laEntry.actual == null));
+        return index == laEntry.index && top == laEntry.top;
 
     }
 
     @Override
     public int hashCode() {
         int result = index;
-        result = 31 * result + (top != null ? top.hashCode() : 0);
-        result = 31 * result + (actual != null ? actual.hashCode() : 0);
+        result = 31 * result + top;
         return result;
     }
 
@@ -2801,7 +3076,6 @@ class LAEntry implements Serializable {
         return "LAEntry{" +
                 "index=" + index +
                 ", top=" + top +
-                ", actual=" + actual +
                 '}';
     }
 }
@@ -0,0 +1,104 @@
+package regexodus;
+
+/**
+ * Keeps a few Matchers for one Pattern, so code that uses that Pattern very often can reuse them instead of making a
+ * new Matcher (with all of its group and backtracking arrays) each time. Call {@link #obtain()} to get a Matcher that
+ * has no target yet, and {@link #free(Matcher)} once done with it; a freed Matcher must not be used again by the code
+ * that freed it. A Matcher that is never freed is just left to the garbage collector, so forgetting to free one (for
+ * instance when an exception is thrown) does no harm.
+ * <br>
+ * A MatcherPool can be shared between threads; obtain() and free() are synchronized, and the Matchers they hand out
+ * are only ever used by one caller at a time. {@link Pattern#setPooled(boolean)} makes a Pattern use a MatcherPool of
+ * its own for {@link Pattern#matches(String)} and the other shorthand methods that only need a Matcher for the length
+ * of one call.
+ */
+public class MatcherPool {
+    /**
+     * How many free Matchers a pool keeps by default, 8.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+    /**
+     * A freed Matcher keeps its copy of the last target it was given, so the next target can usually be copied into
+     * it without allocating, unless that copy is more than this many chars long.
+     */
+    public static final int MAX_KEPT_TARGET = 1 << 16;
+
+    private final Pattern pattern;
+    private final Matcher[] free;
+    private int size;
+
+    /**
+     * Makes a MatcherPool for the given Pattern that keeps up to {@link #DEFAULT_CAPACITY} free Matchers.
+     * @param pattern the Pattern every Matcher from this pool uses
+     */
+    public MatcherPool(Pattern pattern) {
+        this(pattern, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Makes a MatcherPool for the given Pattern that keeps up to capacity free Matchers; more than that can be in use
+     * at once, but only capacity of them will be kept once they are freed.
+     * @param pattern the Pattern every Matcher from this pool uses
+     * @param capacity how many free Matchers to keep at most
+     */
+    public MatcherPool(Pattern pattern, int capacity) {
+        if (pattern == null) throw new NullPointerException("MatcherPool needs a Pattern");
+        this.pattern = pattern;
+        this.free = new Matcher[Math.max(capacity, 0)];
+    }
+
+    /**
+     * Gets a Matcher for this pool's Pattern, reusing a free one if there is one. Like {@link Pattern#matcher()}, the
+     * Matcher has no target; give it one before using it.
+     * @return a Matcher with no target, which should be given back with {@link #free(Matcher)} when done
+     */
+    public Matcher obtain() {
+        synchronized (this) {
+            if (size > 0) {
+                Matcher m = free[--size];
+                free[size] = null;
+                return m;
+            }
+        }
+        return new Matcher(pattern);
+    }
+
+    /**
+     * Gives back a Matcher so a later call to {@link #obtain()} can reuse it. The Matcher drops its reference to its
+     * target; it must not be used by the caller after this.
+     * @param matcher a Matcher that uses this pool's Pattern, usually one that came from {@link #obtain()}
+     * @throws IllegalArgumentException if matcher doesn't use this pool's Pattern
+     */
+    public void free(Matcher matcher) {
+        if (matcher.pattern() != pattern)
+            throw new IllegalArgumentException("Matcher uses a different Pattern than this MatcherPool");
+        matcher.release(MAX_KEPT_TARGET);
+        synchronized (this) {
+            if (size < free.length) free[size++] = matcher;
+        }
+    }
+
+    /**
+     * @return the Pattern every Matcher from this pool uses
+     */
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * @return how many free Matchers this pool is keeping right now
+     */
+    public synchronized int getFree() {
+        return size;
+    }
+
+    /**
+     * Drops every free Matcher this pool is keeping.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            free[i] = null;
+        }
+        size = 0;
+    }
+}
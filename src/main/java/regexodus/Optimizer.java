@@ -45,7 +45,6 @@ class Optimizer {
             case Term.CHAR:
             case Term.REG:
             case Term.REG_I:
-            case Term.GROUP_IN:
                 return new Optimizer(term, dist);
             case Term.BITSET:
             case Term.BITSET2:
@@ -66,6 +65,82 @@ class Optimizer {
         return null;
     }
 
+    /**
+     * Looks along the path every match must take from theFirst for the longest run of literal chars, and if it finds
+     * one at least 2 chars long, makes a FindLiteral term that searches for that run before trying to match. The run
+     * can be a prefix, or sit after repeats and classes of known or unknown width, as "ERROR" does in
+     * {@code \d+ ERROR: .*}.
+     * @param theFirst the first term of a pattern
+     * @param caseless true if the pattern ignores case; the CHAR terms are already folded then, and so is the literal
+     * @return a new FindLiteral that leads to theFirst, or null if there is no usable literal
+     */
+    static Term findLiteral(Term theFirst, boolean caseless) {
+        StringBuilder run = new StringBuilder(), best = new StringBuilder();
+        //the terms that consume chars before the current run, and before the best run
+        java.util.ArrayList<Term> atoms = new java.util.ArrayList<Term>(), runAtoms = atoms, bestAtoms = atoms;
+        //the shortest and longest distance from the match start to the current term, and to the best run
+        int min = 0, max = 0, runMin = 0, runMax = 0, bestMin = 0, bestMax = 0;
+        walk:
+        for (Term term = theFirst; term != null; ) {
+            int type = term.type;
+            switch (type) {
+                case Term.CHAR:
+                    if (run.length() == 0) {
+                        runMin = min;
+                        runMax = max;
+                        runAtoms = new java.util.ArrayList<Term>(atoms);
+                    }
+                    run.append(term.c);
+                    atoms.add(term);
+                    min++;
+                    if (max >= 0) max++;
+                    term = term.next;
+                    continue;
+                case Term.BITSET:
+                case Term.BITSET2:
+                case Term.ANY_CHAR:
+                case Term.ANY_CHAR_NE:
+                    min++;
+                    if (max >= 0) max++;
+                    atoms.add(term);
+                    break;
+                case Term.REPEAT_0_INF:
+                case Term.REPEAT_MIN_INF:
+                case Term.REPEAT_MIN_MAX:
+                    atoms.add(term);
+                    min += term.minCount;
+                    if (max >= 0) max = type == Term.REPEAT_MIN_MAX ? max + term.maxCount : -1;
+                    break;
+                default:
+                    //a zero-width term doesn't break up a run; anything that branches ends the walk
+                    if (type >= Term.FIRST_TRANSPARENT && type <= Term.LAST_TRANSPARENT) {
+                        term = term.next;
+                        continue;
+                    }
+                    break walk;
+            }
+            if (run.length() > best.length()) {
+                best.setLength(0);
+                best.append(run);
+                bestMin = runMin;
+                bestMax = runMax;
+                bestAtoms = runAtoms;
+            }
+            run.setLength(0);
+            term = term.next;
+        }
+        if (run.length() > best.length()) {
+            best = run;
+            bestMin = runMin;
+            bestMax = runMax;
+            bestAtoms = runAtoms;
+        }
+        if (best.length() < 2) return null;
+        char[] literal = new char[best.length()];
+        best.getChars(0, literal.length, literal, 0);
+        return new FindLiteral(literal, caseless, bestMin, bestMax, bestAtoms.toArray(new Term[0]), theFirst);
+    }
+
     private Term atom;
     private int distance;
 
@@ -124,7 +199,6 @@ class Find extends Term {
                 break;
             case Term.REG:
             case Term.REG_I:
-            case Term.GROUP_IN:
                 type = Term.FINDREG;
                 break;
             default:
@@ -153,7 +227,6 @@ class FindBack extends Term {
                 break;
             case Term.REG:
             case Term.REG_I:
-            case Term.GROUP_IN:
                 type = Term.BACKTRACK_FINDREG_MIN;
                 break;
             default:
@@ -171,4 +244,4 @@ class FindBack extends Term {
             this.eat = false;
         }
     }
-}
\ No newline at end of file
+}
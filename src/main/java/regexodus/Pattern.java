@@ -34,6 +34,7 @@ import java.io.Reader;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 /**
  * A handle for a precompiled regular expression; core operations should be identical to java.util.regex.Pattern .
@@ -69,10 +70,14 @@ import java.util.HashMap;
  * <li><b>REFlags.IGNORE_SPACES</b> - literal spaces in expression are ignored for better readability;</li>
  * <li><b>REFlags.UNICODE</b> - the predefined classes('\w','\d',etc) are referenced to Unicode;</li>
  * <li><b>REFlags.XML_SCHEMA</b> - permits XML Schema regular expressions syntax extensions.</li>
+ * <li><b>REFlags.LINEAR</b> - matches without backtracking, in time linear in the length of the input.</li>
+ * <li><b>REFlags.CODEPOINTS</b> - matches surrogate pairs as whole code points past the BMP.</li>
  * </ul>
  * <br>
  * <b>Multithreading</b><br>
- * Pattern instances are not thread-safe, and neither are Matcher objects.
+ * Patterns can be compiled on any number of threads at once. Matcher objects are not thread-safe, so each thread
+ * should use its own; a Pattern can be shared by Matchers on several threads as long as it isn't changed after it is
+ * compiled (with {@link #setFlags(int)}, for instance).
  * <br>
  * <b>Special Syntax</b>
  * <br>
@@ -262,12 +267,58 @@ public class Pattern implements Serializable, REFlags {
     // number of lookahead groups
     int lookaheads;
 
-    private int flags;
+    int flags;
 
     HashMap<String, Integer> namedGroupMap;
 
     boolean caseless = false;
 
+    // lazily-built automaton used to rule out non-matching input; null if this pattern can't use one
+    transient Dfa dfa;
+
+    int dfaMemoryLimit = Dfa.DEFAULT_MEMORY_LIMIT;
+
+    // the limits Matchers made from this start with; 0 or less means no limit
+    int stepLimit, timeLimit;
+
+    // used instead of backtracking when compiled with REFlags.LINEAR
+    transient PikeVM pike;
+
+    // generated code used instead of backtracking, if this Pattern came from a CompiledSearch or was compiled at runtime
+    transient CompiledSearch compiled;
+
+    // the Term graph lowered to a flat array, made the first time this is searched; null if it can't be lowered
+    private transient Program program;
+    private transient boolean lowered;
+
+    // set by setUseProgram(true) so Matchers search with the Program instead of the Term graph when they can
+    transient boolean useProgram;
+
+    // how many BRANCH Terms have a bit in a memo of failed positions, or -1 before memoBranches() has counted them
+    private transient int memoBranches = -1;
+
+    // compiles Patterns that are searched often, if one was installed by BytecodeCompiler.install()
+    static volatile CompiledSearch.Compiler searchCompiler;
+
+    // how many searches a Pattern gets before it is compiled, unless it sets its own compileThreshold
+    static volatile int searchThreshold;
+
+    // searches so far with the backtracker, or -1 once this has been given to searchCompiler
+    transient int searches;
+
+    // set by setCompileThreshold(); 0 or less uses searchThreshold
+    transient int compileThreshold;
+
+    // set by Replacer.makeTable() to search for its literal keys all at once; null otherwise
+    transient AhoCorasick table;
+
+    // set by setPooled(true) so the shorthand methods reuse Matchers; null otherwise
+    private transient MatcherPool pool;
+
+    // with REFlags.CODEPOINTS, the same regex parsed so it matches surrogate pairs as code points; Matchers search with
+    // it only when their target has surrogates in it. null without that flag; the twin is its own twin
+    transient Pattern astral;
+
     protected Pattern() throws PatternSyntaxException {
     }
 
@@ -317,6 +368,8 @@ public class Pattern implements Serializable, REFlags {
      * <li><b>REFlags.IGNORE_SPACES</b> - extended whitespace comments (spaces and eols in the expression are ignored), corresponds to '<b>x</b>'.</li>
      * <li><b>REFlags.UNICODE</b> - predefined classes are regarded as belonging to Unicode, corresponds to '<b>u</b>'; this may yield some performance penalty.</li>
      * <li><b>REFlags.XML_SCHEMA</b> - compatibility with XML Schema, corresponds to '<b>X</b>'.</li>
+     * <li><b>REFlags.LINEAR</b> - match in linear time without backtracking; has no letter.</li>
+     * <li><b>REFlags.CODEPOINTS</b> - match surrogate pairs as whole code points; has no letter.</li>
      * </ul>
      *
      * @param regex the Perl5-compatible regular expression string.
@@ -360,6 +413,8 @@ public class Pattern implements Serializable, REFlags {
      * <li><b>REFlags.IGNORE_SPACES</b> - extended whitespace comments (spaces and eols in the expression are ignored), corresponds to '<b>x</b>'.</li>
      * <li><b>REFlags.UNICODE</b> - predefined classes are regarded as belonging to Unicode, corresponds to '<b>u</b>'; this may yield some performance penalty.</li>
      * <li><b>REFlags.XML_SCHEMA</b> - compatibility with XML Schema, corresponds to '<b>X</b>'.</li>
+     * <li><b>REFlags.LINEAR</b> - match in linear time without backtracking; has no letter.</li>
+     * <li><b>REFlags.CODEPOINTS</b> - match surrogate pairs as whole code points; has no letter.</li>
      * </ul>
      * @param flags an int that stores various flags from REFlags bitwise-OR-ed with each other
      */
@@ -432,12 +487,316 @@ public class Pattern implements Serializable, REFlags {
         return new Pattern(regex, flags);
     }
 
+    /**
+     * Gets a Pattern for the given String with default flags, compiling it only if the same regex hasn't been compiled
+     * with this method (or {@link #compileCached(String, int)}) recently. A regex is kept once it has been asked for
+     * twice, so one used only once doesn't take a place in the cache. The Pattern is shared with every other caller
+     * that asks for the same regex, so it must not be changed, though it can be used on several threads at once. Up to
+     * {@link PatternCache#DEFAULT_CAPACITY} Patterns are kept; see {@link PatternCache#global()} to change that or to
+     * see how often the cache helps.
+     * @param regex a String in normal Java regular expression format
+     * @return a Pattern that can be used to match text that fits the given regular expression; don't change it
+     * @throws PatternSyntaxException when there is a syntax error in the Pattern
+     */
+    public static Pattern compileCached(String regex) throws PatternSyntaxException {
+        return PatternCache.global().get(regex, DEFAULT);
+    }
 
-    private void internalCompile(String regex, int flags) throws PatternSyntaxException {
+    /**
+     * Gets a Pattern for the given String and int flags, compiling it only if the same regex hasn't been compiled with
+     * the same flags by this method (or {@link #compileCached(String)}) recently. The Pattern is shared with every other
+     * caller that asks for the same regex and flags, so it must not be changed, though it can be used on several
+     * threads at once.
+     * @param regex a String in normal Java regular expression format
+     * @param flags integer flags that are constructed via bitwise OR from the flag constants in REFlags.
+     * @return a Pattern that can be used to match text that fits the given regular expression; don't change it
+     * @throws PatternSyntaxException when there is a syntax error in the Pattern
+     * @see PatternCache
+     */
+    public static Pattern compileCached(String regex, int flags) throws PatternSyntaxException {
+        return PatternCache.global().get(regex, flags);
+    }
+
+
+    void internalCompile(String regex, int flags) throws PatternSyntaxException {
         stringRepr = regex;
         this.flags = flags;
         caseless = (flags & IGNORE_CASE) == IGNORE_CASE;
         Term.makeTree(regex, new int[]{flags}, this);
+        astral = null; //a twin from before only fits the regex and flags it was parsed from
+        prepare();
+        table = null;
+        compiled = null; //generated code only fits the regex and flags it was generated from
+        searches = 0;
+    }
+
+    //builds what searching needs besides the Term graph; also used once PatternCodec has loaded that graph, and the
+    //twin's graph if it was saved too
+    void prepare() {
+        if ((flags & CODEPOINTS) == 0) astral = null;
+        else if (astral == null) {
+            Pattern twin = new Pattern();
+            twin.stringRepr = stringRepr;
+            twin.flags = flags;
+            twin.caseless = caseless;
+            twin.dfaMemoryLimit = dfaMemoryLimit;
+            twin.compileThreshold = compileThreshold;
+            twin.useProgram = useProgram;
+            Term.makeTree(stringRepr, new int[]{flags | Term.PAIRS_FLAG}, twin);
+            twin.astral = twin;
+            twin.prepare();
+            astral = twin;
+        }
+        dfa = Dfa.create(this);
+        pike = (flags & LINEAR) != 0 ? PikeVM.create(this) : null;
+        program = null;
+        lowered = false;
+        memoBranches = -1;
+    }
+
+    //makes a Pattern for Replacer.makeTable() that finds its keys with table, and only parses regex (an alternation of
+    //all the keys, which can take a while to parse when there are thousands) once something besides table needs it
+    static Pattern lazy(String regex, AhoCorasick table) {
+        Pattern p = new Pattern();
+        p.stringRepr = regex;
+        p.flags = DEFAULT;
+        //the same counts parsing "(?>...)" gives, so Matchers made before parse() have room for what it builds
+        p.memregs = 1;
+        p.lookaheads = 1;
+        p.namedGroupMap = new HashMap<String, Integer>();
+        p.table = table;
+        return p;
+    }
+
+    //builds the Term graph of a Pattern from lazy() the first time it is needed; does nothing for any other Pattern
+    synchronized void parse() {
+        if (root != null) return;
+        Term.makeTree(stringRepr, new int[]{flags}, this);
+        prepare();
+    }
+
+    //numbers the BRANCH Terms that a search can remember having failed at, the first time it is called, and returns
+    //how many there are; a BRANCH reached again at the same position can only fail again when nothing but the Term and
+    //the position decides what happens next, so any backreference, lookaround or counter makes this 0
+    int memoBranches() {
+        int n = memoBranches;
+        if (n < 0) {
+            n = 0;
+            ArrayList<Term> terms = new ArrayList<Term>();
+            try {
+                CodeGenerator.number(this, terms, new IdentityHashMap<Term, Integer>());
+            } catch (IllegalArgumentException e) {
+                terms.clear();
+            }
+            if (counters > 0) terms.clear();
+            for (Term t : terms) {
+                if (t.type == Term.CNT_SET_0) {
+                    terms.clear();
+                    break;
+                }
+            }
+            for (Term t : terms) {
+                if (t.type == Term.BRANCH) t.memo = n++;
+            }
+            memoBranches = n;
+        }
+        return n;
+    }
+
+    //gets the Program that Matchers run in place of the Term graph, lowering it the first time; two threads may both
+    //lower it, but the Programs they make are the same
+    Program program() {
+        if (!lowered) {
+            try {
+                program = Program.lower(this);
+            } catch (IllegalArgumentException e) {
+                //backreferences, lookaround and the like stay with the backtracker
+            }
+            lowered = true;
+        }
+        return program;
+    }
+
+    /**
+     * Sets how much memory, roughly in bytes, this Pattern may use to cache the states of its DFA. Patterns that don't
+     * use backreferences, lookaround, conditionals, independent groups, word boundaries or multi-line anchors can have
+     * their Matchers check whether there is any match at all in time linear in the length of the input, using a DFA that
+     * is built while searching; only once a match is known to be there does the slower backtracking search run.
+     * If the DFA needs more states than fit in this limit, it starts over, and if that keeps happening, this Pattern
+     * stops using a DFA. A limit of 0 or less turns the DFA off entirely. The default is 2 MiB.
+     * <br>
+     * This should be called before any Matchers are made from this Pattern, or at least before they are in use.
+     *
+     * @param limit the approximate number of bytes of DFA states to cache; 0 or less disables the DFA
+     * @return this Pattern, for chaining
+     */
+    public Pattern setDfaMemoryLimit(int limit) {
+        dfaMemoryLimit = limit;
+        dfa = root == null ? null : Dfa.create(this);
+        if (astral != null && astral != this) astral.setDfaMemoryLimit(limit);
+        return this;
+    }
+
+    /**
+     * Gets the approximate number of bytes this Pattern may use to cache DFA states.
+     *
+     * @return the DFA memory limit in bytes; 0 or less means the DFA is disabled
+     * @see #setDfaMemoryLimit(int)
+     */
+    public int getDfaMemoryLimit() {
+        return dfaMemoryLimit;
+    }
+
+    /**
+     * Sets the step limit that Matchers made from this Pattern start with, so that a search which backtracks too much
+     * throws a {@link MatchLimitException} instead of running for a very long time; see
+     * {@link Matcher#setStepLimit(int)} for what counts as a step. A limit of 0 or less, the default, means no limit.
+     * <br>
+     * This only affects Matchers made after it is called.
+     *
+     * @param limit the most steps a search may take, or 0 for no limit
+     * @return this Pattern, for chaining
+     */
+    public Pattern setStepLimit(int limit) {
+        stepLimit = limit;
+        return this;
+    }
+
+    /**
+     * Gets the step limit that Matchers made from this Pattern start with.
+     *
+     * @return the step limit, or 0 or less if there is none
+     * @see #setStepLimit(int)
+     */
+    public int getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * Sets the time limit, in milliseconds, that Matchers made from this Pattern start with, so that a search which
+     * runs too long throws a {@link MatchLimitException}; see {@link Matcher#setTimeLimit(int)}. A limit of 0 or less,
+     * the default, means no limit.
+     * <br>
+     * This only affects Matchers made after it is called.
+     *
+     * @param millis the longest a search may run, in milliseconds, or 0 for no limit
+     * @return this Pattern, for chaining
+     */
+    public Pattern setTimeLimit(int millis) {
+        timeLimit = millis;
+        return this;
+    }
+
+    /**
+     * Gets the time limit, in milliseconds, that Matchers made from this Pattern start with.
+     *
+     * @return the time limit, or 0 or less if there is none
+     * @see #setTimeLimit(int)
+     */
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Sets how many times this Pattern is searched with the backtracker before it is compiled to bytecode, once a
+     * compiler has been installed with {@link BytecodeCompiler#install(int)}; this overrides the threshold given there.
+     * A threshold of 0 or less goes back to using the installed one, and {@link Integer#MAX_VALUE} keeps this Pattern
+     * from ever being compiled. Without an installed compiler, this has no effect.
+     *
+     * @param threshold how many searches to allow before compiling, or 0 to use the installed default
+     * @return this Pattern, for chaining
+     */
+    public Pattern setCompileThreshold(int threshold) {
+        compileThreshold = threshold;
+        if (astral != null && astral != this) astral.compileThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Gets the number of searches this Pattern allows before it is compiled to bytecode.
+     *
+     * @return the threshold set for this Pattern, or 0 if it uses the installed default
+     * @see #setCompileThreshold(int)
+     */
+    public int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    /**
+     * Makes Matchers from this Pattern search with a Program, a flat array of opcodes lowered from the Term graph,
+     * instead of walking the Term graph itself. Only Patterns the LINEAR engine supports can be lowered (no lookaround,
+     * backreferences or conditionals); others keep using the Term graph whatever this is set to. This is off by
+     * default, because a Program is only faster on some Patterns, mostly ones searched with the DFA turned off. A
+     * Pattern that has been compiled to bytecode uses that instead, and a search with a step or time limit always uses
+     * the Term graph.
+     *
+     * @param useProgram true to search with a Program when this Pattern can be lowered to one
+     * @return this Pattern, for chaining
+     */
+    public Pattern setUseProgram(boolean useProgram) {
+        this.useProgram = useProgram;
+        if (astral != null && astral != this) astral.useProgram = useProgram;
+        return this;
+    }
+
+    /**
+     * @return true if Matchers search with a Program when they can, as set by {@link #setUseProgram(boolean)}
+     */
+    public boolean isUsingProgram() {
+        return useProgram;
+    }
+
+    //counts one search with the backtracker, and hands this to the installed compiler once there have been enough
+    void countSearch() {
+        CompiledSearch.Compiler compiler = searchCompiler;
+        if (compiler == null || searches < 0) return;
+        int threshold = compileThreshold > 0 ? compileThreshold : searchThreshold;
+        if (++searches <= threshold) return;
+        synchronized (this) {
+            if (searches < 0) return;
+            searches = -1;
+        }
+        try {
+            compiled = compiler.compileSearch(this);
+        } catch (IllegalArgumentException e) {
+            //this Pattern uses something the compiler can't handle, so it just keeps searching the usual way
+        }
+    }
+
+    /**
+     * Makes the methods that only need a Matcher for the length of one call reuse Matchers from a {@link MatcherPool}
+     * instead of making a new one each time. Those are {@link #matches(String)}, {@link #startsWith(String)},
+     * {@link #split(CharSequence, int)}, and a {@link Replacer}'s methods that replace in a CharSequence or char array.
+     * This is off by default; it can help code that calls those methods with this Pattern very often, like a
+     * validator that checks many short Strings, by not making garbage for each call. It is safe to use a pooled
+     * Pattern from several threads at once.
+     *
+     * @param pooled true to reuse Matchers, false to make a new Matcher for each call and drop any pooled ones
+     * @return this Pattern, for chaining
+     * @see MatcherPool
+     */
+    public Pattern setPooled(boolean pooled) {
+        if (!pooled) pool = null;
+        else if (pool == null) pool = new MatcherPool(this);
+        return this;
+    }
+
+    /**
+     * @return true if the shorthand methods reuse Matchers, as set by {@link #setPooled(boolean)}
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    //a Matcher with no target for use during one call, from the pool if there is one; give it back with freeMatcher
+    Matcher obtainMatcher() {
+        MatcherPool p = pool;
+        return p == null ? new Matcher(this) : p.obtain();
+    }
+
+    void freeMatcher(Matcher m) {
+        MatcherPool p = pool;
+        if (p != null) p.free(m);
     }
 
     /**
@@ -467,7 +826,11 @@ public class Pattern implements Serializable, REFlags {
      * @see Matcher#matches(String)
      */
     public boolean matches(String s) {
-        return matcher(s).matches();
+        Matcher m = obtainMatcher();
+        m.setTarget(s);
+        boolean result = m.matches();
+        freeMatcher(m);
+        return result;
     }
 
     /**
@@ -478,7 +841,11 @@ public class Pattern implements Serializable, REFlags {
      * @see Matcher#matchesPrefix()
      */
     public boolean startsWith(String s) {
-        return matcher(s).matchesPrefix();
+        Matcher m = obtainMatcher();
+        m.setTarget(s);
+        boolean result = m.matchesPrefix();
+        freeMatcher(m);
+        return result;
     }
 
     /**
@@ -498,6 +865,19 @@ public class Pattern implements Serializable, REFlags {
         return m;
     }
 
+    /**
+     * Returns a matcher for the remaining chars in a CharBuffer; if the buffer has a backing array, the Matcher reads it
+     * directly without copying it.
+     *
+     * @see Matcher#setTarget(java.nio.CharBuffer)
+     */
+    @GwtIncompatible
+    public Matcher matcher(java.nio.CharBuffer buffer) {
+        Matcher m = new Matcher(this);
+        m.setTarget(buffer);
+        return m;
+    }
+
     /**
      * Returns a matcher for a specified region.
      */
@@ -538,6 +918,7 @@ public class Pattern implements Serializable, REFlags {
     /**
      * Returns a matcher taking a text stream as target.
      * <b>Note that this is not a true POSIX-style stream matching</b>, i.e. the whole length of the text is preliminary read and stored in a char array.
+     * Use {@link #streamMatcher(Reader)} to search a stream while only keeping part of it in memory.
      *
      * @param text   a text stream
      * @param length the length to read from a stream; if <code>len</code> is <code>-1</code>, the whole stream is read in.
@@ -550,6 +931,19 @@ public class Pattern implements Serializable, REFlags {
         return m;
     }
 
+    /**
+     * Returns a StreamMatcher that finds matches in a text stream, reading it as the search goes and only keeping a
+     * bounded window of it in memory.
+     *
+     * @param text a text stream; it is not closed by the StreamMatcher
+     * @return a new StreamMatcher for this Pattern
+     * @see StreamMatcher
+     */
+    @GwtIncompatible
+    public StreamMatcher streamMatcher(Reader text) {
+        return new StreamMatcher(this, text);
+    }
+
     /**
      * Returns a replacer of a pattern by specified perl-like expression.
      * Such replacer will substitute all occurrences of a pattern by an evaluated expression
@@ -630,6 +1024,7 @@ public class Pattern implements Serializable, REFlags {
      * Returns a less or more readable representation of a bytecode for the pattern.
      */
     public String toString_d() {
+        parse();
         return root.toStringAll();
     }
 
@@ -774,7 +1169,8 @@ public class Pattern implements Serializable, REFlags {
         int index = 0;
         boolean matchLimited = limit > 0;
         ArrayList<String> matchList = new ArrayList<String>();
-        Matcher m = matcher(input);
+        Matcher m = obtainMatcher();
+        m.setTarget(input);
 
         // Add segments before each match found
         while(m.find()) {
@@ -791,6 +1187,7 @@ public class Pattern implements Serializable, REFlags {
                 index = m.end();
             }
         }
+        freeMatcher(m);
 
         // If no match was found, return this
         if (index == 0)
@@ -876,4 +1273,72 @@ public class Pattern implements Serializable, REFlags {
     {
         return new Pattern(ser.substring(0, ser.length() - 1), ser.charAt(ser.length() - 1) >>> 1);
     }
+
+    /**
+     * Writes this Pattern in a compact binary form that holds its compiled and optimized structure, not just its source
+     * and flags like {@link #serializeToString()}. {@link #deserializeFromBytes(byte[])} can load that without parsing
+     * the regular expression again, which makes loading many Patterns at startup much faster than compiling them.
+     * The data also holds the source, so if it was written by a version of RegExodus with a different binary format,
+     * loading it just compiles the source instead.
+     *
+     * @return a new byte array holding this Pattern in binary form
+     */
+    public byte[] serializeToBytes()
+    {
+        return PatternCodec.encode(this);
+    }
+
+    /**
+     * Loads a Pattern from data written by {@link #serializeToBytes()}, without parsing its regular expression again.
+     *
+     * @param data a byte array as returned by {@link #serializeToBytes()}
+     * @return a Pattern that behaves the same as the one that was written
+     * @throws IllegalArgumentException if data doesn't hold a Pattern written by {@link #serializeToBytes()}
+     */
+    public static Pattern deserializeFromBytes(byte[] data)
+    {
+        Pattern p = new Pattern();
+        PatternCodec.decode(p, data);
+        return p;
+    }
+
+    //the Term graph isn't Serializable, so Java serialization writes it in the same binary form as serializeToBytes()
+    @GwtIncompatible
+    private void writeObject(java.io.ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        byte[] data = PatternCodec.encode(this);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    @GwtIncompatible
+    private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        int length;
+        try {
+            length = in.readInt();
+        } catch (java.io.EOFException e) {
+            //written before the compiled form was included
+            internalCompile(stringRepr, flags);
+            return;
+        }
+        if (length < 0)
+            throw new java.io.InvalidObjectException("negative length for compiled Pattern data: " + length);
+        //the length comes from the stream, so the array only grows as the data actually arrives; a damaged length
+        //runs into the end of the stream instead of allocating more than is there
+        byte[] data = new byte[Math.min(length, 1 << 16)];
+        for (int read = 0; read < length; ) {
+            if (read == data.length)
+                data = java.util.Arrays.copyOf(data, (int) Math.min(length, data.length * 2L));
+            in.readFully(data, read, data.length - read);
+            read = data.length;
+        }
+        try {
+            PatternCodec.decode(this, data);
+        } catch (IllegalArgumentException e) {
+            throw new java.io.InvalidObjectException(e.getMessage());
+        }
+    }
 }
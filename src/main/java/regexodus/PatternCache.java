@@ -0,0 +1,199 @@
+package regexodus;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of compiled Patterns, keyed by their regular expression and flags, so code that keeps asking for the
+ * same few hundred Patterns only compiles each one once or twice. A Pattern is only kept the second time it is asked for
+ * while its regex is still remembered as a recent miss; the first time, it is compiled and handed out without being
+ * kept, and only a hash of its regex and flags is remembered, in a small fixed-size table. That way a regex that is
+ * used once never takes a place in the cache, and a burst of one-off regexes can't push out the ones in use. When the
+ * cache is full, the Pattern that was used least recently is dropped. Usually this is used through
+ * {@link Pattern#compileCached(String)} and {@link Pattern#compileCached(String, int)}, which share
+ * {@link #global()}, but separate caches can also be made.
+ * <br>
+ * Each kept Pattern can grow a lazy DFA as it is searched, up to its {@link Pattern#getDfaMemoryLimit()} (2 MiB by
+ * default), and can be compiled to bytecode once {@link BytecodeCompiler} is installed, so a full cache can hold far
+ * more than its Patterns' Term graphs; the capacity should be set with that in mind.
+ * <br>
+ * A PatternCache can be shared between threads. The Patterns it hands out are shared too, so they must not be changed
+ * (with {@link Pattern#setFlags(int)} or {@link Pattern#setDfaMemoryLimit(int)}, for instance);
+ * each thread should use its own Matchers. Looking up a Pattern takes a lock only briefly; compiling one that isn't
+ * cached yet happens outside the lock, so two threads asking for the same new Pattern at once may both compile it,
+ * and one of the results is kept.
+ */
+public class PatternCache {
+    /**
+     * How many Patterns a PatternCache keeps by default, 512.
+     */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private static final PatternCache global = new PatternCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<Key, Pattern> map;
+    private int capacity;
+    private long hits, misses, evictions;
+    //hashes of keys that missed once and weren't kept, each in the slot its hash picks; 0 is an empty slot
+    private int[] doorkeeper;
+    private int doorShift;
+
+    /**
+     * Makes an empty PatternCache that keeps up to capacity Patterns.
+     * @param capacity how many Patterns to keep at most; 0 or less keeps none
+     */
+    public PatternCache(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        map = new LinkedHashMap<Key, Pattern>(16, 0.75f, true);
+        resizeDoorkeeper();
+    }
+
+    //makes an empty doorkeeper with room for the hashes of a few times capacity keys; only call while holding the lock
+    private void resizeDoorkeeper() {
+        int size = Math.max(16, Integer.highestOneBit(Math.max(capacity, 1)) << 2);
+        doorkeeper = new int[size];
+        doorShift = 32 - Integer.numberOfTrailingZeros(size);
+    }
+
+    //true if key missed recently enough that its hash is still in the doorkeeper, so it is worth keeping; otherwise
+    //this remembers its hash, which may push out the hash of another key, and returns false
+    private boolean admit(Key key) {
+        int h = key.hashCode() * 0x9E3779B9, slot = h >>> doorShift;
+        if (h == 0) h = 1;
+        if (doorkeeper[slot] == h) {
+            doorkeeper[slot] = 0;
+            return true;
+        }
+        doorkeeper[slot] = h;
+        return false;
+    }
+
+    /**
+     * @return the PatternCache that {@link Pattern#compileCached(String, int)} uses
+     */
+    public static PatternCache global() {
+        return global;
+    }
+
+    /**
+     * Gets the Pattern for regex with the given flags, compiling it only if it isn't in this cache yet. A Pattern that
+     * wasn't in the cache is only kept if it was also asked for recently; otherwise it is handed out without being kept.
+     * @param regex a String in normal Java regular expression format
+     * @param flags integer flags that are constructed via bitwise OR from the flag constants in REFlags
+     * @return a Pattern for regex with flags, which must not be changed
+     * @throws PatternSyntaxException when there is a syntax error in regex; nothing is cached then
+     */
+    public Pattern get(String regex, int flags) throws PatternSyntaxException {
+        Key key = new Key(regex, flags);
+        synchronized (this) {
+            Pattern p = map.get(key);
+            if (p != null) {
+                hits++;
+                return p;
+            }
+            misses++;
+        }
+        Pattern compiled = new Pattern(regex, flags);
+        synchronized (this) {
+            Pattern p = map.get(key);
+            if (p != null) return p;
+            if (capacity > 0 && admit(key)) {
+                map.put(key, compiled);
+                evict();
+            }
+        }
+        return compiled;
+    }
+
+    //drops the least recently used Patterns until there are no more than capacity; only call while holding the lock
+    private void evict() {
+        Iterator<Map.Entry<Key, Pattern>> it = map.entrySet().iterator();
+        for (int n = map.size() - capacity; n > 0 && it.hasNext(); n--) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return how many Patterns this can keep at most
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes how many Patterns this can keep, dropping the least recently used ones if there are too many now. This
+     * also forgets which regexes missed recently.
+     * @param capacity how many Patterns to keep at most; 0 or less keeps none
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        evict();
+        resizeDoorkeeper();
+    }
+
+    /**
+     * @return how many Patterns this is keeping now
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * @return how many times {@link #get(String, int)} found the Pattern it was asked for already in this cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many times {@link #get(String, int)} had to compile the Pattern it was asked for, whether it was kept
+     * or not
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return how many Patterns were dropped to keep this within its capacity
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drops every Pattern this is keeping, forgets which regexes missed recently, and sets the hit, miss and eviction
+     * counts back to 0.
+     */
+    public synchronized void clear() {
+        map.clear();
+        Arrays.fill(doorkeeper, 0);
+        hits = misses = evictions = 0;
+    }
+
+    private static final class Key {
+        private final String regex;
+        private final int flags;
+
+        Key(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return flags == key.flags && regex.equals(key.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * regex.hashCode() + flags;
+        }
+    }
+}
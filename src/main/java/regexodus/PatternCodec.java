@@ -0,0 +1,404 @@
+package regexodus;
+
+import regexodus.ds.IntBitSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes a compiled Pattern, including its whole Term graph after optimization, as a compact array of bytes, and reads
+ * it back without parsing the regular expression again. Ints are written as zigzag varints, so the many small and
+ * default-valued fields of a Term take one byte each. Terms are numbered in the order they are first reached from the
+ * root, and refer to each other by those numbers. Bitsets, and the 256-block tables of them that Unicode classes use,
+ * are written once each however many Terms use them (and however many copies of them compiling made), and loading
+ * shares them between those Terms again.
+ * <br>
+ * The data starts with a magic number, the format version, and the source and flags of the Pattern, so data written by
+ * a different version of this format can still be loaded by compiling the source again. A Pattern compiled with
+ * {@link REFlags#CODEPOINTS} has a twin that matches surrogate pairs as code points; it is written the same way after
+ * the Pattern's own graph, so it doesn't have to be parsed either.
+ */
+final class PatternCodec {
+    //"REXb"
+    private static final int MAGIC = 0x52455862;
+    /**
+     * Changes whenever this format changes; data with another version is compiled from its source.
+     */
+    static final int VERSION = 3;
+
+    private static final int PLAIN = 0, FIND_LITERAL = 1;
+
+    private byte[] bytes;
+    private int pos;
+
+    private PatternCodec(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    static byte[] encode(Pattern p) {
+        p.parse();
+        PatternCodec w = new PatternCodec(new byte[64 + p.stringRepr.length() * 4]);
+        w.writeRaw(MAGIC);
+        w.write(VERSION);
+        w.write(p.stringRepr);
+        w.write(p.flags);
+
+        ArrayList<Term> terms = new ArrayList<Term>();
+        IdentityHashMap<Term, Integer> termIds = new IdentityHashMap<Term, Integer>();
+        ArrayList<IntBitSet> sets = new ArrayList<IntBitSet>();
+        HashMap<IntBitSet, Integer> setIds = new HashMap<IntBitSet, Integer>();
+        ArrayList<Table> tables = new ArrayList<Table>();
+        HashMap<Table, Integer> tableIds = new HashMap<Table, Integer>();
+        number(p.root, terms, termIds);
+        number(p.root0, terms, termIds);
+        //numbering the terms can reach new ones, so terms grows as this goes
+        for (int i = 0; i < terms.size(); i++) {
+            Term t = terms.get(i);
+            number(t.next, terms, termIds);
+            number(t.failNext, terms, termIds);
+            number(t.target, terms, termIds);
+            if (t instanceof FindLiteral) {
+                for (Term atom : ((FindLiteral) t).atoms) {
+                    number(atom, terms, termIds);
+                }
+            }
+            number(t.bitset, sets, setIds);
+            if (t.bitset2 != null) {
+                int[] ids = new int[t.bitset2.length];
+                for (int j = 0; j < ids.length; j++) {
+                    number(t.bitset2[j], sets, setIds);
+                    ids[j] = id(setIds, t.bitset2[j]);
+                }
+                number(new Table(ids), tables, tableIds);
+            }
+        }
+
+        w.write(p.memregs);
+        w.write(p.counters);
+        w.write(p.lookaheads);
+        w.write(p.dfaMemoryLimit);
+        w.write(p.stepLimit);
+        w.write(p.timeLimit);
+        w.write(p.namedGroupMap.size());
+        for (Map.Entry<String, Integer> e : p.namedGroupMap.entrySet()) {
+            w.write(e.getKey());
+            w.write(e.getValue());
+        }
+
+        w.write(sets.size());
+        for (IntBitSet b : sets) {
+            for (int n : b.toIntArray()) {
+                w.write(n);
+            }
+        }
+        w.write(tables.size());
+        for (Table table : tables) {
+            int[] ids = table.ids;
+            int n = 0;
+            for (int id : ids) {
+                if (id != 0) n++;
+            }
+            w.write(ids.length);
+            w.write(n);
+            //only the blocks that are there, each as the gap from the last one and its bitset
+            for (int i = 0, last = -1; i < ids.length; i++) {
+                if (ids[i] == 0) continue;
+                w.write(i - last);
+                w.write(ids[i]);
+                last = i;
+            }
+        }
+
+        w.write(terms.size());
+        w.write(termIds.get(p.root));
+        w.write(termIds.get(p.root0));
+        for (Term t : terms) {
+            if (t instanceof FindLiteral) {
+                FindLiteral fl = (FindLiteral) t;
+                w.write(FIND_LITERAL);
+                w.write(new String(fl.literal));
+                w.write(fl.atoms.length);
+                for (Term atom : fl.atoms) {
+                    w.write(termIds.get(atom));
+                }
+            } else w.write(PLAIN);
+            w.write(t.type);
+            w.write((t.inverse ? 1 : 0) | (t.eat ? 2 : 0) | (t.mode_insensitive ? 4 : 0) | (t.mode_reverse ? 8 : 0)
+                    | (t.mode_bracket ? 16 : 0) | (t.mode_upper ? 32 : 0));
+            w.writeChar(t.c);
+            w.write(t.distance);
+            w.write(t.weight);
+            w.write(t.memreg);
+            w.write(t.minCount);
+            w.write(t.maxCount);
+            w.write(t.cntreg);
+            w.write(t.lookaheadId);
+            w.write(id(termIds, t.next));
+            w.write(id(termIds, t.failNext));
+            w.write(id(termIds, t.target));
+            w.write(id(setIds, t.bitset));
+            if (t.bitset2 == null) w.write(0);
+            else {
+                int[] ids = new int[t.bitset2.length];
+                for (int j = 0; j < ids.length; j++) {
+                    ids[j] = id(setIds, t.bitset2[j]);
+                }
+                w.write(tableIds.get(new Table(ids)) + 1);
+            }
+        }
+        if (p.astral == null || p.astral == p) w.write(0);
+        else {
+            byte[] twin = encode(p.astral);
+            w.write(twin.length);
+            w.ensure(twin.length);
+            System.arraycopy(twin, 0, w.bytes, w.pos, twin.length);
+            w.pos += twin.length;
+        }
+        byte[] result = new byte[w.pos];
+        System.arraycopy(w.bytes, 0, result, 0, w.pos);
+        return result;
+    }
+
+    private static <T> void number(T item, ArrayList<T> items, Map<T, Integer> ids) {
+        if (item != null && !ids.containsKey(item)) {
+            ids.put(item, items.size());
+            items.add(item);
+        }
+    }
+
+    //the number of item plus 1, or 0 for null
+    private static <T> int id(Map<T, Integer> ids, T item) {
+        return item == null ? 0 : ids.get(item) + 1;
+    }
+
+    /**
+     * Fills in p, which should be a Pattern made with the protected constructor, from data made by encode().
+     * @throws IllegalArgumentException if data wasn't made by encode(), or is cut short
+     */
+    static void decode(Pattern p, byte[] data) throws PatternSyntaxException {
+        PatternCodec r = new PatternCodec(data);
+        try {
+            if (data.length < 4 || r.readRaw() != MAGIC)
+                throw new IllegalArgumentException("not a compiled Pattern");
+            int version = r.read();
+            String source = r.readString();
+            int flags = r.read();
+            if (version != VERSION) {
+                p.internalCompile(source, flags);
+                return;
+            }
+            p.stringRepr = source;
+            p.flags = flags;
+            p.caseless = (flags & REFlags.IGNORE_CASE) != 0;
+            p.memregs = r.read();
+            p.counters = r.read();
+            p.lookaheads = r.read();
+            p.dfaMemoryLimit = r.read();
+            p.stepLimit = r.read();
+            p.timeLimit = r.read();
+            int groupCount = r.read();
+            HashMap<String, Integer> groupNames = new HashMap<String, Integer>(groupCount * 2);
+            for (int i = 0; i < groupCount; i++) {
+                groupNames.put(r.readString(), r.read());
+            }
+            p.namedGroupMap = groupNames;
+
+            IntBitSet[] sets = new IntBitSet[r.read()];
+            int[] ints = new int[8];
+            for (int i = 0; i < sets.length; i++) {
+                for (int j = 0; j < 8; j++) {
+                    ints[j] = r.read();
+                }
+                sets[i] = new IntBitSet(ints);
+            }
+            IntBitSet[][] tables = new IntBitSet[r.read()][];
+            for (int i = 0; i < tables.length; i++) {
+                IntBitSet[] table = new IntBitSet[r.read()];
+                for (int n = r.read(), at = -1; n > 0; n--) {
+                    at += r.read();
+                    table[at] = sets[r.read() - 1];
+                }
+                tables[i] = table;
+            }
+
+            Term[] terms = new Term[r.read()];
+            int rootId = r.read(), root0Id = r.read();
+            //next, failNext and target of each term, as written
+            int[] links = new int[terms.length * 3];
+            int[][] atomIds = new int[terms.length][];
+            for (int i = 0; i < terms.length; i++) {
+                Term t;
+                if (r.read() == FIND_LITERAL) {
+                    char[] literal = r.readString().toCharArray();
+                    int[] ids = new int[r.read()];
+                    for (int j = 0; j < ids.length; j++) {
+                        ids[j] = r.read();
+                    }
+                    atomIds[i] = ids;
+                    t = new FindLiteral(literal, new Term[ids.length]);
+                } else t = new Term();
+                t.type = r.read();
+                int bits = r.read();
+                t.inverse = (bits & 1) != 0;
+                t.eat = (bits & 2) != 0;
+                t.mode_insensitive = (bits & 4) != 0;
+                t.mode_reverse = (bits & 8) != 0;
+                t.mode_bracket = (bits & 16) != 0;
+                t.mode_upper = (bits & 32) != 0;
+                t.c = r.readChar();
+                t.distance = r.read();
+                t.weight = r.read();
+                t.memreg = r.read();
+                t.minCount = r.read();
+                t.maxCount = r.read();
+                t.cntreg = r.read();
+                t.lookaheadId = r.read();
+                links[i * 3] = r.read();
+                links[i * 3 + 1] = r.read();
+                links[i * 3 + 2] = r.read();
+                int set = r.read();
+                t.bitset = set == 0 ? null : sets[set - 1];
+                int table = r.read();
+                t.bitset2 = table == 0 ? null : tables[table - 1];
+                terms[i] = t;
+            }
+            for (int i = 0; i < terms.length; i++) {
+                Term t = terms[i];
+                t.next = link(terms, links[i * 3]);
+                t.failNext = link(terms, links[i * 3 + 1]);
+                t.target = link(terms, links[i * 3 + 2]);
+                if (atomIds[i] != null) {
+                    Term[] atoms = ((FindLiteral) t).atoms;
+                    for (int j = 0; j < atoms.length; j++) {
+                        atoms[j] = terms[atomIds[i][j]];
+                    }
+                }
+            }
+            for (Term t : terms) {
+                if (t instanceof FindLiteral) ((FindLiteral) t).prepare();
+            }
+            p.root = terms[rootId];
+            p.root0 = terms[root0Id];
+            int twinLength = r.read();
+            if (twinLength != 0) {
+                if (twinLength < 0 || twinLength > data.length - r.pos)
+                    throw new IllegalArgumentException("compiled Pattern data is cut short or damaged");
+                Pattern twin = new Pattern();
+                twin.astral = twin;
+                decode(twin, Arrays.copyOfRange(data, r.pos, r.pos + twinLength));
+                p.astral = twin;
+            }
+            p.prepare();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("compiled Pattern data is cut short or damaged");
+        } catch (NegativeArraySizeException e) {
+            throw new IllegalArgumentException("compiled Pattern data is cut short or damaged");
+        }
+    }
+
+    //the bitsets of a table, by their numbers; tables with the same bitsets in the same places are equal
+    private static final class Table {
+        final int[] ids;
+
+        Table(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Table && Arrays.equals(ids, ((Table) o).ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ids);
+        }
+    }
+
+    private static Term link(Term[] terms, int id) {
+        return id == 0 ? null : terms[id - 1];
+    }
+
+    private void ensure(int more) {
+        if (pos + more > bytes.length) {
+            byte[] larger = new byte[Math.max(bytes.length << 1, pos + more)];
+            System.arraycopy(bytes, 0, larger, 0, pos);
+            bytes = larger;
+        }
+    }
+
+    private void write(int n) {
+        ensure(5);
+        int z = n << 1 ^ n >> 31;
+        while ((z & ~0x7F) != 0) {
+            bytes[pos++] = (byte) (z & 0x7F | 0x80);
+            z >>>= 7;
+        }
+        bytes[pos++] = (byte) z;
+    }
+
+    //chars are never negative, so they don't need zigzag encoding; ASCII takes one byte
+    private void writeChar(char c) {
+        ensure(3);
+        int z = c;
+        while ((z & ~0x7F) != 0) {
+            bytes[pos++] = (byte) (z & 0x7F | 0x80);
+            z >>>= 7;
+        }
+        bytes[pos++] = (byte) z;
+    }
+
+    private void writeRaw(int n) {
+        ensure(4);
+        bytes[pos++] = (byte) (n >>> 24);
+        bytes[pos++] = (byte) (n >>> 16);
+        bytes[pos++] = (byte) (n >>> 8);
+        bytes[pos++] = (byte) n;
+    }
+
+    private void write(String s) {
+        int len = s.length();
+        write(len);
+        for (int i = 0; i < len; i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    private int read() {
+        int z = 0, shift = 0;
+        byte b;
+        do {
+            b = bytes[pos++];
+            z |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return z >>> 1 ^ -(z & 1);
+    }
+
+    private char readChar() {
+        int z = 0, shift = 0;
+        byte b;
+        do {
+            b = bytes[pos++];
+            z |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (char) z;
+    }
+
+    private int readRaw() {
+        return (bytes[pos++] & 0xFF) << 24 | (bytes[pos++] & 0xFF) << 16 | (bytes[pos++] & 0xFF) << 8
+                | bytes[pos++] & 0xFF;
+    }
+
+    private String readString() {
+        char[] cs = new char[read()];
+        for (int i = 0; i < cs.length; i++) {
+            cs[i] = readChar();
+        }
+        return new String(cs);
+    }
+}
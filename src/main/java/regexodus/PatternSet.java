@@ -0,0 +1,236 @@
+package regexodus;
+
+import java.util.Arrays;
+
+/**
+ * A group of Patterns that can all be searched for in one input at once. Asking which of several dozen Patterns can be
+ * found in a String would normally mean calling {@code pattern.matcher(text).find()} for each one, copying the text
+ * and scanning it once per Pattern; a PatternSet instead combines every Pattern it can into one lazily-built DFA, and
+ * scans the text once no matter how many of those Patterns there are.
+ * <br>
+ * Patterns that use backreferences, lookaround, conditionals, independent groups, word boundaries or multi-line anchors
+ * can't be part of the DFA, and neither can Patterns compiled with {@link REFlags#CODEPOINTS}; they can still be in a
+ * PatternSet, but each of them is searched for separately (on the same copy of the text). If the DFA runs out of
+ * memory too often (see {@link #setDfaMemoryLimit(int)}), every Pattern is searched for separately.
+ * <br>
+ * A PatternSet only says which Patterns match somewhere; {@link #findMatches(CharSequence)} can also say where, by
+ * running only the Patterns that are known to match.
+ */
+public class PatternSet {
+    private final Pattern[] patterns;
+    //the index of the first Pattern that is the same object as the one at each index
+    private final int[] alias;
+    //indices of the Patterns in the DFA, in the order the DFA knows them, and of those that must be run separately
+    private int[] combined, separate;
+    private Dfa dfa;
+    private int dfaMemoryLimit = Dfa.DEFAULT_MEMORY_LIMIT << 2;
+
+    /**
+     * Makes a PatternSet from already-compiled Patterns. The Patterns are not copied, and they are numbered by their
+     * position here; the same Pattern can appear more than once.
+     * @param patterns the Patterns to search for; none may be null
+     */
+    public PatternSet(Pattern... patterns) {
+        this.patterns = patterns.clone();
+        alias = new int[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i] == null) throw new NullPointerException("PatternSet can't contain a null Pattern");
+            alias[i] = i;
+            for (int j = 0; j < i; j++) {
+                if (patterns[j] == patterns[i]) {
+                    alias[i] = j;
+                    break;
+                }
+            }
+        }
+        build();
+    }
+
+    /**
+     * Makes a PatternSet by compiling each of the given regular expressions with default flags.
+     * @param regexes the regular expressions to search for, as Strings
+     * @throws PatternSyntaxException if any of regexes isn't a valid regular expression
+     */
+    public PatternSet(String... regexes) throws PatternSyntaxException {
+        this(compileAll(regexes));
+    }
+
+    private static Pattern[] compileAll(String[] regexes) {
+        Pattern[] ps = new Pattern[regexes.length];
+        for (int i = 0; i < regexes.length; i++) {
+            ps[i] = Pattern.compile(regexes[i]);
+        }
+        return ps;
+    }
+
+    private void build() {
+        int[] in = new int[patterns.length], out = new int[patterns.length];
+        int ins = 0, outs = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            if (alias[i] != i) continue;
+            //the DFA reads chars, so a Pattern that matches code points has to pick its twin for each text on its own
+            Dfa single = dfaMemoryLimit > 0 && patterns[i].astral == null
+                    ? Dfa.create(new Pattern[]{patterns[i]}, dfaMemoryLimit) : null;
+            if (single != null && single.exact) in[ins++] = i;
+            else out[outs++] = i;
+        }
+        Pattern[] res = new Pattern[ins];
+        for (int i = 0; i < ins; i++) {
+            res[i] = patterns[in[i]];
+        }
+        dfa = ins == 0 ? null : Dfa.create(res, dfaMemoryLimit);
+        combined = Arrays.copyOf(in, ins);
+        separate = Arrays.copyOf(out, outs);
+    }
+
+    /**
+     * Sets how much memory, roughly in bytes, this PatternSet may use to cache the states of its combined DFA; see
+     * {@link Pattern#setDfaMemoryLimit(int)}. A limit of 0 or less makes every Pattern be searched for separately. The
+     * default is 8 MiB.
+     * <br>
+     * This should be called before this PatternSet is in use.
+     * @param limit the approximate number of bytes of DFA states to cache; 0 or less disables the DFA
+     * @return this PatternSet, for chaining
+     */
+    public PatternSet setDfaMemoryLimit(int limit) {
+        dfaMemoryLimit = limit;
+        build();
+        return this;
+    }
+
+    /**
+     * @return the DFA memory limit in bytes; 0 or less means the DFA is disabled
+     * @see #setDfaMemoryLimit(int)
+     */
+    public int getDfaMemoryLimit() {
+        return dfaMemoryLimit;
+    }
+
+    /**
+     * @return how many Patterns this contains, counting repeated ones
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * @param index the position of a Pattern, as given to the constructor
+     * @return the Pattern at index
+     */
+    public Pattern getPattern(int index) {
+        return patterns[index];
+    }
+
+    /**
+     * Finds which of the Patterns in this can be found somewhere in text, as with {@link Matcher#find()}.
+     * @param text the CharSequence to search
+     * @return the indices of the Patterns that were found, in ascending order
+     */
+    public int[] findAll(CharSequence text) {
+        char[] data = toChars(text);
+        return findAll(data, 0, data.length);
+    }
+
+    /**
+     * Finds which of the Patterns in this can be found somewhere in a section of data, as with {@link Matcher#find()}.
+     * @param data the chars to search
+     * @param start where the section starts, and where "^" can match
+     * @param len how many chars the section contains
+     * @return the indices of the Patterns that were found, in ascending order
+     */
+    public int[] findAll(char[] data, int start, int len) {
+        boolean[] found = found(data, start, len);
+        int n = 0;
+        for (boolean f : found) {
+            if (f) n++;
+        }
+        int[] indices = new int[n];
+        for (int i = 0, j = 0; j < n; i++) {
+            if (found[i]) indices[j++] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Checks whether any of the Patterns in this can be found somewhere in text; this stops as soon as it knows.
+     * @param text the CharSequence to search
+     * @return true if at least one of the Patterns can be found in text
+     */
+    public boolean findsAny(CharSequence text) {
+        char[] data = toChars(text);
+        int len = data.length;
+        if (dfa != null) {
+            int at = dfa.find(data, 0, 0, len);
+            if (at >= 0) return true;
+            if (at == Dfa.UNKNOWN) {
+                for (int i : combined) {
+                    if (find(patterns[i], data, 0, len)) return true;
+                }
+            }
+        }
+        for (int i : separate) {
+            if (find(patterns[i], data, 0, len)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds which of the Patterns in this can be found somewhere in text, and where each one first matches. This scans
+     * text once to see which Patterns match, then runs just those Patterns to find their first match.
+     * @param text the CharSequence to search
+     * @return an array with one item per Pattern, in the same order as {@link #getPattern(int)}; each item is either a
+     * Matcher that has just found the first match of its Pattern, or null if that Pattern can't be found
+     */
+    public Matcher[] findMatches(CharSequence text) {
+        char[] data = toChars(text);
+        boolean[] found = found(data, 0, data.length);
+        Matcher[] matchers = new Matcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            if (!found[i]) continue;
+            Matcher m = patterns[i].matcher();
+            m.setTarget(data, 0, data.length);
+            if (m.find()) matchers[i] = m;
+        }
+        return matchers;
+    }
+
+    private boolean[] found(char[] data, int start, int len) {
+        boolean[] found = new boolean[patterns.length];
+        int end = start + len;
+        if (dfa != null) {
+            boolean[] inner = new boolean[combined.length];
+            if (dfa.findAll(data, start, start, end, inner)) {
+                for (int i = 0; i < combined.length; i++) {
+                    found[combined[i]] = inner[i];
+                }
+            } else {
+                for (int i : combined) {
+                    found[i] = find(patterns[i], data, start, len);
+                }
+            }
+        }
+        for (int i : separate) {
+            found[i] = find(patterns[i], data, start, len);
+        }
+        for (int i = 0; i < found.length; i++) {
+            found[i] = found[alias[i]];
+        }
+        return found;
+    }
+
+    private static boolean find(Pattern p, char[] data, int start, int len) {
+        Matcher m = p.matcher();
+        m.setTarget(data, start, len);
+        return m.find();
+    }
+
+    private static char[] toChars(CharSequence text) {
+        if (text instanceof String) return ((String) text).toCharArray();
+        int len = text.length();
+        char[] data = new char[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = text.charAt(i);
+        }
+        return data;
+    }
+}
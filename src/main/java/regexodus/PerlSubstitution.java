@@ -136,7 +136,8 @@ public class PerlSubstitution implements Substitution, Serializable {
 
     static {
         try {
-            refPtn = new Pattern(groupRef);
+            //every new substitution parses its expression with this, so the Matchers for it are reused
+            refPtn = new Pattern(groupRef).setPooled(true);
             MODE_ID = refPtn.groupId("mode");
             NAME_ID = refPtn.groupId("name");
             ESC_ID = refPtn.groupId("esc");
@@ -153,9 +154,10 @@ public class PerlSubstitution implements Substitution, Serializable {
         this("");
     }
     public PerlSubstitution(String s) {
-        Matcher refMatcher = new Matcher(refPtn);
+        Matcher refMatcher = refPtn.obtainMatcher();
         refMatcher.setTarget(s);
         queueEntry = makeQueue(refMatcher);
+        refPtn.freeMatcher(refMatcher);
     }
 
     public String value(MatchResult mr) {
@@ -0,0 +1,458 @@
+package regexodus;
+
+import regexodus.ds.IntBitSet;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Runs the Term graph of a Pattern as a Thompson NFA, keeping every possible path alive at once instead of trying them
+ * one at a time (a "Pike VM"). Each path, or thread, carries its own capture slots and repeat counters; two threads
+ * that reach the same term with the same counters at the same position are merged, and the one that the backtracker
+ * would have tried first wins. That keeps the work done per char bounded by the size of the pattern, so a search takes
+ * time proportional to the length of the input times the size of the pattern, regardless of what either contains.
+ * <br>
+ * This is used in place of the backtracker for Patterns compiled with {@link REFlags#LINEAR}. Only patterns without
+ * backreferences, lookaround, conditionals and independent groups can be run this way; {@link #create(Pattern)}
+ * throws a PatternSyntaxException for anything else. The results are the same as the backtracker's, including which
+ * alternative is preferred and what each group captures.
+ */
+class PikeVM {
+    private final Term root;
+    private final Term[] terms;
+    private final IdentityHashMap<Term, Integer> ids;
+    private final boolean caseless;
+    private final int groups;
+    // caps on the counters, and the multipliers used to turn a thread's state into one long
+    private final int[] counterCaps;
+    private final int countCap, cntCap;
+    private final long countStride, cntStride;
+    private final long[] counterStrides;
+
+    private PikeVM(Pattern re, ArrayList<Term> terms, IdentityHashMap<Term, Integer> ids, int[] counterCaps,
+                   int countCap, int cntCap) {
+        this.root = re.root0;
+        this.terms = terms.toArray(new Term[0]);
+        this.ids = ids;
+        this.caseless = re.caseless;
+        this.groups = re.memregs;
+        this.counterCaps = counterCaps;
+        this.countCap = countCap;
+        this.cntCap = cntCap;
+        long stride = terms.size();
+        countStride = stride;
+        stride *= countCap + 1;
+        cntStride = stride;
+        stride *= cntCap + 1;
+        counterStrides = new long[counterCaps.length];
+        for (int i = 0; i < counterCaps.length; i++) {
+            counterStrides[i] = stride;
+            stride *= counterCaps[i] + 1;
+        }
+    }
+
+    /**
+     * Prepares a Pike VM for the given Pattern.
+     * @param re a compiled Pattern
+     * @return a new PikeVM for re
+     * @throws PatternSyntaxException if re uses something that can't be matched in linear time
+     */
+    static PikeVM create(Pattern re) throws PatternSyntaxException {
+        ArrayList<Term> terms = new ArrayList<Term>();
+        IdentityHashMap<Term, Integer> ids = new IdentityHashMap<Term, Integer>();
+        int[] caps = new int[re.counters];
+        int countCap = 0, cntCap = 0;
+        ArrayList<Term> pending = new ArrayList<Term>();
+        pending.add(re.root0);
+        while (!pending.isEmpty()) {
+            Term t = pending.remove(pending.size() - 1);
+            if (t == null || ids.containsKey(t)) continue;
+            ids.put(t, terms.size());
+            terms.add(t);
+            switch (t.type) {
+                case Term.SUCCESS:
+                    break;
+                case Term.BRANCH:
+                case Term.BRANCH_STORE_CNT:
+                    pending.add(t.failNext);
+                    pending.add(t.next);
+                    break;
+                case Term.REPEAT_0_INF:
+                case Term.REPEAT_MIN_INF:
+                case Term.REPEAT_MIN_MAX:
+                    if (!consumes(t.target))
+                        throw new PatternSyntaxException("can't repeat " + t.target + " in linear mode");
+                    countCap = Math.max(countCap, t.type == Term.REPEAT_MIN_MAX ? t.maxCount : t.minCount);
+                    pending.add(t.next);
+                    break;
+                case Term.CR_LT:
+                case Term.CR_GT_EQ:
+                    caps[t.cntreg] = Math.max(caps[t.cntreg], t.maxCount);
+                    pending.add(t.next);
+                    break;
+                case Term.CNT_GT_EQ:
+                case Term.READ_CNT_LT:
+                    cntCap = Math.max(cntCap, t.maxCount);
+                    pending.add(t.next);
+                    break;
+                case Term.CHAR:
+                case Term.BITSET:
+                case Term.BITSET2:
+                case Term.ANY_CHAR:
+                case Term.ANY_CHAR_NE:
+                case Term.VOID:
+                case Term.GROUP_IN:
+                case Term.GROUP_OUT:
+                case Term.START:
+                case Term.END:
+                case Term.END_EOL:
+                case Term.LINE_START:
+                case Term.LINE_END:
+                case Term.LAST_MATCH_END:
+                case Term.BOUNDARY:
+                case Term.UBOUNDARY:
+                case Term.DIRECTION:
+                case Term.UDIRECTION:
+                case Term.CR_SET_0:
+                case Term.CRSTORE_CRINC:
+                case Term.CNT_SET_0:
+                case Term.CNT_INC:
+                    pending.add(t.next);
+                    break;
+                case Term.REG:
+                case Term.REG_I:
+                case Term.REPEAT_REG_MIN_INF:
+                case Term.REPEAT_REG_MIN_MAX:
+                case Term.MEMREG_CONDITION:
+                    throw new PatternSyntaxException("backreferences can't be used in linear mode");
+                default:
+                    throw new PatternSyntaxException("lookaround, conditionals and independent groups can't be used in linear mode");
+            }
+        }
+        double states = terms.size() * (countCap + 1.0) * (cntCap + 1.0);
+        for (int c : caps) states *= c + 1.0;
+        if (states > 0x1p62)
+            throw new PatternSyntaxException("too many counted repeats for linear mode");
+        return new PikeVM(re, terms, ids, caps, countCap, cntCap);
+    }
+
+    private static boolean consumes(Term t) {
+        if (t == null) return false;
+        switch (t.type) {
+            case Term.CHAR:
+            case Term.BITSET:
+            case Term.BITSET2:
+            case Term.ANY_CHAR:
+            case Term.ANY_CHAR_NE:
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if c ends a line for multi-line "^" and "$", the same chars Matcher checks for
+     */
+    static boolean lineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Searches data for the leftmost match, the same one the backtracker would find.
+     * @param data the chars to search
+     * @param offset where the target starts
+     * @param from where the search (or with anchored, the match) starts
+     * @param end where the target ends
+     * @param lastEnd where the last match ended, or -1
+     * @param resume if true, the last match was an empty one at from, so another empty match there isn't accepted
+     * @param anchored if true, only a match starting at from is accepted
+     * @param matchEnd if true, only a match ending at end is accepted
+     * @param allowIncomplete if true, running out of input counts as a match, as with Matcher.matchesPrefix()
+     * @return null if there is no match, otherwise an array with the start and end of the match at 1 and 2, and then
+     * the temporary start, start and end of each group in sequence
+     */
+    int[] search(char[] data, int offset, int from, int end, int lastEnd, boolean resume,
+                 boolean anchored, boolean matchEnd, boolean allowIncomplete) {
+        Run run = new Run(data, offset, end, lastEnd, resume ? from : -1, matchEnd, allowIncomplete);
+        Threads current = new Threads(), next = new Threads();
+        int[] noCaps = new int[groups * 3];
+        java.util.Arrays.fill(noCaps, -1);
+        int[] noCounters = new int[counterCaps.length];
+        int p = from;
+        noCaps[0] = p;
+        run.add(current, root, 0, 0, noCounters, noCaps, p);
+        for (; ; ) {
+            if (current.size == 0) {
+                if (run.found != null || anchored || p >= end) break;
+                p++;
+                run.visited.clear();
+                int[] caps = noCaps.clone();
+                caps[0] = p;
+                run.add(current, root, 0, 0, noCounters, caps, p);
+                continue;
+            }
+            if (p >= end) break;
+            char c = data[p];
+            next.size = 0;
+            run.visited.clear();
+            run.cut = false;
+            for (int k = 0; k < current.size && !run.cut; k++) {
+                Term t = terms[current.term[k]];
+                switch (t.type) {
+                    case Term.REPEAT_0_INF:
+                    case Term.REPEAT_MIN_INF:
+                    case Term.REPEAT_MIN_MAX:
+                        if (Dfa.accepts(t.target, c, caseless, true))
+                            run.add(next, t, current.count[k] + 1, current.cnt[k], current.counters[k],
+                                    current.caps[k], p + 1);
+                        break;
+                    default:
+                        if (Dfa.accepts(t, c, caseless, false))
+                            run.add(next, t.next, 0, current.cnt[k], current.counters[k], current.caps[k], p + 1);
+                }
+            }
+            p++;
+            if (run.found == null && !anchored) {
+                int[] caps = noCaps.clone();
+                caps[0] = p;
+                run.add(next, root, 0, 0, noCounters, caps, p);
+            }
+            Threads swap = current;
+            current = next;
+            next = swap;
+        }
+        return run.found;
+    }
+
+    private static final class Threads {
+        int size;
+        int[] term = new int[16], count = new int[16], cnt = new int[16];
+        int[][] counters = new int[16][], caps = new int[16][];
+
+        void add(int id, int c, int n, int[] ctr, int[] cp) {
+            if (size == term.length) {
+                int len = size << 1;
+                term = java.util.Arrays.copyOf(term, len);
+                count = java.util.Arrays.copyOf(count, len);
+                cnt = java.util.Arrays.copyOf(cnt, len);
+                counters = java.util.Arrays.copyOf(counters, len);
+                caps = java.util.Arrays.copyOf(caps, len);
+            }
+            term[size] = id;
+            count[size] = c;
+            cnt[size] = n;
+            counters[size] = ctr;
+            caps[size++] = cp;
+        }
+    }
+
+    /**
+     * A set of longs that can be emptied in constant time, by bumping a generation number.
+     */
+    private static final class StateSet {
+        private long[] keys = new long[64];
+        private int[] stamps = new int[64];
+        private int gen = 1, size;
+
+        void clear() {
+            size = 0;
+            if (++gen == 0) {
+                java.util.Arrays.fill(stamps, 0);
+                gen = 1;
+            }
+        }
+
+        boolean add(long key) {
+            if (size * 2 >= keys.length) grow();
+            int mask = keys.length - 1;
+            int i = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while (stamps[i] == gen) {
+                if (keys[i] == key) return false;
+                i = i + 1 & mask;
+            }
+            stamps[i] = gen;
+            keys[i] = key;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldStamps = stamps;
+            int oldGen = gen;
+            keys = new long[oldKeys.length << 1];
+            stamps = new int[oldKeys.length << 1];
+            gen = 1;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldStamps[i] == oldGen) add(oldKeys[i]);
+            }
+        }
+    }
+
+    /**
+     * The state of one search; add() follows every path from a term that doesn't consume a char, in the order the
+     * backtracker would try them, and queues up the threads that are waiting on a char.
+     */
+    private final class Run {
+        final char[] data;
+        final int offset, end, lastEnd;
+        //where an empty match was just found, so it can't be found again, or -1
+        final int emptyAt;
+        final boolean matchEnd, allowIncomplete;
+        final StateSet visited = new StateSet();
+        int[] found;
+        boolean cut;
+
+        Run(char[] data, int offset, int end, int lastEnd, int emptyAt, boolean matchEnd, boolean allowIncomplete) {
+            this.data = data;
+            this.offset = offset;
+            this.end = end;
+            this.lastEnd = lastEnd;
+            this.emptyAt = emptyAt;
+            this.matchEnd = matchEnd;
+            this.allowIncomplete = allowIncomplete;
+        }
+
+        private void succeed(int[] caps, int p) {
+            if (p == emptyAt && caps[0] == p) return;
+            found = caps.clone();
+            found[1] = caps[0];
+            found[2] = p;
+            //every thread after this one would have been tried later by the backtracker
+            cut = true;
+        }
+
+        private void fail(int[] caps, int p) {
+            if (allowIncomplete && p == end) succeed(caps, p);
+        }
+
+        void add(Threads list, Term t, int count, int cnt, int[] ctr, int[] caps, int p) {
+            if (cut) return;
+            if (t == null) {
+                succeed(caps, p);
+                return;
+            }
+            int type = t.type;
+            if (type == Term.REPEAT_0_INF) count = 0;
+            else if (type == Term.REPEAT_MIN_INF) count = Math.min(count, t.minCount);
+            long key = ids.get(t) + countStride * count + cntStride * cnt;
+            for (int i = 0; i < ctr.length; i++) {
+                key += counterStrides[i] * ctr[i];
+            }
+            if (!visited.add(key)) return;
+            switch (type) {
+                case Term.SUCCESS:
+                    if (!matchEnd || p == end) succeed(caps, p);
+                    else fail(caps, p);
+                    return;
+                case Term.CHAR:
+                case Term.BITSET:
+                case Term.BITSET2:
+                case Term.ANY_CHAR:
+                case Term.ANY_CHAR_NE:
+                    if (p < end) list.add(ids.get(t), 0, cnt, ctr, caps);
+                    else fail(caps, p);
+                    return;
+                case Term.REPEAT_0_INF:
+                case Term.REPEAT_MIN_INF:
+                case Term.REPEAT_MIN_MAX:
+                    //the backtracker takes as many as it can, then gives them back one at a time
+                    if (p < end && (type != Term.REPEAT_MIN_MAX || count < t.maxCount))
+                        list.add(ids.get(t), count, cnt, ctr, caps);
+                    if (count >= t.minCount) add(list, t.next, 0, cnt, ctr, caps, p);
+                    else if (p == end) fail(caps, p);
+                    return;
+                case Term.VOID:
+                    add(list, t.next, 0, cnt, ctr, caps, p);
+                    return;
+                case Term.GROUP_IN:
+                    if (t.memreg > 0) {
+                        caps = caps.clone();
+                        caps[t.memreg * 3] = p;
+                    }
+                    add(list, t.next, 0, cnt, ctr, caps, p);
+                    return;
+                case Term.GROUP_OUT:
+                    if (t.memreg > 0) {
+                        caps = caps.clone();
+                        int m = t.memreg * 3;
+                        caps[m + 1] = caps[m];
+                        caps[m + 2] = p;
+                    }
+                    add(list, t.next, 0, cnt, ctr, caps, p);
+                    return;
+                case Term.BRANCH:
+                case Term.BRANCH_STORE_CNT:
+                    add(list, t.next, 0, cnt, ctr, caps, p);
+                    add(list, t.failNext, 0, cnt, ctr, caps, p);
+                    return;
+                case Term.CR_SET_0:
+                case Term.CRSTORE_CRINC: {
+                    int[] c2 = ctr.clone();
+                    c2[t.cntreg] = type == Term.CR_SET_0 ? 0 : Math.min(c2[t.cntreg] + 1, counterCaps[t.cntreg]);
+                    add(list, t.next, 0, cnt, c2, caps, p);
+                    return;
+                }
+                case Term.CNT_SET_0:
+                    add(list, t.next, 0, 0, ctr, caps, p);
+                    return;
+                case Term.CNT_INC:
+                    add(list, t.next, 0, Math.min(cnt + 1, cntCap), ctr, caps, p);
+                    return;
+                case Term.LAST_MATCH_END:
+                    //a failed \G ends the search in the backtracker, so it never counts as running out of input
+                    if (p == lastEnd || (lastEnd == -1 && p == offset)) add(list, t.next, 0, cnt, ctr, caps, p);
+                    return;
+                default:
+                    if (test(t, p, cnt, ctr)) add(list, t.next, 0, cnt, ctr, caps, p);
+                    else fail(caps, p);
+            }
+        }
+
+        /**
+         * Checks the gates and zero-width assertions the same way Matcher.search() does.
+         */
+        private boolean test(Term t, int p, int cnt, int[] ctr) {
+            switch (t.type) {
+                case Term.CR_LT:
+                    return ctr[t.cntreg] < t.maxCount;
+                case Term.CR_GT_EQ:
+                    return ctr[t.cntreg] >= t.maxCount;
+                case Term.READ_CNT_LT:
+                    return cnt < t.maxCount;
+                case Term.CNT_GT_EQ:
+                    return cnt >= t.maxCount;
+                case Term.START:
+                    return p == offset;
+                case Term.END:
+                    return p >= end;
+                case Term.END_EOL:
+                    return p >= end || (p + 1 == end && data[p] == '\n')
+                            || (p + 2 == end && data[p] == '\r' && data[p + 1] == '\n');
+                case Term.LINE_START:
+                    if (p == offset) return true;
+                    if (p >= end) return false;
+                    return lineBreak(data[p - 1]);
+                case Term.LINE_END:
+                    if (p >= end) return true;
+                    return lineBreak(data[p]);
+                case Term.BOUNDARY:
+                case Term.UBOUNDARY:
+                    return inClass(t, p - 1) ^ inClass(t, p) ^ t.inverse;
+                case Term.DIRECTION:
+                case Term.UDIRECTION:
+                    return !(inClass(t, p - 1) ^ t.inverse) && !(!inClass(t, p) ^ t.inverse);
+            }
+            return false;
+        }
+
+        private boolean inClass(Term t, int p) {
+            if (p < offset || p >= end) return false;
+            char c = caseless ? Category.caseFold(data[p]) : data[p];
+            if (t.type == Term.BOUNDARY || t.type == Term.DIRECTION)
+                return c < 256 && t.bitset.get(c);
+            IntBitSet bits = t.bitset2[c >> 8];
+            return bits != null && bits.get(c & 0xff);
+        }
+    }
+}
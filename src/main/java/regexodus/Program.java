@@ -0,0 +1,606 @@
+package regexodus;
+
+import regexodus.ds.IntBitSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The Term graph of a Pattern lowered to one flat int array of instructions, with jumps as indices into that array, and
+ * a loop that runs it the same way {@link Matcher} runs the Terms. The bitsets the Terms use are gathered into arrays
+ * of their own, and each instruction keeps only the few ints it needs, so a search reads a handful of small arrays in
+ * order instead of following references between Term objects spread around the heap.
+ * <br>
+ * A Program can be made for each Pattern that could also be compiled with {@link REFlags#LINEAR} (see
+ * {@link #lower(Pattern)}), and once {@link Pattern#setUseProgram(boolean)} turns it on, its Matchers search with it;
+ * the results are the same as the backtracker's. The instructions are the same ones {@link CodeGenerator} and
+ * {@link BytecodeCompiler} turn into code.
+ */
+final class Program extends CompiledSearch {
+    //the instructions, each followed by its operands; "pc" is an index in code and "k" one in sets or tables
+    static final int CHAR = 0,        // c: the next char must be c
+            ANY = 1,                  // any char
+            ANY_NE = 2,               // any char but '\r' or '\n'
+            SET = 3,                  // k, inverse: a char in (or not in) sets[k]
+            TABLE = 4,                // k, inverse: a char in (or not in, but in a non-empty block of) tables[k]
+            GROUP_IN = 5,             // memreg: a group starts
+            GROUP_OUT = 6,            // memreg: a group ends, saving what it had captured before
+            PUSH = 7,                 // pc, memo: go on, but come back to pc if that fails; memo is the BRANCH's bit
+            SUCCESS = 8,              // a match, if it ends where it has to
+            START = 9,
+            END = 10,
+            END_EOL = 11,
+            LINE_START = 12,
+            LINE_END = 13,
+            BOUNDARY = 14,            // k, inverse: a boundary between chars in sets[k] and chars that aren't
+            UBOUNDARY = 15,           // k, inverse: the same with tables[k]
+            DIRECTION = 16,           // k, inverse: a change from a char in sets[k] to one that isn't, or back
+            UDIRECTION = 17,          // k, inverse: the same with tables[k]
+            REPEAT_0_INF = 18,        // pc, kind, arg: as many chars of a kind as there are, giving them back at pc
+            REPEAT = 19,              // min, max, pc, kind, arg: the same, but at least min and at most max (or any)
+            BACKTRACK = 20,           // min: give back one char repeated before, while more than min are left
+            FIND_BACK = 21,           // min, distance, eat, kind, arg: give back chars until one of a kind is found
+            CNT_SET_0 = 22,
+            CNT_INC = 23,
+            CNT_GT_EQ = 24,           // n
+            READ_CNT_LT = 25,         // n
+            CRSTORE_CRINC = 26,       // counter
+            CR_SET_0 = 27,            // counter
+            CR_LT = 28,               // counter, n
+            CR_GT_EQ = 29,            // counter, n
+            JUMP = 30;                // pc
+
+    //the kinds of char a repeat or FIND_BACK looks for, with what their arg is
+    static final int IS_CHAR = 0,     // the char
+            IS_ANY = 1,
+            IS_ANY_NE = 2,
+            IN_SET = 3,               // k
+            NOT_IN_SET = 4,           // k
+            IN_TABLE = 5,             // k
+            NOT_IN_TABLE = 6,         // k
+            EMPTY_OR_IN_TABLE = 7;    // k
+
+    final int[] code;
+    final int[][] sets;
+    final int[][][] tables;
+    private final boolean caseless;
+    //the first char of every match, or -1 if that isn't known
+    private final int first;
+    //how many PUSH instructions have a bit in the memo of failed positions; see Pattern.memoBranches()
+    private final int branches;
+
+    private Program(Pattern pattern, int[] code, int[][] sets, int[][][] tables, int first, int branches) {
+        super(pattern.stringRepr, pattern.flags, VERSION);
+        this.code = code;
+        this.sets = sets;
+        this.tables = tables;
+        this.caseless = pattern.caseless;
+        this.first = first;
+        this.branches = branches;
+    }
+
+    /**
+     * Lowers the Terms of pattern to a Program.
+     * @param pattern a compiled Pattern
+     * @return a new Program that searches the same way as pattern
+     * @throws IllegalArgumentException if pattern uses something a Program can't do, the same as for
+     *                                  {@link CodeGenerator#generate(Pattern, String)}
+     */
+    static Program lower(Pattern pattern) {
+        return new Lowering(pattern).lower();
+    }
+
+    private static final class Lowering {
+        private final Pattern pattern;
+        private final ArrayList<Term> terms = new ArrayList<Term>();
+        private final IdentityHashMap<Term, Integer> ids = new IdentityHashMap<Term, Integer>();
+        private int[] code = new int[64];
+        private int length;
+        //where each Term's instruction starts, and the operands that are filled in once that is known
+        private int[] starts;
+        private final ArrayList<int[]> jumps = new ArrayList<int[]>();
+        private final ArrayList<int[]> sets = new ArrayList<int[]>();
+        private final ArrayList<int[][]> tables = new ArrayList<int[][]>();
+        private final HashMap<IntBitSet, Integer> setIndex = new HashMap<IntBitSet, Integer>();
+        private final IdentityHashMap<IntBitSet[], Integer> tableIndex = new IdentityHashMap<IntBitSet[], Integer>();
+
+        Lowering(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        Program lower() {
+            int branches = pattern.memoBranches();
+            CodeGenerator.number(pattern, terms, ids);
+            starts = new int[terms.size()];
+            for (int id = 0; id < terms.size(); id++) {
+                starts[id] = length;
+                Term t = terms.get(id);
+                instruction(t);
+                if (t.type == Term.SUCCESS) continue;
+                if (t.next == null) emit(SUCCESS);
+                else if (ids.get(t.next) != id + 1) {
+                    emit(JUMP);
+                    jump(t.next);
+                }
+            }
+            for (int[] jump : jumps) {
+                code[jump[0]] = starts[jump[1]];
+            }
+            Term root = pattern.root0;
+            return new Program(pattern, Arrays.copyOf(code, length), sets.toArray(new int[0][]),
+                    tables.toArray(new int[0][][]), root.type == Term.CHAR ? root.c : -1, branches);
+        }
+
+        private void instruction(Term t) {
+            switch (t.type) {
+                case Term.CHAR:
+                    emit(CHAR, t.c);
+                    break;
+                case Term.ANY_CHAR:
+                    emit(ANY);
+                    break;
+                case Term.ANY_CHAR_NE:
+                    emit(ANY_NE);
+                    break;
+                case Term.BITSET:
+                    emit(SET, set(t.bitset), t.inverse ? 1 : 0);
+                    break;
+                case Term.BITSET2:
+                    emit(TABLE, table(t.bitset2), t.inverse ? 1 : 0);
+                    break;
+                case Term.GROUP_IN:
+                    if (t.memreg > 0) emit(GROUP_IN, t.memreg);
+                    break;
+                case Term.GROUP_OUT:
+                    if (t.memreg > 0) emit(GROUP_OUT, t.memreg);
+                    break;
+                case Term.BRANCH:
+                case Term.BRANCH_STORE_CNT:
+                case Term.BRANCH_STORE_CNT_AUX1:
+                    emit(PUSH);
+                    jump(t.failNext);
+                    emit(t.type == Term.BRANCH ? t.memo : -1);
+                    break;
+                case Term.SUCCESS:
+                    emit(SUCCESS);
+                    break;
+                case Term.START:
+                    emit(START);
+                    break;
+                case Term.END:
+                    emit(END);
+                    break;
+                case Term.END_EOL:
+                    emit(END_EOL);
+                    break;
+                case Term.LINE_START:
+                    emit(LINE_START);
+                    break;
+                case Term.LINE_END:
+                    emit(LINE_END);
+                    break;
+                case Term.BOUNDARY:
+                    emit(BOUNDARY, set(t.bitset), t.inverse ? 1 : 0);
+                    break;
+                case Term.DIRECTION:
+                    emit(DIRECTION, set(t.bitset), t.inverse ? 1 : 0);
+                    break;
+                case Term.UBOUNDARY:
+                    emit(UBOUNDARY, table(t.bitset2), t.inverse ? 1 : 0);
+                    break;
+                case Term.UDIRECTION:
+                    emit(UDIRECTION, table(t.bitset2), t.inverse ? 1 : 0);
+                    break;
+                case Term.REPEAT_0_INF:
+                case Term.REPEAT_MIN_INF:
+                case Term.REPEAT_MIN_MAX:
+                    if (t.type == Term.REPEAT_0_INF) emit(REPEAT_0_INF);
+                    else emit(REPEAT, t.minCount, t.type == Term.REPEAT_MIN_MAX ? t.maxCount : -1);
+                    jump(t.failNext);
+                    repeated(t.target);
+                    break;
+                case Term.BACKTRACK_0:
+                    emit(BACKTRACK, 0);
+                    break;
+                case Term.BACKTRACK_MIN:
+                    emit(BACKTRACK, t.minCount);
+                    break;
+                case Term.BACKTRACK_FIND_MIN:
+                    emit(FIND_BACK, t.minCount, t.distance);
+                    emit(t.eat ? 1 : 0);
+                    sought(t.target);
+                    break;
+                case Term.CNT_SET_0:
+                    emit(CNT_SET_0);
+                    break;
+                case Term.CNT_INC:
+                    emit(CNT_INC);
+                    break;
+                case Term.CNT_GT_EQ:
+                    emit(CNT_GT_EQ, t.maxCount);
+                    break;
+                case Term.READ_CNT_LT:
+                    emit(READ_CNT_LT, t.maxCount);
+                    break;
+                case Term.CRSTORE_CRINC:
+                    emit(CRSTORE_CRINC, t.cntreg);
+                    break;
+                case Term.CR_SET_0:
+                    emit(CR_SET_0, t.cntreg);
+                    break;
+                case Term.CR_LT:
+                    emit(CR_LT, t.cntreg, t.maxCount);
+                    break;
+                case Term.CR_GT_EQ:
+                    emit(CR_GT_EQ, t.cntreg, t.maxCount);
+                    break;
+            }
+        }
+
+        //what continues a repeat of t, which matches Matcher.repeat()
+        private void repeated(Term t) {
+            switch (t.type) {
+                case Term.CHAR:
+                    emit(IS_CHAR, t.c);
+                    break;
+                case Term.ANY_CHAR:
+                    emit(IS_ANY, 0);
+                    break;
+                case Term.ANY_CHAR_NE:
+                    emit(IS_ANY_NE, 0);
+                    break;
+                case Term.BITSET:
+                    emit(t.inverse ? NOT_IN_SET : IN_SET, set(t.bitset));
+                    break;
+                default:
+                    emit(t.inverse ? NOT_IN_TABLE : IN_TABLE, table(t.bitset2));
+            }
+        }
+
+        //what a FIND_BACK is looking for, which matches Matcher.findBack()
+        private void sought(Term t) {
+            if (t.type == Term.BITSET2 && t.inverse) emit(EMPTY_OR_IN_TABLE, table(t.bitset2));
+            else repeated(t);
+        }
+
+        private void emit(int... ints) {
+            if (length + ints.length > code.length) code = Arrays.copyOf(code, Math.max(code.length << 1, length + 8));
+            for (int n : ints) {
+                code[length++] = n;
+            }
+        }
+
+        //an operand that is where the instruction for target starts
+        private void jump(Term target) {
+            jumps.add(new int[]{length, ids.get(target)});
+            emit(-1);
+        }
+
+        private int set(IntBitSet set) {
+            Integer k = setIndex.get(set);
+            if (k == null) {
+                setIndex.put(set, k = sets.size());
+                sets.add(set.toIntArray());
+            }
+            return k;
+        }
+
+        private int table(IntBitSet[] blocks) {
+            Integer k = tableIndex.get(blocks);
+            if (k == null) {
+                tableIndex.put(blocks, k = tables.size());
+                int[][] table = new int[256][];
+                for (int b = 0; b < 256; b++) {
+                    if (blocks[b] != null) table[b] = sets.get(set(blocks[b]));
+                }
+                tables.add(table);
+            }
+            return k;
+        }
+    }
+
+    @Override
+    protected boolean search(char[] data, int offset, int from, int end, boolean anchored, boolean matchEnd,
+                             boolean resume, int[] groups, int[] counters, int[][] stacks) {
+        final int[] code = this.code;
+        int[] frames = stacks[0], saves = stacks[1];
+        int start = from, last = anchored ? from : end, pc = 0, i = from, cnt = 0, top = 0, saved = 0, f;
+        char c;
+        boolean fresh = !resume;
+        //pops left before this starts to remember where it has failed, as Matcher does; memo is null until then
+        int memoSteps = Matcher.memoThreshold(branches, end - offset);
+        int budget = memoSteps < 0 ? Integer.MAX_VALUE : memoSteps;
+        long[] memo = null;
+        if (resume) {
+            //go on as if the last match had failed
+            start = stacks[2][0];
+            top = stacks[2][1];
+            saved = stacks[2][2];
+            f = --top << 2;
+            pc = frames[f];
+            i = frames[f + 1];
+            cnt = frames[f + 2];
+            if (saved > frames[f + 3]) saved = restore(groups, counters, saves, saved, frames[f + 3]);
+        } else Arrays.fill(groups, -1);
+        if (code[0] == START) {
+            //"^" at the very start can only match at the start of the target
+            if (start != offset) return false;
+            last = start;
+        }
+        for (; start <= last; start++) {
+            if (fresh) {
+                if (first >= 0 && !anchored) {
+                    while (start < end && fold(data[start]) != first) start++;
+                    if (start >= end) break;
+                }
+                pc = 0;
+                i = start;
+                cnt = 0;
+            }
+            fresh = true;
+            for (; ; ) {
+                switch (code[pc]) {
+                    case CHAR:
+                        if (i >= end || fold(data[i]) != code[pc + 1]) break;
+                        i++;
+                        pc += 2;
+                        continue;
+                    case ANY:
+                        if (i >= end) break;
+                        i++;
+                        pc++;
+                        continue;
+                    case ANY_NE:
+                        if (i >= end || (c = data[i]) == '\r' || c == '\n') break;
+                        i++;
+                        pc++;
+                        continue;
+                    case SET:
+                        if (i >= end || in(sets[code[pc + 1]], fold(data[i])) == (code[pc + 2] != 0)) break;
+                        i++;
+                        pc += 3;
+                        continue;
+                    case TABLE: {
+                        if (i >= end) break;
+                        c = fold(data[i]);
+                        int[][] table = tables[code[pc + 1]];
+                        if (code[pc + 2] != 0) {
+                            //an empty block fails even when inverted, as in Matcher
+                            if (table[c >>> 8] == null || in(table, c)) break;
+                        } else if (!in(table, c)) break;
+                        i++;
+                        pc += 3;
+                        continue;
+                    }
+                    case GROUP_IN:
+                        groups[code[pc + 1] * 3] = i;
+                        pc += 2;
+                        continue;
+                    case GROUP_OUT: {
+                        int reg = code[pc + 1], m = reg * 3;
+                        if (saved == saves.length) saves = grow(saves);
+                        saves[saved] = reg;
+                        saves[saved + 1] = groups[m + 1];
+                        saves[saved + 2] = groups[m + 2];
+                        saved += 3;
+                        groups[m + 1] = groups[m];
+                        groups[m + 2] = i;
+                        pc += 2;
+                        continue;
+                    }
+                    case PUSH:
+                        if (memo != null && code[pc + 2] >= 0
+                                && !Matcher.visit(memo, branches, code[pc + 2], i - offset)) break;
+                        if ((f = top++ << 2) + 4 == frames.length) frames = grow(frames);
+                        frames[f] = code[pc + 1];
+                        frames[f + 1] = i;
+                        frames[f + 2] = cnt;
+                        frames[f + 3] = saved;
+                        pc += 3;
+                        continue;
+                    case SUCCESS:
+                        if (matchEnd && i != end) break;
+                        groups[0] = groups[1] = start;
+                        groups[2] = i;
+                        stacks[0] = frames;
+                        stacks[1] = saves;
+                        stacks[2][0] = start;
+                        stacks[2][1] = top;
+                        stacks[2][2] = saved;
+                        return true;
+                    case START:
+                        if (i != offset) break;
+                        pc++;
+                        continue;
+                    case END:
+                        if (i < end) break;
+                        pc++;
+                        continue;
+                    case END_EOL:
+                        if (!endOfInput(data, end, i)) break;
+                        pc++;
+                        continue;
+                    case LINE_START:
+                        if (!lineStart(data, offset, end, i)) break;
+                        pc++;
+                        continue;
+                    case LINE_END:
+                        if (!lineEnd(data, end, i)) break;
+                        pc++;
+                        continue;
+                    case BOUNDARY:
+                    case UBOUNDARY:
+                    case DIRECTION:
+                    case UDIRECTION: {
+                        int op = code[pc], k = code[pc + 1];
+                        boolean plain = op == BOUNDARY || op == DIRECTION, inverse = code[pc + 2] != 0;
+                        boolean before = i > offset && (plain ? in(sets[k], fold(data[i - 1]))
+                                : in(tables[k], fold(data[i - 1])));
+                        boolean after = i < end && (plain ? in(sets[k], fold(data[i])) : in(tables[k], fold(data[i])));
+                        if (op == BOUNDARY || op == UBOUNDARY) {
+                            if (inverse == (before ^ after)) break;
+                        } else if (inverse ? !before || after : before || !after) break;
+                        pc += 3;
+                        continue;
+                    }
+                    case REPEAT_0_INF:
+                    case REPEAT: {
+                        boolean some = code[pc] == REPEAT_0_INF;
+                        int p = some ? pc + 1 : pc + 3, max = some ? -1 : code[pc + 2];
+                        int kind = code[p + 1], arg = code[p + 2];
+                        int j = i, limit = max >= 0 && end - i > max ? i + max : end;
+                        //like Matcher.repeat(), this doesn't fold case
+                        if (kind == IS_ANY) j = limit;
+                        else while (j < limit && is(kind, arg, data[j])) j++;
+                        cnt = j - i;
+                        if (some) {
+                            if (cnt > 0) {
+                                i += cnt;
+                                if ((f = top++ << 2) + 4 == frames.length) frames = grow(frames);
+                                frames[f] = code[p];
+                                frames[f + 1] = i;
+                                frames[f + 2] = cnt;
+                                frames[f + 3] = saved;
+                            }
+                        } else {
+                            if (cnt < code[pc + 1]) break;
+                            i += cnt;
+                            if ((f = top++ << 2) + 4 == frames.length) frames = grow(frames);
+                            frames[f] = code[p];
+                            frames[f + 1] = i;
+                            frames[f + 2] = cnt;
+                            frames[f + 3] = saved;
+                        }
+                        pc = p + 3;
+                        continue;
+                    }
+                    case BACKTRACK:
+                        cnt = frames[(top << 2) + 2];
+                        if (cnt <= code[pc + 1]) break;
+                        cnt--;
+                        i--;
+                        if ((f = top++ << 2) + 4 == frames.length) frames = grow(frames);
+                        frames[f] = pc;
+                        frames[f + 1] = i;
+                        frames[f + 2] = cnt;
+                        frames[f + 3] = saved;
+                        pc += 2;
+                        continue;
+                    case FIND_BACK: {
+                        //gives back chars until the target of the repeat can be found, as Matcher.findBack() does
+                        int min = code[pc + 1], distance = code[pc + 2];
+                        cnt = frames[(top << 2) + 2];
+                        if (cnt <= min) break;
+                        if (i + distance > end) {
+                            int exceed = i + distance - end;
+                            cnt -= exceed;
+                            if (cnt <= min) break;
+                            i -= exceed;
+                        }
+                        int kind = code[pc + 4], arg = code[pc + 5];
+                        int at = i + distance, j = at, least = at - (cnt - min);
+                        boolean found;
+                        while (!(found = is(kind, arg, fold(data[--j]))) && j > least) {
+                        }
+                        if (!found) break;
+                        cnt -= at - j;
+                        i -= at - j;
+                        if (cnt > min) {
+                            if ((f = top++ << 2) + 4 == frames.length) frames = grow(frames);
+                            frames[f] = pc;
+                            frames[f + 1] = i;
+                            frames[f + 2] = cnt;
+                            frames[f + 3] = saved;
+                        }
+                        if (code[pc + 3] != 0) i++;
+                        pc += 6;
+                        continue;
+                    }
+                    case CNT_SET_0:
+                        cnt = 0;
+                        pc++;
+                        continue;
+                    case CNT_INC:
+                        cnt++;
+                        pc++;
+                        continue;
+                    case CNT_GT_EQ:
+                        if (cnt < code[pc + 1]) break;
+                        pc += 2;
+                        continue;
+                    case READ_CNT_LT:
+                        cnt = frames[(top << 2) + 2];
+                        if (cnt >= code[pc + 1]) break;
+                        pc += 2;
+                        continue;
+                    case CRSTORE_CRINC: {
+                        int reg = code[pc + 1];
+                        if (saved == saves.length) saves = grow(saves);
+                        saves[saved] = ~reg;
+                        saves[saved + 1] = counters[reg]++;
+                        saved += 3;
+                        pc += 2;
+                        continue;
+                    }
+                    case CR_SET_0:
+                        counters[code[pc + 1]] = 0;
+                        pc += 2;
+                        continue;
+                    case CR_LT:
+                        if (counters[code[pc + 1]] >= code[pc + 2]) break;
+                        pc += 3;
+                        continue;
+                    case CR_GT_EQ:
+                        if (counters[code[pc + 1]] < code[pc + 2]) break;
+                        pc += 3;
+                        continue;
+                    case JUMP:
+                        pc = code[pc + 1];
+                        continue;
+                }
+                //the instruction failed, so go back to the last place that can try something else
+                if (top == 0) break;
+                if (--budget < 0) {
+                    budget = Integer.MAX_VALUE;
+                    if (memoSteps >= 0 && memo == null) memo = Matcher.clearMemo(null, branches, end - offset);
+                }
+                f = --top << 2;
+                pc = frames[f];
+                i = frames[f + 1];
+                if (saved > frames[f + 3]) saved = restore(groups, counters, saves, saved, frames[f + 3]);
+            }
+            if (saved > 0) saved = restore(groups, counters, saves, saved, 0);
+        }
+        stacks[0] = frames;
+        stacks[1] = saves;
+        return false;
+    }
+
+    private char fold(char c) {
+        return caseless ? Category.caseFold(c) : c;
+    }
+
+    //true if c is of the given kind, as the last two operands of a repeat or FIND_BACK give it
+    private boolean is(int kind, int arg, char c) {
+        switch (kind) {
+            case IS_CHAR:
+                return c == arg;
+            case IS_ANY:
+                return true;
+            case IS_ANY_NE:
+                return c != '\r' && c != '\n';
+            case IN_SET:
+                return in(sets[arg], c);
+            case NOT_IN_SET:
+                return !in(sets[arg], c);
+            case IN_TABLE:
+                return in(tables[arg], c);
+            case NOT_IN_TABLE:
+                return !in(tables[arg], c);
+            default:
+                return tables[arg][c >>> 8] == null || in(tables[arg], c);
+        }
+    }
+}
@@ -110,5 +110,33 @@ public interface REFlags {
      */
     int XML_SCHEMA = 1 << 5;
 
+    /**
+     * Matches by running every possible path through the pattern at once (a Thompson NFA, or "Pike VM"), rather than
+     * by backtracking. When switched on, a search takes time linear in the length of the target for any given pattern,
+     * so patterns like "(a|aa)*b" can't take exponential time on input they fail to match; this makes it safe to use
+     * patterns and targets that come from untrusted sources. Matches and captured groups are the same as without it.
+     * Patterns that use backreferences, lookahead, lookbehind, conditionals or independent groups can't be compiled
+     * with this flag, and throw a PatternSyntaxException instead. Most searches are somewhat slower with this on.
+     * <br>
+     * There's no corresponding letter in Perl notation, so this can only be set with an int flag, such as
+     * {@code (REFlags.UNICODE | REFlags.LINEAR)}.
+     */
+    int LINEAR = 1 << 7;
+
+    /**
+     * Makes ".", negated classes, and classes that name chars past the Basic Multilingual Plane (like emoji) match a
+     * surrogate pair as one character, the code point it encodes, instead of as two separate chars. With this on,
+     * "\\p{..}" categories and the Unicode "\\w" and "\\d" also match code points past the BMP that belong to
+     * them, "\\x{1F600}" can name any code point up to 10FFFF, and a class like "[\\x{1F600}-\\x{1F64F}]" can
+     * hold a range of them. Those classes never match half of a surrogate pair on its own. Text with no surrogate
+     * chars in it is searched exactly as it would be without this flag, at the same speed; only a target that has
+     * surrogates in it is searched with the slower form of the pattern that reads pairs. Case-insensitive matching
+     * still only folds chars in the BMP.
+     * <br>
+     * There's no corresponding letter in Perl notation, so this can only be set with an int flag, such as
+     * {@code (REFlags.UNICODE | REFlags.CODEPOINTS)}.
+     */
+    int CODEPOINTS = 1 << 8;
+
 
 }
\ No newline at end of file
@@ -125,7 +125,7 @@ public class Replacer implements Serializable {
      */
     public String replace(CharSequence text) {
         TextBuffer tb = wrap(new StringBuilder(text.length()));
-        replace(pattern.matcher(text), substitution, tb);
+        replace(text, tb);
         return tb.toString();
     }
 
@@ -141,13 +141,13 @@ public class Replacer implements Serializable {
      */
     public String replace(CharSequence text, int count) {
         TextBuffer tb = wrap(new StringBuilder(text.length()));
-        replace(pattern.matcher(text), substitution, tb, count);
+        replace(text, tb, count);
         return tb.toString();
     }
 
     public String replace(char[] chars, int off, int len) {
         TextBuffer tb = wrap(new StringBuilder(len));
-        replace(pattern.matcher(chars, off, len), substitution, tb);
+        replace(chars, off, len, tb);
         return tb.toString();
     }
 
@@ -172,7 +172,7 @@ public class Replacer implements Serializable {
      * @return the number of individual replacements performed; the results are applied to sb
      */
     public int replace(CharSequence text, StringBuilder sb) {
-        return replace(pattern.matcher(text), substitution, wrap(sb));
+        return replace(text, wrap(sb));
     }
 
     /**
@@ -184,7 +184,7 @@ public class Replacer implements Serializable {
      * @return the number of individual replacements performed; the results are applied to sb
      */
     public int replace(CharSequence text, StringBuilder sb, int count) {
-        return replace(pattern.matcher(text), substitution, wrap(sb), count);
+        return replace(text, wrap(sb), count);
     }
 
     /**
@@ -213,13 +213,30 @@ public class Replacer implements Serializable {
     /**
      */
     public int replace(CharSequence text, TextBuffer dest) {
-        return replace(pattern.matcher(text), substitution, dest);
+        Matcher m = pattern.obtainMatcher();
+        m.setTarget(text);
+        int count = replace(m, substitution, dest);
+        pattern.freeMatcher(m);
+        return count;
+    }
+
+    //the Matcher only lives during the call, so it can come from the Pattern's pool, if it has one
+    private int replace(CharSequence text, TextBuffer dest, int count) {
+        Matcher m = pattern.obtainMatcher();
+        m.setTarget(text);
+        count = replace(m, substitution, dest, count);
+        pattern.freeMatcher(m);
+        return count;
     }
 
     /**
      */
     private int replace(char[] chars, int off, int len, TextBuffer dest) {
-        return replace(pattern.matcher(chars, off, len), substitution, dest);
+        Matcher m = pattern.obtainMatcher();
+        m.setTarget(chars, off, len);
+        int count = replace(m, substitution, dest);
+        pattern.freeMatcher(m);
+        return count;
     }
 
     /**
@@ -342,11 +359,66 @@ public class Replacer implements Serializable {
         replace(pattern.matcher(res, groupName), substitution, out);
     }
 
+    /**
+     * Reads length chars from in (or all of it, if length is -1), then writes them to out with every match replaced.
+     * This reads everything it will replace into memory first; {@link #replace(Reader, Writer)} doesn't.
+     */
     @GwtIncompatible
     public void replace(Reader in, int length, Writer out) throws IOException {
         replace(pattern.matcher(in, length), substitution, out);
     }
 
+    /**
+     * Reads all of in and writes it to out with every match replaced, without keeping more of the text in memory than
+     * a window of {@link StreamMatcher#DEFAULT_WINDOW} chars (plus the longest match). Text that can't be part of a
+     * match is written as soon as that is known. Unlike the other replace() methods, "^" and lookbehind see the text
+     * before the previous match as it was in the input.
+     * @param in the text to read; it is not closed
+     * @param out where to write the text with replacements; it is not flushed or closed
+     * @return the number of replacements performed
+     * @throws IOException if reading from in or writing to out fails
+     * @see StreamMatcher
+     */
+    @GwtIncompatible
+    public int replace(Reader in, Writer out) throws IOException {
+        return replace(in, out, StreamMatcher.DEFAULT_WINDOW);
+    }
+
+    /**
+     * Reads all of in and writes it to out with every match replaced, keeping about windowSize chars of the text in
+     * memory at a time (more only while a single match doesn't fit). Text that can't be part of a match is written as
+     * soon as that is known. Unlike the other replace() methods, "^" and lookbehind see the text before the previous
+     * match as it was in the input.
+     * @param in the text to read; it is not closed
+     * @param out where to write the text with replacements; it is not flushed or closed
+     * @param windowSize how many chars of in to keep at a time
+     * @return the number of replacements performed
+     * @throws IOException if reading from in or writing to out fails
+     * @see StreamMatcher
+     */
+    @GwtIncompatible
+    public int replace(Reader in, Writer out, int windowSize) throws IOException {
+        StreamMatcher sm = new StreamMatcher(pattern, in, windowSize);
+        sm.passThrough = out;
+        TextBuffer dest = wrap(out);
+        int c = 0;
+        long previous = -1;
+        try {
+            while (sm.find()) {
+                long start = sm.start(), end = sm.end();
+                if (start == end && start == previous) continue;  //allow to replace at "^", as above
+                sm.emit(start);
+                substitution.appendSubstitution(sm.matcher(), dest);
+                sm.emitted = previous = end;
+                c++;
+            }
+            sm.emit(sm.windowEnd());
+        } catch (WriteException e) {
+            throw e.reason;
+        }
+        return c;
+    }
+
     private static class DummySubstitution implements Substitution {
         String str;
 
@@ -379,13 +451,8 @@ public class Replacer implements Serializable {
             String m = match.group(0);
             if(m == null)
                 return;
-            for (Map.Entry<String, String> kv : dictionary.entrySet()) {
-                if (kv.getKey().equals(m)) {
-                    dest.append(kv.getValue());
-                    return;
-                }
-            }
-            dest.append(m);
+            String v = dictionary.get(m);
+            dest.append(v == null ? m : v);
         }
     }
 
@@ -405,17 +472,7 @@ public class Replacer implements Serializable {
         if(pairs == null || pairs.length < 2)
             return new Replacer(Pattern.compile("$"), new DummySubstitution(""));
         TableSubstitution tab = new TableSubstitution(pairs);
-        StringBuilder sb = new StringBuilder(128);
-        sb.append("(?>");
-        for(String s : tab.dictionary.keySet())
-        {
-            sb.append("\\Q");
-            sb.append(s);
-            sb.append("\\E|");
-        }
-        if(sb.length() > 3) sb.setCharAt(sb.length() - 1, ')');
-        else sb.append(')');
-        return new Replacer(Pattern.compile(sb.toString()), tab);
+        return makeTable(tab);
     }
 
     /**
@@ -435,6 +492,11 @@ public class Replacer implements Serializable {
         if(dict == null || dict.isEmpty())
             return new Replacer(Pattern.compile("$"), new DummySubstitution(""));
         TableSubstitution tab = new TableSubstitution(new LinkedHashMap<String, String>(dict));
+        return makeTable(tab);
+    }
+
+    private static Replacer makeTable(TableSubstitution tab)
+    {
         StringBuilder sb = new StringBuilder(128);
         sb.append("(?>");
         for(String s : tab.dictionary.keySet())
@@ -445,7 +507,11 @@ public class Replacer implements Serializable {
         }
         if(sb.length() > 3) sb.setCharAt(sb.length() - 1, ')');
         else sb.append(')');
-        return new Replacer(Pattern.compile(sb.toString()), tab);
+        // the alternation is kept so the Pattern still means the same thing when printed or recompiled, but finding
+        // matches goes through an Aho-Corasick automaton, which picks the same keys without trying each in turn; the
+        // alternation is only parsed once an anchored search, serialization or generated code needs its Term graph
+        Pattern p = Pattern.lazy(sb.toString(), new AhoCorasick(tab.dictionary.keySet()));
+        return new Replacer(p, tab);
     }
 
     public static StringBuilderBuffer wrap(final StringBuilder sb) {
@@ -0,0 +1,252 @@
+package regexodus;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Finds the matches of a Pattern in a Reader without reading the whole stream into memory first, unlike
+ * {@link Pattern#matcher(Reader, int)}. Only a window of the stream is kept; as the search moves forward, chars before
+ * the earliest place a match could still start are dropped and more are read in. The window only grows when a single
+ * match (or a part of one that could still be completed) doesn't fit in it, so the memory used depends on the longest
+ * match rather than on the length of the stream.
+ * <br>
+ * Knowing when more input is needed relies on {@link Matcher#ACCEPT_INCOMPLETE}: a search that runs into the end of the
+ * window, while it could still match more, stops there and the window is refilled, so the matches found are the same
+ * ones a Matcher would find on the whole text. Positions are counted from the start of the stream, as longs. Lookbehind
+ * (and "\b", and multi-line "^") can only see {@link #CONTEXT} chars before the point where the search resumes after
+ * the window moves.
+ * <br>
+ * Typical use is:<pre>
+ * StreamMatcher sm = pattern.streamMatcher(reader);
+ * while (sm.find()) {
+ *     System.out.println(sm.start() + ": " + sm.group());
+ * }
+ * </pre>
+ */
+@GwtIncompatible
+public class StreamMatcher {
+    /**
+     * How many chars before the earliest possible start of a match are kept when the window moves.
+     */
+    public static final int CONTEXT = 64;
+    /**
+     * The default number of chars the window holds, 8192.
+     */
+    public static final int DEFAULT_WINDOW = 8192;
+
+    private final Reader in;
+    private final Matcher matcher;
+    private char[] buffer;
+    //chars of the stream before buffer[0], how many chars in buffer are filled, and where the next search starts
+    private long base;
+    private int length, position;
+    private boolean eof, searched;
+    //the last match, in stream positions, so it isn't found again after the window moves
+    private long lastStart = -1, lastEnd = -1;
+    //if not null, chars of the stream from emitted on are written here before they are dropped from the window
+    Writer passThrough;
+    long emitted;
+
+    /**
+     * Makes a StreamMatcher that will search in for pattern, using a window of {@link #DEFAULT_WINDOW} chars.
+     * @param pattern the Pattern to search for
+     * @param in the Reader to search; it is read as needed, but not closed
+     */
+    public StreamMatcher(Pattern pattern, Reader in) {
+        this(pattern, in, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Makes a StreamMatcher that will search in for pattern, keeping about windowSize chars at a time.
+     * @param pattern the Pattern to search for
+     * @param in the Reader to search; it is read as needed, but not closed
+     * @param windowSize how many chars to keep at a time, at least; values less than 2 * {@link #CONTEXT} are raised
+     */
+    public StreamMatcher(Pattern pattern, Reader in, int windowSize) {
+        this.in = in;
+        this.matcher = new Matcher(pattern);
+        this.buffer = new char[Math.max(windowSize, CONTEXT << 1)];
+    }
+
+    /**
+     * Searches for the next match, reading more of the stream as needed.
+     * @return true if a match was found; its bounds and groups can then be read from this
+     * @throws IOException if reading from the stream fails
+     */
+    public boolean find() throws IOException {
+        Matcher m = matcher;
+        boolean fresh = !searched;
+        while (true) {
+            if (fresh) {
+                if (!eof && length < buffer.length) fill();
+                m.setTarget(buffer, 0, length);
+                m.setPosition(position);
+                searched = true;
+            }
+            boolean found;
+            if (eof) {
+                found = fresh ? m.search(0) : m.find();
+            } else {
+                found = fresh ? m.search(Matcher.ACCEPT_INCOMPLETE) : m.find(Matcher.ACCEPT_INCOMPLETE);
+                if (!found || m.end() >= length - 2) {
+                    //a match could still start (or go on) at or after the first position that reached the end;
+                    //one that ends just before the end may also have been allowed by "$" before a final line break
+                    slide(found ? m.start() : length);
+                    fresh = true;
+                    continue;
+                }
+            }
+            if (!found) {
+                position = length;
+                return false;
+            }
+            long s = base + m.start(), e = base + m.end();
+            if (s == e && s == lastStart && e == lastEnd) {
+                //the same empty match, found again after the window moved
+                fresh = false;
+                continue;
+            }
+            lastStart = s;
+            lastEnd = e;
+            position = s == e ? m.end() + 1 : m.end();
+            return true;
+        }
+    }
+
+    //drops the chars that are no longer needed, keeping some context before keep, then reads more
+    private void slide(int keep) throws IOException {
+        int drop = Math.max(0, keep - CONTEXT);
+        if (drop > 0) {
+            if (passThrough != null) emit(base + drop);
+            System.arraycopy(buffer, drop, buffer, 0, length - drop);
+            base += drop;
+            length -= drop;
+            keep -= drop;
+        }
+        position = keep;
+        if (length == buffer.length) {
+            char[] larger = new char[buffer.length << 1];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+        fill();
+    }
+
+    //writes the chars from emitted up to (not including) the stream position upTo, which must still be in the window
+    void emit(long upTo) throws IOException {
+        if (upTo > emitted) {
+            passThrough.write(buffer, (int) (emitted - base), (int) (upTo - emitted));
+            emitted = upTo;
+        }
+    }
+
+    /**
+     * @return the position in the stream just after the last char read so far
+     */
+    long windowEnd() {
+        return base + length;
+    }
+
+    /**
+     * @return the Matcher that found the last match; its positions are relative to the window, not the stream
+     */
+    Matcher matcher() {
+        return matcher;
+    }
+
+    private void fill() throws IOException {
+        while (length < buffer.length) {
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                eof = true;
+                return;
+            }
+            if (n == 0) return;
+            length += n;
+        }
+    }
+
+    /**
+     * @return the Pattern this searches for
+     */
+    public Pattern pattern() {
+        return matcher.pattern();
+    }
+
+    /**
+     * @return how many chars of the stream have been dropped from the window so far
+     */
+    public long windowStart() {
+        return base;
+    }
+
+    /**
+     * @return how many chars the window can currently hold
+     */
+    public int windowCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the position in the stream where the last match starts
+     */
+    public long start() {
+        return base + matcher.start();
+    }
+
+    /**
+     * @return the position in the stream just after the last match
+     */
+    public long end() {
+        return base + matcher.end();
+    }
+
+    /**
+     * @param group the index of a capturing group, or 0 for the whole match
+     * @return the position in the stream where the group starts, or -1 if it didn't capture anything
+     */
+    public long start(int group) {
+        int s = matcher.start(group);
+        return s < 0 ? -1 : base + s;
+    }
+
+    /**
+     * @param group the index of a capturing group, or 0 for the whole match
+     * @return the position in the stream just after the group, or -1 if it didn't capture anything
+     */
+    public long end(int group) {
+        int e = matcher.end(group);
+        return e < 0 ? -1 : base + e;
+    }
+
+    /**
+     * @return the text of the last match
+     */
+    public String group() {
+        return matcher.group();
+    }
+
+    /**
+     * @param group the index of a capturing group, or 0 for the whole match
+     * @return the text the group captured, or null if it didn't capture anything
+     */
+    public String group(int group) {
+        return matcher.group(group);
+    }
+
+    /**
+     * @param name the name of a capturing group
+     * @return the text the group captured, or null if it didn't capture anything
+     */
+    public String group(String name) {
+        return matcher.group(name);
+    }
+
+    /**
+     * @return how many capturing groups the Pattern has, not counting the whole match
+     */
+    public int groupCount() {
+        return matcher.groupCount();
+    }
+}
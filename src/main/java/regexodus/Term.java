@@ -35,6 +35,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 public class Term implements REFlags, Serializable {
     private static final long serialVersionUID = 2528136757932720807L;
@@ -83,6 +84,8 @@ public class Term implements REFlags, Serializable {
     static final int LITERAL_START = 60;
     static final int LITERAL_END = 61;
 
+    static final int FIND_LITERAL = 62;
+
     /*optimization-nontransparent types*/
     static final int BRANCH = 32;
     static final int BRANCH_STORE_CNT = 33;
@@ -136,6 +139,8 @@ public class Term implements REFlags, Serializable {
     private static final int LIMITS_FAILURE = 2;
 
     private static final int LITERAL_FLAG = 64;
+    //set only while parsing the surrogate-pair twin of a pattern compiled with REFlags.CODEPOINTS
+    static final int PAIRS_FLAG = 512;
 
     //static CustomParser[] customParsers=new CustomParser[256];
 
@@ -159,6 +164,8 @@ public class Term implements REFlags, Serializable {
     // used with type=BITSET(2);
     IntBitSet bitset;
     IntBitSet[] bitset2;
+    //code points past the BMP, as the first and last of each range; these don't invert with the bitset
+    int[] astral;
     private boolean[] categoryBitset;  //types(unicode categories)
     boolean mode_insensitive;
     boolean mode_reverse;
@@ -189,6 +196,9 @@ public class Term implements REFlags, Serializable {
     // lookahead group id;
     int lookaheadId;
 
+    // which bit a BRANCH uses in a Matcher's memo of failed positions (see Pattern.memoBranches()), or -1 if none
+    int memo = -1;
+
     // **** COMPILE HELPERS ****
 
     Term prev;
@@ -204,14 +214,10 @@ public class Term implements REFlags, Serializable {
     //protected  boolean newBranch=false,closed=false;
     //protected  boolean newBranch=false;
 
-    //for debugging
-    private static int instances;
+    //for debugging; set by toStringAll(), rather than counted as Terms are made, so compiling shares no state
     private int instanceNum;
 
     Term() {
-        //for debugging
-        instanceNum = instances;
-        instances++;
         in = out = this;
     }
 
@@ -221,7 +227,6 @@ public class Term implements REFlags, Serializable {
     }
 
     static void makeTree(String s, int[] flags, Pattern re) throws PatternSyntaxException {
-        instances = 0;
         char[] data = s.toCharArray();
         makeTree(data, 0, data.length, flags, re);
     }
@@ -245,16 +250,18 @@ public class Term implements REFlags, Serializable {
         Term first = term.next;
 
         // Optimisation:
-        Term optimized = first;
-        Optimizer opt = Optimizer.find(first);
-        if (opt != null) optimized = opt.makeFirst(first);
+        Term optimized = Optimizer.findLiteral(first, re.caseless);
+        if (optimized == null) {
+            optimized = first;
+            Optimizer opt = Optimizer.find(first);
+            if (opt != null) optimized = opt.makeFirst(first);
+        }
 
         for (TermIterator i : iterators) {
             i.optimize();
         }
 
         re.root = optimized;
-        re.root = first;
         re.root0 = first;
         re.memregs = vars[MEMREG_COUNT];
         re.counters = vars[CNTREG_COUNT];
@@ -281,8 +288,8 @@ public class Term implements REFlags, Serializable {
                     Term clg = new Term();
                     CharacterClass.parseGroup(data, t.tOffset, t.tOutside, clg,
                             (flags[0] & IGNORE_CASE) > 0, (flags[0] & IGNORE_SPACES) > 0,
-                            (flags[0] & UNICODE) > 0, (flags[0] & XML_SCHEMA) > 0);
-                    term.append(clg);
+                            (flags[0] & UNICODE) > 0, (flags[0] & XML_SCHEMA) > 0, (flags[0] & CODEPOINTS) > 0);
+                    term.append((flags[0] & PAIRS_FLAG) > 0 ? widen(clg) : clg);
                     continue;
                 case Pretokenizer.PLAIN_GROUP:
                     vars[DEPTH]++;
@@ -508,7 +515,7 @@ public class Term implements REFlags, Serializable {
                             } else {
                                 Term t = new Term();
                                 i = CharacterClass.parseName(data, i, end, t, false, (flags[0] & IGNORE_SPACES) > 0);
-                                current = append(t);
+                                current = append((flags[0] & PAIRS_FLAG) > 0 ? widen(t) : t);
                                 continue;
                             }
                         }
@@ -573,7 +580,7 @@ public class Term implements REFlags, Serializable {
                         //   throw new PatternSyntaxException("'^' is not a first term in the group: <"+new String(data,offset,end-offset)+">");
                         //}
 
-                        current = append(tmp);
+                        current = append((flags[0] & PAIRS_FLAG) > 0 ? widen(tmp) : tmp);
                         break;
                 }
             }
@@ -593,7 +600,7 @@ public class Term implements REFlags, Serializable {
                     throw new PatternSyntaxException("'$' is not a last term in the group: <" + new String(data, offset, end - offset) + ">");
                 }
 
-                current = append(tmp);
+                current = append((flags[0] & PAIRS_FLAG) > 0 ? widen(tmp) : tmp);
             }
         }
     }
@@ -727,6 +734,104 @@ public class Term implements REFlags, Serializable {
         current = b;
     }
 
+    //only used with PAIRS_FLAG; turns a term that can match code points past the BMP into a non-capturing group
+    //that tries each high surrogate with the low surrogates that can follow it, then the term itself, which
+    //no longer matches a surrogate on its own
+    private static Term widen(Term term) throws PatternSyntaxException {
+        int[] astral;
+        switch (term.type) {
+            case ANY_CHAR:
+            case ANY_CHAR_NE: {
+                BlockSet bs = new BlockSet();
+                bs.setRange('\uD800', '\uDFFF');
+                if (term.type == ANY_CHAR_NE) {
+                    bs.setChar('\n');
+                    bs.setChar('\r');
+                }
+                bs.setPositive(false);
+                BlockSet.unify(bs, term);
+                astral = BlockSet.complement(BlockSet.NO_CODE_POINTS);
+                break;
+            }
+            case BITSET:
+            case BITSET2:
+                astral = term.astral == null ? BlockSet.NO_CODE_POINTS : term.astral;
+                if (term.inverse) astral = BlockSet.complement(astral);
+                else if (astral.length == 0) return term;
+                if (term.type == BITSET2 || term.inverse) {
+                    IntBitSet[] rows;
+                    if (term.type == BITSET) {
+                        rows = new IntBitSet[256];
+                        rows[0] = term.bitset;
+                        term.type = BITSET2;
+                        term.bitset = null;
+                    } else rows = term.bitset2.clone();
+                    IntBitSet all = null;
+                    if (term.inverse) {
+                        all = new IntBitSet();
+                        all.set(0, 255);
+                    }
+                    for (int r = 0xD8; r <= 0xDF; r++) rows[r] = all;
+                    term.bitset2 = rows;
+                }
+                break;
+            default:
+                return term;
+        }
+        //the low surrogates (as offsets from 0xDC00) that can follow each high surrogate
+        int[][] lows = new int[1024][];
+        for (int k = 0; k < astral.length; k += 2) {
+            int first = astral[k] - 0x10000, last = astral[k + 1] - 0x10000;
+            for (int h = first >>> 10; h <= last >>> 10; h++) {
+                int[] r = {h == first >>> 10 ? first & 0x3FF : 0, h == last >>> 10 ? last & 0x3FF : 0x3FF};
+                lows[h] = lows[h] == null ? r : BlockSet.union(lows[h], r);
+            }
+        }
+        //high surrogates that share the same low surrogates go in the same branch
+        LinkedHashMap<String, int[]> highs = new LinkedHashMap<String, int[]>();
+        for (int h = 0; h < 1024; h++) {
+            if (lows[h] == null) continue;
+            String key = Arrays.toString(lows[h]);
+            int[] r = highs.get(key);
+            highs.put(key, r == null ? new int[]{h, h} : BlockSet.union(r, new int[]{h, h}));
+        }
+        Term group = new Group();
+        boolean first = true;
+        for (int[] hi : highs.values()) {
+            if (!first) group.newBranch();
+            first = false;
+            group.append(surrogates(0xD800, hi));
+            group.append(surrogates(0xDC00, lows[hi[0]]));
+        }
+        if (term.type == BITSET2 ? term.inverse || !isEmpty(term.bitset2) : term.inverse || !term.bitset.isEmpty()) {
+            if (!first) group.newBranch();
+            group.append(term);
+        }
+        group.close();
+        return group;
+    }
+
+    //a term for one or more ranges of surrogates, as offsets from base
+    private static Term surrogates(int base, int[] ranges) {
+        Term t = new Term();
+        if (ranges.length == 2 && ranges[0] == ranges[1]) {
+            t.type = CHAR;
+            t.c = (char) (base + ranges[0]);
+            return t;
+        }
+        BlockSet bs = new BlockSet();
+        for (int k = 0; k < ranges.length; k += 2) bs.setRange((char) (base + ranges[k]), (char) (base + ranges[k + 1]));
+        BlockSet.unify(bs, t);
+        return t;
+    }
+
+    private static boolean isEmpty(IntBitSet[] rows) {
+        for (IntBitSet row : rows) {
+            if (row != null && !row.isEmpty()) return false;
+        }
+        return true;
+    }
+
     private static Term makeGreedyStar(int[] vars, Term term, ArrayList<TermIterator> iterators) throws PatternSyntaxException {
         //vars[STACK_SIZE]++;
         switch (term.type) {
@@ -1060,7 +1165,7 @@ public class Term implements REFlags, Serializable {
         }
         switch (c) {
             case '[':
-                return CharacterClass.parseClass(data, i, out, term, (flags & IGNORE_CASE) > 0, (flags & IGNORE_SPACES) > 0, (flags & UNICODE) > 0, (flags & XML_SCHEMA) > 0);
+                return CharacterClass.parseClass(data, i, out, term, (flags & IGNORE_CASE) > 0, (flags & IGNORE_SPACES) > 0, (flags & UNICODE) > 0, (flags & XML_SCHEMA) > 0, (flags & CODEPOINTS) > 0);
 
             case '.':
                 term.type = (flags & DOTALL) > 0 ? ANY_CHAR : ANY_CHAR_NE;
@@ -1114,13 +1219,17 @@ public class Term implements REFlags, Serializable {
                         if ((d = data[i++]) == '{') {
                             while (i < out && (d = data[i++]) != '}') {
                                 hex = (hex << 4) + CharacterClass.toHexDigit(d);
-                                if (hex > 0xffff || i == out)
+                                if (hex > ((flags & CODEPOINTS) > 0 ? 0x10ffff : 0xffff) || i == out)
                                     throw new PatternSyntaxException("\\x{<out of range or incomplete>}");
                             }
                         } else {
                             hex = (CharacterClass.toHexDigit(d) << 4) +
                                     CharacterClass.toHexDigit(data[i++]);
                         }
+                        if (hex > 0xffff) {
+                            CharacterClass.makeCodePoint(term, hex);
+                            return i;
+                        }
                         c = (char) hex;
                         break;
                     }
@@ -1254,6 +1363,11 @@ public class Term implements REFlags, Serializable {
                 break;
 
             default:
+                if ((flags & CODEPOINTS) > 0 && Character.isHighSurrogate(c) && i < out
+                        && Character.isLowSurrogate(data[i])) {
+                    CharacterClass.makeCodePoint(term, Character.toCodePoint(c, data[i++]));
+                    break;
+                }
                 if ((flags & IGNORE_CASE) == 0) {
                     term.type = CHAR;
                     term.c = c;
@@ -1317,6 +1431,7 @@ public class Term implements REFlags, Serializable {
             case REG_I: return "REG_I";
             case FIND: return "FIND";
             case FINDREG: return "FINDREG";
+            case FIND_LITERAL: return "FIND_LITERAL";
             case SUCCESS: return "SUCCESS";
             case BOUNDARY: return "BOUNDARY";
             case DIRECTION: return "DIRECTION";
@@ -1454,6 +1569,15 @@ public class Term implements REFlags, Serializable {
                 }
                 b.append(", ");
                 break;
+            case FIND_LITERAL:
+                b.append(">>>\"");
+                b.append(((FindLiteral) this).literal);
+                b.append("\", <<");
+                b.append(minCount);
+                b.append("..");
+                b.append(maxCount < 0 ? "inf" : String.valueOf(maxCount));
+                b.append(", ");
+                break;
             case REPEAT_0_INF:
                 b.append("rpt{");
                 b.append(target);
@@ -1694,9 +1818,26 @@ public class Term implements REFlags, Serializable {
     }
 
     public String toStringAll() {
+        number(new ArrayList<Term>());
         return toStringAll(new ArrayList<Integer>());
     }
 
+    //numbers every Term reachable from this one, in the order toStringAll() visits them
+    private void number(ArrayList<Term> seen) {
+        instanceNum = seen.size();
+        seen.add(this);
+        if (next != null && !contains(seen, next)) next.number(seen);
+        if (failNext != null && !contains(seen, failNext)) failNext.number(seen);
+    }
+
+    //Term.equals() compares structure, but numbering needs identity
+    private static boolean contains(ArrayList<Term> seen, Term term) {
+        for (int i = seen.size() - 1; i >= 0; i--) {
+            if (seen.get(i) == term) return true;
+        }
+        return false;
+    }
+
     private String toStringAll(ArrayList<Integer> v) {
         v.add(instanceNum);
         String s = toString();
@@ -1819,7 +1960,8 @@ class Pretokenizer implements Serializable {
     }
 
     int flags(int def) {
-        return flagsChanged ? flags : def;
+        //inline flags can't turn off code points, which are only set from outside the pattern
+        return flagsChanged ? flags | def & (REFlags.CODEPOINTS | Term.PAIRS_FLAG) : def;
     }
 
     void next() throws PatternSyntaxException {
@@ -197,4 +197,13 @@ public class IntBitSet {
         return new IntBitSet(data);
     }
 
+    /**
+     * Gets the 8 ints that store this set's bits, with bit 0 as the lowest bit of the first int; the inverse of
+     * {@link #IntBitSet(int[])}.
+     * @return a new int array that holds a copy of this set's bits
+     */
+    public int[] toIntArray() {
+        return Arrays.copyOf(data, 8);
+    }
+
 }
@@ -1,11 +1,21 @@
 package regexodus;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
+import regexodus.ds.CharBitSet;
 import regexodus.ds.IntBitSet;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.PI;
 
@@ -652,4 +662,1252 @@ public class BasicTest {
             }
         }
     }
+
+    @Test
+    public void testDfaFindsSameMatchesAsBacktracking() {
+        String[] patterns = {"abc", "a[bc]+d", "^ab*", "x$", "(?:ab|a)c", "a.*?b", "[a-c]{2,4}d",
+                "(?:ab){2,3}", "(a|b)*c", "colou?r", "\\d+\\.\\d*", "[^a]b\\z", "(?:x|yz){0,2}$",
+                "\u00e9+", "A[B-D]"};
+        String[] targets = {"", "abc", "xabcx", "abbbcd", "aacbd", "ab", "x\n", "x\r\n", "x\n\n",
+                "ababab", "aabbc", "color colour", "12.5 and 3.", "cb", "\u00c9\u00e9", "abcdabcabd",
+                "ab\nyz", "xyzx", "bbbbbbbbbbbbbbbbbbbbbbbbc", "aBcd"};
+        for(String flags : new String[]{"", "i", "s"}) {
+            for (String ps : patterns) {
+                Pattern withDfa = new Pattern(ps, flags), without = new Pattern(ps, flags).setDfaMemoryLimit(0);
+                Assert.assertNull(without.dfa);
+                for (String t : targets) {
+                    Matcher m1 = withDfa.matcher(t), m2 = without.matcher(t);
+                    Assert.assertEquals(ps + " matching " + t, m2.matches(), m1.matches());
+                    m1.setTarget(t);
+                    m2.setTarget(t);
+                    while (true) {
+                        boolean f2 = m2.find();
+                        Assert.assertEquals(ps + " finding in " + t, f2, m1.find());
+                        if (!f2) break;
+                        Assert.assertEquals(ps + " finding in " + t, m2.group(), m1.group());
+                        Assert.assertEquals(ps + " finding in " + t, m2.start(), m1.start());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDfaStartsOverWhenOutOfMemory() {
+        // a tiny budget forces the state cache to be dropped and rebuilt, and eventually turns the DFA off
+        Pattern small = new Pattern("[a-z]{3,9}\\d").setDfaMemoryLimit(4000);
+        Assert.assertNotNull(small.dfa);
+        Matcher m = small.matcher("the quick brown fox jumps over the lazy dog42 fizz9");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("dog4", m.group());
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("fizz9", m.group());
+        Assert.assertFalse(m.find());
+    }
+
+    @Test
+    public void testNoDfaForBackreferences() {
+        Assert.assertNull(new Pattern("(a)\\1").dfa);
+        Assert.assertTrue(new Pattern("(a)\\1").matcher("baab").find());
+    }
+
+    @Test
+    public void testLinearFindsSameGroupsAsBacktracking() {
+        String[] patterns = {"(a|ab)(c|bcd)(d*)", "(a+)(b*?)", "x(y|yz)*?z", "(ab){2,3}?c", "((a)|b)+", "\\bab\\b",
+                "^(\\w+)\\s*=\\s*(\\d+)$", "(?:ab|c){2,4}d", "a{2,3}?", "([^ab]+)(b|$)", "a??", "x*", "(b|c)*?",
+                "\\b(b|c)*?", "b?"};
+        String[] targets = {"", "abcd", "abbcdd", "xyzyz", "ababc ababababc", "aab ab abab", "key = 42", "x=1\n",
+                "abccd cd", "aaaaa", "xyzab"};
+        for (String ps : patterns) {
+            Pattern linear = new Pattern(ps, REFlags.UNICODE | REFlags.LINEAR), backtracking = new Pattern(ps);
+            Assert.assertNotNull(linear.pike);
+            for (String t : targets) {
+                Matcher m1 = linear.matcher(t), m2 = backtracking.matcher(t);
+                Assert.assertEquals(ps + " matching " + t, m2.matches(), m1.matches());
+                m1.setTarget(t);
+                m2.setTarget(t);
+                while (true) {
+                    boolean f2 = m2.find();
+                    Assert.assertEquals(ps + " finding in " + t, f2, m1.find());
+                    if (!f2) break;
+                    for (int g = 0; g < m2.groupCount(); g++) {
+                        Assert.assertEquals(ps + " group " + g + " in " + t, m2.group(g), m1.group(g));
+                        Assert.assertEquals(ps + " group " + g + " in " + t, m2.start(g), m1.start(g));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLinearDoesNotBacktrackExponentially() {
+        // exponential for a backtracker, but not here; 2^60 steps would never finish
+        StringBuilder sb = new StringBuilder(60);
+        for (int i = 0; i < 60; i++) {
+            sb.append('a');
+        }
+        Pattern evil = new Pattern("(a|aa)*b", REFlags.LINEAR).setDfaMemoryLimit(0);
+        Assert.assertFalse(evil.matcher(sb).find());
+        Assert.assertFalse(evil.matcher(sb).matches());
+        sb.append('b');
+        Assert.assertTrue(evil.matcher(sb).matches());
+    }
+
+    @Test
+    public void testLinearRejectsBackreferences() {
+        try {
+            new Pattern("(a)\\1", REFlags.LINEAR);
+            Assert.fail("backreferences shouldn't compile in linear mode");
+        } catch (PatternSyntaxException expected) {
+        }
+    }
+
+    @Test
+    public void testLinearEmptyMatches() {
+        //after an empty match, the backtracker still tries a longer match at the same place, and then stops at the end
+        Matcher m = new Pattern("a??", REFlags.LINEAR).matcher("ba");
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) sb.append('[').append(m.start()).append(',').append(m.end()).append(']');
+        Assert.assertEquals("[0,0][1,1][1,2][2,2]", sb.toString());
+        m = new Pattern("x?", REFlags.LINEAR).matcher("ab");
+        int count = 0;
+        while (m.find()) count++;
+        Assert.assertEquals(3, count);
+        Assert.assertEquals("XaX", new Pattern("b?", REFlags.LINEAR).replacer("X").replace("ab"));
+        Assert.assertEquals("XbX", new Pattern("a*", REFlags.LINEAR).replacer("X").replace("ab"));
+        String text = "ab cb bcd bb c";
+        for (String regex : new String[]{"(b|c)*?", "\\b(b|c)*?", "x*", ""}) {
+            for (int flags : new int[]{0, REFlags.IGNORE_CASE | REFlags.MULTILINE}) {
+                Assert.assertEquals(regex, new Pattern(regex, flags).replacer("<$&>").replace(text),
+                        new Pattern(regex, flags | REFlags.LINEAR).replacer("<$&>").replace(text));
+            }
+        }
+    }
+
+    @Test
+    public void testFindRootIsUsed() {
+        Assert.assertEquals(Term.FIND, new Pattern("a[bc]").root.type);
+        Assert.assertEquals(Term.FIND, new Pattern("(a)[bc]").root.type);
+        Assert.assertEquals(Term.FIND, new Pattern("..x").root.type);
+        Assert.assertEquals(Term.FIND, new Pattern("^a\\d").root.type);
+        Pattern unoptimized = new Pattern("\\w*x");
+        Assert.assertSame(unoptimized.root0, unoptimized.root);
+    }
+
+    @Test
+    public void testFindRootFindsSameMatches() {
+        String[] patterns = {"(a)b", "(?:ab)+c", "^abc", "a.b", "\\d+x", "[abc]{2,}d", "(x|y)z", "a+?b", "(b)\\1",
+                "\\Gab", "x*a", "ab$", "\\bcd", "(ab)|c", "a{2}(b)"};
+        String[] targets = {"", "ab", "xaab", "abcabc", "a\nb axb", "12x 3x", "aabbccd", "xz yz", "aaab", "bb abb",
+                "ababab", "xxxa", "ab\n", "cd bcd", "cab", "AB aab"};
+        for(String flags : new String[]{"", "i"}) {
+            for (String ps : patterns) {
+                Pattern optimized = new Pattern(ps, flags).setDfaMemoryLimit(0),
+                        plain = new Pattern(ps, flags).setDfaMemoryLimit(0);
+                plain.root = plain.root0;
+                for (String t : targets) {
+                    Matcher m1 = optimized.matcher(t), m2 = plain.matcher(t);
+                    while (true) {
+                        boolean f2 = m2.find();
+                        Assert.assertEquals(ps + " finding in " + t, f2, m1.find());
+                        if (!f2) break;
+                        for (int g = 0; g < m2.groupCount(); g++) {
+                            Assert.assertEquals(ps + " group " + g + " in " + t, m2.start(g), m1.start(g));
+                            Assert.assertEquals(ps + " group " + g + " in " + t, m2.end(g), m1.end(g));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindRootWithMissingGroup() {
+        //a backreference to a group that doesn't exist never matches, even when the search starts with it
+        for (String ps : new String[]{"\\1", "\\1+?c{0,2}", "\\B^\\1\\w{1,3}?"}) {
+            for (String t : new String[]{"", "abc", "cc cc"}) {
+                Assert.assertFalse(ps + " finding in " + t, new Pattern(ps).matcher(t).find());
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralSearchRoot() {
+        Pattern log = new Pattern("\\d+ ERROR: .*");
+        Assert.assertEquals(Term.FIND_LITERAL, log.root.type);
+        FindLiteral lit = (FindLiteral) log.root;
+        Assert.assertEquals(" ERROR: ", new String(lit.literal));
+        Assert.assertEquals(1, lit.minCount);
+        Assert.assertEquals(-1, lit.maxCount);
+        Pattern fixed = new Pattern("[xy]\\d(ab)cd");
+        Assert.assertEquals("abcd", new String(((FindLiteral) fixed.root).literal));
+        Assert.assertEquals(2, fixed.root.maxCount);
+    }
+
+    @Test
+    public void testCaselessLiteralSearch() {
+        //caseless patterns search for the folded literal, over every case it could appear in
+        Pattern caseless = new Pattern("\\d+ ERROR: .*", "i");
+        Assert.assertEquals(Term.FIND_LITERAL, caseless.root.type);
+        Assert.assertEquals(" error: ", new String(((FindLiteral) caseless.root).literal));
+        Matcher found = caseless.matcher("6 fine\n7 ErRoR: x");
+        Assert.assertTrue(found.find());
+        Assert.assertEquals("7 ErRoR: x", found.group());
+    }
+
+    @Test
+    public void testLiteralSearchFindsSameMatches() {
+        String[] patterns = {"abc", "(ab)c", "\\d+ ab: .*", "x.ab", "[xy]{1,3}abc", "a*bcd", "(?:ab)+cd", "ab\\bcd",
+                "abc$", "\\w+ab\\w*ab", "b.{2,}ab", "(a)bc\\1", "x?abab", "\\d\\dab", "[xy]+kab"};
+        String[] targets = {"", "abc", "xabcabc", "12 ab: x\n3 ab: y", "xyab xab", "yyyabc", "aaabcd", "ababcdcd",
+                "ab cd abcd", "abcabc", "zab zzabab", "bxxab", "abcaabca", "12ab 3ab", "XABCAbc aBcD ABAB x\u212aAB",
+                "Y\u212aab xKAB yyKaB", "12 AB: X\n3 Ab: y"};
+        for (String ps : patterns) for (String flags : new String[]{"", "i"}) {
+            Pattern optimized = new Pattern(ps, flags), plain = new Pattern(ps, flags).setDfaMemoryLimit(0);
+            plain.root = plain.root0;
+            for (String t : targets) {
+                Matcher m1 = optimized.matcher(t), m2 = plain.matcher(t);
+                while (true) {
+                    boolean f2 = m2.find();
+                    Assert.assertEquals(ps + " finding in " + t, f2, m1.find());
+                    if (!f2) break;
+                    Assert.assertEquals(ps + " finding in " + t, m2.start(), m1.start());
+                    Assert.assertEquals(ps + " finding in " + t, m2.end(), m1.end());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralSearchInLongText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(" INFO: nothing to see here, carry on\n");
+        }
+        sb.append("99 ERROR: something broke\n");
+        Matcher m = new Pattern("\\d+ ERROR: .*").matcher(sb.toString());
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("99 ERROR: something broke", m.group());
+        Assert.assertEquals(sb.length() - 26, m.start());
+    }
+
+    @Test
+    public void testReplaceTableMatchesAlternation() {
+        Random random = new Random(0x5EED);
+        String[] targets = {"", "a", "abcabc", "aabbccabcab", "cbacbacba", "xaxbxcx", "abababababc"};
+        for (int n = 0; n < 300; n++) {
+            String[] pairs = new String[2 + random.nextInt(8) * 2];
+            for (int i = 0; i < pairs.length; i += 2) {
+                char[] key = new char[random.nextInt(n % 10 == 0 ? 4 : 3) + (n % 10 == 0 ? 0 : 1)];
+                for (int j = 0; j < key.length; j++) {
+                    key[j] = (char) ('a' + random.nextInt(3));
+                }
+                pairs[i] = new String(key);
+                pairs[i + 1] = "<" + i + ">";
+            }
+            Replacer fast = Replacer.makeTable(pairs), slow = Replacer.makeTable(pairs);
+            Assert.assertNotNull(fast.getPattern().table);
+            slow.getPattern().parse();
+            slow.getPattern().table = null;
+            for (String t : targets) {
+                Assert.assertEquals(Arrays.toString(pairs) + " replacing in " + t, slow.replace(t), fast.replace(t));
+            }
+        }
+    }
+
+    @Test
+    public void testReplaceTableWithManyKeys() {
+        String[] pairs = new String[4000];
+        for (int i = 0; i < pairs.length; i += 2) {
+            pairs[i] = "word" + i;
+            pairs[i + 1] = "W" + i;
+        }
+        Replacer fast = Replacer.makeTable(pairs), slow = Replacer.makeTable(pairs);
+        slow.getPattern().parse();
+        slow.getPattern().table = null;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i += 3) {
+            sb.append("some word").append(i * 2).append(' ');
+        }
+        String text = sb.toString();
+        String replaced = fast.replace(text);
+        Assert.assertEquals(slow.replace(text), replaced);
+        Assert.assertTrue(replaced.startsWith("some W0 some W6 "));
+    }
+
+    @Test
+    public void testReplaceTableParsesOnlyWhenNeeded() {
+        Replacer table = Replacer.makeTable("cat", "dog", "dog", "cat", "cow", "ox");
+        Pattern p = table.getPattern();
+        //searching with the table alone never needs the alternation parsed, but matching the whole text does
+        Assert.assertEquals("a dog, a cat and an ox", table.replace("a cat, a dog and an cow"));
+        Assert.assertNull(p.root);
+        Assert.assertEquals("(?>\\Qcat\\E|\\Qdog\\E|\\Qcow\\E)", p.toString());
+        Assert.assertTrue(p.matches("dog"));
+        Assert.assertFalse(p.matches("dog "));
+        Assert.assertNotNull(p.root);
+        Assert.assertEquals("a dog, a cat and an ox", table.replace("a cat, a dog and an cow"));
+    }
+
+    @Test
+    public void testPatternSetFindsSamePatterns() {
+        Pattern[] patterns = {Pattern.compile("abc"), Pattern.compile("(?i)ABC"), Pattern.compile("^b"),
+                Pattern.compile("c$"), Pattern.compile("(a|b)\\1"), Pattern.compile("x{2,3}y"),
+                Pattern.compile("(?:ab){2}"), Pattern.compile("\\bcab"), Pattern.compile("[^abc]+"),
+                Pattern.compile("a.*z"), Pattern.compile("(?:a|bc)+d"), Pattern.compile("")};
+        PatternSet set = new PatternSet(patterns);
+        String[] targets = {"", "abc", "ABC", "bab", "aab", "xxy", "xxxxy", "ababc", "c cab", "abz\n", "abcbcd",
+                "a\nz", "bc\r\n", "q"};
+        for (String t : targets) {
+            boolean any = false;
+            StringBuilder expected = new StringBuilder(), actual = new StringBuilder();
+            Matcher[] ms = set.findMatches(t);
+            for (int i = 0; i < patterns.length; i++) {
+                Matcher m = patterns[i].matcher(t);
+                if (m.find()) {
+                    any = true;
+                    expected.append(i).append(' ');
+                    Assert.assertNotNull(ms[i]);
+                    Assert.assertEquals(m.start(), ms[i].start());
+                    Assert.assertEquals(m.end(), ms[i].end());
+                } else Assert.assertNull(ms[i]);
+            }
+            for (int i : set.findAll(t)) {
+                actual.append(i).append(' ');
+            }
+            Assert.assertEquals("finding in " + t, expected.toString(), actual.toString());
+            Assert.assertEquals(any, set.findsAny(t));
+        }
+    }
+
+    @Test
+    public void testPatternSetWithRepeatedPatterns() {
+        Pattern abc = Pattern.compile("abc");
+        PatternSet twice = new PatternSet(abc, Pattern.compile("(a|b)\\1"), abc);
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, twice.findAll("aabc"));
+        Assert.assertFalse(new PatternSet("q{3}", "z$").findsAny("qqz "));
+    }
+
+    @Test
+    public void testPatternSetWithManyPatterns() {
+        Pattern[] words = new Pattern[60];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Pattern.compile("(?i)\\d{2}w" + Integer.toString(i * 7919, 36) + "[aeiou]+");
+        }
+        PatternSet set = new PatternSet(words);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 1 << 16; i++) {
+            sb.append(i).append("W").append(Integer.toString(i * 131, 36)).append("OU ");
+        }
+        String text = sb.toString();
+        int[] found = set.findAll(text);
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].matcher(text).find()) Assert.assertEquals(i, found[n++]);
+        }
+        Assert.assertEquals(n, found.length);
+    }
+
+    @Test
+    public void testStreamMatcherFindsSameMatches() throws IOException {
+        String[] patterns = {"\\d+", "[^z]{5,}", "a.*?b", "(a)(b)?c", "x*", "c$", "(?m)^b", "(?:ab|c){2,4}d", "abc|a",
+                "b(?=c)", "\\w+c\\b"};
+        Random random = new Random(0xBEEF);
+        String alphabet = "abcdxz12 \n";
+        for (String ps : patterns) {
+            Pattern p = Pattern.compile(ps);
+            for (int n = 0; n < 20; n++) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = random.nextInt(1000); i > 0; i--) {
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                String text = sb.toString();
+                final Random chunks = new Random(n);
+                //hands out a few chars at a time, like a slow stream would
+                Reader in = new StringReader(text) {
+                    @Override
+                    public int read(char[] cbuf, int off, int len) throws IOException {
+                        return super.read(cbuf, off, Math.min(len, 1 + chunks.nextInt(40)));
+                    }
+                };
+                StreamMatcher sm = new StreamMatcher(p, in, 1);
+                Matcher m = p.matcher(text);
+                while (m.find()) {
+                    Assert.assertTrue(ps + " in " + text, sm.find());
+                    Assert.assertEquals(ps + " in " + text, m.start(), sm.start());
+                    Assert.assertEquals(ps + " in " + text, m.end(), sm.end());
+                    Assert.assertEquals(m.group(), sm.group());
+                    for (int g = 1; g <= m.groupCount(); g++) {
+                        Assert.assertEquals(m.group(g), sm.group(g));
+                    }
+                }
+                Assert.assertFalse(ps + " in " + text, sm.find());
+            }
+        }
+    }
+
+    @Test
+    public void testStreamMatcherOnLongStream() throws IOException {
+        //a long stream that is never held in memory all at once
+        Reader lines = new Reader() {
+            private int line = 0;
+            private String current = "";
+            private int at = 0;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (at == current.length()) {
+                    if (line == 100000) return -1;
+                    current = (line % 1000 == 999 ? "ERROR " : "INFO ") + line++ + "\n";
+                    at = 0;
+                }
+                int n = Math.min(len, current.length() - at);
+                current.getChars(at, at + n, cbuf, off);
+                at += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StreamMatcher sm = Pattern.compile("ERROR (\\d+)").streamMatcher(lines);
+        int count = 0;
+        while (sm.find()) {
+            Assert.assertEquals(String.valueOf(count * 1000 + 999), sm.group(1));
+            count++;
+        }
+        Assert.assertEquals(100, count);
+        Assert.assertEquals(StreamMatcher.DEFAULT_WINDOW, sm.windowCapacity());
+        Assert.assertTrue(sm.windowStart() > 1000000);
+    }
+
+    @Test
+    public void testStreamReplaceSameAsString() throws IOException {
+        String[] patterns = {"\\d+", "[^z]{5,}", "a.*?b", "(a)(b)?c", "x*", "c$", "(?:ab|c){2,4}d", "abc|a"};
+        String[] substitutions = {"<$0>", "", "[$1|$2]", "$0$0"};
+        Random random = new Random(0xFACE);
+        String alphabet = "abcdxz12 \n";
+        for (String ps : patterns) {
+            for (String sub : substitutions) {
+                Replacer replacer = Pattern.compile(ps).replacer(sub);
+                StringBuilder sb = new StringBuilder();
+                for (int i = random.nextInt(2000); i > 0; i--) {
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                String text = sb.toString();
+                StringWriter out = new StringWriter();
+                replacer.replace(new StringReader(text), out, 1);
+                Assert.assertEquals(ps + " with " + sub + " in " + text, replacer.replace(text), out.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testStreamReplaceTable() throws IOException {
+        Replacer table = Replacer.makeTable("cat", "dog", "dog", "cat");
+        StringWriter out = new StringWriter();
+        Assert.assertEquals(2, table.replace(new StringReader("a cat and a dog"), out));
+        Assert.assertEquals("a dog and a cat", out.toString());
+    }
+
+    @Test
+    public void testStreamReplaceWritesBeforeInputEnds() throws IOException {
+        //most of the output has been written by the time the last of the input is read
+        final StringWriter written = new StringWriter();
+        final int[] writtenBeforeEnd = {-1};
+        Reader lines = new Reader() {
+            private int line = 0;
+            private String current = "";
+            private int at = 0;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (at == current.length()) {
+                    if (line == 20000) {
+                        writtenBeforeEnd[0] = written.getBuffer().length();
+                        return -1;
+                    }
+                    current = "line " + line++ + "\n";
+                    at = 0;
+                }
+                int n = Math.min(len, current.length() - at);
+                current.getChars(at, at + n, cbuf, off);
+                at += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Assert.assertEquals(20000, Pattern.compile("line (\\d+)").replacer("#$1").replace(lines, written));
+        Assert.assertTrue(writtenBeforeEnd[0] > written.getBuffer().length() - StreamMatcher.DEFAULT_WINDOW);
+        Assert.assertTrue(written.toString().startsWith("#0\n#1\n"));
+    }
+
+    @Test
+    public void testCharSequenceTargets() {
+        Pattern p = Pattern.compile("b(\\w+)d");
+        String text = "abc abcd xbyzd";
+        CharSequence[] targets = {text, new StringBuilder(text), new StringBuffer(text), CharBuffer.wrap(text)};
+        for (CharSequence t : targets) {
+            Matcher m = p.matcher(t);
+            Assert.assertTrue(m.find());
+            Assert.assertEquals("bcd", m.group());
+            Assert.assertTrue(m.find());
+            Assert.assertEquals("yz", m.group(1));
+            Assert.assertFalse(m.find());
+            m.setTarget(t, 4, 4);
+            Assert.assertTrue(m.find());
+            Assert.assertEquals(1, m.start());
+            Assert.assertEquals("abcd", m.target());
+        }
+    }
+
+    @Test
+    public void testCharBufferTargets() {
+        Pattern p = Pattern.compile("b(\\w+)d");
+        String text = "abc abcd xbyzd";
+        //a heap buffer is searched in place, without copying its chars
+        char[] chars = ("--" + text + "--").toCharArray();
+        CharBuffer buffer = CharBuffer.wrap(chars, 2, text.length()).slice();
+        Matcher m = p.matcher(buffer);
+        Assert.assertSame(chars, m.targetChars());
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(5, m.start());
+        Assert.assertEquals("bcd", m.group());
+        CharBuffer direct = java.nio.ByteBuffer.allocateDirect(text.length() * 2).asCharBuffer();
+        direct.put(text).flip();
+        m = p.matcher(direct);
+        Assert.assertTrue(m.find());
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("byzd", m.group());
+        Assert.assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void testShortTargetsReuseMatcher() {
+        //short inputs, given as Strings and as char arrays
+        Matcher m = Pattern.compile("b(\\w+)d").matcher();
+        for (int i = 0; i < 1000; i++) {
+            String w = "word" + i + " bad";
+            m.setTarget(w);
+            Assert.assertTrue(m.find());
+            Assert.assertEquals("a", m.group(1));
+            char[] a = w.toCharArray();
+            m.setTarget(a, 0, a.length);
+            Assert.assertTrue(m.find());
+            Assert.assertEquals(w.length() - 3, m.start());
+        }
+    }
+
+    @Test
+    public void testDeepBacktracking() {
+        //long enough that the backtracking stack has to grow several times
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(i % 3 == 0 ? 'a' : 'b');
+        }
+        String text = sb.append('c').toString();
+        Matcher m = Pattern.compile("(?:(a)|b)*c").matcher(text);
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(0, m.start());
+        Assert.assertEquals(4998, m.start(1));
+        m = Pattern.compile("^(?:(\\w)\\w)*?(\\w+)c$").matcher(text);
+        Assert.assertTrue(m.matches());
+        Assert.assertEquals(0, m.start(2));
+    }
+
+    @Test
+    public void testBacktrackingRestoresGroups() {
+        //groups and counters are put back as the search backtracks past them
+        Assert.assertEquals("[ab|c]", Pattern.compile("(a|ab)(c|bcd)d").replacer("[$1|$2]").replace("abcd"));
+        Assert.assertEquals("<x>b", Pattern.compile("(?:(a)|(x))+?(?=b)").replacer("<$1$2>").replace("xb"));
+        Matcher m = Pattern.compile("(\\w+)\\s+\\1\\b").matcher("the cat sat sat on the the mat");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("sat", m.group(1));
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("the", m.group(1));
+        Assert.assertFalse(m.find());
+        m = Pattern.compile("(?:(a)|b){2,3}?c").matcher("abbc bac");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(0, m.start());
+        Assert.assertEquals(0, m.start(1));
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(6, m.start(1));
+        m = Pattern.compile("(?=(\\w+))\\w").matcher("ab c");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("ab", m.group(1));
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("b", m.group(1));
+        m = Pattern.compile("(?!(a)b)(a|c)").matcher("abacb");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(2, m.start());
+        Assert.assertNull(m.group(1));
+    }
+
+    @Test
+    public void testBacktrackingResumesAfterEmptyMatch() {
+        //the same empty match position can give more than one match, from what is still on the stack
+        Matcher m = Pattern.compile("a|(?=b)").matcher("ab");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("a", m.group());
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(1, m.start());
+        Assert.assertEquals(1, m.end());
+        Assert.assertFalse(m.find());
+    }
+
+    @Test
+    public void testBacktrackingOverKeyValuePairs() {
+        Pattern p = Pattern.compile("(\\w+)\\s*=\\s*(\\w+|\"[^\"]*\");?(?=\\s|$)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("key").append(i).append(i % 2 == 0 ? " = value" : "=\"quoted value\";").append(i).append(' ');
+        }
+        Matcher m = p.matcher(sb.toString());
+        int count = 0;
+        while (m.find()) {
+            Assert.assertEquals("key" + count * 2, m.group(1));
+            count++;
+        }
+        Assert.assertEquals(500 / 2, count);
+    }
+
+    @Test
+    public void testMatcherPoolResetsMatchers() {
+        Pattern p = Pattern.compile("([a-z]+)@([a-z]+)\\.com");
+        MatcherPool pool = new MatcherPool(p, 2);
+        Matcher a = pool.obtain(), b = pool.obtain();
+        Assert.assertNotSame(a, b);
+        a.setTarget("mail bob@example.com now");
+        Assert.assertTrue(a.find());
+        Assert.assertEquals("bob", a.group(1));
+        pool.free(a);
+        pool.free(b);
+        pool.free(p.matcher());
+        Assert.assertEquals(2, pool.getFree());
+        //a freed Matcher comes back with no target and no state left from its last search
+        Matcher c = pool.obtain();
+        Assert.assertSame(b, c);
+        Assert.assertSame(a, pool.obtain());
+        a.setTarget("nobody@nowhere.org");
+        Assert.assertFalse(a.find());
+        a.setTarget("sue@site.com");
+        Assert.assertTrue(a.matches());
+        Assert.assertEquals("site", a.group(2));
+        try {
+            pool.free(Pattern.compile("x").matcher());
+            Assert.fail("a Matcher for another Pattern was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testPooledPattern() {
+        Pattern p = Pattern.compile("([a-z]+)@([a-z]+)\\.com");
+        Assert.assertFalse(p.isPooled());
+        p.setPooled(true);
+        Assert.assertTrue(p.isPooled());
+        Assert.assertTrue(p.matches("ann@host.com"));
+        Assert.assertFalse(p.matches("ann@host.com!"));
+        Assert.assertTrue(p.startsWith("ann@ho"));
+        Assert.assertArrayEquals(new String[]{"a ", " b"}, p.split("a x@y.com b"));
+        Assert.assertEquals("a <y:x> b", p.replacer("<$2:$1>").replace("a x@y.com b"));
+        Assert.assertEquals("<y:x>, z@w.com", p.replacer("<$2:$1>").replace("x@y.com, z@w.com", 1));
+
+        String[] inputs = {"ann@host.com", "not an address", "x@y.com", "a@b.org"};
+        int count = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (p.matches(inputs[i & 3])) count++;
+        }
+        Assert.assertEquals(500, count);
+        p.setPooled(false);
+        Assert.assertFalse(p.isPooled());
+    }
+
+    @Test
+    public void testConcurrentCompile() throws InterruptedException {
+        final String[] regexes = {
+                "(\\w+)@(\\w+)\\.com", "\\p{InGreek}+", "\\p{Lu}\\p{Ll}*", "[[:alpha:]]+", "(?i)caf\\u00e9|ΣΟΦΊΑ",
+                "(?<=\\d)(\\d{3})+(?!\\d)", "(\\w)\\1", "a{2,5}?b|[^\\s\\p{Nd}]{3}", "\\b(?:north|south)\\b",
+                "[\\p{InCyrillic}&&[^\\p{Lu}]]+", "(?:(x)|y)*z", "\\p{Sc}\\s?\\d+(?:\\.\\d\\d)?"
+        };
+        final String text = "Café ΣΟΦΊΑ σοφία bob@site.com 1234567 $ 12.50 привет Мир aab aaaab north xyz yyxz €3";
+        final String[] expected = new String[regexes.length];
+        for (int i = 0; i < regexes.length; i++) {
+            Pattern p = Pattern.compile(regexes[i]);
+            expected[i] = p.replacer("<$&>").replace(text) + p.toString_d();
+        }
+        final int threadCount = 8, rounds = 200;
+        final AtomicInteger wrong = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int r = 0; r < rounds; r++) {
+                        int i = (r + offset) % regexes.length;
+                        Pattern p = Pattern.compile(regexes[i]);
+                        if (!expected[i].equals(p.replacer("<$&>").replace(text) + p.toString_d()))
+                            wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, wrong.get());
+    }
+
+    @Test
+    public void testPatternCacheKeepsOnSecondMiss() {
+        PatternCache cache = new PatternCache(3);
+        //a regex is only kept the second time it is asked for
+        Pattern once = cache.get("a+b", REFlags.DEFAULT);
+        Assert.assertEquals(0, cache.size());
+        Pattern a = cache.get("a+b", REFlags.DEFAULT);
+        Assert.assertNotSame(once, a);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertSame(a, cache.get("a+b", REFlags.DEFAULT));
+        //the flags are part of what is looked up
+        cache.get("a+b", REFlags.IGNORE_CASE);
+        Assert.assertNotSame(a, cache.get("a+b", REFlags.IGNORE_CASE));
+        Assert.assertTrue(cache.get("a+b", REFlags.IGNORE_CASE).matches("aab"));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(4, cache.getMisses());
+        try {
+            cache.get("(", REFlags.DEFAULT);
+            Assert.fail("an invalid regex was compiled");
+        } catch (PatternSyntaxException expected) {
+        }
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testPatternCacheEvictsLeastRecentlyUsed() {
+        PatternCache cache = new PatternCache(3);
+        for (String regex : new String[]{"a+b", "a+b", "b", "b", "c", "c"}) {
+            cache.get(regex, REFlags.DEFAULT);
+        }
+        Pattern a = cache.get("a+b", REFlags.DEFAULT);
+        Assert.assertEquals(3, cache.size());
+        //using "a+b" again makes "b" the least recently used, so it goes first
+        cache.get("d", REFlags.DEFAULT);
+        cache.get("d", REFlags.DEFAULT);
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertSame(a, cache.get("a+b", REFlags.DEFAULT));
+        long misses = cache.getMisses();
+        cache.get("b", REFlags.DEFAULT);
+        Assert.assertEquals(misses + 1, cache.getMisses());
+        cache.setCapacity(1);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertSame(a, cache.get("a+b", REFlags.DEFAULT));
+    }
+
+    @Test
+    public void testPatternCacheIgnoresOneOffRegexes() {
+        PatternCache cache = new PatternCache(3);
+        cache.get("a+b", REFlags.DEFAULT);
+        Pattern a = cache.get("a+b", REFlags.DEFAULT);
+        //regexes that are only used once don't push out the ones in use
+        for (int i = 0; i < 100; i++) {
+            cache.get("x{" + i + "}", REFlags.DEFAULT);
+        }
+        Assert.assertEquals(0, cache.getEvictions());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertSame(a, cache.get("a+b", REFlags.DEFAULT));
+    }
+
+    @Test
+    public void testCompileCached() {
+        Pattern.compileCached("(\\w+)=(\\d+)");
+        Pattern p = Pattern.compileCached("(\\w+)=(\\d+)");
+        Assert.assertSame(p, Pattern.compileCached("(\\w+)=(\\d+)"));
+        Assert.assertSame(p, PatternCache.global().get("(\\w+)=(\\d+)", REFlags.DEFAULT));
+        String[] rules = new String[300];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = "^/api/v" + (i % 3) + "/(\\w+)/item" + i + "(?:/(\\d+))?$";
+        }
+        int count = 0;
+        for (int r = 0; r < 2; r++) {
+            for (String rule : rules) {
+                if (Pattern.compileCached(rule).matches("/api/v1/users/item7/12")) count++;
+            }
+        }
+        Assert.assertEquals(2, count);
+    }
+
+    @Test
+    public void testSerializeToBytes() throws IOException, ClassNotFoundException {
+        String[] regexes = {
+                "(\\w+)@(\\w+)\\.com", "(?i)hello\\s+world", "\\p{Lu}\\p{Ll}+|[\\p{InGreek}\\d]{2,}",
+                "({name}a+)b\\1", "(?<=\\d)(\\d{3})+(?!\\d)", "^(?m)(?:(x)|y)*z$", "foo.*?bar", "(?>a+)b|c{2,4}?"
+        };
+        String text = "Bob@site.com HELLO  World Ψάρι 42 aab aabaa 1234567\nxyz\nyz foo bar bar aaab ccc";
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex);
+            Pattern q = Pattern.deserializeFromBytes(p.serializeToBytes());
+            Assert.assertEquals(p, q);
+            Assert.assertEquals(p.toString_d(), q.toString_d());
+            Assert.assertEquals(p.replacer("<$&>").replace(text), q.replacer("<$&>").replace(text));
+            Assert.assertEquals(p.groupCount(), q.groupCount());
+
+            java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+            java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes);
+            out.writeObject(p);
+            out.close();
+            Pattern r = (Pattern) new java.io.ObjectInputStream(
+                    new java.io.ByteArrayInputStream(bytes.toByteArray())).readObject();
+            Assert.assertEquals(p.replacer("<$&>").replace(text), r.replacer("<$&>").replace(text));
+        }
+        int count = 0;
+        for (int i = 0; i < 50; i++) {
+            String rule = "^/api/v" + (i % 3) + "/(\\w+)/item" + i + "(?:/(\\d+))?(?:\\?([\\w=&]+))?$";
+            if (Pattern.deserializeFromBytes(Pattern.compile(rule).serializeToBytes())
+                    .matches("/api/v1/users/item7/12")) count++;
+        }
+        Assert.assertEquals(1, count);
+    }
+
+    @Test
+    public void testSerializeNamedGroupsAndFlags() {
+        Pattern named = Pattern.deserializeFromBytes(Pattern.compile("({name}a+)b").serializeToBytes());
+        Matcher m = named.matcher("xaab");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("aa", m.group("name"));
+        Pattern linear = Pattern.deserializeFromBytes(
+                Pattern.compile("(a|aa)*b", REFlags.UNICODE | REFlags.LINEAR).serializeToBytes());
+        Assert.assertEquals(REFlags.UNICODE | REFlags.LINEAR, linear.getFlags());
+        Assert.assertFalse(linear.matcher("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac").find());
+    }
+
+    @Test
+    public void testSerializeReplaceTable() {
+        Replacer table = Replacer.makeTable("cat", "dog", "dog", "cat");
+        Pattern loaded = Pattern.deserializeFromBytes(table.getPattern().serializeToBytes());
+        Assert.assertEquals("a dog and a cat", loaded.replacer(table.getSubstitution()).replace("a cat and a dog"));
+    }
+
+    @Test
+    public void testDeserializeCutOffData() {
+        byte[] data = Pattern.compile("abc").serializeToBytes();
+        try {
+            Pattern.deserializeFromBytes(Arrays.copyOf(data, data.length - 3));
+            Assert.fail("cut-off data was loaded");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testDeserializeDamagedLength() throws IOException, ClassNotFoundException {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes);
+        out.writeObject(Pattern.compile("(\\w+)@(\\w+)\\.com"));
+        out.close();
+        byte[] stream = bytes.toByteArray();
+        //the length of the compiled form is written just before its magic number, "REXb"
+        int at = -1;
+        for (int i = 4; i + 4 <= stream.length && at < 0; i++) {
+            if (stream[i] == 'R' && stream[i + 1] == 'E' && stream[i + 2] == 'X' && stream[i + 3] == 'b') at = i - 4;
+        }
+        Assert.assertTrue(at >= 0);
+        for (int length : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0}) {
+            byte[] damaged = stream.clone();
+            damaged[at] = (byte) (length >>> 24);
+            damaged[at + 1] = (byte) (length >>> 16);
+            damaged[at + 2] = (byte) (length >>> 8);
+            damaged[at + 3] = (byte) length;
+            try {
+                new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(damaged)).readObject();
+                Assert.fail("a Pattern with a damaged length was loaded");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testCodeGenerator() throws Exception {
+        javax.tools.JavaCompiler javac = javax.tools.ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(javac);
+        String[] regexes = {
+                "(\\w+)@(\\w+)\\.(com|org|net)", "\\b(?:north|south|east|west)\\b", "(?i)hello\\s+world",
+                "(\\d{4})-(\\d\\d)-(\\d\\d)", "^(?m)(?:(x)|y)*z$", "a{0,2}?", "foo.*?bar|[^\\p{L}\\s]+"
+        };
+        String text = "Bob@site.com north, NORTHERN east HELLO  World 2016-03-28 foo bar bar aa xyz\nxyz\nyz 42!";
+        java.io.File dir = java.nio.file.Files.createTempDirectory("regexodus").toFile();
+        java.util.List<java.io.File> files = new java.util.ArrayList<java.io.File>();
+        for (int i = 0; i < regexes.length; i++) {
+            java.io.File file = new java.io.File(dir, "Generated" + i + ".java");
+            java.nio.file.Files.write(file.toPath(),
+                    CodeGenerator.generate(Pattern.compile(regexes[i]), "Generated" + i).getBytes("UTF-8"));
+            files.add(file);
+        }
+        javax.tools.StandardJavaFileManager manager = javac.getStandardFileManager(null, null, null);
+        Assert.assertTrue(javac.getTask(null, manager, null,
+                Arrays.asList("-nowarn", "-classpath", System.getProperty("java.class.path"), "-d", dir.getPath()),
+                null, manager.getJavaFileObjectsFromFiles(files)).call());
+        manager.close();
+        java.net.URLClassLoader loader = new java.net.URLClassLoader(new java.net.URL[]{dir.toURI().toURL()},
+                BasicTest.class.getClassLoader());
+        for (int i = 0; i < regexes.length; i++) {
+            Pattern generated = (Pattern) loader.loadClass("Generated" + i).getField("PATTERN").get(null);
+            Pattern p = Pattern.compile(regexes[i]);
+            Assert.assertNotNull(generated.compiled);
+            Assert.assertEquals(p.replacer("<$&>").replace(text), generated.replacer("<$&>").replace(text));
+            Matcher m = p.matcher(text), g = generated.matcher(text);
+            while (m.find()) {
+                Assert.assertTrue(g.find());
+                Assert.assertEquals(m.start(), g.start());
+                Assert.assertEquals(m.end(), g.end());
+                for (int group = 1; group <= m.groupCount(); group++) {
+                    Assert.assertEquals(m.group(group), g.group(group));
+                }
+            }
+            Assert.assertFalse(g.find());
+            Assert.assertEquals(p.matcher("2016-03-28").matches(), generated.matcher("2016-03-28").matches());
+        }
+        loader.close();
+    }
+
+    @Test
+    public void testCodeGeneratorRejectsBackreferences() {
+        try {
+            CodeGenerator.generate(Pattern.compile("(a+)b\\1"), "Backreference");
+            Assert.fail("a backreference was turned into source");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testBytecodeCompilerFindsSameGroups() {
+        String[] regexes = {
+                "(\\w+)@(\\w+)\\.(com|org|net)", "\\b(?:north|south|east|west)\\b", "(?i)hello\\s+world",
+                "(\\d{4})-(\\d\\d)-(\\d\\d)", "^(?m)(?:(x)|y)*z$", "a{0,2}?", "foo.*?bar|[^\\p{L}\\s]+",
+                "(?:ab){2,3}|\\p{Lu}\\p{Ll}*?\\B"
+        };
+        String text = "Bob@site.com north, NORTHERN east HELLO  World 2016-03-28 foo bar bar aa xyz\nxyz\nyz 42! abab";
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex), compiled = Pattern.compile(regex);
+            Assert.assertTrue(BytecodeCompiler.compile(compiled));
+            Assert.assertEquals(p.replacer("<$&>").replace(text), compiled.replacer("<$&>").replace(text));
+            Matcher m = p.matcher(text), c = compiled.matcher(text);
+            while (m.find()) {
+                Assert.assertTrue(c.find());
+                Assert.assertEquals(m.start(), c.start());
+                Assert.assertEquals(m.end(), c.end());
+                for (int group = 1; group <= m.groupCount(); group++) {
+                    Assert.assertEquals(m.group(group), c.group(group));
+                }
+            }
+            Assert.assertFalse(c.find());
+        }
+        Assert.assertFalse(BytecodeCompiler.compile(Pattern.compile("(a+)b\\1")));
+    }
+
+    @Test
+    public void testBytecodeCompilerCompilesHotPatterns() {
+        BytecodeCompiler.install(10);
+        try {
+            Pattern hot = Pattern.compile("(\\w+)=(\\d+);"), own = Pattern.compile("\\d+").setCompileThreshold(100);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(hot.matcher("a=1; bb=22;").find());
+                Assert.assertTrue(own.matcher("a=1; bb=22;").find());
+            }
+            Assert.assertNull(hot.compiled);
+            Assert.assertTrue(hot.matcher("a=1; bb=22;").find());
+            Assert.assertNotNull(hot.compiled);
+            Assert.assertNull(own.compiled);
+            Assert.assertEquals("a=<1>; bb=<22>;", hot.replacer("$1=<$2>;").replace("a=1; bb=22;"));
+
+            String line = "key=12345; other=678; last=9;";
+            Pattern interpreted = new Pattern("(\\w+)=(\\d+);").setCompileThreshold(Integer.MAX_VALUE);
+            Matcher m = interpreted.matcher(line), c = hot.matcher(line);
+            while (m.find()) {
+                Assert.assertTrue(c.find());
+                Assert.assertEquals(m.group(2), c.group(2));
+            }
+            Assert.assertFalse(c.find());
+            Assert.assertNull(interpreted.compiled);
+        } finally {
+            BytecodeCompiler.uninstall();
+        }
+    }
+
+    @Test
+    public void testProgramFindsSameGroupsAsLinear() {
+        String[] regexes = {
+                "(\\w+)@(\\w+)\\.(com|org|net)", "\\b(?:north|south|east|west)\\b", "(?i)hello\\s+world",
+                "(\\d{4})-(\\d\\d)-(\\d\\d)", "^(?m)(?:(x)|y)*z$", "(a|b){1,3}?c", "[^\\p{L}\\s]+", "(?:ab){2,3}"
+        };
+        String text = "Bob@site.com north, NORTHERN east HELLO  World 2016-03-28 abc bbbc xyz\nxyz\nyz 42! abab";
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex).setUseProgram(true), linear = new Pattern(regex, REFlags.LINEAR);
+            Assert.assertTrue(p.isUsingProgram());
+            Assert.assertNotNull(p.program());
+            Assert.assertEquals(linear.replacer("<$&>").replace(text), p.replacer("<$&>").replace(text));
+            Matcher m = linear.matcher(text), c = p.matcher(text);
+            while (m.find()) {
+                Assert.assertTrue(c.find());
+                for (int group = 0; group <= m.groupCount(); group++) {
+                    Assert.assertEquals(m.group(group), c.group(group));
+                }
+            }
+            Assert.assertFalse(c.find());
+        }
+    }
+
+    @Test
+    public void testProgramIsOptIn() {
+        Assert.assertFalse(Pattern.compile("(\\w+)@(\\w+)\\.com").isUsingProgram());
+        //Patterns that can't be lowered keep backtracking even when asked to use a Program
+        Assert.assertNull(Pattern.compile("(a+)b\\1").program());
+        Assert.assertNull(Pattern.compile("a(?=b)").program());
+        Assert.assertTrue(Pattern.compile("(a+)b\\1").setUseProgram(true).matches("aabaa"));
+    }
+
+    @Test
+    public void testStepLimit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) sb.append('a');
+        String text = sb.toString();
+        //the lookahead keeps a search from remembering where it failed, so only the limits can stop it
+        Pattern p = new Pattern("(?=a)(a+)+b").setDfaMemoryLimit(0).setStepLimit(100000);
+        Assert.assertEquals(100000, p.getStepLimit());
+        Matcher m = p.matcher(text);
+        try {
+            m.find();
+            Assert.fail("step limit not reached");
+        } catch (MatchLimitException e) {
+            Assert.assertFalse(e.isTimeout());
+        }
+        //the Matcher can be used again afterwards
+        m.setTarget(text + "b");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(text + "b", m.group(0));
+        m.setStepLimit(5);
+        m.setTarget("xxab");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals("ab", m.group(0));
+    }
+
+    @Test
+    public void testTimeLimit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) sb.append('a');
+        Matcher m = new Pattern("(?=a)(a+)+b").setDfaMemoryLimit(0).matcher(sb);
+        m.setTimeLimit(20);
+        try {
+            m.find();
+            Assert.fail("time limit not reached");
+        } catch (MatchLimitException e) {
+            Assert.assertTrue(e.isTimeout());
+        }
+    }
+
+    @Test
+    public void testLimitsNotReachedChangeNothing() {
+        Matcher limited = Pattern.compile("(\\w+)@(\\w+)\\.(com|org|net)").matcher(), plain = limited.pattern().matcher();
+        limited.setStepLimit(Integer.MAX_VALUE);
+        limited.setTimeLimit(60000);
+        String mail = "bob@site.com, alice@example.org or nobody@nowhere.nah";
+        limited.setTarget(mail);
+        plain.setTarget(mail);
+        while (plain.find()) {
+            Assert.assertTrue(limited.find());
+            Assert.assertEquals(plain.group(0), limited.group(0));
+            Assert.assertEquals(plain.group(2), limited.group(2));
+        }
+        Assert.assertFalse(limited.find());
+    }
+
+    @Test
+    public void testMemoizedSearchesFailQuickly() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) sb.append(i % 50 == 49 ? ' ' : 'a');
+        String text = sb.toString(), failing = text + '!';
+        String[] regexes = {"(a+)+b", "(a|aa)*c", "^(\\w+\\s?)*$", "(?:a|a?)+?x"};
+        for (String regex : regexes) {
+            Pattern p = new Pattern(regex).setDfaMemoryLimit(0);
+            Assert.assertFalse(p.matcher(failing).find());
+            //a step limit makes this use the backtracker, which remembers failures the same way
+            Matcher limited = p.matcher(failing);
+            limited.setStepLimit(10000000);
+            Assert.assertFalse(limited.find());
+            Assert.assertTrue(p.matcher(text + "abcx").find());
+        }
+    }
+
+    @Test
+    public void testMemoizedSearchFindsSameGroups() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) sb.append(i % 50 == 49 ? ' ' : 'a');
+        Matcher m = new Pattern("(a|aa)*c").setDfaMemoryLimit(0).matcher(sb + "aac");
+        Assert.assertTrue(m.find());
+        Assert.assertEquals(sb.length(), m.start());
+        Assert.assertEquals("a", m.group(1));
+    }
+
+    @Test
+    public void testCategoryLookupMatchesBitSets() {
+        for (Category cat : Category.categories.values()) {
+            CharBitSet all = cat.decompress();
+            for (int c = 0; c <= 0xFFFF; c++) {
+                Assert.assertEquals(all.contains((char) c), cat.contains((char) c));
+                Assert.assertEquals(all.test((char) c), cat.test((char) c));
+            }
+        }
+    }
+
+    @Test
+    public void testCategoryShortcuts() {
+        Assert.assertTrue(Category.isWord('_'));
+        Assert.assertTrue(Category.isWhitespace('\u3000'));
+        Assert.assertFalse(Category.isLetter('\uFFFF'));
+        int words = 0;
+        for (int c = 0; c <= 0xFFFF; c++) {
+            if (Category.isWord((char) c)) words++;
+        }
+        Assert.assertEquals(Category.Word.length, words);
+    }
+
+    @Test
+    public void testNamedClassSpellings() {
+        //named classes are built the first time a pattern uses them, under any of their spellings
+        String greek = "\u03b1\u03b2\u03b3", latin = "abc";
+        for (String name : new String[]{"Greek", "InGreek", "GREEK", "IsGreek"}) {
+            Pattern p = Pattern.compile("\\p{" + name + "}+");
+            Assert.assertTrue(p.matches(greek));
+            Assert.assertFalse(p.matches(latin));
+        }
+        for (String name : new String[]{"Ll", "LowercaseLetter", "Lowercase_Letter", "lowercase-letter"}) {
+            Pattern p = Pattern.compile("[\\p{" + name + "}]+");
+            Assert.assertTrue(p.matches(greek + latin));
+            Assert.assertFalse(p.matches("ABC"));
+        }
+        Assert.assertTrue(Pattern.compile("a\\p{Unassigned}").matches("a\u0378"));
+        Assert.assertTrue(Pattern.compile("\\p{ASCII}+\\P{ALL}?").matches(latin));
+    }
+
+    @Test
+    public void testUnknownNamedClass() {
+        try {
+            Pattern.compile("\\p{NoSuchBlock}");
+            Assert.fail("an unknown class name should not compile");
+        } catch (PatternSyntaxException expected) {
+        }
+    }
+
+    @Test
+    public void testCaseTablesBuiltOnFirstUse() {
+        Assert.assertEquals('a', Category.caseFold('A'));
+        Assert.assertEquals('\u00c5', Category.caseUp('\u00e5'));
+        Assert.assertEquals('k', Category.caseDown('\u212a'));
+    }
+
+    @Test
+    public void testCaseTablesAgreeWithCharacter() {
+        for (char c = 0; c < 256; c++) {
+            Assert.assertEquals(Character.toLowerCase(c), Category.caseFold(c));
+            Assert.assertEquals(Character.toUpperCase(c), Category.caseUp(c));
+        }
+        Assert.assertEquals('\u0434', Category.caseFold('\u0414'));
+        Assert.assertEquals('\u03a3', Category.caseUp('\u03c2'));
+        Assert.assertEquals('\uff41', Category.caseDown('\uff21'));
+        Assert.assertEquals('\u4e00', Category.caseUp('\u4e00'));
+    }
+
+    @Test
+    public void testCompactCaseTables() {
+        for (int c = 0; c < 65536; c++) {
+            Assert.assertEquals(Category.caseDown((char) c), Category.caseDownCompact((char) c));
+            Assert.assertEquals(Category.caseUp((char) c), Category.caseUpCompact((char) c));
+        }
+        //pages with the same deltas must be shared, or the tables grow back toward a full char[65536]
+        for (char[][] pages : new char[][][]{Casing.LowerPages.PAGES, Casing.UpperPages.PAGES}) {
+            IdentityHashMap<char[], Boolean> distinct = new IdentityHashMap<char[], Boolean>();
+            for (char[] page : pages) distinct.put(page, Boolean.TRUE);
+            Assert.assertTrue(distinct.size() < 24);
+        }
+    }
+
+    @Test
+    public void testCodePointsMatchSurrogatePairs() {
+        //U+1F600 and U+1F603 are emoji (So), U+1D400 is a math letter (Lu)
+        String grin = "\uD83D\uDE00", smile = "\uD83D\uDE03", bold = "\uD835\uDC00";
+        String text = "a" + grin + "b" + smile + "c";
+        int cp = REFlags.CODEPOINTS;
+        Assert.assertEquals("<a><" + grin + "><b><" + smile + "><c>", new Pattern(".", cp).replacer("<$&>").replace(text));
+        Assert.assertEquals("a<" + grin + "b" + smile + "c>", new Pattern("[^a]+", cp).replacer("<$&>").replace(text));
+        Assert.assertEquals("a<>b<>c", new Pattern("\\p{So}", cp).replacer("<>").replace(text));
+        Assert.assertEquals("a<>b" + smile + "c", new Pattern("\\x{1F600}+", cp).replacer("<>").replace(text));
+        Assert.assertEquals("a<><><>c", new Pattern("[\\x{1F600}-\\x{1F64F}b]", cp).replacer("<>").replace(text));
+        Assert.assertEquals("a<>b" + smile + "c", new Pattern(grin, cp).replacer("<>").replace(text));
+        Assert.assertTrue(new Pattern("\\w+", cp | REFlags.UNICODE).matches("x" + bold + "y"));
+        Assert.assertTrue(new Pattern("A.B", cp | REFlags.IGNORE_CASE).matches(text.substring(0, 4).toUpperCase()));
+        Assert.assertTrue(new Pattern(".{2}c", cp | REFlags.LINEAR).matcher(text).find());
+        //half of a pair is never matched on its own, and without the flag each half is a char
+        Assert.assertTrue(new Pattern("a.b", cp).matches(text.substring(0, 4)));
+        Assert.assertFalse(new Pattern("a.b", cp).matches("a\uD83Db"));
+        Assert.assertFalse(new Pattern("a.b", cp).matches("a\uDE00b"));
+        Assert.assertTrue(new Pattern("a..b").matches(text.substring(0, 4)));
+    }
+
+    @Test
+    public void testCodePointsNeedFlag() {
+        try {
+            Pattern.compile("\\x{1F600}");
+            Assert.fail("a code point past the BMP should need REFlags.CODEPOINTS");
+        } catch (PatternSyntaxException expected) {
+        }
+    }
+
+    @Test
+    public void testCodePointsWithoutSurrogates() {
+        //surrogate-free text is searched by the same Term graph as without the flag
+        for (String regex : new String[]{"(\\w+)\\s+(\\1)", "[^abc]+", ".*?o", "\\p{L}{2,3}"}) {
+            String plain = "hello hello world, foo bar";
+            Assert.assertEquals(Pattern.compile(regex).replacer("<$&>").replace(plain),
+                    new Pattern(regex, REFlags.CODEPOINTS).replacer("<$&>").replace(plain));
+        }
+    }
+
+    @Test
+    public void testAstralCategories() {
+        Assert.assertTrue(Category.So.containsCodePoint(0x1F600));
+        Assert.assertTrue(Category.Lu.containsCodePoint(0x1D400));
+        Assert.assertFalse(Category.Lu.containsCodePoint(0x1F600));
+        Assert.assertTrue(Category.Lu.containsCodePoint('A'));
+    }
+
+    @Test
+    public void testCodePointsInPatternSetAndSerialized() {
+        String text = "a\uD83D\uDE00b\uD83D\uDE03c";
+        Pattern emoji = new Pattern("\\p{So}", REFlags.CODEPOINTS);
+        PatternSet set = new PatternSet(emoji, Pattern.compile("b"));
+        Assert.assertArrayEquals(new int[]{0, 1}, set.findAll(text));
+        Assert.assertEquals(1, set.findMatches(text)[0].start());
+        Pattern loaded = Pattern.deserializeFromBytes(emoji.serializeToBytes());
+        Assert.assertEquals("a<>b<>c", loaded.replacer("<>").replace(text));
+        //the twin that matches surrogate pairs is loaded from the data too, and still matches whole pairs
+        Assert.assertNotNull(loaded.astral);
+        Assert.assertNotSame(loaded, loaded.astral);
+        loaded = Pattern.deserializeFromBytes(new Pattern("a.b", REFlags.CODEPOINTS).serializeToBytes());
+        Assert.assertTrue(loaded.matches(text.substring(0, 4)));
+        Assert.assertFalse(loaded.matches("a\uD83Db"));
+    }
 }